@@ -48,6 +48,7 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
   protected AtomicInteger destinationStepCopy;
 
   protected volatile String remoteSlaveServerName;
+  protected volatile RowSetSignal rowSetSignal;
   private ReadWriteLock lock;
 
   public BaseRowSet() {
@@ -136,6 +137,7 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
   @Override
   public void setDone() {
     done.set( true );
+    signalRowAvailable();
   }
 
   /*
@@ -292,6 +294,26 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
     this.remoteSlaveServerName = remoteSlaveServerName;
   }
 
+  @Override
+  public void setRowSetSignal( RowSetSignal rowSetSignal ) {
+    this.rowSetSignal = rowSetSignal;
+  }
+
+  @Override
+  public RowSetSignal getRowSetSignal() {
+    return rowSetSignal;
+  }
+
+  /**
+   * Wake up the reader of this row set in case it's waiting for rows.
+   */
+  protected void signalRowAvailable() {
+    RowSetSignal signal = rowSetSignal;
+    if ( signal != null ) {
+      signal.signal();
+    }
+  }
+
   /**
    * By default we don't report blocking, only for monitored transformations.
    *
@@ -109,6 +109,7 @@ public class BlockingBatchingRowSet extends BaseRowSet implements Comparable<Row
       } catch ( InterruptedException e ) {
         return false;
       }
+      signalRowAvailable();
     }
 
     return true;
@@ -179,6 +180,7 @@ public class BlockingBatchingRowSet extends BaseRowSet implements Comparable<Row
       getArray.offer( inputBuffer );
     }
     putArray.clear();
+    signalRowAvailable();
   }
 
   @Override
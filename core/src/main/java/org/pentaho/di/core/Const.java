@@ -975,6 +975,52 @@ public class Const {
    */
   public static final String KETTLE_BATCHING_ROWSET = "KETTLE_BATCHING_ROWSET";
 
+  /**
+   * Set this variable to N to stop using the lock-free ring buffer row set on hops between two single copy steps.
+   * (default = Y)
+   */
+  public static final String KETTLE_RING_BUFFER_ROWSET = "KETTLE_RING_BUFFER_ROWSET";
+
+  /**
+   * Set this variable to Y to pass rows in columnar batches on hops between two single copy steps. Steps that know
+   * about batches exchange whole batches, all other steps keep reading and writing single rows. (default = N)
+   */
+  public static final String KETTLE_ROW_BATCH_ROWSET = "KETTLE_ROW_BATCH_ROWSET";
+
+  /**
+   * The number of rows in a batch when {@link #KETTLE_ROW_BATCH_ROWSET} is enabled (default = 1000).
+   */
+  public static final String KETTLE_ROW_BATCH_SIZE = "KETTLE_ROW_BATCH_SIZE";
+
+  /**
+   * The default number of rows in a batch, see {@link #KETTLE_ROW_BATCH_SIZE}
+   */
+  public static final int ROW_BATCH_SIZE = 1000;
+
+  /**
+   * The maximum time in milliseconds rows are held back in a partially filled batch before it's passed on anyway, when
+   * {@link #KETTLE_ROW_BATCH_ROWSET} is enabled (default = 100).
+   */
+  public static final String KETTLE_ROW_BATCH_MAX_DELAY = "KETTLE_ROW_BATCH_MAX_DELAY";
+
+  /**
+   * The default maximum delay of a partially filled batch in milliseconds, see {@link #KETTLE_ROW_BATCH_MAX_DELAY}
+   */
+  public static final int ROW_BATCH_MAX_DELAY_MILLIS = 100;
+
+  /**
+   * How the step threads of a normal transformation are created: platform (a new thread per step copy, the default),
+   * pooled (threads re-used from a process wide pool) or virtual (virtual threads, needs a Java runtime supporting
+   * them).
+   */
+  public static final String KETTLE_STEP_THREAD_MODE = "KETTLE_STEP_THREAD_MODE";
+
+  /**
+   * The maximum number of threads in the process wide step thread pool used in pooled step thread mode (default =
+   * 1000). A transformation that needs more step threads than are free in the pool fails to start.
+   */
+  public static final String KETTLE_STEP_THREAD_POOL_SIZE = "KETTLE_STEP_THREAD_POOL_SIZE";
+
   /**
    * Set this variable to limit max number of files the Text File Output step can have open at one time.
    */
@@ -985,6 +1031,12 @@ public class Const {
    */
   public static final String KETTLE_FILE_OUTPUT_MAX_STREAM_LIFE = "KETTLE_FILE_OUTPUT_MAX_STREAM_LIFE";
 
+  /**
+   * The compression used by the Sort Rows step for compressed temporary files: Snappy (fast, the default) or GZip
+   * (smaller files).
+   */
+  public static final String KETTLE_SORT_ROWS_COMPRESSION = "KETTLE_SORT_ROWS_COMPRESSION";
+
   /**
    * Set this variable to Y to disable standard Kettle logging to the console. (stdout)
    */
@@ -1079,6 +1131,152 @@ public class Const {
   public static final String KETTLE_AGGREGATION_MIN_NULL_IS_VALUED = "KETTLE_AGGREGATION_MIN_NULL_IS_VALUED";
   public static final String KETTLE_AGGREGATION_ALL_NULLS_ARE_ZERO = "KETTLE_AGGREGATION_ALL_NULLS_ARE_ZERO";
 
+  /**
+   * The maximum number of groups the Memory Group By step keeps in memory. Rows of new groups are written to temporary
+   * files once the limit is reached. 0 (the default) means no limit.
+   */
+  public static final String KETTLE_MEMORY_GROUP_BY_MAX_GROUPS = "KETTLE_MEMORY_GROUP_BY_MAX_GROUPS";
+
+  /**
+   * The minimum percentage of free memory for the Memory Group By step. Rows of new groups are written to temporary
+   * files when there's less free memory. 0 (the default) means no limit.
+   */
+  public static final String KETTLE_MEMORY_GROUP_BY_FREE_MEMORY_LIMIT = "KETTLE_MEMORY_GROUP_BY_FREE_MEMORY_LIMIT";
+
+  /**
+   * The directory in which the Memory Group By step writes its temporary files.
+   */
+  public static final String KETTLE_MEMORY_GROUP_BY_SPILL_DIRECTORY = "KETTLE_MEMORY_GROUP_BY_SPILL_DIRECTORY";
+
+  /**
+   * Set this variable to Y to have the copies of a Memory Group By step compute partial aggregates which are merged
+   * into a single result, so the input rows don't need to be partitioned by the group fields.
+   */
+  public static final String KETTLE_MEMORY_GROUP_BY_MERGE_COPIES = "KETTLE_MEMORY_GROUP_BY_MERGE_COPIES";
+
+  /**
+   * Set this variable to Y to have the Stream Lookup step keep its lookup rows in a compact binary hash index instead
+   * of a map of rows. This doesn't apply to the sorted list and integer pair options.
+   */
+  public static final String KETTLE_STREAM_LOOKUP_COMPACT_INDEX = "KETTLE_STREAM_LOOKUP_COMPACT_INDEX";
+
+  /**
+   * The maximum size in MB of the compact lookup index of a Stream Lookup step on the heap. Beyond that the index is
+   * written to a memory mapped temporary file. 0 (the default) means no limit.
+   */
+  public static final String KETTLE_STREAM_LOOKUP_MAX_MEMORY = "KETTLE_STREAM_LOOKUP_MAX_MEMORY";
+
+  /**
+   * The directory in which the Stream Lookup step writes the temporary file of its compact lookup index.
+   */
+  public static final String KETTLE_STREAM_LOOKUP_SPILL_DIRECTORY = "KETTLE_STREAM_LOOKUP_SPILL_DIRECTORY";
+
+  /**
+   * The number of distinct keys the Database Lookup step looks up with a single query. Only lookups with "=" conditions
+   * are done in batches. 0 (the default) looks up every row by itself.
+   */
+  public static final String KETTLE_DATABASE_LOOKUP_BATCH_SIZE = "KETTLE_DATABASE_LOOKUP_BATCH_SIZE";
+
+  /**
+   * The number of batches of keys the Database Lookup step looks up at the same time, each with its own connection.
+   * 0 (the default) looks up the batches one after the other with the connection of the step.
+   */
+  public static final String KETTLE_DATABASE_LOOKUP_BATCH_THREADS = "KETTLE_DATABASE_LOOKUP_BATCH_THREADS";
+
+  /**
+   * Set this variable to Y to hand steps an immutable, lock-free copy of the row metadata of their input rows. Steps
+   * which change the row metadata they receive instead of a clone of it will fail with this option. (default = N)
+   */
+  public static final String KETTLE_FROZEN_ROW_META = "KETTLE_FROZEN_ROW_META";
+
+  /**
+   * Set this variable to N to stop keeping an index of the plugin annotations found in the jar files of the plugin
+   * folders. With the index (the default) only new or changed jar files are scanned when the plugin registry starts.
+   */
+  public static final String KETTLE_PLUGIN_INDEX = "KETTLE_PLUGIN_INDEX";
+
+  /**
+   * The file holding the index of the plugin annotations, see {@link #KETTLE_PLUGIN_INDEX} (default =
+   * plugin-index.bin in the Kettle directory)
+   */
+  public static final String KETTLE_PLUGIN_INDEX_FILE = "KETTLE_PLUGIN_INDEX_FILE";
+
+  /**
+   * The number of threads used to register the plugin types when the plugin registry is initialized (default = the
+   * number of processors). Set this variable to 1 to register the plugin types one after the other.
+   */
+  public static final String KETTLE_PLUGIN_REGISTRATION_THREADS = "KETTLE_PLUGIN_REGISTRATION_THREADS";
+
+  /**
+   * The compression used for the sockets between the steps of a clustered transformation when the cluster schema
+   * compresses them: GZIP (default) or Snappy. Snappy sends the rows in frames which are compressed one by one, much
+   * faster than GZIP at a slightly lower compression ratio. The value is taken from the transformation on the master.
+   */
+  public static final String KETTLE_REMOTE_STEP_COMPRESSION = "KETTLE_REMOTE_STEP_COMPRESSION";
+
+  /**
+   * The number of rows the Table Output step sends in a single multi-row INSERT statement, on databases supporting
+   * them. Bulk inserts are not used with step error handling, ignored errors or returned keys. (default = 0: one
+   * statement per row)
+   */
+  public static final String KETTLE_TABLE_OUTPUT_BULK_ROWS = "KETTLE_TABLE_OUTPUT_BULK_ROWS";
+
+  /**
+   * Set this variable to Y to have the Table Output step load PostgreSQL tables with COPY FROM STDIN, under the same
+   * conditions as {@link #KETTLE_TABLE_OUTPUT_BULK_ROWS}. (default = N)
+   */
+  public static final String KETTLE_TABLE_OUTPUT_COPY = "KETTLE_TABLE_OUTPUT_COPY";
+
+  /**
+   * The number of connections a Table Output step inserts rows with, each in its own thread and committing on its own.
+   * Not used with unique connections, returned keys, bulk modes or savepoints for error handling. (default = 1)
+   */
+  public static final String KETTLE_TABLE_OUTPUT_WRITERS = "KETTLE_TABLE_OUTPUT_WRITERS";
+
+  /**
+   * Set this variable to Y to run linear chains of single copy, row by row steps (Select Values, Add Constants,
+   * Calculator, Filter Rows, ...) of a normal transformation in a single thread per chain. (default = N)
+   */
+  public static final String KETTLE_STEP_FUSION = "KETTLE_STEP_FUSION";
+
+  /**
+   * The maximum number of transformations and jobs kept in the process wide cache of files loaded by job entries and
+   * executor steps. A cached file is only loaded again once it changes. (default = 0, no caching)
+   */
+  public static final String KETTLE_META_FILE_CACHE_SIZE = "KETTLE_META_FILE_CACHE_SIZE";
+
+  /**
+   * The number of prepared sub-transformations a Transformation Executor step re-uses for its groups of rows, and the
+   * number of groups it executes at the same time. The sub-transformations run in the single threaded engine. (default
+   * = 0, a new transformation for every group)
+   */
+  public static final String KETTLE_TRANS_EXECUTOR_POOL_SIZE = "KETTLE_TRANS_EXECUTOR_POOL_SIZE";
+
+  /**
+   * Set this variable to N to let a Transformation Executor with a pool of sub-transformations pass on the results of a
+   * group as soon as it's executed, not in the order of the groups. (default = Y)
+   */
+  public static final String KETTLE_TRANS_EXECUTOR_POOL_KEEP_ORDER = "KETTLE_TRANS_EXECUTOR_POOL_KEEP_ORDER";
+
+  /**
+   * The maximum number of result rows passed between transformations and jobs that are kept in memory. Once there are
+   * more, they are written to temporary files and read back one after the other. (default = 0, keep all rows in memory)
+   */
+  public static final String KETTLE_RESULT_ROWS_SPILL_SIZE = "KETTLE_RESULT_ROWS_SPILL_SIZE";
+
+  /**
+   * The directory in which result rows passed between transformations and jobs are written to temporary files.
+   * (default = java.io.tmpdir)
+   */
+  public static final String KETTLE_RESULT_ROWS_SPILL_DIRECTORY = "KETTLE_RESULT_ROWS_SPILL_DIRECTORY";
+
+  /**
+   * The maximum number of threads a job uses to run the job entries it launches in parallel. Entries that can't start
+   * right away are queued, the one with the longest chain of entries after it goes first. (default = 0, a new thread
+   * for every entry)
+   */
+  public static final String KETTLE_JOB_PARALLEL_POOL_SIZE = "KETTLE_JOB_PARALLEL_POOL_SIZE";
+
   /**
    * The name of the variable containing an alternative default timestamp format
    */
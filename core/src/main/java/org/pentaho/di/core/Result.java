@@ -156,7 +156,7 @@ public class Result implements Cloneable {
     result = false;
 
     exitStatus = 0;
-    rows = new ArrayList<RowMetaAndData>();
+    rows = new ResultRows();
     resultFiles = new ConcurrentHashMap<String, ResultFile>();
 
     stopped = false;
@@ -213,10 +213,14 @@ public class Result implements Cloneable {
       Result result = (Result) super.clone();
 
       // Clone result rows and files as well...
-      if ( rows != null ) {
-        List<RowMetaAndData> clonedRows = new ArrayList<RowMetaAndData>();
-        for ( int i = 0; i < rows.size(); i++ ) {
-          clonedRows.add( ( rows.get( i ) ).clone() );
+      // Result rows are only copied once either list changes, the rows themselves are shared.
+      //
+      if ( rows instanceof ResultRows ) {
+        result.setRows( ( (ResultRows) rows ).copy() );
+      } else if ( rows != null ) {
+        List<RowMetaAndData> clonedRows = new ResultRows();
+        for ( RowMetaAndData row : rows ) {
+          clonedRows.add( row.clone() );
         }
         result.setRows( clonedRows );
       }
@@ -511,6 +515,16 @@ public class Result implements Cloneable {
     this.rows = rows;
   }
 
+  /**
+   * Releases the temporary files the result rows were written to and empties the rows. Call this once the result is no
+   * longer used; clones of the result keep their rows.
+   */
+  public void closeRows() {
+    if ( rows instanceof ResultRows ) {
+      ( (ResultRows) rows ).close();
+    }
+  }
+
   /**
    * Returns whether the transformation or job was stopped before completion
    *
@@ -0,0 +1,661 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * The rows of a {@link Result}, passed from one transformation or job to the next. Once more than
+ * {@link Const#KETTLE_RESULT_ROWS_SPILL_SIZE} rows are kept in memory, they are written to a temporary file in the
+ * binary format of {@link RowMetaInterface#writeData(DataOutputStream, Object[])}, in the directory set with
+ * {@link Const#KETTLE_RESULT_ROWS_SPILL_DIRECTORY}. Only the last rows stay on the heap.<br>
+ * <br>
+ * The rows are best read with an iterator, which streams the rows back from the files. Reading them one after the
+ * other with {@link #get(int)} works just as well, other access by index reads part of a file. Changing or removing a
+ * row that was written to a file loads all rows back into memory.<br>
+ * <br>
+ * A {@link #copy()} shares the rows with the original until either one of them changes: new rows go to their own
+ * memory and files. The rows themselves are never copied: code that hands a row on to steps, which can change the
+ * data in place, takes a {@link #cloneData(RowMetaAndData)} first. Like an ArrayList this list isn't thread safe,
+ * copies can be used by different threads.<br>
+ * <br>
+ * {@link #close()} deletes the files once no copy uses them anymore. Files and readers of lists that are garbage
+ * collected without being closed are cleaned up in the background.
+ *
+ * @since 8.3
+ */
+public class ResultRows extends AbstractList<RowMetaAndData> implements Closeable {
+
+  /** The number of rows in a file between two positions we can start reading from */
+  private static final int CHECKPOINT_INTERVAL = 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The row meta index written for a null row */
+  private static final int NULL_ROW = -1;
+
+  private final int spillSize;
+  private final File spillDirectory;
+
+  /** The rows written to files, they come before the rows in memory */
+  private List<Segment> segments = new ArrayList<>();
+  private boolean segmentsShared;
+  private int spilledCount;
+
+  private List<RowMetaAndData> memory = new ArrayList<>();
+  private boolean memoryShared;
+
+  /** Reads the rows in the files for {@link #get(int)} */
+  private SegmentReader cursor;
+
+  /**
+   * Create an empty list which writes rows to files once more than {@link Const#KETTLE_RESULT_ROWS_SPILL_SIZE} rows
+   * are kept in memory.
+   */
+  public ResultRows() {
+    this( Const.toInt( System.getProperty( Const.KETTLE_RESULT_ROWS_SPILL_SIZE ), 0 ) );
+  }
+
+  /**
+   * @param spillSize
+   *          the maximum number of rows kept in memory, 0 or less to keep all rows in memory
+   */
+  public ResultRows( int spillSize ) {
+    this( spillSize, new File( Const.NVL( System.getProperty( Const.KETTLE_RESULT_ROWS_SPILL_DIRECTORY ),
+      System.getProperty( "java.io.tmpdir" ) ) ) );
+  }
+
+  /**
+   * @param spillSize
+   *          the maximum number of rows kept in memory, 0 or less to keep all rows in memory
+   * @param spillDirectory
+   *          the directory in which the rows are written to temporary files
+   */
+  public ResultRows( int spillSize, File spillDirectory ) {
+    this.spillSize = spillSize;
+    this.spillDirectory = spillDirectory;
+  }
+
+  /**
+   * Copy a list of result rows for reading, without copying the rows of a result rows list.
+   *
+   * @param rows
+   *          the rows to copy, can be null
+   * @return a copy of the list or null
+   */
+  public static List<RowMetaAndData> copyOf( List<RowMetaAndData> rows ) {
+    if ( rows == null ) {
+      return null;
+    }
+    if ( rows instanceof ResultRows ) {
+      return ( (ResultRows) rows ).copy();
+    }
+    return new ArrayList<RowMetaAndData>( rows );
+  }
+
+  /**
+   * Copy the data of a row read from a list of result rows, so that it can be changed without changing the rows of
+   * the list or the copies that share them.
+   *
+   * @param row
+   *          the row to copy, can be null
+   * @return a row with the same row meta and a copy of the data, or the given row if it has no data
+   * @throws KettleValueException
+   *           in case the data can't be copied
+   */
+  public static RowMetaAndData cloneData( RowMetaAndData row ) throws KettleValueException {
+    if ( row == null || row.getData() == null ) {
+      return row;
+    }
+    return new RowMetaAndData( row.getRowMeta(), row.getRowMeta().cloneRow( row.getData() ) );
+  }
+
+  /**
+   * Create a copy of this list which shares the rows in memory and in files until either list changes.
+   *
+   * @return the copy
+   */
+  public ResultRows copy() {
+    ResultRows copy = new ResultRows( spillSize, spillDirectory );
+    for ( Segment segment : segments ) {
+      segment.sealed = true;
+      segment.file.references.incrementAndGet();
+    }
+    copy.segments = segments;
+    copy.segmentsShared = true;
+    segmentsShared = true;
+    copy.spilledCount = spilledCount;
+
+    copy.memory = memory;
+    copy.memoryShared = true;
+    memoryShared = true;
+    return copy;
+  }
+
+  @Override
+  public int size() {
+    return spilledCount + memory.size();
+  }
+
+  /**
+   * @return the number of rows which were written to a file
+   */
+  public int getSpilledCount() {
+    return spilledCount;
+  }
+
+  @Override
+  public RowMetaAndData get( int index ) {
+    if ( index < 0 || index >= size() ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+    }
+    if ( index >= spilledCount ) {
+      return memory.get( index - spilledCount );
+    }
+    if ( cursor == null || cursor.nextIndex != index ) {
+      closeCursor();
+      cursor = new SegmentReader( index );
+    }
+    return cursor.next();
+  }
+
+  @Override
+  public boolean add( RowMetaAndData row ) {
+    ownMemory().add( row );
+    modCount++;
+    if ( spillSize > 0 && memory.size() >= spillSize ) {
+      spill();
+    }
+    return true;
+  }
+
+  @Override
+  public void add( int index, RowMetaAndData row ) {
+    if ( index == size() ) {
+      add( row );
+      return;
+    }
+    checkMemoryIndex( index );
+    ownMemory().add( index - spilledCount, row );
+    modCount++;
+  }
+
+  @Override
+  public RowMetaAndData set( int index, RowMetaAndData row ) {
+    checkMemoryIndex( index );
+    return ownMemory().set( index - spilledCount, row );
+  }
+
+  @Override
+  public RowMetaAndData remove( int index ) {
+    checkMemoryIndex( index );
+    modCount++;
+    return ownMemory().remove( index - spilledCount );
+  }
+
+  @Override
+  public void clear() {
+    releaseSegments();
+    memory = new ArrayList<>();
+    memoryShared = false;
+    modCount++;
+  }
+
+  /**
+   * Empties the list and deletes its files, unless a copy still uses them.
+   */
+  @Override
+  public void close() {
+    clear();
+  }
+
+  @Override
+  public Iterator<RowMetaAndData> iterator() {
+    return new Iterator<RowMetaAndData>() {
+      private final int expectedModCount = modCount;
+      private final int expectedSize = size();
+      private SegmentReader reader;
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < expectedSize;
+      }
+
+      @Override
+      public RowMetaAndData next() {
+        if ( modCount != expectedModCount ) {
+          throw new ConcurrentModificationException();
+        }
+        if ( index >= expectedSize ) {
+          throw new NoSuchElementException();
+        }
+        RowMetaAndData row;
+        if ( index < spilledCount ) {
+          if ( reader == null ) {
+            reader = new SegmentReader( index );
+          }
+          row = reader.next();
+          if ( index == spilledCount - 1 ) {
+            reader.close();
+          }
+        } else {
+          row = memory.get( index - spilledCount );
+        }
+        index++;
+        return row;
+      }
+    };
+  }
+
+  /**
+   * Make sure the rows at and after the given index are in memory.
+   */
+  private void checkMemoryIndex( int index ) {
+    if ( index < 0 || index >= size() ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+    }
+    if ( index < spilledCount ) {
+      List<RowMetaAndData> rows = new ArrayList<>( size() );
+      for ( RowMetaAndData row : this ) {
+        rows.add( row );
+      }
+      releaseSegments();
+      memory = rows;
+      memoryShared = false;
+    }
+  }
+
+  private List<RowMetaAndData> ownMemory() {
+    if ( memoryShared ) {
+      memory = new ArrayList<>( memory );
+      memoryShared = false;
+    }
+    return memory;
+  }
+
+  private void releaseSegments() {
+    closeCursor();
+    for ( Segment segment : segments ) {
+      if ( segment.file.references.decrementAndGet() == 0 ) {
+        segment.file.delete();
+      }
+    }
+    segments = new ArrayList<>();
+    segmentsShared = false;
+    spilledCount = 0;
+  }
+
+  private void closeCursor() {
+    if ( cursor != null ) {
+      cursor.close();
+      cursor = null;
+    }
+  }
+
+  /**
+   * Append the rows in memory to the last file, or a new one if that file is shared with a copy.
+   */
+  private void spill() {
+    closeCursor();
+    if ( segmentsShared ) {
+      segments = new ArrayList<>( segments );
+      segmentsShared = false;
+    }
+    Segment segment = segments.isEmpty() ? null : segments.get( segments.size() - 1 );
+    if ( segment == null || segment.sealed ) {
+      segment = new Segment( new SpillFile( spillDirectory ) );
+      segments.add( segment );
+    }
+    segment.write( memory );
+    spilledCount += memory.size();
+    memory = new ArrayList<>();
+    memoryShared = false;
+  }
+
+  /**
+   * A temporary file with rows, shared by the segments of all copies of a list. It's deleted once no list uses it, or
+   * once it's garbage collected.
+   */
+  private static final class SpillFile {
+    private final File file;
+    private final AtomicInteger references = new AtomicInteger( 1 );
+    private final OpenFile openFile;
+    private final Cleanup cleanup;
+
+    /** The row layouts of the rows in the file, only added to by the list which writes to the file */
+    private final List<RowMetaInterface> rowMetas = new CopyOnWriteArrayList<>();
+    private final Map<RowMetaInterface, Integer> rowMetaIndexes = new IdentityHashMap<>();
+    private long length;
+
+    SpillFile( File directory ) {
+      try {
+        file = File.createTempFile( "kettle-result-rows-", ".bin", directory );
+      } catch ( IOException e ) {
+        throw new IllegalStateException( "Unable to create a temporary file for result rows in " + directory, e );
+      }
+      openFile = new OpenFile( file );
+      cleanup = new Cleanup( this, openFile );
+    }
+
+    int indexOf( RowMetaInterface rowMeta ) {
+      Integer index = rowMetaIndexes.get( rowMeta );
+      if ( index == null ) {
+        index = rowMetas.size();
+        rowMetas.add( rowMeta );
+        rowMetaIndexes.put( rowMeta, index );
+      }
+      return index;
+    }
+
+    void delete() {
+      cleanup.clean();
+    }
+  }
+
+  /**
+   * The file of a {@link SpillFile} and the channels reading it. Closes the channels and deletes the file when it's
+   * run, without keeping the spill file itself reachable.
+   */
+  private static final class OpenFile implements Runnable {
+    private final File file;
+    private final Set<FileChannel> channels =
+      Collections.newSetFromMap( new ConcurrentHashMap<FileChannel, Boolean>() );
+
+    OpenFile( File file ) {
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      for ( FileChannel channel : channels ) {
+        closeQuietly( channel );
+      }
+      channels.clear();
+      if ( !file.delete() ) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Closes the channel of a {@link SegmentReader}.
+   */
+  private static final class CloseChannel implements Runnable {
+    private final OpenFile openFile;
+    private final FileChannel channel;
+
+    CloseChannel( OpenFile openFile, FileChannel channel ) {
+      this.openFile = openFile;
+      this.channel = channel;
+    }
+
+    @Override
+    public void run() {
+      openFile.channels.remove( channel );
+      closeQuietly( channel );
+    }
+  }
+
+  private static void closeQuietly( Closeable closeable ) {
+    try {
+      closeable.close();
+    } catch ( IOException e ) {
+      // Ignore, we only read from the file
+    }
+  }
+
+  /**
+   * Runs an action once, either when asked to or after the object it watches is garbage collected. This takes care of
+   * the files of lists and the channels of iterators that are dropped without being closed. Java 8 doesn't have
+   * java.lang.ref.Cleaner yet, so this is a phantom reference with its own daemon thread.
+   */
+  private static final class Cleanup extends PhantomReference<Object> {
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    /** Keeps the references reachable until they're run */
+    private static final Set<Cleanup> PENDING =
+      Collections.newSetFromMap( new ConcurrentHashMap<Cleanup, Boolean>() );
+
+    private static Thread thread;
+
+    private final Runnable action;
+
+    Cleanup( Object referent, Runnable action ) {
+      super( referent, QUEUE );
+      this.action = action;
+      PENDING.add( this );
+      startThread();
+    }
+
+    /**
+     * Run the action, unless it already ran.
+     */
+    void clean() {
+      if ( PENDING.remove( this ) ) {
+        clear();
+        action.run();
+      }
+    }
+
+    private static synchronized void startThread() {
+      if ( thread != null ) {
+        return;
+      }
+      thread = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          while ( true ) {
+            try {
+              ( (Cleanup) QUEUE.remove() ).clean();
+            } catch ( InterruptedException e ) {
+              // Keep cleaning up, the thread runs as long as the JVM
+            } catch ( RuntimeException e ) {
+              // An action that fails mustn't stop the others
+            }
+          }
+        }
+      }, "Kettle result rows cleanup" );
+      thread.setDaemon( true );
+      thread.start();
+    }
+  }
+
+  /**
+   * A range of rows in a file.
+   */
+  private static final class Segment {
+    private final SpillFile file;
+    private final long startOffset;
+    private int count;
+
+    /** The offset of every {@link ResultRows#CHECKPOINT_INTERVAL}th row */
+    private long[] checkpoints = new long[16];
+
+    /** Set once the segment is shared with a copy, rows are only appended to a segment that isn't */
+    private volatile boolean sealed;
+
+    Segment( SpillFile file ) {
+      this.file = file;
+      this.startOffset = file.length;
+    }
+
+    void write( List<RowMetaAndData> rows ) {
+      try ( CountingOutputStream counter = new CountingOutputStream( file.file, file.length );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( counter, BUFFER_SIZE ) ) ) {
+        for ( RowMetaAndData row : rows ) {
+          if ( count % CHECKPOINT_INTERVAL == 0 ) {
+            out.flush();
+            int checkpoint = count / CHECKPOINT_INTERVAL;
+            if ( checkpoint >= checkpoints.length ) {
+              checkpoints = Arrays.copyOf( checkpoints, checkpoints.length * 2 );
+            }
+            checkpoints[checkpoint] = counter.position;
+          }
+          if ( row == null ) {
+            out.writeInt( NULL_ROW );
+          } else {
+            out.writeInt( file.indexOf( row.getRowMeta() ) );
+            row.getRowMeta().writeData( out, row.getData() );
+          }
+          count++;
+        }
+        out.flush();
+        file.length = counter.position;
+      } catch ( IOException | KettleFileException e ) {
+        throw new IllegalStateException( "Unable to write result rows to file " + file.file, e );
+      }
+    }
+  }
+
+  /**
+   * Reads the rows of the segments one after the other, starting at a given row.
+   */
+  private final class SegmentReader {
+    private final List<Segment> readSegments = segments;
+    private int segmentNr;
+    private int rowInSegment;
+    private int nextIndex;
+    private DataInputStream in;
+    private Cleanup cleanup;
+
+    SegmentReader( int index ) {
+      int first = 0;
+      while ( segmentNr < readSegments.size() && first + readSegments.get( segmentNr ).count <= index ) {
+        first += readSegments.get( segmentNr ).count;
+        segmentNr++;
+      }
+      nextIndex = index;
+      open( index - first );
+    }
+
+    private void open( int row ) {
+      Segment segment = readSegments.get( segmentNr );
+      int checkpoint = row / CHECKPOINT_INTERVAL;
+      try {
+        FileChannel channel = FileChannel.open( segment.file.file.toPath(), StandardOpenOption.READ );
+        segment.file.openFile.channels.add( channel );
+        cleanup = new Cleanup( this, new CloseChannel( segment.file.openFile, channel ) );
+        channel.position( segment.checkpoints[checkpoint] );
+        in = new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel ), BUFFER_SIZE ) );
+        rowInSegment = checkpoint * CHECKPOINT_INTERVAL;
+        while ( rowInSegment < row ) {
+          read( segment );
+        }
+      } catch ( IOException e ) {
+        close();
+        throw new IllegalStateException( "Unable to read result rows from file " + segment.file.file, e );
+      }
+    }
+
+    RowMetaAndData next() {
+      Segment segment = readSegments.get( segmentNr );
+      if ( rowInSegment >= segment.count ) {
+        close();
+        segmentNr++;
+        open( 0 );
+        segment = readSegments.get( segmentNr );
+      }
+      nextIndex++;
+      return read( segment );
+    }
+
+    private RowMetaAndData read( Segment segment ) {
+      try {
+        int rowMetaIndex = in.readInt();
+        rowInSegment++;
+        if ( rowMetaIndex == NULL_ROW ) {
+          return null;
+        }
+        RowMetaInterface rowMeta = segment.file.rowMetas.get( rowMetaIndex );
+        return new RowMetaAndData( rowMeta, rowMeta.readData( in ) );
+      } catch ( Exception e ) {
+        close();
+        throw new IllegalStateException( "Unable to read result rows from file " + segment.file.file, e );
+      }
+    }
+
+    void close() {
+      in = null;
+      if ( cleanup != null ) {
+        cleanup.clean();
+        cleanup = null;
+      }
+    }
+  }
+
+  /**
+   * Appends to a file and keeps track of the position in the file.
+   */
+  private static final class CountingOutputStream extends FileOutputStream {
+    private long position;
+
+    CountingOutputStream( File file, long position ) throws IOException {
+      super( file, true );
+      this.position = position;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      super.write( b );
+      position++;
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      super.write( b, off, len );
+      position += len;
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * A lock-free row set for hops with exactly one writing and one reading thread (one step copy on each side of the
+ * hop). Rows are kept in a fixed size ring buffer. The reader and writer only ever touch their own position counter,
+ * so no lock is taken on either side.<br>
+ * <br>
+ * When the buffer is full (or empty) the waiting side spins for a short while, then yields and finally parks. The other
+ * side wakes up a parked thread as soon as it made progress. A thread registers itself as waiting before it checks the
+ * buffer one last time, and the other side moves its position before it looks for a waiting thread. Both are volatile
+ * writes followed by volatile reads, so at least one of the two sides sees the other and no wake-up is lost.<br>
+ * <br>
+ * Do NOT use this row set when more than one thread can put rows into it or read rows from it.
+ *
+ * @since 8.3
+ */
+public class RingBufferRowSet extends BaseRowSet implements Comparable<RowSet>, RowSet {
+
+  /** The number of busy spins before we start yielding */
+  private static final int SPIN_TRIES = 100;
+
+  /** The number of yields before we start parking */
+  private static final int YIELD_TRIES = 10;
+
+  private final Object[][] buffer;
+  private final int mask;
+  private final int capacity;
+
+  /** The next position to read from, only written by the consumer */
+  private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+  /** The next position to write to, only written by the producer */
+  private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+  /** Producer side copy of the head, avoids reading the volatile head on every put */
+  private long headCache;
+
+  /** Consumer side copy of the tail, avoids reading the volatile tail on every get */
+  private long tailCache;
+
+  private volatile Thread waitingProducer;
+  private volatile Thread waitingConsumer;
+
+  private int timeoutPut;
+  private int timeoutGet;
+
+  /**
+   * Create a new ring buffer row set which can hold at least maxSize rows.
+   *
+   * @param maxSize
+   *          the minimum capacity, rounded up to the next power of 2
+   */
+  public RingBufferRowSet( int maxSize ) {
+    super();
+
+    capacity = Math.max( 1, maxSize );
+    int bufferSize = 1;
+    while ( bufferSize < capacity ) {
+      bufferSize <<= 1;
+    }
+    buffer = new Object[bufferSize][];
+    mask = bufferSize - 1;
+
+    timeoutGet = Const.toInt( System.getProperty( Const.KETTLE_ROWSET_GET_TIMEOUT ), Const.TIMEOUT_GET_MILLIS );
+    timeoutPut = Const.toInt( System.getProperty( Const.KETTLE_ROWSET_PUT_TIMEOUT ), Const.TIMEOUT_PUT_MILLIS );
+  }
+
+  @Override
+  public boolean putRow( RowMetaInterface rowMeta, Object[] rowData ) {
+    return putRowWait( rowMeta, rowData, timeoutPut, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public boolean putRowWait( RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu ) {
+    this.rowMeta = rowMeta;
+    if ( rowData == null ) {
+      // Same behavior as the blocking row set: we can't store nulls
+      return false;
+    }
+
+    long currentTail = tail.get();
+    long wrapPoint = currentTail - capacity;
+    if ( headCache <= wrapPoint ) {
+      headCache = head.get();
+      if ( headCache <= wrapPoint ) {
+        long deadline = System.nanoTime() + tu.toNanos( time );
+        int tries = 0;
+        while ( ( headCache = head.get() ) <= wrapPoint ) {
+          long remaining = deadline - System.nanoTime();
+          if ( remaining <= 0 || Thread.currentThread().isInterrupted() ) {
+            return false;
+          }
+          tries = backOff( tries, remaining, true, wrapPoint );
+        }
+      }
+    }
+
+    buffer[(int) currentTail & mask] = rowData;
+
+    // A full volatile write: a waiting reader registers itself before it checks the tail one last time
+    //
+    tail.set( currentTail + 1 );
+    if ( rowSetSignal != null ) {
+      signalRowAvailable();
+    }
+
+    Thread consumer = waitingConsumer;
+    if ( consumer != null ) {
+      LockSupport.unpark( consumer );
+    }
+    return true;
+  }
+
+  @Override
+  public Object[] getRow() {
+    return getRowWait( timeoutGet, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public Object[] getRowImmediate() {
+    long currentHead = head.get();
+    if ( currentHead >= tailCache ) {
+      tailCache = tail.get();
+      if ( currentHead >= tailCache ) {
+        return null;
+      }
+    }
+    return take( currentHead );
+  }
+
+  @Override
+  public Object[] getRowWait( long timeout, TimeUnit tu ) {
+    long currentHead = head.get();
+    if ( currentHead >= tailCache ) {
+      tailCache = tail.get();
+      if ( currentHead >= tailCache ) {
+        long deadline = System.nanoTime() + tu.toNanos( timeout );
+        int tries = 0;
+        while ( currentHead >= ( tailCache = tail.get() ) ) {
+          long remaining = deadline - System.nanoTime();
+          if ( remaining <= 0 || isDone() || Thread.currentThread().isInterrupted() ) {
+            // One last look: the producer might have added a row right before flagging done
+            tailCache = tail.get();
+            if ( currentHead >= tailCache ) {
+              return null;
+            }
+            break;
+          }
+          tries = backOff( tries, remaining, false, currentHead );
+        }
+      }
+    }
+    return take( currentHead );
+  }
+
+  private Object[] take( long currentHead ) {
+    int index = (int) currentHead & mask;
+    Object[] row = buffer[index];
+    buffer[index] = null; // prevent any hold-up to GC
+
+    // A full volatile write: a waiting writer registers itself before it checks the head one last time
+    //
+    head.set( currentHead + 1 );
+
+    Thread producer = waitingProducer;
+    if ( producer != null ) {
+      LockSupport.unpark( producer );
+    }
+    return row;
+  }
+
+  /**
+   * Spin, then yield, then park the calling thread until the other side makes progress or the time is up.
+   *
+   * @param position
+   *          the head a writer waits to move past, or the tail a reader waits to move past
+   * @return the new number of tries
+   */
+  private int backOff( int tries, long remainingNanos, boolean producer, long position ) {
+    if ( tries < SPIN_TRIES ) {
+      // busy spin
+    } else if ( tries < SPIN_TRIES + YIELD_TRIES ) {
+      Thread.yield();
+    } else {
+      Thread current = Thread.currentThread();
+      boolean wait;
+      if ( producer ) {
+        waitingProducer = current;
+        wait = head.get() <= position;
+      } else {
+        waitingConsumer = current;
+        wait = tail.get() <= position && !isDone();
+      }
+      if ( wait ) {
+        LockSupport.parkNanos( this, remainingNanos );
+      }
+      if ( producer ) {
+        waitingProducer = null;
+      } else {
+        waitingConsumer = null;
+      }
+    }
+    return tries + 1;
+  }
+
+  @Override
+  public void setDone() {
+    super.setDone();
+    Thread consumer = waitingConsumer;
+    if ( consumer != null ) {
+      LockSupport.unpark( consumer );
+    }
+  }
+
+  @Override
+  public int size() {
+    // Read the head first: that way the result can never become negative.
+    long currentHead = head.get();
+    return (int) ( tail.get() - currentHead );
+  }
+
+  @Override
+  public void clear() {
+    for ( int i = 0; i < buffer.length; i++ ) {
+      buffer[i] = null;
+    }
+    head.set( 0L );
+    tail.set( 0L );
+    headCache = 0L;
+    tailCache = 0L;
+    done.set( false );
+  }
+
+  /**
+   * An atomic long padded to its own cache line so that the reader and writer positions don't suffer from false
+   * sharing.
+   */
+  @SuppressWarnings( { "unused", "serial" } )
+  private static final class PaddedAtomicLong extends AtomicLong {
+    private volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+    long sumPaddingToPreventOptimisation() {
+      return p1 + p2 + p3 + p4 + p5 + p6;
+    }
+  }
+}
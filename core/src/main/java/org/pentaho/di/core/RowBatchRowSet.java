@@ -0,0 +1,287 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.row.RowBatch;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * A row set passing {@link RowBatch} objects from one step to the next. Steps that know about batches hand over and
+ * receive complete batches with {@link #putBatchWait(RowMetaInterface, RowBatch, long, TimeUnit)} and
+ * {@link #getBatchWait(long, TimeUnit)}. For all other steps this is a regular row set: rows put in one by one are
+ * collected in a batch, rows read one by one are taken from the current batch.<br>
+ * <br>
+ * A batch is passed on once it's full, when the row set is done or when the writing step calls {@link #flush()}. A
+ * partially filled batch is also passed on with the next row once it's older than
+ * {@link Const#KETTLE_ROW_BATCH_MAX_DELAY}, so rows from a slow step don't wait for the batch to fill up. Like the
+ * {@link BlockingBatchingRowSet} this row set should only be used with exactly one writing and one reading thread.
+ *
+ * @since 8.3
+ */
+public class RowBatchRowSet extends BaseRowSet implements Comparable<RowSet>, RowSet {
+
+  private final BlockingQueue<RowBatch> batches;
+  private final int batchSize;
+
+  /** The number of rows in the queued batches, and the last batch */
+  private final AtomicInteger queuedRows = new AtomicInteger( 0 );
+
+  /** The batch being filled by a writer putting single rows, only accessed by the writer */
+  private RowBatch inputBatch;
+  private long inputBatchStarted;
+  private final long maxDelayNanos;
+
+  /** The batch being read by a reader getting single rows, only accessed by the reader */
+  private RowBatch outputBatch;
+  private int getIndex;
+  private volatile int outputRemaining;
+
+  /** The last batch, in case it didn't fit in the queue when the row set was flagged as done */
+  private volatile RowBatch lastBatch;
+
+  private int timeoutPut;
+  private int timeoutGet;
+
+  /**
+   * Create a new batch row set.
+   *
+   * @param maxSize
+   *          the approximate maximum number of rows in the row set
+   * @param batchSize
+   *          the number of rows in a batch
+   */
+  public RowBatchRowSet( int maxSize, int batchSize ) {
+    super();
+
+    this.batchSize = Math.max( 1, Math.min( batchSize, maxSize ) );
+    batches = new ArrayBlockingQueue<RowBatch>( Math.max( 1, maxSize / this.batchSize ) );
+
+    timeoutGet = Const.toInt( System.getProperty( Const.KETTLE_ROWSET_GET_TIMEOUT ), Const.TIMEOUT_GET_MILLIS );
+    timeoutPut = Const.toInt( System.getProperty( Const.KETTLE_ROWSET_PUT_TIMEOUT ), Const.TIMEOUT_PUT_MILLIS );
+    maxDelayNanos = TimeUnit.MILLISECONDS.toNanos( Const.toInt( System.getProperty(
+      Const.KETTLE_ROW_BATCH_MAX_DELAY ), Const.ROW_BATCH_MAX_DELAY_MILLIS ) );
+  }
+
+  @Override
+  public boolean putRow( RowMetaInterface rowMeta, Object[] rowData ) {
+    return putRowWait( rowMeta, rowData, timeoutPut, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public boolean putRowWait( RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu ) {
+    this.rowMeta = rowMeta;
+
+    // A full batch which didn't fit in the queue the last time around: the row is only accepted once it's gone.
+    //
+    if ( inputBatch != null && inputBatch.isFull() && !offer( inputBatch, time, tu ) ) {
+      return false;
+    }
+    if ( inputBatch == null || inputBatch.isFull() ) {
+      inputBatch = new RowBatch( rowMeta, batchSize );
+      inputBatchStarted = System.nanoTime();
+    }
+    inputBatch.addRow( rowData );
+    if ( inputBatch.isFull() ) {
+      offer( inputBatch, time, tu );
+    } else if ( System.nanoTime() - inputBatchStarted >= maxDelayNanos ) {
+      // Don't wait for room here: if the reader is busy, the rows are passed on with the next batch
+      //
+      offer( inputBatch, 0, TimeUnit.MILLISECONDS );
+    }
+    return true;
+  }
+
+  /**
+   * Pass on a complete batch. Rows collected with {@link #putRow(RowMetaInterface, Object[])} go first.
+   *
+   * @return true if the batch was added, false if it didn't fit in the row set within the given time.
+   */
+  public boolean putBatchWait( RowMetaInterface rowMeta, RowBatch batch, long time, TimeUnit tu ) {
+    this.rowMeta = rowMeta;
+    if ( !flush( time, tu ) ) {
+      return false;
+    }
+    if ( batch.isEmpty() ) {
+      return true;
+    }
+    return offer( batch, time, tu );
+  }
+
+  /**
+   * Pass on the rows collected so far, without waiting for the batch to fill up. This should be called by the writing
+   * step before it waits for something else, so that the reading step doesn't wait for rows held back here.
+   *
+   * @return true if there are no more collected rows held back
+   */
+  public boolean flush() {
+    return flush( 0, TimeUnit.MILLISECONDS );
+  }
+
+  private boolean flush( long time, TimeUnit tu ) {
+    if ( inputBatch == null || inputBatch.isEmpty() ) {
+      return true;
+    }
+    return offer( inputBatch, time, tu );
+  }
+
+  private boolean offer( RowBatch batch, long time, TimeUnit tu ) {
+    // Count the rows before the reader can see the batch, that way the size never goes negative
+    //
+    queuedRows.addAndGet( batch.size() );
+    boolean added;
+    try {
+      added = batches.offer( batch, time, tu );
+    } catch ( InterruptedException e ) {
+      added = false;
+    }
+    if ( !added ) {
+      queuedRows.addAndGet( -batch.size() );
+      return false;
+    }
+    if ( batch == inputBatch ) {
+      inputBatch = null;
+    }
+    signalRowAvailable();
+    return true;
+  }
+
+  @Override
+  public Object[] getRow() {
+    return getRowWait( timeoutGet, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public Object[] getRowImmediate() {
+    return getRowWait( 0, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public Object[] getRowWait( long timeout, TimeUnit tu ) {
+    if ( outputBatch == null ) {
+      outputBatch = takeBatch( timeout, tu );
+      if ( outputBatch == null ) {
+        return null;
+      }
+      getIndex = 0;
+    }
+
+    Object[] row = outputBatch.getRow( getIndex++ );
+    outputRemaining = outputBatch.size() - getIndex;
+    if ( getIndex >= outputBatch.size() ) {
+      outputBatch = null;
+    }
+    return row;
+  }
+
+  /**
+   * Take the next batch from this row set. Rows which were not yet read with {@link #getRow()} come first.
+   *
+   * @return the next batch or null if there was none within the given time
+   */
+  public RowBatch getBatchWait( long timeout, TimeUnit tu ) {
+    if ( outputBatch != null ) {
+      RowBatch rest = new RowBatch( outputBatch.getRowMeta(), outputBatch.size() - getIndex );
+      while ( getIndex < outputBatch.size() ) {
+        rest.addRow( outputBatch.getRow( getIndex++ ) );
+      }
+      outputBatch = null;
+      outputRemaining = 0;
+      return rest;
+    }
+    return takeBatch( timeout, tu );
+  }
+
+  private RowBatch takeBatch( long timeout, TimeUnit tu ) {
+    RowBatch batch = batches.poll();
+    if ( batch == null ) {
+      batch = takeLastBatch();
+    }
+    if ( batch == null && !isDone() && timeout > 0 ) {
+      try {
+        batch = batches.poll( timeout, tu );
+      } catch ( InterruptedException e ) {
+        return null;
+      }
+      if ( batch == null ) {
+        batch = takeLastBatch();
+      }
+    }
+    if ( batch != null ) {
+      queuedRows.addAndGet( -batch.size() );
+    }
+    return batch;
+  }
+
+  private RowBatch takeLastBatch() {
+    // The last batch is only set before the row set is flagged as done
+    //
+    if ( !isDone() || lastBatch == null ) {
+      return null;
+    }
+    RowBatch batch = lastBatch;
+    lastBatch = null;
+    return batch;
+  }
+
+  @Override
+  public int size() {
+    return queuedRows.get() + outputRemaining;
+  }
+
+  @Override
+  public void setDone() {
+    // Never block here: if the reader stopped reading, the last batch is picked up from a separate field.
+    //
+    if ( inputBatch != null && !inputBatch.isEmpty() ) {
+      queuedRows.addAndGet( inputBatch.size() );
+      if ( !batches.offer( inputBatch ) ) {
+        lastBatch = inputBatch;
+      }
+    }
+    inputBatch = null;
+    super.setDone();
+  }
+
+  @Override
+  public void clear() {
+    batches.clear();
+    queuedRows.set( 0 );
+    inputBatch = null;
+    outputBatch = null;
+    outputRemaining = 0;
+    lastBatch = null;
+    done.set( false );
+  }
+
+  /**
+   * @return the number of rows in a batch
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+}
@@ -154,4 +154,21 @@ public interface RowSet {
    * Clear this rowset: remove all rows and remove the "done" flag.
    */
   public abstract void clear();
+
+  /**
+   * Set the signal to raise every time a row is added to this row set or when it's flagged as done. Row sets that
+   * don't support this simply ignore the signal, in which case the reader falls back to polling.
+   *
+   * @param rowSetSignal
+   *          the signal of the step reading from this row set or null to stop signalling
+   */
+  public default void setRowSetSignal( RowSetSignal rowSetSignal ) {
+  }
+
+  /**
+   * @return the signal raised by this row set or null if this row set doesn't signal anything
+   */
+  public default RowSetSignal getRowSetSignal() {
+    return null;
+  }
 }
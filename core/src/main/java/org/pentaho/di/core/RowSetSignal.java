@@ -0,0 +1,107 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A wake-up signal for a thread that waits for something to do: typically a step waiting for rows on any of its input
+ * row sets. Row sets raise the signal when a row is added or when they are flagged as done.<br>
+ * <br>
+ * Raising the signal is very cheap when nobody is waiting: it's a single volatile read. That way a row set can raise it
+ * for every row it receives.
+ *
+ * @since 8.3
+ */
+public class RowSetSignal {
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition signalled = lock.newCondition();
+  private final AtomicInteger waiters = new AtomicInteger( 0 );
+
+  /** Incremented on every signal, guarded by the lock */
+  private long version;
+
+  /**
+   * Wake up all the threads waiting on this signal, if there are any.
+   */
+  public void signal() {
+    if ( waiters.get() > 0 ) {
+      lock.lock();
+      try {
+        version++;
+        signalled.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Wait until this signal is raised or the timeout expires. The ready condition is evaluated after the calling thread
+   * registered itself as a waiter and before it starts waiting. That way a signal raised while the caller was still
+   * checking for work can't be missed.
+   *
+   * @param ready
+   *          returns true if there's something to do, in which case we don't wait at all
+   * @param timeout
+   *          the maximum time to wait
+   * @param tu
+   *          the unit of the timeout
+   * @return true if the ready condition was met or the signal was raised, false if we timed out
+   * @throws InterruptedException
+   *           in case the waiting thread got interrupted
+   */
+  public boolean await( BooleanSupplier ready, long timeout, TimeUnit tu ) throws InterruptedException {
+    waiters.incrementAndGet();
+    lock.lock();
+    try {
+      long seen = version;
+      if ( ready.getAsBoolean() ) {
+        return true;
+      }
+      long nanos = tu.toNanos( timeout );
+      while ( version == seen ) {
+        if ( nanos <= 0L ) {
+          return false;
+        }
+        nanos = signalled.awaitNanos( nanos );
+      }
+      return true;
+    } finally {
+      lock.unlock();
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return true if at least one thread is waiting on this signal
+   */
+  public boolean hasWaiters() {
+    return waiters.get() > 0;
+  }
+}
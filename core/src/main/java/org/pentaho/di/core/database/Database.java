@@ -1188,7 +1188,17 @@ public class Database implements VariableSpace, LoggingObjectInterface {
   }
 
   public String getInsertStatement( String schemaName, String tableName, RowMetaInterface fields ) {
-    StringBuilder ins = new StringBuilder( 128 );
+    return getInsertStatement( schemaName, tableName, fields, 1 );
+  }
+
+  /**
+   * Build an insert statement for the given number of rows, for databases supporting multi-row inserts. The values of
+   * row r (starting at 0) go in parameters r * fields.size() + 1 and up.
+   *
+   * @see DatabaseInterface#getMaxMultiRowInsertParameters()
+   */
+  public String getInsertStatement( String schemaName, String tableName, RowMetaInterface fields, int nrRows ) {
+    StringBuilder ins = new StringBuilder( 128 + nrRows * fields.size() * 3 );
 
     String schemaTable = databaseMeta.getQuotedSchemaTableCombination( schemaName, tableName );
     ins.append( "INSERT INTO " ).append( schemaTable ).append( " (" );
@@ -1201,16 +1211,22 @@ public class Database implements VariableSpace, LoggingObjectInterface {
       String name = fields.getValueMeta( i ).getName();
       ins.append( databaseMeta.quoteField( name ) );
     }
-    ins.append( ") VALUES (" );
+    ins.append( ") VALUES " );
 
     // Add placeholders...
-    for ( int i = 0; i < fields.size(); i++ ) {
-      if ( i > 0 ) {
+    for ( int r = 0; r < nrRows; r++ ) {
+      if ( r > 0 ) {
         ins.append( ", " );
       }
-      ins.append( " ?" );
+      ins.append( '(' );
+      for ( int i = 0; i < fields.size(); i++ ) {
+        if ( i > 0 ) {
+          ins.append( ", " );
+        }
+        ins.append( " ?" );
+      }
+      ins.append( ')' );
     }
-    ins.append( ')' );
 
     return ins.toString();
   }
@@ -1219,4 +1219,15 @@ public interface DatabaseInterface extends Cloneable {
     return "";
   }
 
+  /**
+   * Databases supporting multi-row inserts accept INSERT INTO table (a, b) VALUES (?, ?), (?, ?), ... which sends
+   * many rows in a single statement.
+   *
+   * @return the maximum number of parameters in a multi-row insert statement or 0 if the database doesn't support
+   *         multi-row inserts (default)
+   */
+  default int getMaxMultiRowInsertParameters() {
+    return 0;
+  }
+
 }
@@ -285,4 +285,8 @@ public class H2DatabaseMeta extends BaseDatabaseMeta implements DatabaseInterfac
     return false;
   }
 
+  @Override
+  public int getMaxMultiRowInsertParameters() {
+    return 32767;
+  }
 }
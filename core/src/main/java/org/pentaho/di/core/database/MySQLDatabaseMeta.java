@@ -496,4 +496,9 @@ public class MySQLDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
   public boolean supportsSchemas() {
     return false;
   }
+
+  @Override
+  public int getMaxMultiRowInsertParameters() {
+    return 65535;
+  }
 }
@@ -0,0 +1,389 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.pentaho.di.core.exception.KettleFileException;
+
+/**
+ * A hash index of binary keys and values, like the {@link ByteArrayHashIndex}, which doesn't create any objects per
+ * entry. Keys and values are appended to large byte array pages, the hash table itself is an open addressing table of
+ * primitive arrays. This takes a fraction of the memory of a map of boxed rows.<br>
+ * <br>
+ * Keys are compared byte by byte, so they should be encoded with the same metadata, in normal storage.<br>
+ * <br>
+ * When a heap budget is given, full pages are written to a temporary file once the pages take more than the budget.
+ * Those pages are memory mapped and read back by the operating system when needed. The hash table itself always stays
+ * on the heap. Call {@link #close()} to remove the temporary file.
+ *
+ * @since 8.3
+ */
+public class CompactByteArrayHashIndex {
+
+  private static final int STANDARD_INDEX_SIZE = 512;
+  private static final float STANDARD_LOAD_FACTOR = 0.7f;
+  public static final int DEFAULT_PAGE_SIZE = 4 * 1024 * 1024;
+
+  /** Every entry starts with the length of the key and the length of the value */
+  private static final int ENTRY_HEADER_SIZE = 8;
+
+  /** The hash codes of the keys in the table */
+  private int[] hashes;
+
+  /** The addresses of the entries in the table plus one, 0 means the slot is free */
+  private long[] addresses;
+
+  private int size;
+  private int resizeThresHold;
+
+  private final int pageSize;
+  private final long maxHeapBytes;
+  private final String spillDirectory;
+
+  /** The pages on the heap, null for a page which was written to disk */
+  private byte[][] heapPages;
+
+  /** The pages written to disk, null for a page on the heap */
+  private ByteBuffer[] spilledPages;
+
+  private int pageCount;
+  private int pageOffset;
+  private long heapBytes;
+
+  private File spillFile;
+  private RandomAccessFile spillAccess;
+  private long spillLength;
+
+  /**
+   * Create a new compact hash index.
+   *
+   * @param size
+   *          the initial number of entries of the hash table
+   * @param pageSize
+   *          the size of the pages holding the keys and values
+   * @param maxHeapBytes
+   *          the maximum size of the pages on the heap, 0 or less means the pages are never written to disk
+   * @param spillDirectory
+   *          the directory of the temporary file, null for the default temporary directory
+   */
+  public CompactByteArrayHashIndex( int size, int pageSize, long maxHeapBytes, String spillDirectory ) {
+    // Find a suitable capacity being a factor of 2:
+    int factor2Size = 1;
+    while ( factor2Size < size ) {
+      factor2Size <<= 1; // Multiply by 2
+    }
+    hashes = new int[factor2Size];
+    addresses = new long[factor2Size];
+    resizeThresHold = (int) ( factor2Size * STANDARD_LOAD_FACTOR );
+
+    this.pageSize = Math.max( 1024, pageSize );
+    this.maxHeapBytes = maxHeapBytes;
+    this.spillDirectory = spillDirectory;
+
+    heapPages = new byte[16][];
+    spilledPages = new ByteBuffer[16];
+  }
+
+  public CompactByteArrayHashIndex( long maxHeapBytes, String spillDirectory ) {
+    this( STANDARD_INDEX_SIZE, DEFAULT_PAGE_SIZE, maxHeapBytes, spillDirectory );
+  }
+
+  public CompactByteArrayHashIndex() {
+    this( 0L, null );
+  }
+
+  /**
+   * @return the number of keys in the index
+   */
+  public int getSize() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the number of bytes of the pages kept on the heap
+   */
+  public long getHeapBytes() {
+    return heapBytes;
+  }
+
+  /**
+   * @return the number of bytes written to the temporary file
+   */
+  public long getSpilledBytes() {
+    return spillLength;
+  }
+
+  /**
+   * Look up the value of a key.
+   *
+   * @param key
+   *          the binary key
+   * @return a copy of the binary value or null if the key isn't in the index
+   */
+  public byte[] get( byte[] key ) {
+    int slot = findSlot( key, generateHashCode( key ) );
+    long address = addresses[slot];
+    if ( address == 0L ) {
+      return null;
+    }
+    return readValue( address - 1 );
+  }
+
+  /**
+   * Add a key and its value to the index. The value of an existing key is replaced.
+   *
+   * @throws KettleFileException
+   *           in case a page couldn't be written to disk
+   */
+  public void put( byte[] key, byte[] value ) throws KettleFileException {
+    int hashCode = generateHashCode( key );
+    int slot = findSlot( key, hashCode );
+    boolean exists = addresses[slot] != 0L;
+
+    // A replaced value stays in its page, the space isn't reused
+    //
+    addresses[slot] = append( key, value ) + 1;
+    if ( !exists ) {
+      hashes[slot] = hashCode;
+      size++;
+      if ( size >= resizeThresHold ) {
+        resize();
+      }
+    }
+  }
+
+  /**
+   * Free the pages and remove the temporary file, if any. The index can't be used afterwards.
+   */
+  public void close() {
+    hashes = null;
+    addresses = null;
+    heapPages = null;
+    spilledPages = null;
+    heapBytes = 0L;
+    if ( spillAccess != null ) {
+      try {
+        spillAccess.close();
+      } catch ( IOException e ) {
+        // Ignore, we're only cleaning up
+      }
+      spillAccess = null;
+    }
+    if ( spillFile != null ) {
+      // The mapped pages are only released by the garbage collector, on some platforms the file can't be removed yet
+      //
+      if ( !spillFile.delete() ) {
+        spillFile.deleteOnExit();
+      }
+      spillFile = null;
+    }
+  }
+
+  private int findSlot( byte[] key, int hashCode ) {
+    int mask = addresses.length - 1;
+    int slot = hashCode & mask;
+    while ( addresses[slot] != 0L ) {
+      if ( hashes[slot] == hashCode && equalsKey( addresses[slot] - 1, key ) ) {
+        break;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+    return slot;
+  }
+
+  private void resize() {
+    int[] oldHashes = hashes;
+    long[] oldAddresses = addresses;
+
+    int newSize = 2 * oldAddresses.length;
+    int mask = newSize - 1;
+    hashes = new int[newSize];
+    addresses = new long[newSize];
+
+    // The stored hash codes are all we need to re-distribute the entries, the keys are not read again
+    //
+    for ( int i = 0; i < oldAddresses.length; i++ ) {
+      if ( oldAddresses[i] != 0L ) {
+        int slot = oldHashes[i] & mask;
+        while ( addresses[slot] != 0L ) {
+          slot = ( slot + 1 ) & mask;
+        }
+        hashes[slot] = oldHashes[i];
+        addresses[slot] = oldAddresses[i];
+      }
+    }
+    resizeThresHold = (int) ( newSize * STANDARD_LOAD_FACTOR );
+  }
+
+  /**
+   * Write an entry to the current page.
+   *
+   * @return the address of the entry: the page number in the high and the offset in the low 32 bits
+   */
+  private long append( byte[] key, byte[] value ) throws KettleFileException {
+    int length = ENTRY_HEADER_SIZE + key.length + value.length;
+    if ( pageCount == 0 || pageOffset + length > heapPages[pageCount - 1].length ) {
+      addPage( Math.max( pageSize, length ) );
+    }
+    byte[] page = heapPages[pageCount - 1];
+    int offset = pageOffset;
+    writeInt( page, offset, key.length );
+    writeInt( page, offset + 4, value.length );
+    System.arraycopy( key, 0, page, offset + ENTRY_HEADER_SIZE, key.length );
+    System.arraycopy( value, 0, page, offset + ENTRY_HEADER_SIZE + key.length, value.length );
+    pageOffset += length;
+
+    return ( (long) ( pageCount - 1 ) << 32 ) | offset;
+  }
+
+  private void addPage( int length ) throws KettleFileException {
+    if ( pageCount > 0 && maxHeapBytes > 0 && heapBytes > maxHeapBytes ) {
+      spillPage( pageCount - 1, pageOffset );
+    }
+    if ( pageCount == heapPages.length ) {
+      heapPages = Arrays.copyOf( heapPages, pageCount * 2 );
+      spilledPages = Arrays.copyOf( spilledPages, pageCount * 2 );
+    }
+    heapPages[pageCount++] = new byte[length];
+    pageOffset = 0;
+    heapBytes += length;
+  }
+
+  /**
+   * Move the used part of a full page to the temporary file and map it back into memory.
+   */
+  private void spillPage( int pageNr, int used ) throws KettleFileException {
+    try {
+      if ( spillAccess == null ) {
+        spillFile =
+          File.createTempFile( "kettle-hash-index", ".tmp", spillDirectory == null ? null : new File( spillDirectory ) );
+        spillAccess = new RandomAccessFile( spillFile, "rw" );
+      }
+      FileChannel channel = spillAccess.getChannel();
+      ByteBuffer buffer = ByteBuffer.wrap( heapPages[pageNr], 0, used );
+      long position = spillLength;
+      while ( buffer.hasRemaining() ) {
+        position += channel.write( buffer, position );
+      }
+      spilledPages[pageNr] = channel.map( FileChannel.MapMode.READ_ONLY, spillLength, used );
+      spillLength += used;
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to write a page of the hash index to a temporary file in ["
+        + spillDirectory + "]", e );
+    }
+    heapBytes -= heapPages[pageNr].length;
+    heapPages[pageNr] = null;
+  }
+
+  private boolean equalsKey( long address, byte[] key ) {
+    int pageNr = (int) ( address >>> 32 );
+    int offset = (int) address;
+    byte[] page = heapPages[pageNr];
+    if ( page != null ) {
+      if ( readInt( page, offset ) != key.length ) {
+        return false;
+      }
+      int start = offset + ENTRY_HEADER_SIZE;
+      for ( int i = key.length - 1; i >= 0; i-- ) {
+        if ( page[start + i] != key[i] ) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    ByteBuffer buffer = spilledPages[pageNr];
+    if ( buffer.getInt( offset ) != key.length ) {
+      return false;
+    }
+    int start = offset + ENTRY_HEADER_SIZE;
+    for ( int i = key.length - 1; i >= 0; i-- ) {
+      if ( buffer.get( start + i ) != key[i] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] readValue( long address ) {
+    int pageNr = (int) ( address >>> 32 );
+    int offset = (int) address;
+    byte[] page = heapPages[pageNr];
+    if ( page != null ) {
+      int keyLength = readInt( page, offset );
+      byte[] value = new byte[readInt( page, offset + 4 )];
+      System.arraycopy( page, offset + ENTRY_HEADER_SIZE + keyLength, value, 0, value.length );
+      return value;
+    }
+
+    // Work on a duplicate: the position of the shared buffer must not change
+    //
+    ByteBuffer buffer = spilledPages[pageNr].duplicate();
+    int keyLength = buffer.getInt( offset );
+    byte[] value = new byte[buffer.getInt( offset + 4 )];
+    buffer.position( offset + ENTRY_HEADER_SIZE + keyLength );
+    buffer.get( value );
+    return value;
+  }
+
+  // Same byte order as the ByteBuffer default, pages on disk are read back with getInt()
+  //
+  private static void writeInt( byte[] page, int offset, int value ) {
+    page[offset] = (byte) ( value >>> 24 );
+    page[offset + 1] = (byte) ( value >>> 16 );
+    page[offset + 2] = (byte) ( value >>> 8 );
+    page[offset + 3] = (byte) value;
+  }
+
+  private static int readInt( byte[] page, int offset ) {
+    return ( page[offset] << 24 ) | ( ( page[offset + 1] & 0xff ) << 16 ) | ( ( page[offset + 2] & 0xff ) << 8 )
+      | ( page[offset + 3] & 0xff );
+  }
+
+  /**
+   * Hash the key bytes and mix the bits, the low bits are used to find a slot in the table.
+   */
+  public static int generateHashCode( byte[] key ) {
+    int h = 1;
+    for ( int i = 0; i < key.length; i++ ) {
+      h = 31 * h + key[i];
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -26,28 +26,72 @@ import com.google.common.annotations.VisibleForTesting;
 import org.pentaho.di.core.Const;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
- * This class keeps the last N lines in a buffer
+ * This class keeps the last N lines in a buffer.<br>
+ * <br>
+ * Appending a line takes no lock: the line claims the next line number with an atomic increment and is stored in the
+ * slot of that number, in an array of {@link #CHUNK_SIZE} slots allocated once for every that many lines.<br>
+ * <br>
+ * The readers move the appended lines, in the order of their numbers, to a concurrent map sorted by line number and to
+ * a second such map per log channel. Lines over the maximum number of lines are removed at the same time. The lines of
+ * a range of line numbers for a set of log channels are then found without looking at the lines of other channels.
+ * Only the readers take a lock, to move the lines: once {@link #getLastBufferLineNr()} returns N, all the lines up to N
+ * are in the maps and a reader asking for the lines after N never misses one.
  *
  * @author matt
  */
 public class LoggingBuffer {
+  /** The channel index key for lines without a log channel id */
+  private static final String NO_CHANNEL = "";
+
+  private static final int CHUNK_SHIFT = 10;
+
+  /** The number of slots of the arrays the appended lines are stored in */
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
   private String name;
 
-  private List<BufferLine> buffer;
-  private ReadWriteLock lock = new ReentrantReadWriteLock();
+  /** All lines by line number */
+  private final ConcurrentSkipListMap<Integer, BufferLine> buffer = new ConcurrentSkipListMap<>();
+
+  /** The lines of every log channel by line number */
+  private final ConcurrentMap<String, ConcurrentSkipListMap<Integer, BufferLine>> channelIndex =
+    new ConcurrentHashMap<>();
+
+  /** The number of the last line appended, or being appended */
+  private final AtomicInteger lastClaimedNr = new AtomicInteger( 0 );
+
+  /** The appended lines not yet moved to the maps, by chunk number: line number / {@link #CHUNK_SIZE} */
+  private final ConcurrentMap<Integer, AtomicReferenceArray<BufferLine>> chunks = new ConcurrentHashMap<>();
+
+  /** Held by the reader moving the appended lines to the maps, or changing the maps */
+  private final ReentrantLock indexLock = new ReentrantLock();
+
+  /** The number of the last line moved to the maps, guarded by {@link #indexLock} */
+  private int indexedNr;
 
-  private int bufferSize;
+  /** The number of lines in the buffer, the size of a skip list is not a constant time operation */
+  private final AtomicInteger nrLines = new AtomicInteger( 0 );
+
+  private volatile int bufferSize;
 
   private KettleLogLayout layout;
 
@@ -57,10 +101,6 @@ public class LoggingBuffer {
 
   public LoggingBuffer( int bufferSize ) {
     this.bufferSize = bufferSize;
-    // The buffer overflow protection allows it to be overflowed for 1 item within a single thread.
-    // Considering a possible high contention, let's set it's max overflow size to be 10%.
-    // Anyway, even an overflow goes higher than 10%, it wouldn't cost us too much.
-    buffer = new ArrayList<>( (int) ( bufferSize * 1.1 ) );
     layout = new KettleLogLayout( true );
     eventListeners = new CopyOnWriteArrayList<>();
   }
@@ -69,16 +109,9 @@ public class LoggingBuffer {
    * @return the number (sequence, 1..N) of the last log line. If no records are present in the buffer, 0 is returned.
    */
   public int getLastBufferLineNr() {
-    lock.readLock().lock();
-    try {
-      if ( buffer.size() > 0 ) {
-        return buffer.get( buffer.size() - 1 ).getNr();
-      } else {
-        return 0;
-      }
-    } finally {
-      lock.readLock().unlock();
-    }
+    catchUp();
+    Map.Entry<Integer, BufferLine> last = buffer.lastEntry();
+    return last == null ? 0 : last.getKey();
   }
 
   /**
@@ -90,19 +123,37 @@ public class LoggingBuffer {
    */
   public List<KettleLoggingEvent> getLogBufferFromTo( List<String> channelId, boolean includeGeneral, int from,
                                                       int to ) {
-    lock.readLock().lock();
-    try {
-      Stream<BufferLine> bufferStream = buffer.stream().filter( line -> line.getNr() > from && line.getNr() <= to );
-      if ( channelId != null ) {
-        bufferStream = bufferStream.filter( line -> {
-          String logChannelId = getLogChId( line );
-          return includeGeneral ? isGeneral( logChannelId ) || channelId.contains( logChannelId ) : channelId.contains( logChannelId );
-        } );
+    if ( from >= to ) {
+      return new ArrayList<>();
+    }
+    catchUp();
+    if ( channelId == null ) {
+      return toEvents( buffer.subMap( from, false, to, true ).values() );
+    }
+
+    Set<String> channels = new HashSet<>();
+    for ( String id : channelId ) {
+      channels.add( id == null ? NO_CHANNEL : id );
+    }
+    if ( includeGeneral ) {
+      for ( String id : channelIndex.keySet() ) {
+        if ( isGeneral( id ) ) {
+          channels.add( id );
+        }
       }
-      return bufferStream.map( BufferLine::getEvent ).collect( Collectors.toList() );
-    } finally {
-      lock.readLock().unlock();
     }
+
+    List<BufferLine> lines = new ArrayList<>();
+    for ( String id : channels ) {
+      ConcurrentNavigableMap<Integer, BufferLine> channelLines = channelIndex.get( id );
+      if ( channelLines != null ) {
+        lines.addAll( channelLines.subMap( from, false, to, true ).values() );
+      }
+    }
+    if ( channels.size() > 1 ) {
+      lines.sort( Comparator.comparingInt( BufferLine::getNr ) );
+    }
+    return toEvents( lines );
   }
 
   /**
@@ -153,16 +204,92 @@ public class LoggingBuffer {
 
   public void doAppend( KettleLoggingEvent event ) {
     if ( event.getMessage() instanceof LogMessage ) {
-      lock.writeLock().lock();
-      try {
-        buffer.add( new BufferLine( event ) );
-        while ( bufferSize > 0 && buffer.size() > bufferSize ) {
-          buffer.remove( 0 );
+      int nr = lastClaimedNr.incrementAndGet();
+      Integer chunkNr = nr >>> CHUNK_SHIFT;
+      AtomicReferenceArray<BufferLine> chunk = chunks.get( chunkNr );
+      if ( chunk == null ) {
+        AtomicReferenceArray<BufferLine> newChunk = new AtomicReferenceArray<>( CHUNK_SIZE );
+        chunk = chunks.putIfAbsent( chunkNr, newChunk );
+        if ( chunk == null ) {
+          chunk = newChunk;
         }
-      } finally {
-        lock.writeLock().unlock();
+      }
+      chunk.set( nr & CHUNK_MASK, new BufferLine( event, nr ) );
+
+      // Without readers the appended lines are moved once every chunk, if no reader is doing so already
+      //
+      if ( ( nr & CHUNK_MASK ) == 0 && indexLock.tryLock() ) {
+        try {
+          moveAppendedLines();
+        } finally {
+          indexLock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Move the lines appended so far to the maps, and remove the lines over the maximum number of lines.
+   */
+  private void catchUp() {
+    indexLock.lock();
+    try {
+      moveAppendedLines();
+    } finally {
+      indexLock.unlock();
+    }
+  }
+
+  /**
+   * Move the appended lines to the maps in the order of their numbers. This stops at the first line that's still being
+   * appended, the next reader moves it. Expects {@link #indexLock} to be held.
+   */
+  private void moveAppendedLines() {
+    while ( true ) {
+      int nr = indexedNr + 1;
+      AtomicReferenceArray<BufferLine> chunk = chunks.get( nr >>> CHUNK_SHIFT );
+      BufferLine line = chunk == null ? null : chunk.get( nr & CHUNK_MASK );
+      if ( line == null ) {
+        break;
+      }
+      channelIndex.computeIfAbsent( getChannelKey( line ), id -> new ConcurrentSkipListMap<>() ).put( nr, line );
+      buffer.put( nr, line );
+      nrLines.incrementAndGet();
+      indexedNr = nr;
+
+      // All the lines of a chunk were appended once its last one is moved
+      //
+      if ( ( nr & CHUNK_MASK ) == CHUNK_MASK ) {
+        chunks.remove( nr >>> CHUNK_SHIFT );
       }
     }
+    removeExcessLines();
+  }
+
+  private void removeExcessLines() {
+    int maxNrLines = bufferSize;
+    while ( maxNrLines > 0 && nrLines.get() > maxNrLines ) {
+      Map.Entry<Integer, BufferLine> first = buffer.pollFirstEntry();
+      if ( first == null ) {
+        break;
+      }
+      nrLines.decrementAndGet();
+      removeFromChannelIndex( first.getValue() );
+    }
+  }
+
+  private void removeLine( BufferLine line ) {
+    if ( buffer.remove( line.getNr(), line ) ) {
+      nrLines.decrementAndGet();
+      removeFromChannelIndex( line );
+    }
+  }
+
+  private void removeFromChannelIndex( BufferLine line ) {
+    channelIndex.computeIfPresent( getChannelKey( line ), ( id, lines ) -> {
+      lines.remove( line.getNr() );
+      return lines.isEmpty() ? null : lines;
+    } );
   }
 
   public void setName( String name ) {
@@ -186,11 +313,14 @@ public class LoggingBuffer {
   }
 
   public void clear() {
-    lock.writeLock().lock();
+    indexLock.lock();
     try {
+      moveAppendedLines();
       buffer.clear();
+      channelIndex.clear();
+      nrLines.set( 0 );
     } finally {
-      lock.writeLock().unlock();
+      indexLock.unlock();
     }
   }
 
@@ -206,13 +336,15 @@ public class LoggingBuffer {
    */
   public void setMaxNrLines( int maxNrLines ) {
     this.bufferSize = maxNrLines;
+    catchUp();
   }
 
   /**
    * @return the nrLines
    */
   public int getNrLines() {
-    return buffer.size();
+    catchUp();
+    return nrLines.get();
   }
 
   /**
@@ -221,24 +353,32 @@ public class LoggingBuffer {
    * @param id the id of the logging channel to remove
    */
   public void removeChannelFromBuffer( String id ) {
-    lock.writeLock().lock();
+    indexLock.lock();
     try {
-      buffer.removeIf( line -> id.equals( getLogChId( line ) ) );
+      moveAppendedLines();
+      ConcurrentSkipListMap<Integer, BufferLine> lines = channelIndex.remove( id );
+      if ( lines != null ) {
+        for ( BufferLine line : lines.values() ) {
+          if ( buffer.remove( line.getNr(), line ) ) {
+            nrLines.decrementAndGet();
+          }
+        }
+      }
     } finally {
-      lock.writeLock().unlock();
+      indexLock.unlock();
     }
   }
 
   public int size() {
-    return buffer.size();
+    return getNrLines();
   }
 
   public void removeGeneralMessages() {
-    lock.writeLock().lock();
-    try {
-      buffer.removeIf( line -> isGeneral( getLogChId( line ) ) );
-    } finally {
-      lock.writeLock().unlock();
+    catchUp();
+    for ( String id : channelIndex.keySet() ) {
+      if ( isGeneral( id ) ) {
+        removeChannelFromBuffer( id );
+      }
     }
   }
 
@@ -252,7 +392,8 @@ public class LoggingBuffer {
   @Deprecated
   @VisibleForTesting
   public Iterator<BufferLine> getBufferIterator() {
-    return buffer.iterator();
+    catchUp();
+    return buffer.values().iterator();
   }
 
   /**
@@ -260,18 +401,14 @@ public class LoggingBuffer {
    */
   @Deprecated
   public String dump() {
+    catchUp();
     StringBuilder buf = new StringBuilder( 50000 );
-    lock.readLock().lock();
-    try {
-      buffer.forEach( line -> {
-        LogMessage message = (LogMessage) line.getEvent().getMessage();
-        buf.append( message.getLogChannelId() ).append( "\t" )
-                .append( message.getSubject() ).append( "\n" );
-      } );
-      return buf.toString();
-    } finally {
-      lock.readLock().unlock();
-    }
+    buffer.values().forEach( line -> {
+      LogMessage message = (LogMessage) line.getEvent().getMessage();
+      buf.append( message.getLogChannelId() ).append( "\t" )
+              .append( message.getSubject() ).append( "\n" );
+    } );
+    return buf.toString();
   }
 
   /**
@@ -281,11 +418,11 @@ public class LoggingBuffer {
    */
   @Deprecated
   public void removeBufferLines( List<BufferLine> linesToRemove ) {
-    lock.writeLock().lock();
+    indexLock.lock();
     try {
-      buffer.removeAll( linesToRemove );
+      linesToRemove.forEach( this::removeLine );
     } finally {
-      lock.writeLock().unlock();
+      indexLock.unlock();
     }
   }
 
@@ -296,34 +433,27 @@ public class LoggingBuffer {
    */
   @Deprecated
   public List<BufferLine> getBufferLinesBefore( long minTimeBoundary ) {
-    lock.readLock().lock();
-    try {
-      return buffer.stream().filter( line -> line.getEvent().timeStamp < minTimeBoundary )
-        .collect( Collectors.toList() );
-    } finally {
-      lock.readLock().unlock();
-    }
+    catchUp();
+    return buffer.values().stream().filter( line -> line.getEvent().timeStamp < minTimeBoundary )
+      .collect( Collectors.toList() );
   }
 
   public void removeBufferLinesBefore( long minTimeBoundary ) {
-    // Using HashSet even though BufferLine does not implement hashcode and equals,
-    // we just need to remove the exact objects we have found and put in the set.
-    Set<BufferLine> linesToRemove = new HashSet<>();
-    lock.writeLock().lock();
+    indexLock.lock();
     try {
-      for ( BufferLine bufferLine : buffer ) {
+      moveAppendedLines();
+
+      // The lines are sorted by line number, which is the order they were logged in.
+      //
+      for ( BufferLine bufferLine : buffer.values() ) {
         if ( bufferLine.getEvent().timeStamp < minTimeBoundary ) {
-          linesToRemove.add( bufferLine );
+          removeLine( bufferLine );
         } else {
           break;
         }
       }
-      // removeAll should run fast against a HashSet,
-      // since ArrayList.batchRemove check for each element of a collection given if it is in the ArrayList.
-      // Thus, removeAll should run in a linear time.
-      buffer.removeAll( linesToRemove );
     } finally {
-      lock.writeLock().unlock();
+      indexLock.unlock();
     }
   }
 
@@ -341,11 +471,23 @@ public class LoggingBuffer {
   }
 
   private boolean isGeneral( String logChannelId ) {
+    if ( logChannelId == null || NO_CHANNEL.equals( logChannelId ) ) {
+      return false;
+    }
     LoggingObjectInterface loggingObject = loggingRegistry.getLoggingObject( logChannelId );
     return loggingObject != null && LoggingObjectType.GENERAL.equals( loggingObject.getObjectType() );
   }
 
-  private static String getLogChId( BufferLine bufferLine ) {
-    return ( (LogMessage) bufferLine.getEvent().getMessage() ).getLogChannelId();
+  private static List<KettleLoggingEvent> toEvents( Iterable<BufferLine> lines ) {
+    List<KettleLoggingEvent> events = new ArrayList<>();
+    for ( BufferLine line : lines ) {
+      events.add( line.getEvent() );
+    }
+    return events;
+  }
+
+  private static String getChannelKey( BufferLine bufferLine ) {
+    String logChannelId = ( (LogMessage) bufferLine.getEvent().getMessage() ).getLogChannelId();
+    return logChannelId == null ? NO_CHANNEL : logChannelId;
   }
 }
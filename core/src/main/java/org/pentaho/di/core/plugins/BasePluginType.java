@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -57,7 +58,6 @@ import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.i18n.GlobalMessageUtil;
-import org.scannotation.AnnotationDB;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
@@ -397,12 +397,15 @@ public abstract class BasePluginType implements PluginTypeInterface {
           //
           FileObject[] fileObjects = jarFileCache.getFileObjects( pluginFolder );
           if ( fileObjects != null ) {
+            // Look up the jar files in the plugin index, scan the new and changed ones in parallel
+            //
+            jarFileCache.indexJarFiles( fileObjects );
+
             for ( FileObject fileObject : fileObjects ) {
 
               // These are the jar files : find annotations in it...
               //
-              AnnotationDB annotationDB = jarFileCache.getAnnotationDB( fileObject );
-              Set<String> impls = annotationDB.getAnnotationIndex().get( annotationClassName );
+              Set<String> impls = jarFileCache.getAnnotationIndex( fileObject ).get( annotationClassName );
               if ( impls != null ) {
 
                 for ( String fil : impls ) {
@@ -697,26 +700,40 @@ public abstract class BasePluginType implements PluginTypeInterface {
 
   protected void registerPluginJars() throws KettlePluginException {
     List<JarFileAnnotationPlugin> jarFilePlugins = findAnnotatedClassFiles( pluginType.getName() );
+
+    // Load all the plugin classes of a jar file with the same class loader
+    //
+    Map<String, List<JarFileAnnotationPlugin>> pluginsByJarFile = new LinkedHashMap<>();
     for ( JarFileAnnotationPlugin jarFilePlugin : jarFilePlugins ) {
+      pluginsByJarFile.computeIfAbsent( jarFilePlugin.getJarFile().toString(), k -> new ArrayList<>() )
+        .add( jarFilePlugin );
+    }
 
+    for ( List<JarFileAnnotationPlugin> jarFilePluginsInJar : pluginsByJarFile.values() ) {
       URLClassLoader urlClassLoader =
-        createUrlClassLoader( jarFilePlugin.getJarFile(), getClass().getClassLoader() );
+        createUrlClassLoader( jarFilePluginsInJar.get( 0 ).getJarFile(), getClass().getClassLoader() );
 
       try {
-        Class<?> clazz = urlClassLoader.loadClass( jarFilePlugin.getClassName() );
-        if ( clazz == null ) {
-          throw new KettlePluginException( "Unable to load class: " + jarFilePlugin.getClassName() );
-        }
         List<String> libraries = Arrays.stream( urlClassLoader.getURLs() )
           .map( URL::getFile )
           .collect( Collectors.toList() );
-        Annotation annotation = clazz.getAnnotation( pluginType );
 
-        handlePluginAnnotation( clazz, annotation, libraries, false, jarFilePlugin.getPluginFolder() );
-      } catch ( Exception e ) {
-        // Ignore for now, don't know if it's even possible.
-        LogChannel.GENERAL.logError(
-          "Unexpected error registering jar plugin file: " + jarFilePlugin.getJarFile(), e );
+        for ( JarFileAnnotationPlugin jarFilePlugin : jarFilePluginsInJar ) {
+          try {
+            Class<?> clazz = urlClassLoader.loadClass( jarFilePlugin.getClassName() );
+            if ( clazz == null ) {
+              throw new KettlePluginException( "Unable to load class: " + jarFilePlugin.getClassName() );
+            }
+            Annotation annotation = clazz.getAnnotation( pluginType );
+
+            handlePluginAnnotation( clazz, annotation, new ArrayList<>( libraries ), false,
+              jarFilePlugin.getPluginFolder() );
+          } catch ( Exception e ) {
+            // Ignore for now, don't know if it's even possible.
+            LogChannel.GENERAL.logError(
+              "Unexpected error registering jar plugin file: " + jarFilePlugin.getJarFile(), e );
+          }
+        }
       } finally {
         if ( urlClassLoader != null && urlClassLoader instanceof KettleURLClassLoader ) {
           ( (KettleURLClassLoader) urlClassLoader ).closeClassLoader();
@@ -22,14 +22,29 @@
 
 package org.pentaho.di.core.plugins;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.core.util.Utils;
 import org.scannotation.AnnotationDB;
 
+/**
+ * Caches the jar files of the plugin folders and the annotations found in them. The plugin types are registered in
+ * parallel, so all access is synchronized.
+ */
 public class JarFileCache {
 
   private static JarFileCache cache;
@@ -38,19 +53,45 @@ public class JarFileCache {
 
   private final Map<FileObject, AnnotationDB> annotationMap;
 
+  /** The classes by annotation name, by jar file */
+  private final Map<FileObject, Map<String, Set<String>>> annotationIndexMap;
+
+  /** The file of the persistent plugin index or null if the index isn't used */
+  private final File indexFile;
+
+  private PluginIndex pluginIndex;
+
   private JarFileCache() {
+    this( getIndexFile() );
+  }
+
+  JarFileCache( File indexFile ) {
     annotationMap = new HashMap<>();
     folderMap = new HashMap<>();
+    annotationIndexMap = new HashMap<>();
+    this.indexFile = indexFile;
   }
 
-  public static JarFileCache getInstance() {
+  public static synchronized JarFileCache getInstance() {
     if ( cache == null ) {
       cache = new JarFileCache();
     }
     return cache;
   }
 
-  public AnnotationDB getAnnotationDB( FileObject fileObject ) throws IOException {
+  private static File getIndexFile() {
+    Boolean enabled = ValueMetaBase.convertStringToBoolean( EnvUtil.getSystemProperty( Const.KETTLE_PLUGIN_INDEX ) );
+    if ( enabled != null && !enabled ) {
+      return null;
+    }
+    String fileName = EnvUtil.getSystemProperty( Const.KETTLE_PLUGIN_INDEX_FILE );
+    if ( Utils.isEmpty( fileName ) ) {
+      fileName = Const.getKettleDirectory() + Const.FILE_SEPARATOR + "plugin-index.bin";
+    }
+    return new File( fileName );
+  }
+
+  public synchronized AnnotationDB getAnnotationDB( FileObject fileObject ) throws IOException {
     AnnotationDB result = annotationMap.get( fileObject );
     if ( result == null ) {
       result = new AnnotationDB();
@@ -60,7 +101,94 @@ public class JarFileCache {
     return result;
   }
 
-  public FileObject[] getFileObjects( PluginFolderInterface pluginFolderInterface ) throws KettleFileException {
+  /**
+   * Get the classes by annotation name in a jar file, from the plugin index if the jar file didn't change since it was
+   * last scanned.
+   *
+   * @param fileObject
+   *          the jar file
+   * @return the classes by annotation name
+   * @throws IOException
+   *           in case the jar file couldn't be scanned
+   */
+  public synchronized Map<String, Set<String>> getAnnotationIndex( FileObject fileObject ) throws IOException {
+    Map<String, Set<String>> result = annotationIndexMap.get( fileObject );
+    if ( result == null ) {
+      indexJarFiles( new FileObject[] { fileObject } );
+      result = annotationIndexMap.get( fileObject );
+      if ( result == null ) {
+        // The scan failed, scan again to report the problem
+        result = getAnnotationDB( fileObject ).getAnnotationIndex();
+        annotationIndexMap.put( fileObject, result );
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the annotations in the given jar files. Jar files which are not in the plugin index, or changed since they
+   * were added, are scanned in parallel and added to the index.
+   *
+   * @param fileObjects
+   *          the jar files
+   */
+  public synchronized void indexJarFiles( FileObject[] fileObjects ) {
+    List<JarFile> toScan = new ArrayList<>();
+    int fromIndex = 0;
+    for ( FileObject fileObject : fileObjects ) {
+      if ( annotationIndexMap.containsKey( fileObject ) ) {
+        continue;
+      }
+      JarFile jarFile = new JarFile( fileObject );
+      Map<String, Set<String>> annotationIndex = jarFile.getFromIndex( getPluginIndex() );
+      if ( annotationIndex != null ) {
+        annotationIndexMap.put( fileObject, annotationIndex );
+        fromIndex++;
+      } else {
+        toScan.add( jarFile );
+      }
+    }
+    if ( toScan.isEmpty() ) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    toScan.parallelStream().forEach( JarFile::scan );
+
+    PluginIndex index = getPluginIndex();
+    for ( JarFile jarFile : toScan ) {
+      if ( jarFile.annotationIndex != null ) {
+        annotationIndexMap.put( jarFile.fileObject, jarFile.annotationIndex );
+        if ( index != null && jarFile.uri != null ) {
+          index.put( jarFile.uri, jarFile.size, jarFile.lastModified, jarFile.annotationIndex );
+        }
+      }
+    }
+    if ( LogChannel.GENERAL.isDetailed() ) {
+      LogChannel.GENERAL.logDetailed( "Scanned " + toScan.size() + " plugin jar files in "
+        + ( System.currentTimeMillis() - start ) + "ms, " + fromIndex + " jar files were found in the plugin index" );
+    }
+    savePluginIndex();
+  }
+
+  private PluginIndex getPluginIndex() {
+    if ( pluginIndex == null && indexFile != null ) {
+      pluginIndex = PluginIndex.load( indexFile );
+    }
+    return pluginIndex;
+  }
+
+  private void savePluginIndex() {
+    if ( pluginIndex != null && pluginIndex.isChanged() ) {
+      try {
+        pluginIndex.save();
+      } catch ( IOException e ) {
+        LogChannel.GENERAL.logDetailed( "Unable to save the plugin index to " + indexFile + " : " + e.getMessage() );
+      }
+    }
+  }
+
+  public synchronized FileObject[] getFileObjects( PluginFolderInterface pluginFolderInterface ) throws KettleFileException {
     FileObject[] result = folderMap.get( pluginFolderInterface );
     if ( result == null ) {
       result = pluginFolderInterface.findJarFiles();
@@ -69,8 +197,52 @@ public class JarFileCache {
     return result;
   }
 
-  public void clear() {
+  public synchronized void clear() {
     annotationMap.clear();
     folderMap.clear();
+    annotationIndexMap.clear();
+    pluginIndex = null;
+  }
+
+  /**
+   * A jar file to look up in the plugin index or to scan.
+   */
+  private static final class JarFile {
+    private final FileObject fileObject;
+    private String uri;
+    private long size;
+    private long lastModified;
+    private Map<String, Set<String>> annotationIndex;
+
+    JarFile( FileObject fileObject ) {
+      this.fileObject = fileObject;
+      try {
+        FileContent content = fileObject.getContent();
+        size = content.getSize();
+        lastModified = content.getLastModifiedTime();
+        uri = fileObject.getName().getURI();
+      } catch ( FileSystemException e ) {
+        // Without size and modification time we can't use the index for this jar file
+        uri = null;
+      }
+    }
+
+    Map<String, Set<String>> getFromIndex( PluginIndex index ) {
+      if ( index == null || uri == null ) {
+        return null;
+      }
+      return index.get( uri, size, lastModified );
+    }
+
+    void scan() {
+      try {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanArchives( fileObject.getURL() );
+        annotationIndex = annotationDB.getAnnotationIndex();
+      } catch ( IOException | RuntimeException e ) {
+        // Scanned again by getAnnotationIndex() to report the problem
+        annotationIndex = null;
+      }
+    }
   }
 }
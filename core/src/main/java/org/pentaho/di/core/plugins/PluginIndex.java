@@ -0,0 +1,235 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index of the annotations in plugin jar files. For every jar file it keeps the size, the last
+ * modification time and the classes by annotation, as found by a scan of the jar file. As long as the size and
+ * modification time of a jar file don't change, the next start of the plugin registry can use the index instead of
+ * scanning the jar file again.<br>
+ * <br>
+ * The index is written to a temporary file which then replaces the index file, so other processes never read a half
+ * written index. A missing, outdated or damaged index file is simply ignored.
+ *
+ * @since 8.3
+ */
+public class PluginIndex {
+
+  private static final int MAGIC = 0x4b504958;
+  private static final int VERSION = 1;
+
+  private final File file;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private boolean changed;
+
+  /**
+   * Create an empty index.
+   *
+   * @param file
+   *          the file the index is saved to
+   */
+  public PluginIndex( File file ) {
+    this.file = file;
+  }
+
+  /**
+   * Read an index from a file.
+   *
+   * @param file
+   *          the index file
+   * @return the index, empty if the file doesn't exist or can't be read
+   */
+  public static PluginIndex load( File file ) {
+    PluginIndex index = new PluginIndex( file );
+    if ( !file.isFile() ) {
+      return index;
+    }
+    try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+      if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+        return index;
+      }
+      int nrEntries = in.readInt();
+      for ( int i = 0; i < nrEntries; i++ ) {
+        String jar = in.readUTF();
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        int nrAnnotations = in.readInt();
+        Map<String, Set<String>> annotationIndex = new HashMap<>( nrAnnotations * 2 );
+        for ( int a = 0; a < nrAnnotations; a++ ) {
+          String annotation = in.readUTF();
+          int nrClasses = in.readInt();
+          Set<String> classes = new HashSet<>( nrClasses * 2 );
+          for ( int c = 0; c < nrClasses; c++ ) {
+            classes.add( in.readUTF() );
+          }
+          annotationIndex.put( annotation, classes );
+        }
+        index.entries.put( jar, new Entry( size, lastModified, annotationIndex ) );
+      }
+    } catch ( IOException | RuntimeException e ) {
+      // Start over with an empty index, it's rewritten after the next scan
+      index.entries.clear();
+    }
+    return index;
+  }
+
+  /**
+   * Get the annotation index of a jar file.
+   *
+   * @param jar
+   *          the URI of the jar file
+   * @param size
+   *          the current size of the jar file
+   * @param lastModified
+   *          the current modification time of the jar file
+   * @return the classes by annotation name or null if the jar file isn't in the index or it changed since it was added
+   */
+  public synchronized Map<String, Set<String>> get( String jar, long size, long lastModified ) {
+    Entry entry = entries.get( jar );
+    if ( entry == null || entry.size != size || entry.lastModified != lastModified ) {
+      return null;
+    }
+    return entry.annotationIndex;
+  }
+
+  /**
+   * Add or replace the annotation index of a jar file.
+   */
+  public synchronized void put( String jar, long size, long lastModified, Map<String, Set<String>> annotationIndex ) {
+    entries.put( jar, new Entry( size, lastModified, Collections.unmodifiableMap( annotationIndex ) ) );
+    changed = true;
+  }
+
+  /**
+   * @return the number of jar files in the index
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return true if jar files were added since the index was loaded or saved
+   */
+  public synchronized boolean isChanged() {
+    return changed;
+  }
+
+  /**
+   * @return the file the index is saved to
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Write the index to its file. Local jar files that no longer exist are left out.
+   *
+   * @throws IOException
+   *           in case the index couldn't be written
+   */
+  public synchronized void save() throws IOException {
+    for ( Iterator<String> jars = entries.keySet().iterator(); jars.hasNext(); ) {
+      if ( isRemovedLocalFile( jars.next() ) ) {
+        jars.remove();
+      }
+    }
+
+    File folder = file.getAbsoluteFile().getParentFile();
+    if ( folder != null && !folder.exists() && !folder.mkdirs() ) {
+      throw new IOException( "Unable to create folder " + folder );
+    }
+    File tempFile = File.createTempFile( file.getName(), ".tmp", folder );
+    try {
+      try ( DataOutputStream out =
+        new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) ) ) {
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( entries.size() );
+        for ( Map.Entry<String, Entry> jarEntry : entries.entrySet() ) {
+          Entry entry = jarEntry.getValue();
+          out.writeUTF( jarEntry.getKey() );
+          out.writeLong( entry.size );
+          out.writeLong( entry.lastModified );
+          out.writeInt( entry.annotationIndex.size() );
+          for ( Map.Entry<String, Set<String>> annotation : entry.annotationIndex.entrySet() ) {
+            out.writeUTF( annotation.getKey() );
+            out.writeInt( annotation.getValue().size() );
+            for ( String className : annotation.getValue() ) {
+              out.writeUTF( className );
+            }
+          }
+        }
+      }
+      try {
+        Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE );
+      } catch ( AtomicMoveNotSupportedException e ) {
+        Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+      changed = false;
+    } finally {
+      Files.deleteIfExists( tempFile.toPath() );
+    }
+  }
+
+  private static boolean isRemovedLocalFile( String jar ) {
+    try {
+      URI uri = new URI( jar );
+      return "file".equals( uri.getScheme() ) && !new File( uri ).exists();
+    } catch ( Exception e ) {
+      return false;
+    }
+  }
+
+  private static final class Entry {
+    private final long size;
+    private final long lastModified;
+    private final Map<String, Set<String>> annotationIndex;
+
+    Entry( long size, long lastModified, Map<String, Set<String>> annotationIndex ) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.annotationIndex = annotationIndex;
+    }
+  }
+}
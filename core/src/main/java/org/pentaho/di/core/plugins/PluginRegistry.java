@@ -53,12 +53,17 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
@@ -554,11 +559,24 @@ public class PluginRegistry {
     log.snap( Metrics.METRIC_PLUGIN_REGISTRY_REGISTER_EXTENSIONS_STOP );
 
     log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_REGISTRATION_START );
-    for ( final PluginTypeInterface pluginType : pluginTypes ) {
-      log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_TYPE_REGISTRATION_START, pluginType.getName() );
-      registry.registerType( pluginType );
-      log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_TYPE_REGISTRATION_STOP, pluginType.getName() );
+
+    // Fragments are merged into the plugins of the type they track, register them once those are known
+    //
+    List<PluginTypeInterface> types = new ArrayList<>();
+    List<PluginTypeInterface> fragmentTypes = new ArrayList<>();
+    for ( PluginTypeInterface pluginType : new LinkedHashSet<>( pluginTypes ) ) {
+      if ( pluginType.isFragment() ) {
+        fragmentTypes.add( pluginType );
+      } else {
+        types.add( pluginType );
+      }
     }
+    int nrThreads =
+      Const.toInt( EnvUtil.getSystemProperty( Const.KETTLE_PLUGIN_REGISTRATION_THREADS ), Runtime.getRuntime()
+        .availableProcessors() );
+    registry.registerTypes( types, nrThreads );
+    registry.registerTypes( fragmentTypes, nrThreads );
+
     log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_REGISTRATION_STOP );
 
     /*
@@ -578,14 +596,100 @@ public class PluginRegistry {
     }
   }
 
+  /**
+   * Register the given plugin types, using up to the given number of threads. The plugin types search their plugins
+   * independently of each other. The registry extensions aren't necessarily thread safe: they are called for one plugin
+   * type at a time, in the order of the types, once all the searches are done.
+   *
+   * @throws KettlePluginException
+   *           the first error thrown by a plugin type, after all plugin types are done
+   */
+  void registerTypes( List<PluginTypeInterface> types, int nrThreads ) throws KettlePluginException {
+    nrThreads = Math.min( nrThreads, types.size() );
+    if ( nrThreads <= 1 ) {
+      for ( PluginTypeInterface pluginType : types ) {
+        registerTypeWithMetrics( pluginType );
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool( nrThreads, runnable -> {
+      Thread thread = new Thread( runnable, "PluginRegistry" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    try {
+      List<Future<Long>> futures = new ArrayList<>();
+      for ( PluginTypeInterface pluginType : types ) {
+        futures.add( executor.submit( () -> {
+          log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_TYPE_REGISTRATION_START, pluginType.getName() );
+          return searchType( pluginType );
+        } ) );
+      }
+
+      KettlePluginException error = null;
+      for ( int i = 0; i < types.size(); i++ ) {
+        PluginTypeInterface pluginType = types.get( i );
+        try {
+          long startScan = futures.get( i ).get();
+          completeType( pluginType, startScan );
+          log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_TYPE_REGISTRATION_STOP, pluginType.getName() );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new KettlePluginException( "Interrupted while registering the plugin types", e );
+        } catch ( ExecutionException e ) {
+          Throwable cause = e.getCause();
+          if ( cause instanceof Error ) {
+            throw (Error) cause;
+          }
+          if ( error == null ) {
+            error = cause instanceof KettlePluginException
+              ? (KettlePluginException) cause : new KettlePluginException( cause );
+          }
+        } catch ( KettlePluginException e ) {
+          if ( error == null ) {
+            error = e;
+          }
+        }
+      }
+      if ( error != null ) {
+        throw error;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void registerTypeWithMetrics( PluginTypeInterface pluginType ) throws KettlePluginException {
+    log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_TYPE_REGISTRATION_START, pluginType.getName() );
+    registerType( pluginType );
+    log.snap( Metrics.METRIC_PLUGIN_REGISTRY_PLUGIN_TYPE_REGISTRATION_STOP, pluginType.getName() );
+  }
+
   private void registerType( PluginTypeInterface pluginType ) throws KettlePluginException {
+    completeType( pluginType, searchType( pluginType ) );
+  }
+
+  /**
+   * Search the plugins of a plugin type, this can run in parallel with other plugin types.
+   *
+   * @return the time the search started
+   */
+  private long searchType( PluginTypeInterface pluginType ) throws KettlePluginException {
     registerPluginType( pluginType.getClass() );
 
     // Search plugins for this type...
     //
     long startScan = System.currentTimeMillis();
     pluginType.searchPlugins();
+    return startScan;
+  }
 
+  /**
+   * Let the registry extensions search for the plugin type and register the classes of KETTLE_PLUGIN_CLASSES. This is
+   * done for one plugin type at a time.
+   */
+  private void completeType( PluginTypeInterface pluginType, long startScan ) throws KettlePluginException {
     for ( PluginRegistryExtension ext : extensions ) {
       ext.searchForType( pluginType );
     }
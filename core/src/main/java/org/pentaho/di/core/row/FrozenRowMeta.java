@@ -0,0 +1,557 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleEOFException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.w3c.dom.Node;
+
+/**
+ * An immutable copy of row metadata for the data path. The value metadata is kept in an array, the field name index and
+ * the fields which need a real clone are computed once, so none of the accessors take a lock.<br>
+ * <br>
+ * The value metadata objects themselves are shared with the original row metadata. Adding, replacing or removing
+ * values throws an {@link UnsupportedOperationException}: use {@link #clone()} to get a regular {@link RowMeta} which
+ * can be changed.
+ *
+ * @since 8.3
+ */
+public class FrozenRowMeta implements RowMetaInterface {
+
+  private final ValueMetaInterface[] valueMetas;
+  private final List<ValueMetaInterface> valueMetaList;
+  private final Map<String, Integer> indexes;
+  private final int[] needRealClone;
+
+  /**
+   * Freeze the current state of some row metadata.
+   *
+   * @param rowMeta
+   *          the row metadata to copy
+   */
+  public FrozenRowMeta( RowMetaInterface rowMeta ) {
+    valueMetas = rowMeta.getValueMetaList().toArray( new ValueMetaInterface[0] );
+    valueMetaList = Collections.unmodifiableList( Arrays.asList( valueMetas ) );
+
+    indexes = new HashMap<String, Integer>( valueMetas.length * 2 );
+    int[] realClone = new int[valueMetas.length];
+    int nrRealClone = 0;
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      String name = valueMetas[i].getName();
+      if ( name != null && !indexes.containsKey( name.toLowerCase() ) ) {
+        indexes.put( name.toLowerCase(), i );
+      }
+      if ( valueMetas[i].requiresRealClone() ) {
+        realClone[nrRealClone++] = i;
+      }
+    }
+    needRealClone = Arrays.copyOf( realClone, nrRealClone );
+  }
+
+  /**
+   * @return the given row metadata if it's frozen already, otherwise a frozen copy
+   */
+  public static RowMetaInterface freeze( RowMetaInterface rowMeta ) {
+    if ( rowMeta == null || rowMeta instanceof FrozenRowMeta ) {
+      return rowMeta;
+    }
+    return new FrozenRowMeta( rowMeta );
+  }
+
+  private static UnsupportedOperationException frozen() {
+    return new UnsupportedOperationException( "This row metadata can't be changed, use a clone to make changes" );
+  }
+
+  /**
+   * @return a regular row metadata object with the same value metadata objects
+   */
+  private RowMeta toRowMeta() {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.setValueMetaList( new ArrayList<ValueMetaInterface>( valueMetaList ) );
+    return rowMeta;
+  }
+
+  /**
+   * @return a regular row metadata object with cloned value metadata, which can be changed
+   */
+  @Override
+  public RowMetaInterface clone() {
+    return toRowMeta().clone();
+  }
+
+  @Override
+  public RowMetaInterface cloneToType( int targetType ) throws KettleValueException {
+    return toRowMeta().cloneToType( targetType );
+  }
+
+  @Override
+  public List<ValueMetaInterface> getValueMetaList() {
+    return valueMetaList;
+  }
+
+  @Override
+  public void setValueMetaList( List<ValueMetaInterface> valueMetaList ) {
+    throw frozen();
+  }
+
+  @Override
+  public boolean exists( ValueMetaInterface meta ) {
+    return ( meta != null ) && searchValueMeta( meta.getName() ) != null;
+  }
+
+  @Override
+  public void addValueMeta( ValueMetaInterface meta ) {
+    throw frozen();
+  }
+
+  @Override
+  public void addValueMeta( int index, ValueMetaInterface meta ) {
+    throw frozen();
+  }
+
+  @Override
+  public ValueMetaInterface getValueMeta( int index ) {
+    if ( ( index >= 0 ) && ( index < valueMetas.length ) ) {
+      return valueMetas[index];
+    }
+    return null;
+  }
+
+  @Override
+  public void setValueMeta( int index, ValueMetaInterface valueMeta ) {
+    throw frozen();
+  }
+
+  @Override
+  public String getString( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getString( dataRow[index] );
+  }
+
+  @Override
+  public Long getInteger( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getInteger( dataRow[index] );
+  }
+
+  @Override
+  public Double getNumber( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getNumber( dataRow[index] );
+  }
+
+  @Override
+  public Date getDate( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getDate( dataRow[index] );
+  }
+
+  @Override
+  public BigDecimal getBigNumber( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getBigNumber( dataRow[index] );
+  }
+
+  @Override
+  public Boolean getBoolean( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getBoolean( dataRow[index] );
+  }
+
+  @Override
+  public byte[] getBinary( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return null;
+    }
+    return valueMetas[index].getBinary( dataRow[index] );
+  }
+
+  @Override
+  public Object[] cloneRow( Object[] objects, Object[] cloneTo ) throws KettleValueException {
+    for ( int i : needRealClone ) {
+      cloneTo[i] = valueMetas[i].cloneValueData( objects[i] );
+    }
+    return cloneTo;
+  }
+
+  @Override
+  public Object[] cloneRow( Object[] objects ) throws KettleValueException {
+    return cloneRow( objects, objects.clone() );
+  }
+
+  @Override
+  public int size() {
+    return valueMetas.length;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return valueMetas.length == 0;
+  }
+
+  @Override
+  public boolean isNull( Object[] dataRow, int index ) throws KettleValueException {
+    if ( dataRow == null ) {
+      return true;
+    }
+    return valueMetas[index].isNull( dataRow[index] );
+  }
+
+  @Override
+  public String getString( Object[] dataRow, String valueName, String defaultValue ) throws KettleValueException {
+    int index = indexOfValue( valueName );
+    if ( index < 0 ) {
+      return defaultValue;
+    }
+    return getString( dataRow, index );
+  }
+
+  @Override
+  public Long getInteger( Object[] dataRow, String valueName, Long defaultValue ) throws KettleValueException {
+    int index = indexOfValue( valueName );
+    if ( index < 0 ) {
+      return defaultValue;
+    }
+    return getInteger( dataRow, index );
+  }
+
+  @Override
+  public Date getDate( Object[] dataRow, String valueName, Date defaultValue ) throws KettleValueException {
+    int index = indexOfValue( valueName );
+    if ( index < 0 ) {
+      return defaultValue;
+    }
+    return getDate( dataRow, index );
+  }
+
+  @Override
+  public ValueMetaInterface searchValueMeta( String valueName ) {
+    int index = indexOfValue( valueName );
+    if ( index < 0 ) {
+      return null;
+    }
+    return valueMetas[index];
+  }
+
+  /**
+   * Searches the index of a value meta with a given name. The shared value metadata can still be renamed, so a hit in
+   * the index is verified and we fall back to a scan of the values, just like {@link RowMeta#indexOfValue(String)}.
+   */
+  @Override
+  public int indexOfValue( String valueName ) {
+    if ( valueName == null ) {
+      return -1;
+    }
+    Integer index = indexes.get( valueName.toLowerCase() );
+    if ( index != null && valueName.equalsIgnoreCase( valueMetas[index].getName() ) ) {
+      return index;
+    }
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      if ( valueName.equalsIgnoreCase( valueMetas[i].getName() ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void addRowMeta( RowMetaInterface rowMeta ) {
+    throw frozen();
+  }
+
+  @Override
+  public void mergeRowMeta( RowMetaInterface r ) {
+    throw frozen();
+  }
+
+  @Override
+  public void mergeRowMeta( RowMetaInterface r, String originStepName ) {
+    throw frozen();
+  }
+
+  @Override
+  public String[] getFieldNames() {
+    String[] retval = new String[valueMetas.length];
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      String valueName = valueMetas[i].getName();
+      retval[i] = valueName == null ? "" : valueName;
+    }
+    return retval;
+  }
+
+  @Override
+  public void writeMeta( DataOutputStream outputStream ) throws KettleFileException {
+    try {
+      outputStream.writeInt( valueMetas.length );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to write nr of metadata values", e );
+    }
+    for ( ValueMetaInterface valueMeta : valueMetas ) {
+      valueMeta.writeMeta( outputStream );
+    }
+  }
+
+  @Override
+  public void writeData( DataOutputStream outputStream, Object[] data ) throws KettleFileException {
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      valueMetas[i].writeData( outputStream, data[i] );
+    }
+
+    // If there are 0 values in the row, we write a marker flag to be able to detect an EOF on the other end
+    //
+    if ( valueMetas.length == 0 ) {
+      try {
+        outputStream.writeBoolean( true );
+      } catch ( IOException e ) {
+        throw new KettleFileException( "Error writing marker flag", e );
+      }
+    }
+  }
+
+  @Override
+  public Object[] readData( DataInputStream inputStream ) throws KettleFileException, SocketTimeoutException {
+    Object[] data = new Object[valueMetas.length];
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      data[i] = valueMetas[i].readData( inputStream );
+    }
+    if ( valueMetas.length == 0 ) {
+      try {
+        inputStream.readBoolean();
+      } catch ( EOFException e ) {
+        throw new KettleEOFException( e );
+      } catch ( SocketTimeoutException e ) {
+        throw e;
+      } catch ( IOException e ) {
+        throw new KettleFileException( toString() + " : Unable to read the marker flag data from input stream", e );
+      }
+    }
+    return data;
+  }
+
+  @Override
+  public void clear() {
+    throw frozen();
+  }
+
+  @Override
+  public void removeValueMeta( String string ) throws KettleValueException {
+    throw frozen();
+  }
+
+  @Override
+  public void removeValueMeta( int index ) {
+    throw frozen();
+  }
+
+  @Override
+  public String getString( Object[] row ) throws KettleValueException {
+    StringBuilder buffer = new StringBuilder();
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      if ( i > 0 ) {
+        buffer.append( ", " );
+      }
+      buffer.append( "[" );
+      buffer.append( getString( row, i ) );
+      buffer.append( "]" );
+    }
+    return buffer.toString();
+  }
+
+  @Override
+  public String[] getFieldNamesAndTypes( int maxlen ) {
+    String[] retval = new String[valueMetas.length];
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      ValueMetaInterface v = valueMetas[i];
+      retval[i] = Const.rightPad( v.getName(), maxlen ) + "   (" + v.getTypeDesc() + ")";
+    }
+    return retval;
+  }
+
+  @Override
+  public int compare( Object[] rowData1, Object[] rowData2, int[] fieldnrs ) throws KettleValueException {
+    for ( int fieldnr : fieldnrs ) {
+      int cmp = valueMetas[fieldnr].compare( rowData1[fieldnr], rowData2[fieldnr] );
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean equals( Object[] rowData1, Object[] rowData2, int[] fieldnrs ) throws KettleValueException {
+    return compare( rowData1, rowData2, fieldnrs ) == 0;
+  }
+
+  @Override
+  public int compare( Object[] rowData1, Object[] rowData2, int[] fieldnrs1, int[] fieldnrs2 )
+    throws KettleValueException {
+    int len = Math.min( fieldnrs1.length, fieldnrs2.length );
+    for ( int i = 0; i < len; i++ ) {
+      int cmp = valueMetas[fieldnrs1[i]].compare( rowData1[fieldnrs1[i]], rowData2[fieldnrs2[i]] );
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public int compare( Object[] rowData1, RowMetaInterface rowMeta2, Object[] rowData2, int[] fieldnrs1,
+    int[] fieldnrs2 ) throws KettleValueException {
+    int len = Math.min( fieldnrs1.length, fieldnrs2.length );
+    for ( int i = 0; i < len; i++ ) {
+      ValueMetaInterface valueMeta2 = rowMeta2.getValueMeta( fieldnrs2[i] );
+      int cmp = valueMetas[fieldnrs1[i]].compare( rowData1[fieldnrs1[i]], valueMeta2, rowData2[fieldnrs2[i]] );
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public int compare( Object[] rowData1, Object[] rowData2 ) throws KettleValueException {
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      int cmp = valueMetas[i].compare( rowData1[i], rowData2[i] );
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  @Deprecated
+  public int oldXORHashCode( Object[] rowData ) throws KettleValueException {
+    int hash = 0;
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      hash ^= valueMetas[i].hashCode( rowData[i] );
+    }
+    return hash;
+  }
+
+  @Override
+  public int hashCode( Object[] rowData ) throws KettleValueException {
+    return Arrays.deepHashCode( rowData );
+  }
+
+  @Override
+  public int convertedValuesHashCode( Object[] rowData ) throws KettleValueException {
+    if ( rowData == null ) {
+      return 0;
+    }
+    int result = 1;
+    for ( int i = 0; i < rowData.length; i++ ) {
+      result = 31 * result + getValueMeta( i ).hashCode();
+    }
+    return result;
+  }
+
+  @Override
+  public String toStringMeta() {
+    StringBuilder buffer = new StringBuilder();
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      if ( i > 0 ) {
+        buffer.append( ", " );
+      }
+      buffer.append( "[" ).append( valueMetas[i].toStringMeta() ).append( "]" );
+    }
+    return buffer.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buffer = new StringBuilder();
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      if ( i > 0 ) {
+        buffer.append( ", " );
+      }
+      buffer.append( "[" ).append( valueMetas[i].toString() ).append( "]" );
+    }
+    return buffer.toString();
+  }
+
+  @Override
+  public String getMetaXML() throws IOException {
+    StringBuilder xml = new StringBuilder();
+    xml.append( "<" ).append( RowMeta.XML_META_TAG ).append( ">" );
+    for ( ValueMetaInterface valueMeta : valueMetas ) {
+      xml.append( valueMeta.getMetaXML() );
+    }
+    xml.append( "</" ).append( RowMeta.XML_META_TAG ).append( ">" );
+    return xml.toString();
+  }
+
+  @Override
+  public String getDataXML( Object[] rowData ) throws IOException {
+    StringBuilder xml = new StringBuilder();
+    xml.append( "<" ).append( RowMeta.XML_DATA_TAG ).append( ">" );
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      xml.append( valueMetas[i].getDataXML( rowData[i] ) );
+    }
+    xml.append( "</" ).append( RowMeta.XML_DATA_TAG ).append( ">" );
+    return xml.toString();
+  }
+
+  @Override
+  public Object[] getRow( Node node ) throws KettleException {
+    Object[] rowData = RowDataUtil.allocateRowData( valueMetas.length );
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      Node valueDataNode = XMLHandler.getSubNodeByNr( node, ValueMeta.XML_DATA_TAG, i );
+      rowData[i] = valueMetas[i].getValue( valueDataNode );
+    }
+    return rowData;
+  }
+}
@@ -0,0 +1,347 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core.row;
+
+/**
+ * A batch of rows stored column by column. Integer, Number and Boolean values in normal storage are kept in primitive
+ * arrays, so they don't need a boxed object per value. All other values are kept as they are. Every column has a null
+ * bitmap.<br>
+ * <br>
+ * Rows are appended with {@link #addRow(Object[])} and can be read back as classic Object[] rows with
+ * {@link #getRow(int)}, which is how a batch is handed to a step that doesn't know about batches. Steps that do can
+ * read the column values directly. Every value is stored once: {@link #getRow(int)} boxes primitive values again.<br>
+ * <br>
+ * A batch is filled by one thread. Once it's handed to another step it should no longer be modified.
+ *
+ * @since 8.3
+ */
+public class RowBatch {
+
+  private static final int KIND_OBJECT = 0;
+  private static final int KIND_LONG = 1;
+  private static final int KIND_DOUBLE = 2;
+  private static final int KIND_BOOLEAN = 3;
+
+  private final RowMetaInterface rowMeta;
+  private final Column[] columns;
+  private final int capacity;
+  private int size;
+
+  /**
+   * Create a new empty batch.
+   *
+   * @param rowMeta
+   *          the layout of the rows in the batch
+   * @param capacity
+   *          the maximum number of rows in the batch
+   */
+  public RowBatch( RowMetaInterface rowMeta, int capacity ) {
+    this.rowMeta = rowMeta;
+    this.capacity = Math.max( 1, capacity );
+    this.columns = new Column[rowMeta.size()];
+    for ( int i = 0; i < columns.length; i++ ) {
+      columns[i] = new Column( kindOf( rowMeta.getValueMeta( i ) ), this.capacity );
+    }
+  }
+
+  private RowBatch( RowMetaInterface rowMeta, Column[] columns, int capacity, int size ) {
+    this.rowMeta = rowMeta;
+    this.columns = columns;
+    this.capacity = capacity;
+    this.size = size;
+  }
+
+  private static int kindOf( ValueMetaInterface valueMeta ) {
+    if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+      return KIND_OBJECT;
+    }
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return KIND_LONG;
+      case ValueMetaInterface.TYPE_NUMBER:
+        return KIND_DOUBLE;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return KIND_BOOLEAN;
+      default:
+        return KIND_OBJECT;
+    }
+  }
+
+  /**
+   * Append a row to this batch.
+   *
+   * @param row
+   *          the row data, only the values described by the row metadata are stored
+   * @return false if the batch is full and the row was not added
+   */
+  public boolean addRow( Object[] row ) {
+    if ( size >= capacity ) {
+      return false;
+    }
+    for ( int i = 0; i < columns.length; i++ ) {
+      columns[i].set( size, i < row.length ? row[i] : null );
+    }
+    size++;
+    return true;
+  }
+
+  /**
+   * Build a classic row from the values of the given row in this batch.
+   *
+   * @param rowNr
+   *          the row number in the batch
+   * @return a new row data array
+   */
+  public Object[] getRow( int rowNr ) {
+    checkRowNr( rowNr );
+    Object[] row = RowDataUtil.allocateRowData( columns.length );
+    for ( int i = 0; i < columns.length; i++ ) {
+      row[i] = columns[i].get( rowNr );
+    }
+    return row;
+  }
+
+  /**
+   * Create a batch with a subset of the columns of this one, in the given order. The column data is shared, nothing is
+   * copied.
+   *
+   * @param selectRowMeta
+   *          the layout of the new batch
+   * @param columnIndexes
+   *          for every column of the new batch the index of the column in this batch
+   * @return the new batch
+   */
+  public RowBatch selectColumns( RowMetaInterface selectRowMeta, int[] columnIndexes ) {
+    Column[] selected = new Column[columnIndexes.length];
+    for ( int i = 0; i < columnIndexes.length; i++ ) {
+      selected[i] = columns[columnIndexes[i]];
+    }
+    return new RowBatch( selectRowMeta, selected, capacity, size );
+  }
+
+  /**
+   * @return the layout of the rows in this batch
+   */
+  public RowMetaInterface getRowMeta() {
+    return rowMeta;
+  }
+
+  /**
+   * @return the number of rows in this batch
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the maximum number of rows in this batch
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isFull() {
+    return size >= capacity;
+  }
+
+  /**
+   * @return true if the values of the given column are kept in a long array, see {@link #getLong(int, int)}
+   */
+  public boolean isLongColumn( int columnNr ) {
+    return columns[columnNr].kind == KIND_LONG;
+  }
+
+  /**
+   * @return true if the values of the given column are kept in a double array, see {@link #getDouble(int, int)}
+   */
+  public boolean isDoubleColumn( int columnNr ) {
+    return columns[columnNr].kind == KIND_DOUBLE;
+  }
+
+  /**
+   * @return true if the values of the given column are kept in a boolean array, see {@link #getBoolean(int, int)}
+   */
+  public boolean isBooleanColumn( int columnNr ) {
+    return columns[columnNr].kind == KIND_BOOLEAN;
+  }
+
+  public boolean isNull( int columnNr, int rowNr ) {
+    checkRowNr( rowNr );
+    return columns[columnNr].isNull( rowNr );
+  }
+
+  /**
+   * @return the primitive value, 0 for null values
+   * @throws IllegalStateException
+   *           if the column isn't a long column
+   */
+  public long getLong( int columnNr, int rowNr ) {
+    checkRowNr( rowNr );
+    return columns[columnNr].checkKind( KIND_LONG ).longs[rowNr];
+  }
+
+  /**
+   * @return the primitive value, 0 for null values
+   * @throws IllegalStateException
+   *           if the column isn't a double column
+   */
+  public double getDouble( int columnNr, int rowNr ) {
+    checkRowNr( rowNr );
+    return columns[columnNr].checkKind( KIND_DOUBLE ).doubles[rowNr];
+  }
+
+  /**
+   * @return the primitive value, false for null values
+   * @throws IllegalStateException
+   *           if the column isn't a boolean column
+   */
+  public boolean getBoolean( int columnNr, int rowNr ) {
+    checkRowNr( rowNr );
+    return columns[columnNr].checkKind( KIND_BOOLEAN ).booleans[rowNr];
+  }
+
+  /**
+   * @return the value as it would appear in a classic row, boxed if needed
+   */
+  public Object getObject( int columnNr, int rowNr ) {
+    checkRowNr( rowNr );
+    return columns[columnNr].get( rowNr );
+  }
+
+  private void checkRowNr( int rowNr ) {
+    if ( rowNr < 0 || rowNr >= size ) {
+      throw new IndexOutOfBoundsException( "Row " + rowNr + " is not in this batch of " + size + " rows" );
+    }
+  }
+
+  /**
+   * The values of one column. A primitive column that receives a value of an unexpected class (mixed row layouts) is
+   * turned into an object column.
+   */
+  private static final class Column {
+    private int kind;
+    private final long[] nulls;
+    private long[] longs;
+    private double[] doubles;
+    private boolean[] booleans;
+    private Object[] objects;
+
+    Column( int kind, int capacity ) {
+      this.kind = kind;
+      this.nulls = new long[( capacity + 63 ) >>> 6];
+      switch ( kind ) {
+        case KIND_LONG:
+          longs = new long[capacity];
+          break;
+        case KIND_DOUBLE:
+          doubles = new double[capacity];
+          break;
+        case KIND_BOOLEAN:
+          booleans = new boolean[capacity];
+          break;
+        default:
+          objects = new Object[capacity];
+          break;
+      }
+    }
+
+    void set( int rowNr, Object value ) {
+      if ( value == null ) {
+        nulls[rowNr >>> 6] |= 1L << rowNr;
+        return;
+      }
+      switch ( kind ) {
+        case KIND_LONG:
+          if ( value instanceof Long ) {
+            longs[rowNr] = (Long) value;
+            return;
+          }
+          break;
+        case KIND_DOUBLE:
+          if ( value instanceof Double ) {
+            doubles[rowNr] = (Double) value;
+            return;
+          }
+          break;
+        case KIND_BOOLEAN:
+          if ( value instanceof Boolean ) {
+            booleans[rowNr] = (Boolean) value;
+            return;
+          }
+          break;
+        default:
+          objects[rowNr] = value;
+          return;
+      }
+      toObjects( rowNr );
+      objects[rowNr] = value;
+    }
+
+    Object get( int rowNr ) {
+      if ( isNull( rowNr ) ) {
+        return null;
+      }
+      if ( kind == KIND_OBJECT ) {
+        return objects[rowNr];
+      }
+      switch ( kind ) {
+        case KIND_LONG:
+          return longs[rowNr];
+        case KIND_DOUBLE:
+          return doubles[rowNr];
+        default:
+          return booleans[rowNr];
+      }
+    }
+
+    boolean isNull( int rowNr ) {
+      return ( nulls[rowNr >>> 6] & ( 1L << rowNr ) ) != 0;
+    }
+
+    Column checkKind( int expectedKind ) {
+      if ( kind != expectedKind ) {
+        throw new IllegalStateException( "This column doesn't hold primitive values of the requested type" );
+      }
+      return this;
+    }
+
+    /**
+     * Box the values of the first rowNr rows and continue as an object column.
+     */
+    private void toObjects( int rowNr ) {
+      Object[] values = new Object[nulls.length << 6];
+      for ( int i = 0; i < rowNr; i++ ) {
+        values[i] = get( i );
+      }
+      objects = values;
+      kind = KIND_OBJECT;
+      longs = null;
+      doubles = null;
+      booleans = null;
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row.value;
+
+import java.text.DecimalFormat;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A conversion mask compiled for use by many threads at the same time without taking a lock.<br>
+ * <br>
+ * Every thread gets its own copy of the decimal or date format, together with a parse position it can re-use. On top
+ * of that plain masks get a fast path: integers and decimals without grouping, prefixes or suffixes are parsed and
+ * integers are formatted without the format, dates with only numeric fields are formatted with an immutable
+ * {@link DateTimeFormatter}. Values the fast path doesn't handle go through the format, so the results are always the
+ * same as those of the format.<br>
+ * <br>
+ * Compiled masks are cached by format: equal formats, in other words the same pattern, locale symbols, time zone and
+ * leniency, share a compiled mask.
+ *
+ * @since 8.3
+ */
+final class CompiledMask {
+
+  /** The cache is simply emptied when it holds more compiled masks than this */
+  static final int MAX_CACHE_SIZE = 1000;
+
+  /** The maximum number of digits of a plain decimal which is parsed exactly without the format */
+  private static final int MAX_PLAIN_DECIMAL_DIGITS = 15;
+
+  /** The maximum number of digits of a plain integer which can't overflow a long */
+  private static final int MAX_PLAIN_INTEGER_DIGITS = 18;
+
+  private static final double[] POWERS_OF_TEN = new double[MAX_PLAIN_DECIMAL_DIGITS + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for ( int i = 1; i < POWERS_OF_TEN.length; i++ ) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+    }
+  }
+
+  private static final Map<Format, CompiledMask> cache = new ConcurrentHashMap<>();
+
+  private final Format prototype;
+  private final ThreadLocal<ThreadFormat> threadFormats;
+
+  /** Set if plain numbers can be parsed without the format */
+  private final boolean plainNumber;
+  private final char decimalSeparator;
+
+  /** Set if integers can be formatted without the format */
+  private final boolean plainInteger;
+  private final int minimumIntegerDigits;
+
+  /** The immutable formatter for dates with only numeric fields, or null */
+  private final DateTimeFormatter dateTimeFormatter;
+  private final ZoneId zoneId;
+  private final long gregorianChange;
+
+  private CompiledMask( Format format ) {
+    prototype = (Format) format.clone();
+    threadFormats = ThreadLocal.withInitial( () -> new ThreadFormat( (Format) prototype.clone() ) );
+
+    if ( prototype instanceof DecimalFormat ) {
+      DecimalFormat decimalFormat = (DecimalFormat) prototype;
+      plainNumber = isPlainNumber( decimalFormat );
+      decimalSeparator = decimalFormat.getDecimalFormatSymbols().getDecimalSeparator();
+      plainInteger = plainNumber && isPlainInteger( decimalFormat );
+      minimumIntegerDigits = decimalFormat.getMinimumIntegerDigits();
+    } else {
+      plainNumber = false;
+      decimalSeparator = '.';
+      plainInteger = false;
+      minimumIntegerDigits = 0;
+    }
+
+    DateTimeFormatter formatter = null;
+    ZoneId zone = null;
+    long change = Long.MAX_VALUE;
+    if ( prototype instanceof SimpleDateFormat ) {
+      SimpleDateFormat dateFormat = (SimpleDateFormat) prototype;
+      zone = getZoneId( dateFormat.getTimeZone() );
+      if ( zone != null && hasPlainCalendar( dateFormat ) ) {
+        formatter = buildDateTimeFormatter( dateFormat.toPattern() );
+        change = ( (GregorianCalendar) dateFormat.getCalendar() ).getGregorianChange().getTime();
+      }
+    }
+    dateTimeFormatter = formatter;
+    zoneId = zone;
+    gregorianChange = change;
+  }
+
+  /**
+   * Get the compiled mask for a decimal or date format. The format is copied, later changes to it have no effect.
+   *
+   * @param format
+   *          the format to compile
+   * @return the compiled mask, shared with all equal formats
+   */
+  static CompiledMask getInstance( Format format ) {
+    CompiledMask compiledMask = cache.get( format );
+    if ( compiledMask == null ) {
+      compiledMask = new CompiledMask( format );
+      if ( cache.size() >= MAX_CACHE_SIZE ) {
+        cache.clear();
+      }
+      CompiledMask existing = cache.putIfAbsent( compiledMask.prototype, compiledMask );
+      if ( existing != null ) {
+        compiledMask = existing;
+      }
+    }
+    return compiledMask;
+  }
+
+  static int getCacheSize() {
+    return cache.size();
+  }
+
+  /**
+   * @return the decimal format of the calling thread
+   */
+  DecimalFormat getDecimalFormat() {
+    return (DecimalFormat) threadFormats.get().format;
+  }
+
+  /**
+   * @return the date format of the calling thread
+   */
+  SimpleDateFormat getDateFormat() {
+    return (SimpleDateFormat) threadFormats.get().format;
+  }
+
+  /**
+   * @return the parse position of the calling thread, reset to the start of the text
+   */
+  ParsePosition getParsePosition() {
+    ParsePosition parsePosition = threadFormats.get().parsePosition;
+    parsePosition.setIndex( 0 );
+    parsePosition.setErrorIndex( -1 );
+    return parsePosition;
+  }
+
+  /**
+   * Parse an integer consisting of nothing but an optional minus sign and digits.
+   *
+   * @return the integer or null if the string isn't such a plain integer
+   */
+  Long parsePlainLong( String string ) {
+    if ( !plainNumber ) {
+      return null;
+    }
+    int length = string.length();
+    int start = length > 0 && string.charAt( 0 ) == '-' ? 1 : 0;
+    if ( length == start || length - start > MAX_PLAIN_INTEGER_DIGITS ) {
+      return null;
+    }
+    long value = 0L;
+    for ( int i = start; i < length; i++ ) {
+      char c = string.charAt( i );
+      if ( c < '0' || c > '9' ) {
+        return null;
+      }
+      value = value * 10 + ( c - '0' );
+    }
+    return start == 0 ? value : -value;
+  }
+
+  /**
+   * Parse a decimal consisting of nothing but an optional minus sign, digits and optionally the decimal separator
+   * followed by more digits.
+   *
+   * @return the number or null if the string isn't such a plain decimal
+   */
+  Double parsePlainDouble( String string ) {
+    if ( !plainNumber ) {
+      return null;
+    }
+    int length = string.length();
+    int start = length > 0 && string.charAt( 0 ) == '-' ? 1 : 0;
+    long mantissa = 0L;
+    int digits = 0;
+    int scale = -1;
+    for ( int i = start; i < length; i++ ) {
+      char c = string.charAt( i );
+      if ( c >= '0' && c <= '9' ) {
+        mantissa = mantissa * 10 + ( c - '0' );
+        if ( ++digits > MAX_PLAIN_DECIMAL_DIGITS ) {
+          return null;
+        }
+        if ( scale >= 0 ) {
+          scale++;
+        }
+      } else if ( c == decimalSeparator && scale < 0 && digits > 0 ) {
+        scale = 0;
+      } else {
+        return null;
+      }
+    }
+    if ( digits == 0 || scale == 0 ) {
+      return null;
+    }
+    // Both operands are exact, so the division is rounded just like the parsed digits
+    //
+    double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : (double) mantissa;
+    return start == 0 ? value : -value;
+  }
+
+  /**
+   * @return the formatted integer or null if the mask isn't a plain integer mask
+   */
+  String formatPlainLong( long value ) {
+    if ( !plainInteger ) {
+      return null;
+    }
+    String digits = Long.toString( value );
+    int signLength = value < 0 ? 1 : 0;
+    int padding = minimumIntegerDigits - ( digits.length() - signLength );
+    if ( padding <= 0 ) {
+      return digits;
+    }
+    StringBuilder formatted = new StringBuilder( digits.length() + padding );
+    if ( signLength > 0 ) {
+      formatted.append( '-' );
+    }
+    for ( int i = 0; i < padding; i++ ) {
+      formatted.append( '0' );
+    }
+    return formatted.append( digits, signLength, digits.length() ).toString();
+  }
+
+  /**
+   * Format a date, with the immutable date time formatter if the mask only has numeric fields.
+   */
+  String formatDate( Date date ) {
+    long time = date.getTime();
+    if ( dateTimeFormatter != null && time >= gregorianChange ) {
+      return dateTimeFormatter.format( Instant.ofEpochMilli( time ).atZone( zoneId ) );
+    }
+    return getDateFormat().format( date );
+  }
+
+  boolean isPlainNumber() {
+    return plainNumber;
+  }
+
+  boolean isPlainInteger() {
+    return plainInteger;
+  }
+
+  boolean hasDateTimeFormatter() {
+    return dateTimeFormatter != null;
+  }
+
+  private static boolean isPlainNumber( DecimalFormat format ) {
+    return format.getMultiplier() == 1
+      && !format.isParseIntegerOnly()
+      && format.getPositivePrefix().isEmpty()
+      && format.getPositiveSuffix().isEmpty()
+      && "-".equals( format.getNegativePrefix() )
+      && format.getNegativeSuffix().isEmpty()
+      && format.toPattern().indexOf( 'E' ) < 0;
+  }
+
+  private static boolean isPlainInteger( DecimalFormat format ) {
+    return !format.isGroupingUsed()
+      && !format.isDecimalSeparatorAlwaysShown()
+      && format.getMinimumFractionDigits() == 0
+      && format.getMaximumIntegerDigits() >= MAX_PLAIN_INTEGER_DIGITS + 1;
+  }
+
+  private static boolean hasPlainCalendar( SimpleDateFormat format ) {
+    NumberFormat numberFormat = format.getNumberFormat();
+    return format.getCalendar().getClass() == GregorianCalendar.class
+      && numberFormat instanceof DecimalFormat
+      && ( (DecimalFormat) numberFormat ).getDecimalFormatSymbols().getZeroDigit() == '0';
+  }
+
+  private static ZoneId getZoneId( TimeZone timeZone ) {
+    try {
+      ZoneId zone = timeZone.toZoneId();
+      return timeZone.hasSameRules( TimeZone.getTimeZone( zone ) ) ? zone : null;
+    } catch ( RuntimeException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * Build a formatter giving the same results as a simple date format with the given pattern. Only years, months,
+   * days, hours, minutes, seconds and milliseconds formatted as numbers are supported.
+   *
+   * @return the formatter or null if the pattern has other fields
+   */
+  static DateTimeFormatter buildDateTimeFormatter( String pattern ) {
+    DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+    int length = pattern.length();
+    int i = 0;
+    while ( i < length ) {
+      char c = pattern.charAt( i );
+      if ( c == '\'' ) {
+        // Quoted text, two quotes are a quote
+        //
+        int end = i + 1;
+        if ( end < length && pattern.charAt( end ) == '\'' ) {
+          builder.appendLiteral( '\'' );
+          i = end + 1;
+          continue;
+        }
+        StringBuilder text = new StringBuilder();
+        while ( true ) {
+          if ( end >= length ) {
+            return null;
+          }
+          char q = pattern.charAt( end );
+          if ( q == '\'' ) {
+            if ( end + 1 < length && pattern.charAt( end + 1 ) == '\'' ) {
+              text.append( '\'' );
+              end += 2;
+              continue;
+            }
+            break;
+          }
+          text.append( q );
+          end++;
+        }
+        builder.appendLiteral( text.toString() );
+        i = end + 1;
+      } else if ( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) ) {
+        int count = 1;
+        while ( i + count < length && pattern.charAt( i + count ) == c ) {
+          count++;
+        }
+        ChronoField field;
+        switch ( c ) {
+          case 'y':
+            field = ChronoField.YEAR_OF_ERA;
+            break;
+          case 'M':
+            field = count <= 2 ? ChronoField.MONTH_OF_YEAR : null;
+            break;
+          case 'd':
+            field = ChronoField.DAY_OF_MONTH;
+            break;
+          case 'H':
+            field = ChronoField.HOUR_OF_DAY;
+            break;
+          case 'm':
+            field = ChronoField.MINUTE_OF_HOUR;
+            break;
+          case 's':
+            field = ChronoField.SECOND_OF_MINUTE;
+            break;
+          case 'S':
+            field = ChronoField.MILLI_OF_SECOND;
+            break;
+          default:
+            field = null;
+            break;
+        }
+        if ( field == null || count > 19 ) {
+          return null;
+        }
+        if ( c == 'y' && count == 2 ) {
+          builder.appendValueReduced( field, 2, 2, 2000 );
+        } else {
+          builder.appendValue( field, count, 19, SignStyle.NORMAL );
+        }
+        i += count;
+      } else {
+        builder.appendLiteral( c );
+        i++;
+      }
+    }
+    return builder.toFormatter();
+  }
+
+  /**
+   * The copy of the format and the parse position used by a single thread.
+   */
+  private static final class ThreadFormat {
+    private final Format format;
+    private final ParsePosition parsePosition = new ParsePosition( 0 );
+
+    ThreadFormat( Format format ) {
+      this.format = format;
+    }
+  }
+}
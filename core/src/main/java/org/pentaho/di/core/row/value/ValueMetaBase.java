@@ -69,6 +69,7 @@ import java.sql.Types;
 import java.text.Collator;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.text.Format;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.ParsePosition;
@@ -157,6 +158,12 @@ public class ValueMetaBase implements ValueMetaInterface {
   protected DecimalFormat decimalFormat;
   protected boolean decimalFormatChanged;
 
+  /** The compiled version of the date format, used for conversions without a lock while the format is unchanged */
+  private volatile CompiledFormat compiledDateFormat;
+
+  /** The compiled version of the decimal format, used for conversions without a lock while the format is unchanged */
+  private volatile CompiledFormat compiledDecimalFormat;
+
   protected ValueMetaInterface storageMetadata;
   protected boolean identicalFormat;
 
@@ -435,6 +442,8 @@ public class ValueMetaBase implements ValueMetaInterface {
       ValueMetaBase valueMeta = (ValueMetaBase) super.clone();
       valueMeta.dateFormat = null;
       valueMeta.decimalFormat = null;
+      valueMeta.compiledDateFormat = null;
+      valueMeta.compiledDecimalFormat = null;
       if ( dateFormatLocale != null ) {
         valueMeta.dateFormatLocale = (Locale) dateFormatLocale.clone();
       }
@@ -896,24 +905,37 @@ public class ValueMetaBase implements ValueMetaInterface {
 
   // DATE + STRING
 
-  protected synchronized String convertDateToString( Date date ) {
+  protected String convertDateToString( Date date ) {
     if ( date == null ) {
       return null;
     }
 
-    return getDateFormat().format( date );
+    CompiledMask mask = getCompiledDateFormat();
+    if ( mask != null ) {
+      return mask.formatDate( date );
+    }
+    synchronized ( this ) {
+      return getDateFormat().format( date );
+    }
   }
 
   protected static SimpleDateFormat compatibleDateFormat = new SimpleDateFormat( COMPATIBLE_DATE_FORMAT_PATTERN );
 
-  protected synchronized String convertDateToCompatibleString( Date date ) {
+  private static volatile CompiledFormat compiledCompatibleDateFormat;
+
+  protected String convertDateToCompatibleString( Date date ) {
     if ( date == null ) {
       return null;
     }
-    return compatibleDateFormat.format( date );
+    CompiledFormat compiled = compiledCompatibleDateFormat;
+    if ( compiled == null || compiled.source != compatibleDateFormat ) {
+      compiled = new CompiledFormat( compatibleDateFormat, CompiledMask.getInstance( compatibleDateFormat ) );
+      compiledCompatibleDateFormat = compiled;
+    }
+    return compiled.mask.formatDate( date );
   }
 
-  protected synchronized Date convertStringToDate( String string ) throws KettleValueException {
+  protected Date convertStringToDate( String string ) throws KettleValueException {
     string = Const.trimToType( string, getTrimType() ); // see if trimming needs
     // to be performed before
     // conversion
@@ -922,9 +944,22 @@ public class ValueMetaBase implements ValueMetaInterface {
       return null;
     }
 
+    CompiledMask mask = getCompiledDateFormat();
+    if ( mask != null ) {
+      Date result = mask.getDateFormat().parse( string, mask.getParsePosition() );
+      if ( result != null ) {
+        return result;
+      }
+    }
+    synchronized ( this ) {
+      return convertStringToDate( getDateFormat( TYPE_DATE ), string );
+    }
+  }
+
+  private Date convertStringToDate( SimpleDateFormat format, String string ) throws KettleValueException {
     try {
       ParsePosition pp = new ParsePosition( 0 );
-      Date result = getDateFormat( TYPE_DATE ).parse( string, pp );
+      Date result = format.parse( string, pp );
       if ( pp.getErrorIndex() >= 0 ) {
         // error happen
         throw new ParseException( string, pp.getErrorIndex() );
@@ -988,28 +1023,37 @@ public class ValueMetaBase implements ValueMetaInterface {
       }
     }
 
-    try {
-      DecimalFormat format = getDecimalFormat( false );
+    // When conversion masks are different, we must ensure the number precision is not lost
+    boolean keepPrecision = this.conversionMask != null && storageMetadata != null
+      && !this.conversionMask.equals( storageMetadata.getConversionMask() );
 
-      // When conversion masks are different, we must ensure the number precision is not lost
-      if ( this.conversionMask != null && storageMetadata != null
-              && !this.conversionMask.equals( storageMetadata.getConversionMask() ) ) {
-        format.setMaximumFractionDigits( 50 );
+    try {
+      CompiledMask mask = keepPrecision ? null : getCompiledDecimalFormat();
+      if ( mask != null ) {
+        return mask.getDecimalFormat().format( number );
+      }
+      synchronized ( this ) {
+        DecimalFormat format = getDecimalFormat( false );
+        if ( keepPrecision ) {
+          format.setMaximumFractionDigits( 50 );
+          // The shared format no longer matches its compiled version
+          compiledDecimalFormat = null;
+        }
+        return format.format( number );
       }
-      return format.format( number );
     } catch ( Exception e ) {
       throw new KettleValueException( toString() + " : couldn't convert Number to String ", e );
     }
   }
 
-  protected synchronized String convertNumberToCompatibleString( Double number ) throws KettleValueException {
+  protected String convertNumberToCompatibleString( Double number ) throws KettleValueException {
     if ( number == null ) {
       return null;
     }
     return Double.toString( number );
   }
 
-  protected synchronized Double convertStringToNumber( String string ) throws KettleValueException {
+  protected Double convertStringToNumber( String string ) throws KettleValueException {
     string = Const.trimToType( string, getTrimType() ); // see if trimming needs
     // to be performed before
     // conversion
@@ -1019,28 +1063,64 @@ public class ValueMetaBase implements ValueMetaInterface {
     }
 
     try {
-      DecimalFormat format = getDecimalFormat( false );
-      Number number;
-      if ( lenientStringToNumber ) {
-        number = format.parse( string );
-      } else {
-        ParsePosition parsePosition = new ParsePosition( 0 );
-        number = format.parse( string, parsePosition );
-
-        if ( parsePosition.getIndex() < string.length() ) {
-          throw new KettleValueException( toString()
-              + " : couldn't convert String to number : non-numeric character found at position "
-              + ( parsePosition.getIndex() + 1 ) + " for value [" + string + "]" );
+      CompiledMask mask = getCompiledDecimalFormat();
+      if ( mask != null ) {
+        Double plain = mask.parsePlainDouble( string );
+        if ( plain != null ) {
+          return plain;
         }
-
+        return parseNumber( mask.getDecimalFormat(), mask.getParsePosition(), string ).doubleValue();
+      }
+      synchronized ( this ) {
+        return parseNumber( getDecimalFormat( false ), new ParsePosition( 0 ), string ).doubleValue();
       }
-
-      return new Double( number.doubleValue() );
     } catch ( Exception e ) {
       throw new KettleValueException( toString() + " : couldn't convert String to number ", e );
     }
   }
 
+  /**
+   * Parse a number with the given format. Unless we're lenient the complete string needs to be parsed.
+   */
+  private Number parseNumber( DecimalFormat format, ParsePosition parsePosition, String string )
+    throws ParseException, KettleValueException {
+    if ( lenientStringToNumber ) {
+      return format.parse( string );
+    }
+    Number number = format.parse( string, parsePosition );
+
+    if ( parsePosition.getIndex() < string.length() ) {
+      throw new KettleValueException( toString()
+          + " : couldn't convert String to number : non-numeric character found at position "
+          + ( parsePosition.getIndex() + 1 ) + " for value [" + string + "]" );
+    }
+    return number;
+  }
+
+  /**
+   * @return the compiled version of the date format, or null if it's not available and the date format needs to be
+   *         used while holding the lock
+   */
+  private CompiledMask getCompiledDateFormat() {
+    CompiledFormat compiled = compiledDateFormat;
+    if ( compiled == null || conversionMetadata != null || dateFormatChanged || compiled.source != dateFormat ) {
+      return null;
+    }
+    return compiled.mask;
+  }
+
+  /**
+   * @return the compiled version of the decimal format, or null if it's not available and the decimal format needs to
+   *         be used while holding the lock
+   */
+  private CompiledMask getCompiledDecimalFormat() {
+    CompiledFormat compiled = compiledDecimalFormat;
+    if ( compiled == null || conversionMetadata != null || decimalFormatChanged || compiled.source != decimalFormat ) {
+      return null;
+    }
+    return compiled.mask;
+  }
+
   @Override
   public synchronized SimpleDateFormat getDateFormat() {
     return getDateFormat( getType() );
@@ -1088,6 +1168,7 @@ public class ValueMetaBase implements ValueMetaInterface {
       //
       dateFormat.setLenient( dateFormatLenient );
 
+      compiledDateFormat = new CompiledFormat( dateFormat, CompiledMask.getInstance( dateFormat ) );
       dateFormatChanged = false;
     }
 
@@ -1137,6 +1218,7 @@ public class ValueMetaBase implements ValueMetaInterface {
         decimalFormat.applyPattern( decimalPattern );
       }
 
+      compiledDecimalFormat = new CompiledFormat( decimalFormat, CompiledMask.getInstance( decimalFormat ) );
       decimalFormatChanged = false;
     }
 
@@ -1309,20 +1391,27 @@ public class ValueMetaBase implements ValueMetaInterface {
     }
 
     try {
-      return getDecimalFormat( false ).format( integer );
+      CompiledMask mask = getCompiledDecimalFormat();
+      if ( mask != null ) {
+        String plain = mask.formatPlainLong( integer );
+        return plain != null ? plain : mask.getDecimalFormat().format( integer );
+      }
+      synchronized ( this ) {
+        return getDecimalFormat( false ).format( integer );
+      }
     } catch ( Exception e ) {
       throw new KettleValueException( toString() + " : couldn't convert Long to String ", e );
     }
   }
 
-  protected synchronized String convertIntegerToCompatibleString( Long integer ) throws KettleValueException {
+  protected String convertIntegerToCompatibleString( Long integer ) throws KettleValueException {
     if ( integer == null ) {
       return null;
     }
     return Long.toString( integer );
   }
 
-  protected synchronized Long convertStringToInteger( String string ) throws KettleValueException {
+  protected Long convertStringToInteger( String string ) throws KettleValueException {
     string = Const.trimToType( string, getTrimType() ); // see if trimming needs
     // to be performed before
     // conversion
@@ -1332,39 +1421,41 @@ public class ValueMetaBase implements ValueMetaInterface {
     }
 
     try {
-      Number number;
-      if ( lenientStringToNumber ) {
-        number = new Long( getDecimalFormat( false ).parse( string ).longValue() );
-      } else {
-        ParsePosition parsePosition = new ParsePosition( 0 );
-        number = getDecimalFormat( false ).parse( string, parsePosition );
-
-        if ( parsePosition.getIndex() < string.length() ) {
-          throw new KettleValueException( toString()
-              + " : couldn't convert String to number : non-numeric character found at position "
-              + ( parsePosition.getIndex() + 1 ) + " for value [" + string + "]" );
+      CompiledMask mask = getCompiledDecimalFormat();
+      if ( mask != null ) {
+        Long plain = mask.parsePlainLong( string );
+        if ( plain != null ) {
+          return plain;
         }
-
+        return parseNumber( mask.getDecimalFormat(), mask.getParsePosition(), string ).longValue();
+      }
+      synchronized ( this ) {
+        return parseNumber( getDecimalFormat( false ), new ParsePosition( 0 ), string ).longValue();
       }
-      return new Long( number.longValue() );
     } catch ( Exception e ) {
       throw new KettleValueException( toString() + " : couldn't convert String to Integer", e );
     }
   }
 
-  protected synchronized String convertBigNumberToString( BigDecimal number ) throws KettleValueException {
+  protected String convertBigNumberToString( BigDecimal number ) throws KettleValueException {
     if ( number == null ) {
       return null;
     }
 
     try {
-      return getDecimalFormat( bigNumberFormatting ).format( number );
+      CompiledMask mask = getCompiledDecimalFormat();
+      if ( mask != null ) {
+        return mask.getDecimalFormat().format( number );
+      }
+      synchronized ( this ) {
+        return getDecimalFormat( bigNumberFormatting ).format( number );
+      }
     } catch ( Exception e ) {
       throw new KettleValueException( toString() + " : couldn't convert BigNumber to String ", e );
     }
   }
 
-  protected synchronized BigDecimal convertStringToBigNumber( String string ) throws KettleValueException {
+  protected BigDecimal convertStringToBigNumber( String string ) throws KettleValueException {
     string = Const.trimToType( string, getTrimType() ); // see if trimming needs
     // to be performed before
     // conversion
@@ -1374,18 +1465,13 @@ public class ValueMetaBase implements ValueMetaInterface {
     }
 
     try {
-      DecimalFormat format = getDecimalFormat( bigNumberFormatting );
       Number number;
-      if ( lenientStringToNumber ) {
-        number = format.parse( string );
+      CompiledMask mask = getCompiledDecimalFormat();
+      if ( mask != null ) {
+        number = parseNumber( mask.getDecimalFormat(), mask.getParsePosition(), string );
       } else {
-        ParsePosition parsePosition = new ParsePosition( 0 );
-        number = format.parse( string, parsePosition );
-
-        if ( parsePosition.getIndex() < string.length() ) {
-          throw new KettleValueException( toString()
-            + " : couldn't convert String to number : non-numeric character found at position "
-            + ( parsePosition.getIndex() + 1 ) + " for value [" + string + "]" );
+        synchronized ( this ) {
+          number = parseNumber( getDecimalFormat( bigNumberFormatting ), new ParsePosition( 0 ), string );
         }
       }
 
@@ -5514,4 +5600,17 @@ public class ValueMetaBase implements ValueMetaInterface {
     // Not implemented for base class
     throw new KettleValueException( getTypeDesc() + " does not implement this method" );
   }
+
+  /**
+   * A shared format together with its compiled version.
+   */
+  private static final class CompiledFormat {
+    private final Format source;
+    private final CompiledMask mask;
+
+    CompiledFormat( Format source, CompiledMask mask ) {
+      this.source = source;
+      this.mask = mask;
+    }
+  }
 }
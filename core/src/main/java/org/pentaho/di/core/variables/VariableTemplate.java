@@ -0,0 +1,330 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.variables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.util.StringUtil;
+
+/**
+ * A string with variables, parsed once into literal text and variable references so that it can be substituted over
+ * and over without scanning the string again.<br>
+ * <br>
+ * Rendering a template gives exactly the same result as {@link StringUtil#environmentSubstitute(String, Map)}: first
+ * the %%variables%%, then the ${variables} and finally the $[hex] values. Since every pass works on the output of the
+ * previous one, a variable value can change the meaning of the text around it. Strings where that can happen, and
+ * values which would do that, are simply substituted the classic way.
+ *
+ * @since 8.3
+ */
+public final class VariableTemplate {
+
+  /** Variables are marked in the intermediate string with characters of the private use area */
+  private static final char FIRST_MARKER = '\uE000';
+  private static final char LAST_MARKER = '\uF8FF';
+
+  private final String string;
+
+  /** The literal text before every variable, and after the last variable */
+  private final String[] literals;
+  private final String[] names;
+  private final boolean[] windowsStyle;
+
+  /** The text to use when a variable isn't set */
+  private final String[] unresolved;
+  private final int literalLength;
+
+  private VariableTemplate( String string, List<String> literals, List<Variable> variables ) {
+    this.string = string;
+    if ( literals == null ) {
+      this.literals = null;
+      this.names = null;
+      this.windowsStyle = null;
+      this.unresolved = null;
+      this.literalLength = 0;
+      return;
+    }
+    this.literals = literals.toArray( new String[0] );
+    this.names = new String[variables.size()];
+    this.windowsStyle = new boolean[variables.size()];
+    this.unresolved = new String[variables.size()];
+    for ( int i = 0; i < names.length; i++ ) {
+      Variable variable = variables.get( i );
+      names[i] = variable.name;
+      windowsStyle[i] = variable.windowsStyle;
+      unresolved[i] = variable.windowsStyle
+        ? StringUtil.WINDOWS_OPEN + variable.name + StringUtil.WINDOWS_CLOSE
+        : StringUtil.UNIX_OPEN + variable.name + StringUtil.UNIX_CLOSE;
+    }
+    int length = 0;
+    for ( String literal : this.literals ) {
+      length += literal.length();
+    }
+    this.literalLength = length;
+  }
+
+  /**
+   * Parse a string into a template.
+   *
+   * @param string
+   *          the string with variables, can be null
+   * @return the template, which renders the string the classic way if it couldn't be parsed
+   */
+  public static VariableTemplate compile( String string ) {
+    if ( string == null ) {
+      return new VariableTemplate( null, null, null );
+    }
+    for ( int i = 0; i < string.length(); i++ ) {
+      if ( isMarker( string.charAt( i ) ) ) {
+        return new VariableTemplate( string, null, null );
+      }
+    }
+
+    List<Variable> variables = new ArrayList<>();
+    String marked = markVariables( string, StringUtil.WINDOWS_OPEN, StringUtil.WINDOWS_CLOSE, true, variables );
+    if ( marked != null ) {
+      marked = markVariables( marked, StringUtil.UNIX_OPEN, StringUtil.UNIX_CLOSE, false, variables );
+    }
+    if ( marked == null || variables.size() > LAST_MARKER - FIRST_MARKER || !isUnambiguous( marked ) ) {
+      return new VariableTemplate( string, null, null );
+    }
+    List<Variable> ordered = new ArrayList<>();
+    List<String> literals = splitLiterals( marked, variables, ordered );
+    if ( literals == null ) {
+      return new VariableTemplate( string, null, null );
+    }
+    return new VariableTemplate( string, literals, ordered );
+  }
+
+  /**
+   * @return the original string
+   */
+  public String getString() {
+    return string;
+  }
+
+  /**
+   * @return true if the string was parsed into literals and variables
+   */
+  public boolean isCompiled() {
+    return literals != null;
+  }
+
+  /**
+   * @return the number of variable references in the template, 0 if it wasn't compiled
+   */
+  public int getVariableCount() {
+    return names == null ? 0 : names.length;
+  }
+
+  /**
+   * Substitute the variables in this template.
+   *
+   * @param variables
+   *          the variable values by name
+   * @return the same string as {@link StringUtil#environmentSubstitute(String, Map)} would return
+   */
+  public String render( Map<String, String> variables ) {
+    if ( string == null ) {
+      return null;
+    }
+    if ( literals == null ) {
+      return StringUtil.environmentSubstitute( string, variables );
+    }
+    if ( names.length == 0 ) {
+      return literals[0];
+    }
+
+    StringBuilder buffer = new StringBuilder( literalLength + 16 * names.length );
+    for ( int i = 0; i < names.length; i++ ) {
+      buffer.append( literals[i] );
+      String value = variables.get( names[i] );
+      if ( value == null ) {
+        buffer.append( unresolved[i] );
+      } else if ( isInert( value, windowsStyle[i] ) ) {
+        buffer.append( value );
+      } else {
+        return StringUtil.environmentSubstitute( string, variables );
+      }
+    }
+    buffer.append( literals[names.length] );
+    return buffer.toString();
+  }
+
+  /**
+   * A value is inert if it can't be substituted itself and can't form or close a variable with the text around it.
+   */
+  private static boolean isInert( String value, boolean windowsStyle ) {
+    for ( int i = 0; i < value.length(); i++ ) {
+      switch ( value.charAt( i ) ) {
+        case '$':
+        case '[':
+        case ']':
+          return false;
+        case '{':
+        case '}':
+          if ( windowsStyle ) {
+            return false;
+          }
+          break;
+        case '%':
+          if ( windowsStyle && i + 1 < value.length() && value.charAt( i + 1 ) == '%' ) {
+            return false;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isMarker( char c ) {
+    return c >= FIRST_MARKER && c <= LAST_MARKER;
+  }
+
+  /**
+   * Replace the variables with markers, scanning the string the same way {@link StringUtil#substitute(String, Map,
+   * String, String)} does.
+   *
+   * @return the marked string or null if a variable name includes a marker or characters which would make the
+   *         unresolved variable change the text around it
+   */
+  private static String markVariables( String string, String open, String close, boolean windowsStyle,
+    List<Variable> variables ) {
+    StringBuilder buffer = new StringBuilder( string.length() );
+    String rest = string;
+    int i = rest.indexOf( open );
+    while ( i > -1 ) {
+      int j = rest.indexOf( close, i + open.length() );
+      if ( j > -1 ) {
+        String name = rest.substring( i + open.length(), j );
+        if ( !isSafeName( name, windowsStyle ) ) {
+          return null;
+        }
+        buffer.append( rest, 0, i );
+        buffer.append( (char) ( FIRST_MARKER + variables.size() ) );
+        variables.add( new Variable( name, windowsStyle ) );
+        rest = rest.substring( j + close.length() );
+      } else {
+        buffer.append( rest );
+        rest = "";
+      }
+      i = rest.indexOf( open );
+    }
+    buffer.append( rest );
+    return buffer.toString();
+  }
+
+  private static boolean isSafeName( String name, boolean windowsStyle ) {
+    for ( int i = 0; i < name.length(); i++ ) {
+      char c = name.charAt( i );
+      if ( isMarker( c ) || c == '$' || c == '[' || c == ']' || ( windowsStyle && ( c == '{' || c == '}' ) ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * An empty value between a dollar sign and an opening brace or bracket would form a new variable or hex value.
+   */
+  private static boolean isUnambiguous( String marked ) {
+    for ( int i = 0; i < marked.length(); i++ ) {
+      if ( marked.charAt( i ) == '$' ) {
+        int j = i + 1;
+        while ( j < marked.length() && isMarker( marked.charAt( j ) ) ) {
+          j++;
+        }
+        if ( j > i + 1 && j < marked.length() && ( marked.charAt( j ) == '{' || marked.charAt( j ) == '[' ) ) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Apply the hex substitution to the marked string and split it into the literals around the markers.
+   *
+   * @param marked
+   *          the string with markers
+   * @param variables
+   *          the variables by marker
+   * @param ordered
+   *          receives the variables in the order they appear in the string
+   * @return the literals or null if a hex value includes a marker
+   */
+  private static List<String> splitLiterals( String marked, List<Variable> variables, List<Variable> ordered ) {
+    // The hex values are decoded just like in the last pass of the classic substitution
+    //
+    StringBuilder decoded = new StringBuilder( marked.length() );
+    String rest = marked;
+    int i = rest.indexOf( StringUtil.HEX_OPEN );
+    while ( i > -1 ) {
+      int j = rest.indexOf( StringUtil.HEX_CLOSE, i + StringUtil.HEX_OPEN.length() );
+      if ( j > -1 ) {
+        String hex = rest.substring( i, j + StringUtil.HEX_CLOSE.length() );
+        for ( int k = 0; k < hex.length(); k++ ) {
+          if ( isMarker( hex.charAt( k ) ) ) {
+            return null;
+          }
+        }
+        decoded.append( rest, 0, i );
+        decoded.append( StringUtil.substituteHex( hex ) );
+        rest = rest.substring( j + StringUtil.HEX_CLOSE.length() );
+      } else {
+        decoded.append( rest );
+        rest = "";
+      }
+      i = rest.indexOf( StringUtil.HEX_OPEN );
+    }
+    decoded.append( rest );
+
+    List<String> literals = new ArrayList<>();
+    int start = 0;
+    for ( int k = 0; k < decoded.length(); k++ ) {
+      char c = decoded.charAt( k );
+      if ( isMarker( c ) ) {
+        ordered.add( variables.get( c - FIRST_MARKER ) );
+        literals.add( decoded.substring( start, k ) );
+        start = k + 1;
+      }
+    }
+    literals.add( decoded.substring( start ) );
+    return literals;
+  }
+
+  private static final class Variable {
+    private final String name;
+    private final boolean windowsStyle;
+
+    Variable( String name, boolean windowsStyle ) {
+      this.name = name;
+      this.windowsStyle = windowsStyle;
+    }
+  }
+}
@@ -34,6 +34,7 @@ import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is an implementation of VariableSpace
@@ -49,6 +50,15 @@ public class Variables implements VariableSpace {
 
   private boolean initialized;
 
+  /** The maximum number of substituted strings we keep */
+  static final int MAX_SUBSTITUTIONS = 1000;
+
+  /** The compiled templates and their last substitution by string, created on first use */
+  private volatile Map<String, Substitution> substitutions;
+
+  /** Incremented on every change of the variables, a substitution made with an older version is no longer valid */
+  private final AtomicLong version = new AtomicLong();
+
   public Variables() {
     properties = new ConcurrentHashMap<>();
     parent = null;
@@ -82,6 +92,7 @@ public class Variables implements VariableSpace {
       for ( int idx = 0; idx < variableNames.length; idx++ ) {
         properties.put( variableNames[idx], space.getVariable( variableNames[idx] ) );
       }
+      variablesChanged();
     }
   }
 
@@ -139,6 +150,7 @@ public class Variables implements VariableSpace {
       injection = null;
     }
     initialized = true;
+    variablesChanged();
   }
 
   @Override
@@ -154,6 +166,7 @@ public class Variables implements VariableSpace {
     } else {
       properties.remove( variableName );
     }
+    variablesChanged();
   }
 
   @Override
@@ -162,7 +175,37 @@ public class Variables implements VariableSpace {
       return aString;
     }
 
-    return StringUtil.environmentSubstitute( aString, properties );
+    // Nothing to substitute, no need to keep this string around
+    //
+    if ( aString.indexOf( '$' ) < 0 && aString.indexOf( '%' ) < 0 ) {
+      return aString;
+    }
+
+    Map<String, Substitution> cache = substitutions;
+    if ( cache == null ) {
+      cache = new ConcurrentHashMap<>();
+      substitutions = cache;
+    }
+    long currentVersion = version.get();
+    Substitution substitution = cache.get( aString );
+    if ( substitution != null && substitution.version == currentVersion ) {
+      return substitution.result;
+    }
+
+    VariableTemplate template = substitution != null ? substitution.template : VariableTemplate.compile( aString );
+    String result = template.render( properties );
+    if ( cache.size() >= MAX_SUBSTITUTIONS ) {
+      cache.clear();
+    }
+    cache.put( aString, new Substitution( template, currentVersion, result ) );
+    return result;
+  }
+
+  /**
+   * Invalidates the substituted strings, to be called after every change of the variables.
+   */
+  void variablesChanged() {
+    version.incrementAndGet();
   }
 
   /**
@@ -218,6 +261,7 @@ public class Variables implements VariableSpace {
           }
         }
         injection = null;
+        variablesChanged();
       }
     } else {
       // We have our own personal copy, so changes afterwards
@@ -250,4 +294,19 @@ public class Variables implements VariableSpace {
     return properties;
   }
 
+  /**
+   * A compiled template with the result of its substitution for a version of the variables.
+   */
+  private static final class Substitution {
+    private final VariableTemplate template;
+    private final long version;
+    private final String result;
+
+    Substitution( VariableTemplate template, long version, String result ) {
+      this.template = template;
+      this.version = version;
+      this.result = result;
+    }
+  }
+
 }
@@ -0,0 +1,203 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+public class ResultRowsTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  RowMeta rowMeta;
+
+  @Before
+  public void prepare() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+  }
+
+  private RowMetaAndData row( long id ) {
+    return new RowMetaAndData( rowMeta, id, "row " + id );
+  }
+
+  private static void assertRows( List<RowMetaAndData> rows, int count ) throws Exception {
+    assertEquals( count, rows.size() );
+    int id = 0;
+    for ( RowMetaAndData row : rows ) {
+      assertEquals( id, (long) row.getInteger( "id", -1 ) );
+      assertEquals( "row " + id, row.getString( "name", null ) );
+      id++;
+    }
+    assertEquals( count, id );
+  }
+
+  @Test
+  public void testKeepsRowsInMemoryByDefault() throws Exception {
+    ResultRows rows = new ResultRows( 0 );
+    for ( int i = 0; i < 5000; i++ ) {
+      rows.add( row( i ) );
+    }
+    assertEquals( 0, rows.getSpilledCount() );
+    assertRows( rows, 5000 );
+  }
+
+  @Test
+  public void testSpillsRowsToFiles() throws Exception {
+    ResultRows rows = new ResultRows( 100 );
+    for ( int i = 0; i < 5050; i++ ) {
+      rows.add( row( i ) );
+    }
+    assertEquals( 5000, rows.getSpilledCount() );
+    assertRows( rows, 5050 );
+
+    // Sequential and random access by index
+    //
+    for ( int i = 0; i < rows.size(); i++ ) {
+      assertEquals( i, (long) rows.get( i ).getInteger( "id", -1 ) );
+    }
+    assertEquals( 4321L, (long) rows.get( 4321 ).getInteger( "id", -1 ) );
+    assertEquals( 17L, (long) rows.get( 17 ).getInteger( "id", -1 ) );
+    assertEquals( 5049L, (long) rows.get( 5049 ).getInteger( "id", -1 ) );
+    rows.clear();
+    assertEquals( 0, rows.size() );
+  }
+
+  @Test
+  public void testNullRowsAndMixedLayouts() throws Exception {
+    RowMeta otherMeta = new RowMeta();
+    otherMeta.addValueMeta( new ValueMetaString( "other" ) );
+
+    ResultRows rows = new ResultRows( 2 );
+    rows.add( row( 0 ) );
+    rows.add( null );
+    rows.add( new RowMetaAndData( otherMeta, (Object) null ) );
+    rows.add( new RowMetaAndData( otherMeta, "value" ) );
+
+    Iterator<RowMetaAndData> iterator = rows.iterator();
+    assertEquals( 0L, (long) iterator.next().getInteger( "id", -1 ) );
+    assertNull( iterator.next() );
+    RowMetaAndData row = iterator.next();
+    assertEquals( "other", row.getRowMeta().getValueMeta( 0 ).getName() );
+    assertNull( row.getData()[0] );
+    assertEquals( "value", iterator.next().getString( "other", null ) );
+    assertTrue( !iterator.hasNext() );
+  }
+
+  @Test
+  public void testCopyOnWrite() throws Exception {
+    ResultRows rows = new ResultRows( 10 );
+    for ( int i = 0; i < 25; i++ ) {
+      rows.add( row( i ) );
+    }
+    ResultRows copy = rows.copy();
+    assertRows( copy, 25 );
+    assertSame( rows.get( 24 ), copy.get( 24 ) );
+
+    copy.add( row( 25 ) );
+    for ( int i = 26; i < 40; i++ ) {
+      copy.add( row( i ) );
+    }
+    assertRows( rows, 25 );
+    assertRows( copy, 40 );
+
+    // Clearing the original leaves the files of the copy alone
+    //
+    rows.clear();
+    assertRows( copy, 40 );
+
+    // Changing a row that's in a file brings the rows back in memory
+    //
+    copy.remove( 39 );
+    copy.set( 3, row( 3 ) );
+    assertRows( copy, 39 );
+    copy.remove( 0 );
+    assertEquals( 0, copy.getSpilledCount() );
+    assertEquals( 38, copy.size() );
+    assertEquals( 1L, (long) copy.get( 0 ).getInteger( "id", -1 ) );
+  }
+
+  @Test
+  public void testCopyOf() {
+    ResultRows rows = new ResultRows( 0 );
+    rows.add( row( 1 ) );
+    List<RowMetaAndData> copy = ResultRows.copyOf( rows );
+    assertTrue( copy instanceof ResultRows );
+    assertNotSame( rows, copy );
+    assertEquals( rows, copy );
+    assertNull( ResultRows.copyOf( null ) );
+  }
+
+  @Test
+  public void testResultClone() throws Exception {
+    Result result = new Result();
+    assertTrue( result.getRows() instanceof ResultRows );
+    result.getRows().add( row( 0 ) );
+    Result clone = result.clone();
+    clone.getRows().add( row( 1 ) );
+    assertRows( result.getRows(), 1 );
+    assertRows( clone.getRows(), 2 );
+  }
+
+  @Test
+  public void testCloseDeletesTheFilesOnceNoCopyUsesThem() throws Exception {
+    File directory = folder.newFolder();
+    ResultRows rows = new ResultRows( 10, directory );
+    for ( int i = 0; i < 25; i++ ) {
+      rows.add( row( i ) );
+    }
+    assertEquals( 1, directory.list().length );
+
+    // An iterator that's never read to the end and the cursor of get() keep the file open
+    //
+    Iterator<RowMetaAndData> iterator = rows.iterator();
+    iterator.next();
+    rows.get( 3 );
+
+    ResultRows copy = rows.copy();
+    rows.close();
+    assertEquals( 0, rows.size() );
+    assertEquals( 1, directory.list().length );
+    assertRows( copy, 25 );
+
+    copy.close();
+    assertEquals( 0, directory.list().length );
+  }
+}
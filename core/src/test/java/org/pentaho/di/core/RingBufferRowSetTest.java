@@ -0,0 +1,179 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RingBufferRowSetTest {
+  Object[] row;
+  RingBufferRowSet rowSet;
+
+  @Before
+  public void setup() {
+    rowSet = new RingBufferRowSet( 3 );
+    row = new Object[]{};
+  }
+
+  @Test
+  public void testPutRow() throws Exception {
+    rowSet.putRow( new RowMeta(), row );
+    assertSame( row, rowSet.getRow() );
+  }
+
+  @Test
+  public void testPutRowWait() throws Exception {
+    rowSet.putRowWait( new RowMeta(), row, 1, TimeUnit.SECONDS );
+    assertSame( row, rowSet.getRowWait( 1, TimeUnit.SECONDS ) );
+  }
+
+  @Test
+  public void testGetRowImmediate() throws Exception {
+    assertNull( rowSet.getRowImmediate() );
+    rowSet.putRow( new RowMeta(), row );
+    assertSame( row, rowSet.getRowImmediate() );
+    assertNull( rowSet.getRowImmediate() );
+  }
+
+  @Test
+  public void testSize() throws Exception {
+    assertEquals( 0, rowSet.size() );
+    rowSet.putRow( new RowMeta(), row );
+    assertEquals( 1, rowSet.size() );
+    rowSet.putRow( new RowMeta(), row );
+    assertEquals( 2, rowSet.size() );
+    rowSet.clear();
+    assertEquals( 0, rowSet.size() );
+  }
+
+  @Test
+  public void testFullBufferTimesOut() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    assertTrue( rowSet.putRowWait( rowMeta, new Object[] { 1L }, 1, TimeUnit.MILLISECONDS ) );
+    assertTrue( rowSet.putRowWait( rowMeta, new Object[] { 2L }, 1, TimeUnit.MILLISECONDS ) );
+    assertTrue( rowSet.putRowWait( rowMeta, new Object[] { 3L }, 1, TimeUnit.MILLISECONDS ) );
+    // The capacity is 3 even though the internal buffer is 4 rows large
+    assertFalse( rowSet.putRowWait( rowMeta, new Object[] { 4L }, 5, TimeUnit.MILLISECONDS ) );
+    assertEquals( 3, rowSet.size() );
+    assertEquals( 1L, rowSet.getRow()[0] );
+    assertTrue( rowSet.putRowWait( rowMeta, new Object[] { 4L }, 1, TimeUnit.MILLISECONDS ) );
+    assertEquals( 2L, rowSet.getRow()[0] );
+    assertEquals( 3L, rowSet.getRow()[0] );
+    assertEquals( 4L, rowSet.getRow()[0] );
+    assertNull( rowSet.getRowWait( 1, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test
+  public void testDoneReleasesWaitingReader() throws Exception {
+    rowSet.setDone();
+    long start = System.currentTimeMillis();
+    assertNull( rowSet.getRowWait( 10, TimeUnit.SECONDS ) );
+    assertTrue( System.currentTimeMillis() - start < 5000 );
+  }
+
+  @Test( timeout = 30000 )
+  public void testProducerConsumerKeepsOrder() throws Exception {
+    final int nrRows = 100000;
+    final RingBufferRowSet set = new RingBufferRowSet( 16 );
+    final RowMetaInterface rowMeta = new RowMeta();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Thread producer = new Thread( () -> {
+      try {
+        for ( long i = 0; i < nrRows; i++ ) {
+          Object[] r = new Object[] { i };
+          while ( !set.putRow( rowMeta, r ) ) {
+            // retry like BaseStep does
+          }
+        }
+        set.setDone();
+      } catch ( Throwable t ) {
+        failure.set( t );
+      }
+    } );
+    producer.start();
+
+    long expected = 0;
+    while ( true ) {
+      Object[] r = set.getRow();
+      if ( r == null ) {
+        if ( set.isDone() && set.size() == 0 ) {
+          break;
+        }
+        continue;
+      }
+      assertEquals( expected++, r[0] );
+    }
+    producer.join();
+
+    assertNull( failure.get() );
+    assertEquals( nrRows, expected );
+  }
+
+  @Test
+  public void testParkedReaderIsWokenUp() throws Exception {
+    final RowMetaInterface rowMeta = new RowMeta();
+    Thread producer = new Thread( () -> {
+      try {
+        Thread.sleep( 200 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+      rowSet.putRow( rowMeta, row );
+    } );
+    producer.start();
+
+    long start = System.currentTimeMillis();
+    assertSame( row, rowSet.getRowWait( 60, TimeUnit.SECONDS ) );
+    assertTrue( System.currentTimeMillis() - start < 10000 );
+    producer.join();
+  }
+
+  @Test( timeout = 30000 )
+  public void testHandOverWithoutTimeouts() throws Exception {
+    // Every row waits for the other side: a lost wake-up would only be noticed after a minute
+    //
+    final int nrRows = 20000;
+    final RingBufferRowSet set = new RingBufferRowSet( 1 );
+    final RowMetaInterface rowMeta = new RowMeta();
+
+    Thread producer = new Thread( () -> {
+      for ( long i = 0; i < nrRows; i++ ) {
+        set.putRowWait( rowMeta, new Object[] { i }, 60, TimeUnit.SECONDS );
+      }
+    } );
+    producer.start();
+
+    for ( long i = 0; i < nrRows; i++ ) {
+      assertEquals( i, set.getRowWait( 60, TimeUnit.SECONDS )[0] );
+    }
+    producer.join();
+  }
+}
@@ -0,0 +1,165 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowBatch;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RowBatchRowSetTest {
+  RowMetaInterface rowMeta;
+  RowBatchRowSet rowSet;
+
+  @Before
+  public void setup() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowSet = new RowBatchRowSet( 4, 2 );
+  }
+
+  @Test
+  public void testRowsArePassedPerBatch() throws Exception {
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    assertEquals( 0, rowSet.size() );
+    assertNull( rowSet.getRowImmediate() );
+
+    rowSet.putRow( rowMeta, new Object[] { 2L } );
+    assertEquals( 2, rowSet.size() );
+    assertEquals( 1L, rowSet.getRow()[0] );
+    assertEquals( 1, rowSet.size() );
+    assertEquals( 2L, rowSet.getRow()[0] );
+    assertEquals( 0, rowSet.size() );
+  }
+
+  @Test
+  public void testFlush() throws Exception {
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    assertTrue( rowSet.flush() );
+    assertEquals( 1, rowSet.size() );
+    assertEquals( 1L, rowSet.getRowImmediate()[0] );
+  }
+
+  @Test
+  public void testSetDonePassesLastRows() throws Exception {
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    rowSet.setDone();
+    assertTrue( rowSet.isDone() );
+    assertEquals( 1L, rowSet.getRowImmediate()[0] );
+    assertNull( rowSet.getRowImmediate() );
+  }
+
+  @Test
+  public void testSetDoneWithFullQueue() throws Exception {
+    for ( long i = 0; i < 6; i++ ) {
+      assertTrue( rowSet.putRowWait( rowMeta, new Object[] { i }, 1, TimeUnit.MILLISECONDS ) );
+    }
+    // The queue holds 2 batches, the third one is full but can't be passed on
+    assertFalse( rowSet.putRowWait( rowMeta, new Object[] { 6L }, 1, TimeUnit.MILLISECONDS ) );
+    rowSet.setDone();
+
+    for ( long i = 0; i < 6; i++ ) {
+      assertEquals( i, rowSet.getRowImmediate()[0] );
+    }
+    assertNull( rowSet.getRowImmediate() );
+    assertEquals( 0, rowSet.size() );
+  }
+
+  @Test
+  public void testBatches() throws Exception {
+    RowBatch batch = new RowBatch( rowMeta, 2 );
+    batch.addRow( new Object[] { 2L } );
+    batch.addRow( new Object[] { 3L } );
+
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    assertTrue( rowSet.putBatchWait( rowMeta, batch, 1, TimeUnit.MILLISECONDS ) );
+    assertEquals( 3, rowSet.size() );
+
+    RowBatch first = rowSet.getBatchWait( 1, TimeUnit.MILLISECONDS );
+    assertEquals( 1, first.size() );
+    assertEquals( 1L, first.getLong( 0, 0 ) );
+    assertSame( batch, rowSet.getBatchWait( 1, TimeUnit.MILLISECONDS ) );
+    assertNull( rowSet.getBatchWait( 1, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test
+  public void testGetBatchAfterGetRow() throws Exception {
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    rowSet.putRow( rowMeta, new Object[] { 2L } );
+    assertEquals( 1L, rowSet.getRow()[0] );
+
+    RowBatch rest = rowSet.getBatchWait( 1, TimeUnit.MILLISECONDS );
+    assertEquals( 1, rest.size() );
+    assertEquals( 2L, rest.getLong( 0, 0 ) );
+    assertEquals( 0, rowSet.size() );
+  }
+
+  @Test
+  public void testSignal() throws Exception {
+    RowSetSignal signal = new RowSetSignal();
+    rowSet.setRowSetSignal( signal );
+    assertSame( signal, rowSet.getRowSetSignal() );
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    rowSet.putRow( rowMeta, new Object[] { 2L } );
+    assertTrue( signal.await( () -> rowSet.size() > 0, 1, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    rowSet.putRow( rowMeta, new Object[] { 2L } );
+    rowSet.setDone();
+    rowSet.clear();
+    assertEquals( 0, rowSet.size() );
+    assertFalse( rowSet.isDone() );
+    assertNull( rowSet.getRowImmediate() );
+  }
+
+  @Test
+  public void testPartialBatchIsPassedOnAfterMaxDelay() throws Exception {
+    System.setProperty( Const.KETTLE_ROW_BATCH_MAX_DELAY, "20" );
+    try {
+      rowSet = new RowBatchRowSet( 100, 10 );
+    } finally {
+      System.clearProperty( Const.KETTLE_ROW_BATCH_MAX_DELAY );
+    }
+    rowSet.putRow( rowMeta, new Object[] { 1L } );
+    assertNull( rowSet.getRowImmediate() );
+
+    Thread.sleep( 30 );
+    rowSet.putRow( rowMeta, new Object[] { 2L } );
+    assertEquals( 2, rowSet.size() );
+    assertEquals( 1L, rowSet.getRowImmediate()[0] );
+    assertEquals( 2L, rowSet.getRowImmediate()[0] );
+
+    // The next batch starts its own delay
+    //
+    rowSet.putRow( rowMeta, new Object[] { 3L } );
+    assertNull( rowSet.getRowImmediate() );
+  }
+}
@@ -0,0 +1,122 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RowSetSignalTest {
+
+  @Test
+  public void testReadyConditionSkipsWaiting() throws Exception {
+    RowSetSignal signal = new RowSetSignal();
+    long start = System.currentTimeMillis();
+    assertTrue( signal.await( () -> true, 10, TimeUnit.SECONDS ) );
+    assertTrue( System.currentTimeMillis() - start < 5000 );
+    assertFalse( signal.hasWaiters() );
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    RowSetSignal signal = new RowSetSignal();
+    assertFalse( signal.await( () -> false, 10, TimeUnit.MILLISECONDS ) );
+    assertFalse( signal.hasWaiters() );
+  }
+
+  @Test
+  public void testSignalWithoutWaitersIsIgnored() throws Exception {
+    RowSetSignal signal = new RowSetSignal();
+    signal.signal();
+    assertFalse( signal.await( () -> false, 10, TimeUnit.MILLISECONDS ) );
+  }
+
+  @Test( timeout = 10000 )
+  public void testSignalWakesUpWaiter() throws Exception {
+    final RowSetSignal signal = new RowSetSignal();
+    final CountDownLatch woken = new CountDownLatch( 1 );
+    final AtomicBoolean result = new AtomicBoolean();
+    Thread waiter = new Thread( () -> {
+      try {
+        result.set( signal.await( () -> false, 1, TimeUnit.HOURS ) );
+      } catch ( InterruptedException e ) {
+        // the test will fail on the latch
+      }
+      woken.countDown();
+    } );
+    waiter.start();
+
+    while ( !signal.hasWaiters() ) {
+      Thread.yield();
+    }
+    signal.signal();
+
+    assertTrue( woken.await( 5, TimeUnit.SECONDS ) );
+    assertTrue( result.get() );
+  }
+
+  @Test( timeout = 10000 )
+  public void testRowSetRaisesSignal() throws Exception {
+    final RowSetSignal signal = new RowSetSignal();
+    final BlockingRowSet rowSet = new BlockingRowSet( 10 );
+    rowSet.setRowSetSignal( signal );
+    assertEquals( signal, rowSet.getRowSetSignal() );
+
+    Thread producer = new Thread( () -> {
+      while ( !signal.hasWaiters() ) {
+        Thread.yield();
+      }
+      rowSet.putRow( null, new Object[] { 1L } );
+    } );
+    producer.start();
+
+    while ( !signal.await( () -> rowSet.size() > 0, 1, TimeUnit.HOURS ) ) {
+      // keep waiting
+    }
+    assertEquals( 1L, rowSet.getRowImmediate()[0] );
+    producer.join();
+  }
+
+  @Test
+  public void testSingleThreadedRowSetsRaiseSignal() throws Exception {
+    for ( RowSet rowSet : new RowSet[] { new QueueRowSet(), new SingleRowRowSet() } ) {
+      RowSetSignal signal = mock( RowSetSignal.class );
+      rowSet.setRowSetSignal( signal );
+      rowSet.putRow( null, new Object[] { 1L } );
+      verify( signal, times( 1 ) ).signal();
+      rowSet.putRowWait( null, new Object[] { 2L }, 1, TimeUnit.SECONDS );
+      verify( signal, times( 2 ) ).signal();
+      rowSet.setDone();
+      verify( signal, times( 3 ) ).signal();
+    }
+  }
+}
@@ -63,6 +63,7 @@ import org.pentaho.di.core.exception.KettleDatabaseBatchException;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.logging.LogLevel;
 import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
@@ -733,4 +734,19 @@ public class DatabaseTest {
     String[] tableNames = db.getTablenames();
     assertEquals( tableNames.length, 1 );
   }
+
+  @Test
+  public void testGetMultiRowInsertStatement() {
+    when( meta.getQuotedSchemaTableCombination( "schema", "table" ) ).thenReturn( "schema.table" );
+    when( meta.quoteField( anyString() ) ).thenAnswer( invocation -> invocation.getArguments()[0] );
+    RowMetaInterface fields = new RowMeta();
+    fields.addValueMeta( new ValueMetaNumber( "a" ) );
+    fields.addValueMeta( new ValueMetaNumber( "b" ) );
+    Database db = new Database( log, meta );
+
+    assertEquals( "INSERT INTO schema.table (a, b) VALUES ( ?,  ?)",
+      db.getInsertStatement( "schema", "table", fields ) );
+    assertEquals( "INSERT INTO schema.table (a, b) VALUES ( ?,  ?), ( ?,  ?), ( ?,  ?)",
+      db.getInsertStatement( "schema", "table", fields, 3 ) );
+  }
 }
@@ -0,0 +1,116 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.hash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.exception.KettleFileException;
+
+public class CompactByteArrayHashIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] bytes( String s ) {
+    return s.getBytes( StandardCharsets.UTF_8 );
+  }
+
+  @Test
+  public void testGetAndPut() throws KettleFileException {
+    CompactByteArrayHashIndex index = new CompactByteArrayHashIndex();
+    assertTrue( index.isEmpty() );
+    assertNull( index.get( new byte[] { 10 } ) );
+
+    index.put( new byte[] { 10 }, new byte[] { 53, 12 } );
+    assertArrayEquals( new byte[] { 53, 12 }, index.get( new byte[] { 10 } ) );
+    assertNull( index.get( new byte[] { 10, 0 } ) );
+    assertNull( index.get( new byte[] {} ) );
+
+    index.put( new byte[] { 10 }, new byte[] { 7 } );
+    assertArrayEquals( new byte[] { 7 }, index.get( new byte[] { 10 } ) );
+    assertEquals( 1, index.getSize() );
+    index.close();
+  }
+
+  @Test
+  public void testResize() throws KettleFileException {
+    CompactByteArrayHashIndex index = new CompactByteArrayHashIndex( 2, 1024, 0L, null );
+    for ( int i = 0; i < 10000; i++ ) {
+      index.put( bytes( "key" + i ), bytes( "value" + i ) );
+    }
+    assertEquals( 10000, index.getSize() );
+    for ( int i = 0; i < 10000; i++ ) {
+      assertArrayEquals( bytes( "value" + i ), index.get( bytes( "key" + i ) ) );
+    }
+    assertNull( index.get( bytes( "key10000" ) ) );
+    assertEquals( 0L, index.getSpilledBytes() );
+    index.close();
+  }
+
+  @Test
+  public void testEntryLargerThanPage() throws KettleFileException {
+    CompactByteArrayHashIndex index = new CompactByteArrayHashIndex( 16, 1024, 0L, null );
+    byte[] large = new byte[5000];
+    large[4999] = 1;
+    index.put( bytes( "a" ), bytes( "small" ) );
+    index.put( bytes( "b" ), large );
+    index.put( bytes( "c" ), bytes( "small" ) );
+    assertArrayEquals( large, index.get( bytes( "b" ) ) );
+    assertArrayEquals( bytes( "small" ), index.get( bytes( "c" ) ) );
+    index.close();
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    File dir = folder.newFolder();
+    CompactByteArrayHashIndex index = new CompactByteArrayHashIndex( 16, 1024, 4096L, dir.getAbsolutePath() );
+    for ( int i = 0; i < 5000; i++ ) {
+      index.put( bytes( "key" + i ), bytes( "value" + i ) );
+    }
+    // Replace a value which was written to disk
+    index.put( bytes( "key1" ), bytes( "replaced" ) );
+
+    assertTrue( index.getSpilledBytes() > 0 );
+    assertTrue( index.getHeapBytes() <= 4096L + 1024L );
+    assertEquals( 1, dir.list().length );
+
+    assertArrayEquals( bytes( "replaced" ), index.get( bytes( "key1" ) ) );
+    for ( int i = 2; i < 5000; i++ ) {
+      assertArrayEquals( bytes( "value" + i ), index.get( bytes( "key" + i ) ) );
+    }
+    assertNull( index.get( bytes( "key5000" ) ) );
+
+    index.close();
+    assertEquals( 0, dir.list().length );
+  }
+}
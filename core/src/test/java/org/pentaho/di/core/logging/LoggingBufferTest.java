@@ -26,7 +26,9 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.pentaho.di.core.Const;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -186,4 +188,126 @@ public class LoggingBufferTest {
     Assert.assertEquals( 10, loggingBuffer.size() );
   }
 
+  @Test
+  public void testGetLogBufferFromToByChannel() {
+    LoggingBuffer loggingBuffer = new LoggingBuffer( 100 );
+    int firstNr = loggingBuffer.getLastBufferLineNr();
+    for ( int i = 0; i < 30; i++ ) {
+      KettleLoggingEvent event = new KettleLoggingEvent();
+      event.setMessage( new LogMessage( "line " + i, String.valueOf( i % 3 ), LogLevel.BASIC ) );
+      event.setTimeStamp( i );
+      loggingBuffer.addLogggingEvent( event );
+    }
+    int lastNr = loggingBuffer.getLastBufferLineNr();
+    Assert.assertEquals( 30, loggingBuffer.getLogBufferFromTo( (List<String>) null, false, 0, lastNr ).size() );
+
+    List<KettleLoggingEvent> events = loggingBuffer.getLogBufferFromTo( Arrays.asList( "0", "2" ), false, 0, lastNr );
+    Assert.assertEquals( 20, events.size() );
+    long previous = -1;
+    for ( KettleLoggingEvent event : events ) {
+      Assert.assertNotEquals( "1", ( (LogMessage) event.getMessage() ).getLogChannelId() );
+      Assert.assertTrue( event.getTimeStamp() > previous );
+      previous = event.getTimeStamp();
+    }
+
+    // Only the lines after the first 15
+    events = loggingBuffer.getLogBufferFromTo( Arrays.asList( "1" ), false, lastNr - 15, lastNr );
+    Assert.assertEquals( 5, events.size() );
+    Assert.assertEquals( 16L, events.get( 0 ).getTimeStamp() );
+    Assert.assertEquals( 0, loggingBuffer.getLogBufferFromTo( Arrays.asList( "1" ), false, lastNr, lastNr ).size() );
+    Assert.assertTrue( lastNr - firstNr >= 30 );
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    final LoggingBuffer loggingBuffer = new LoggingBuffer( 500 );
+    int nrThreads = 4;
+    Thread[] threads = new Thread[nrThreads];
+    for ( int t = 0; t < nrThreads; t++ ) {
+      final String channel = "channel" + t;
+      threads[t] = new Thread( () -> {
+        for ( int i = 0; i < 2000; i++ ) {
+          KettleLoggingEvent event = new KettleLoggingEvent();
+          event.setMessage( new LogMessage( "line " + i, channel, LogLevel.BASIC ) );
+          event.setTimeStamp( i );
+          loggingBuffer.addLogggingEvent( event );
+        }
+      } );
+      threads[t].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+
+    Assert.assertEquals( 500, loggingBuffer.size() );
+    int lastNr = loggingBuffer.getLastBufferLineNr();
+    int total = 0;
+    for ( int t = 0; t < nrThreads; t++ ) {
+      total += loggingBuffer.getLogBufferFromTo( Arrays.asList( "channel" + t ), false, 0, lastNr ).size();
+    }
+    Assert.assertEquals( 500, total );
+
+    loggingBuffer.removeChannelFromBuffer( "channel0" );
+    Assert.assertEquals( 500 - loggingBuffer.getLogBufferFromTo( Arrays.asList( "channel1", "channel2", "channel3" ),
+      false, 0, lastNr ).size(), 500 - loggingBuffer.size() );
+  }
+
+  @Test
+  public void testPollingReaderSeesEveryLine() throws Exception {
+    final LoggingBuffer loggingBuffer = new LoggingBuffer( 0 );
+    final int nrThreads = 4;
+    final int nrLines = 5000;
+    Thread[] threads = new Thread[nrThreads];
+    for ( int t = 0; t < nrThreads; t++ ) {
+      final String channel = "channel" + t;
+      threads[t] = new Thread( () -> {
+        for ( int i = 0; i < nrLines; i++ ) {
+          KettleLoggingEvent event = new KettleLoggingEvent();
+          event.setMessage( new LogMessage( "line " + i, channel, LogLevel.BASIC ) );
+          loggingBuffer.addLogggingEvent( event );
+        }
+      } );
+      threads[t].start();
+    }
+
+    // Read the new lines like Carte does: everything after the last line number seen up to the current last one
+    //
+    int seen = 0;
+    int lastNr = 0;
+    boolean writing = true;
+    while ( writing ) {
+      writing = false;
+      for ( Thread thread : threads ) {
+        writing |= thread.isAlive();
+      }
+      int nr = loggingBuffer.getLastBufferLineNr();
+      seen += loggingBuffer.getLogBufferFromTo( (List<String>) null, true, lastNr, nr ).size();
+      lastNr = nr;
+    }
+    Assert.assertEquals( nrThreads * nrLines, seen );
+  }
+
+  @Test
+  public void testKeepsTheLastLinesOfSeveralChunks() {
+    LoggingBuffer loggingBuffer = new LoggingBuffer( 100 );
+    int nrLines = 3 * LoggingBuffer.CHUNK_SIZE + 5;
+    for ( int i = 0; i < nrLines; i++ ) {
+      KettleLoggingEvent event = new KettleLoggingEvent();
+      event.setMessage( new LogMessage( "line " + i, "channel", LogLevel.BASIC ) );
+      event.setTimeStamp( i );
+      loggingBuffer.addLogggingEvent( event );
+    }
+
+    Assert.assertEquals( nrLines, loggingBuffer.getLastBufferLineNr() );
+    Assert.assertEquals( 100, loggingBuffer.size() );
+    int nr = nrLines - 100;
+    Iterator<BufferLine> it = loggingBuffer.getBufferIterator();
+    while ( it.hasNext() ) {
+      BufferLine line = it.next();
+      nr++;
+      Assert.assertEquals( nr, line.getNr() );
+      Assert.assertEquals( nr - 1, line.getEvent().getTimeStamp() );
+    }
+    Assert.assertEquals( nrLines, nr );
+  }
 }
@@ -0,0 +1,143 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.row.value.ValueMetaPlugin;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+public class PluginIndexTest {
+
+  private static final String JAR = "zip:file:///plugins/test.jar!/";
+
+  @ValueMetaPlugin( id = "IndexedPlugin", name = "Indexed plugin" )
+  public static class IndexedPlugin {
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    File file = new File( folder.getRoot(), "plugin-index.bin" );
+    PluginIndex index = new PluginIndex( file );
+    index.put( JAR, 100L, 200L, annotationIndex( "a.Step", "b.MyStep", "b.OtherStep" ) );
+    assertTrue( index.isChanged() );
+    index.save();
+    assertFalse( index.isChanged() );
+
+    PluginIndex loaded = PluginIndex.load( file );
+    assertEquals( 1, loaded.size() );
+    Map<String, Set<String>> result = loaded.get( JAR, 100L, 200L );
+    assertNotNull( result );
+    assertEquals( 2, result.get( "a.Step" ).size() );
+    assertTrue( result.get( "a.Step" ).contains( "b.OtherStep" ) );
+  }
+
+  @Test
+  public void testChangedJarIsNotFound() {
+    PluginIndex index = new PluginIndex( new File( folder.getRoot(), "plugin-index.bin" ) );
+    index.put( JAR, 100L, 200L, annotationIndex( "a.Step", "b.MyStep" ) );
+    assertNotNull( index.get( JAR, 100L, 200L ) );
+    assertNull( index.get( JAR, 101L, 200L ) );
+    assertNull( index.get( JAR, 100L, 201L ) );
+    assertNull( index.get( "file:///plugins/other.jar", 100L, 200L ) );
+  }
+
+  @Test
+  public void testDamagedFileIsIgnored() throws Exception {
+    File file = new File( folder.getRoot(), "plugin-index.bin" );
+    PluginIndex index = new PluginIndex( file );
+    index.put( JAR, 100L, 200L, annotationIndex( "a.Step", "b.MyStep" ) );
+    index.save();
+
+    byte[] bytes = Files.readAllBytes( file.toPath() );
+    byte[] truncated = new byte[bytes.length - 4];
+    System.arraycopy( bytes, 0, truncated, 0, truncated.length );
+    Files.write( file.toPath(), truncated );
+
+    assertEquals( 0, PluginIndex.load( file ).size() );
+    assertEquals( 0, PluginIndex.load( new File( folder.getRoot(), "missing.bin" ) ).size() );
+  }
+
+  @Test
+  public void testJarFileCacheUsesIndex() throws Exception {
+    File jar = folder.newFile( "plugin.jar" );
+    String classEntry = IndexedPlugin.class.getName().replace( '.', '/' ) + ".class";
+    try ( JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) );
+          InputStream in = IndexedPlugin.class.getClassLoader().getResourceAsStream( classEntry ) ) {
+      out.putNextEntry( new JarEntry( classEntry ) );
+      byte[] buffer = new byte[4096];
+      int read;
+      while ( ( read = in.read( buffer ) ) > 0 ) {
+        out.write( buffer, 0, read );
+      }
+      out.closeEntry();
+    }
+    FileObject fileObject = KettleVFS.getFileObject( jar.getAbsolutePath() );
+    File indexFile = new File( folder.getRoot(), "plugin-index.bin" );
+
+    JarFileCache cache = new JarFileCache( indexFile );
+    cache.indexJarFiles( new FileObject[] { fileObject } );
+    Set<String> classes = cache.getAnnotationIndex( fileObject ).get( ValueMetaPlugin.class.getName() );
+    assertEquals( Collections.singleton( IndexedPlugin.class.getName() ), classes );
+    assertTrue( indexFile.isFile() );
+
+    // A new cache finds the jar file in the index
+    PluginIndex index = PluginIndex.load( indexFile );
+    assertEquals( 1, index.size() );
+    assertNotNull( index.get( fileObject.getName().getURI(), jar.length(),
+      fileObject.getContent().getLastModifiedTime() ) );
+    JarFileCache second = new JarFileCache( indexFile );
+    assertEquals( classes, second.getAnnotationIndex( fileObject ).get( ValueMetaPlugin.class.getName() ) );
+  }
+
+  private static Map<String, Set<String>> annotationIndex( String annotation, String... classes ) {
+    Map<String, Set<String>> result = new HashMap<>();
+    result.put( annotation, new HashSet<>( Arrays.asList( classes ) ) );
+    return result;
+  }
+}
@@ -31,21 +31,31 @@ import org.pentaho.di.core.logging.LoggingPluginType;
 import org.pentaho.di.core.row.RowBuffer;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.mockito.internal.util.reflection.Whitebox;
 import org.pentaho.di.junit.rules.RestorePDIEnvironment;
 
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -130,6 +140,81 @@ public class PluginRegistryUnitTest {
     assertNotEquals( ucl, registry.getClassLoader( mockPlugin1 ) );
   }
 
+  @Test
+  public void testRegisterTypesInParallel() throws Exception {
+    PluginRegistry registry = PluginRegistry.getInstance();
+    List<PluginTypeInterface> types = new ArrayList<>();
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    for ( int i = 0; i < 8; i++ ) {
+      PluginTypeInterface type = mock( PluginTypeInterface.class );
+      when( type.getName() ).thenReturn( "type" + i );
+      doAnswer( invocation -> {
+        threads.add( Thread.currentThread().getName() );
+        return null;
+      } ).when( type ).searchPlugins();
+      types.add( type );
+    }
+
+    registry.registerTypes( types, 4 );
+    for ( PluginTypeInterface type : types ) {
+      verify( type ).searchPlugins();
+    }
+    assertFalse( threads.contains( Thread.currentThread().getName() ) );
+  }
+
+  @Test
+  @SuppressWarnings( "unchecked" )
+  public void testRegisterTypesInParallelCallsExtensionsSerially() throws Exception {
+    PluginRegistry registry = PluginRegistry.getInstance();
+    List<PluginTypeInterface> types = new ArrayList<>();
+    for ( int i = 0; i < 8; i++ ) {
+      PluginTypeInterface type = mock( PluginTypeInterface.class );
+      when( type.getName() ).thenReturn( "type" + i );
+      types.add( type );
+    }
+
+    List<PluginTypeInterface> searched = new ArrayList<>();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    PluginRegistryExtension extension = mock( PluginRegistryExtension.class );
+    doAnswer( invocation -> {
+      maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+      Thread.sleep( 5 );
+      searched.add( (PluginTypeInterface) invocation.getArguments()[0] );
+      running.decrementAndGet();
+      return null;
+    } ).when( extension ).searchForType( any( PluginTypeInterface.class ) );
+
+    List<PluginRegistryExtension> extensions =
+      (List<PluginRegistryExtension>) Whitebox.getInternalState( registry, "extensions" );
+    extensions.add( extension );
+    try {
+      registry.registerTypes( types, 4 );
+    } finally {
+      extensions.remove( extension );
+    }
+    assertEquals( 1, maxRunning.get() );
+    assertEquals( types, searched );
+  }
+
+  @Test
+  public void testRegisterTypesInParallelReportsError() throws Exception {
+    PluginRegistry registry = PluginRegistry.getInstance();
+    PluginTypeInterface failing = mock( PluginTypeInterface.class );
+    when( failing.getName() ).thenReturn( "failing" );
+    doThrow( new KettlePluginException( "failing type" ) ).when( failing ).searchPlugins();
+    PluginTypeInterface other = mock( PluginTypeInterface.class );
+    when( other.getName() ).thenReturn( "other" );
+
+    try {
+      registry.registerTypes( Arrays.asList( failing, other ), 2 );
+      fail( "The error of the failing plugin type should be reported" );
+    } catch ( KettlePluginException e ) {
+      assertTrue( e.getMessage().contains( "failing type" ) );
+    }
+    verify( other ).searchPlugins();
+  }
+
   @Test( expected = KettlePluginClassMapException.class )
   public void testClassloadingPluginNoClassRegistered() throws KettlePluginException {
     PluginRegistry registry = PluginRegistry.getInstance();
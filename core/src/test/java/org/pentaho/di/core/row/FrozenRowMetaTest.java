@@ -0,0 +1,152 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import static org.junit.Assert.*;
+
+public class FrozenRowMetaTest {
+  RowMetaInterface rowMeta;
+
+  @Before
+  public void setup() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "Name" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "birthday" ) );
+  }
+
+  @Test
+  public void testLookups() throws Exception {
+    RowMetaInterface frozen = FrozenRowMeta.freeze( rowMeta );
+
+    assertEquals( 3, frozen.size() );
+    assertFalse( frozen.isEmpty() );
+    assertSame( rowMeta.getValueMeta( 1 ), frozen.getValueMeta( 1 ) );
+    assertNull( frozen.getValueMeta( 3 ) );
+    assertEquals( 1, frozen.indexOfValue( "name" ) );
+    assertEquals( 2, frozen.indexOfValue( "BIRTHDAY" ) );
+    assertEquals( -1, frozen.indexOfValue( "unknown" ) );
+    assertEquals( -1, frozen.indexOfValue( null ) );
+    assertSame( rowMeta.getValueMeta( 0 ), frozen.searchValueMeta( "ID" ) );
+    assertArrayEquals( rowMeta.getFieldNames(), frozen.getFieldNames() );
+    assertEquals( rowMeta.toString(), frozen.toString() );
+    assertEquals( rowMeta.getMetaXML(), frozen.getMetaXML() );
+
+    Object[] row = new Object[] { 1L, "one", new Date( 0L ) };
+    assertEquals( "one", frozen.getString( row, 1 ) );
+    assertEquals( Long.valueOf( 1L ), frozen.getInteger( row, "id", null ) );
+    assertEquals( rowMeta.hashCode( row ), frozen.hashCode( row ) );
+    assertEquals( 0, frozen.compare( row, row.clone() ) );
+  }
+
+  @Test
+  public void testFreezeOnlyOnce() {
+    RowMetaInterface frozen = FrozenRowMeta.freeze( rowMeta );
+    assertSame( frozen, FrozenRowMeta.freeze( frozen ) );
+    assertNull( FrozenRowMeta.freeze( null ) );
+  }
+
+  @Test
+  public void testRenamedValue() {
+    RowMetaInterface frozen = FrozenRowMeta.freeze( rowMeta );
+    rowMeta.getValueMeta( 1 ).setName( "lastname" );
+
+    assertEquals( -1, frozen.indexOfValue( "name" ) );
+    assertEquals( 1, frozen.indexOfValue( "lastname" ) );
+  }
+
+  @Test
+  public void testCloneRow() throws Exception {
+    rowMeta.addValueMeta( new ValueMetaBinary( "data" ) );
+    RowMetaInterface frozen = FrozenRowMeta.freeze( rowMeta );
+    byte[] data = new byte[] { 1, 2, 3 };
+    Object[] row = new Object[] { 1L, "one", new Date( 0L ), data };
+
+    Object[] clone = frozen.cloneRow( row );
+    assertNotSame( row, clone );
+    assertSame( row[1], clone[1] );
+    assertArrayEquals( data, (byte[]) clone[3] );
+    assertNotSame( data, clone[3] );
+  }
+
+  @Test
+  public void testCloneCanBeChanged() {
+    RowMetaInterface clone = FrozenRowMeta.freeze( rowMeta ).clone();
+    assertTrue( clone instanceof RowMeta );
+
+    clone.addValueMeta( new ValueMetaString( "extra" ) );
+    assertEquals( 4, clone.size() );
+    assertEquals( 3, rowMeta.size() );
+    assertNotSame( rowMeta.getValueMeta( 0 ), clone.getValueMeta( 0 ) );
+  }
+
+  @Test
+  public void testChangesAreRefused() throws Exception {
+    RowMetaInterface frozen = FrozenRowMeta.freeze( rowMeta );
+    try {
+      frozen.addValueMeta( new ValueMetaString( "extra" ) );
+      fail( "Adding a value should not be possible" );
+    } catch ( UnsupportedOperationException e ) {
+      // expected
+    }
+    try {
+      frozen.removeValueMeta( 0 );
+      fail( "Removing a value should not be possible" );
+    } catch ( UnsupportedOperationException e ) {
+      // expected
+    }
+    try {
+      frozen.getValueMetaList().clear();
+      fail( "The value list should not be modifiable" );
+    } catch ( UnsupportedOperationException e ) {
+      // expected
+    }
+    assertEquals( 3, frozen.size() );
+  }
+
+  @Test
+  public void testWriteAndReadData() throws Exception {
+    RowMetaInterface frozen = FrozenRowMeta.freeze( rowMeta );
+    Object[] row = new Object[] { 1L, "one", new Date( 0L ) };
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    frozen.writeData( new DataOutputStream( bytes ), row );
+    Object[] read = rowMeta.readData( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+
+    assertArrayEquals( row, read );
+  }
+}
@@ -0,0 +1,145 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core.row;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import static org.junit.Assert.*;
+
+public class RowBatchTest {
+  RowMetaInterface rowMeta;
+
+  @Before
+  public void setup() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "flag" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+  }
+
+  @Test
+  public void testPrimitiveColumns() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    assertTrue( batch.addRow( new Object[] { 1L, 1.5, true, "one" } ) );
+    assertTrue( batch.addRow( new Object[] { null, null, null, null } ) );
+
+    assertEquals( 2, batch.size() );
+    assertTrue( batch.isLongColumn( 0 ) );
+    assertTrue( batch.isDoubleColumn( 1 ) );
+    assertTrue( batch.isBooleanColumn( 2 ) );
+    assertFalse( batch.isLongColumn( 3 ) );
+
+    assertEquals( 1L, batch.getLong( 0, 0 ) );
+    assertEquals( 1.5, batch.getDouble( 1, 0 ), 0.0 );
+    assertTrue( batch.getBoolean( 2, 0 ) );
+    assertEquals( "one", batch.getObject( 3, 0 ) );
+    for ( int i = 0; i < rowMeta.size(); i++ ) {
+      assertFalse( batch.isNull( i, 0 ) );
+      assertTrue( batch.isNull( i, 1 ) );
+    }
+  }
+
+  @Test
+  public void testGetRow() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    batch.addRow( new Object[] { 1L, 1.5, true, "one" } );
+    batch.addRow( new Object[] { 2L, null, false, null } );
+
+    Object[] row = batch.getRow( 1 );
+    assertTrue( row.length >= rowMeta.size() );
+    assertEquals( 2L, row[0] );
+    assertNull( row[1] );
+    assertEquals( Boolean.FALSE, row[2] );
+    assertNull( row[3] );
+  }
+
+  @Test
+  public void testFullBatch() {
+    RowBatch batch = new RowBatch( rowMeta, 1 );
+    assertTrue( batch.addRow( new Object[] { 1L, 1.5, true, "one" } ) );
+    assertTrue( batch.isFull() );
+    assertFalse( batch.addRow( new Object[] { 2L, 2.5, false, "two" } ) );
+    assertEquals( 1, batch.size() );
+  }
+
+  @Test
+  public void testUnexpectedValueClass() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    batch.addRow( new Object[] { 1L, 1.5, true, "one" } );
+    batch.addRow( new Object[] { "two", 2.5, false, "two" } );
+
+    assertFalse( batch.isLongColumn( 0 ) );
+    assertEquals( 1L, batch.getObject( 0, 0 ) );
+    assertEquals( "two", batch.getObject( 0, 1 ) );
+  }
+
+  @Test
+  public void testSelectColumns() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    batch.addRow( new Object[] { 1L, 1.5, true, "one" } );
+
+    RowMetaInterface selectRowMeta = new RowMeta();
+    selectRowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    selectRowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    RowBatch selected = batch.selectColumns( selectRowMeta, new int[] { 3, 0 } );
+
+    assertSame( selectRowMeta, selected.getRowMeta() );
+    assertEquals( 1, selected.size() );
+    assertEquals( "one", selected.getObject( 0, 0 ) );
+    assertEquals( 1L, selected.getLong( 1, 0 ) );
+  }
+
+  @Test( expected = IndexOutOfBoundsException.class )
+  public void testRowOutOfBounds() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    batch.getRow( 0 );
+  }
+
+  @Test( expected = IllegalStateException.class )
+  public void testWrongPrimitiveType() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    batch.addRow( new Object[] { 1L, 1.5, true, "one" } );
+    batch.getDouble( 0, 0 );
+  }
+
+  @Test
+  public void testGetRowRebuildsTheValues() {
+    RowBatch batch = new RowBatch( rowMeta, 10 );
+    batch.addRow( new Object[] { 12345L, 2.5, Boolean.TRUE, "one" } );
+
+    Object[] first = batch.getRow( 0 );
+    Object[] second = batch.getRow( 0 );
+    assertNotSame( first, second );
+    assertEquals( 12345L, first[0] );
+    assertEquals( 12345L, second[0] );
+    assertEquals( 2.5, second[1] );
+    assertEquals( Boolean.TRUE, second[2] );
+    assertEquals( 12345L, batch.getObject( 0, 0 ) );
+    assertEquals( 12345L, batch.getLong( 0, 0 ) );
+  }
+}
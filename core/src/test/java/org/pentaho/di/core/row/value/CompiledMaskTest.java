@@ -0,0 +1,171 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row.value;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import static org.junit.Assert.*;
+
+public class CompiledMaskTest {
+
+  private static DecimalFormat decimalFormat( String pattern, char decimalSeparator ) {
+    DecimalFormatSymbols symbols = new DecimalFormatSymbols( Locale.US );
+    symbols.setDecimalSeparator( decimalSeparator );
+    return new DecimalFormat( pattern, symbols );
+  }
+
+  @Test
+  public void testPlainIntegerParsing() throws Exception {
+    DecimalFormat format = decimalFormat( ValueMetaBase.DEFAULT_INTEGER_PARSE_MASK, '.' );
+    CompiledMask mask = CompiledMask.getInstance( format );
+    assertTrue( mask.isPlainNumber() );
+
+    for ( String string : new String[] { "0", "-0", "7", "-123", "000123", "123456789012345678" } ) {
+      assertEquals( string, format.parse( string ).longValue(), mask.parsePlainLong( string ).longValue() );
+    }
+    for ( String string : new String[] { "", "-", "+1", "1.5", "1,000", "12a", "1234567890123456789" } ) {
+      assertNull( string, mask.parsePlainLong( string ) );
+    }
+  }
+
+  @Test
+  public void testPlainDecimalParsing() throws Exception {
+    DecimalFormat format = decimalFormat( ValueMetaBase.DEFAULT_NUMBER_PARSE_MASK, ',' );
+    CompiledMask mask = CompiledMask.getInstance( format );
+    assertTrue( mask.isPlainNumber() );
+
+    String[] strings = { "0", "-0", "-0,0", "1,5", "-123,456", "0,1", "0,3", "3,14159265358979", "999999999999999",
+      "0,00000000000001", "12345,6789" };
+    for ( String string : strings ) {
+      ParsePosition parsePosition = new ParsePosition( 0 );
+      Double expected = format.parse( string, parsePosition ).doubleValue();
+      assertEquals( string, expected, mask.parsePlainDouble( string ) );
+    }
+    for ( String string : new String[] { "", "-", ",5", "5,", "1.5", "1,2,3", "1e5", "1234567890123456" } ) {
+      assertNull( string, mask.parsePlainDouble( string ) );
+    }
+  }
+
+  @Test
+  public void testNoFastPathForOtherMasks() {
+    assertFalse( CompiledMask.getInstance( decimalFormat( "$#,##0.00", '.' ) ).isPlainNumber() );
+    assertFalse( CompiledMask.getInstance( decimalFormat( "#0.0%", '.' ) ).isPlainNumber() );
+    assertFalse( CompiledMask.getInstance( decimalFormat( "0.###E0", '.' ) ).isPlainNumber() );
+    assertFalse( CompiledMask.getInstance( decimalFormat( "#,##0", '.' ) ).isPlainInteger() );
+    assertFalse( CompiledMask.getInstance( decimalFormat( "#0.00", '.' ) ).isPlainInteger() );
+    assertFalse( CompiledMask.getInstance( new SimpleDateFormat( "EEE, d MMM yyyy", Locale.US ) )
+      .hasDateTimeFormatter() );
+  }
+
+  @Test
+  public void testPlainIntegerFormatting() {
+    for ( String pattern : new String[] { "####0;-####0", "#", "0000" } ) {
+      DecimalFormat format = decimalFormat( pattern, '.' );
+      CompiledMask mask = CompiledMask.getInstance( format );
+      assertTrue( pattern, mask.isPlainInteger() );
+      for ( long value : new long[] { 0L, 5L, -5L, 12345L, -123456789L, Long.MAX_VALUE, Long.MIN_VALUE } ) {
+        assertEquals( pattern + " " + value, format.format( value ), mask.formatPlainLong( value ) );
+      }
+    }
+  }
+
+  @Test
+  public void testDateFormatting() {
+    String[] patterns = { ValueMetaBase.DEFAULT_DATE_FORMAT_MASK, "yyyyMMdd", "yy-M-d H:m:s", "dd/MM/yyyy 'at' HH''mm",
+      "yyyy-MM-dd'T'HH:mm:ss.SSS", "S" };
+    long[] times = { 0L, 1L, 999L, 1553775359123L, -1000L, 253402300799999L, -62135596800000L };
+    for ( String pattern : patterns ) {
+      for ( String timeZone : new String[] { "UTC", "Europe/Brussels", "America/New_York", "GMT+05:30" } ) {
+        SimpleDateFormat format = new SimpleDateFormat( pattern );
+        format.setTimeZone( TimeZone.getTimeZone( timeZone ) );
+        CompiledMask mask = CompiledMask.getInstance( format );
+        assertTrue( pattern, mask.hasDateTimeFormatter() );
+        for ( long time : times ) {
+          Date date = new Date( time );
+          assertEquals( pattern + " " + timeZone + " " + time, format.format( date ), mask.formatDate( date ) );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCacheSharesEqualFormats() {
+    SimpleDateFormat format = new SimpleDateFormat( "yyyy/MM/dd" );
+    CompiledMask mask = CompiledMask.getInstance( format );
+    assertSame( mask, CompiledMask.getInstance( new SimpleDateFormat( "yyyy/MM/dd" ) ) );
+
+    // The compiled mask keeps a copy, changing the format later doesn't change it
+    format.applyPattern( "dd/MM/yyyy" );
+    assertEquals( "2019/03/28", mask.formatDate( new Date( 1553775359123L ) ) );
+    assertNotSame( mask, CompiledMask.getInstance( format ) );
+    assertTrue( CompiledMask.getCacheSize() <= CompiledMask.MAX_CACHE_SIZE );
+  }
+
+  @Test
+  public void testConcurrentConversions() throws Exception {
+    final ValueMetaInterface numberMeta = new ValueMetaString( "number" );
+    numberMeta.setConversionMask( "#,##0.00" );
+    final ValueMetaDate dateMeta = new ValueMetaDate( "date" );
+    dateMeta.setConversionMask( "yyyy-MM-dd HH:mm:ss" );
+    dateMeta.setDateFormatTimeZone( TimeZone.getTimeZone( "UTC" ) );
+
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for ( int t = 0; t < 4; t++ ) {
+        final int offset = t;
+        futures.add( executor.submit( () -> {
+          for ( int i = 0; i < 2000; i++ ) {
+            int value = offset * 100000 + i;
+            String string = String.format( Locale.US, "%,d.%02d", value, i % 100 );
+            assertEquals( value + ( i % 100 ) / 100.0, numberMeta.getNumber( string ), 0.0001 );
+
+            Date date = new Date( value * 1000L );
+            assertEquals( date, dateMeta.convertStringToDate( dateMeta.getString( date ) ) );
+          }
+          return null;
+        } ) );
+      }
+      for ( Future<Void> future : futures ) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.variables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.util.StringUtil;
+
+public class VariableTemplateTest {
+
+  private Map<String, String> variables;
+
+  @Before
+  public void setUp() {
+    variables = new HashMap<>();
+    variables.put( "dir", "/tmp/data" );
+    variables.put( "name", "file" );
+    variables.put( "empty", "" );
+    variables.put( "percent", "100%" );
+    variables.put( "nested", "${name}.txt" );
+    variables.put( "brace", "{x}" );
+    variables.put( "bracket", "[41]" );
+    variables.put( "dollar", "$" );
+    variables.put( "windows", "%%name%%" );
+  }
+
+  private void assertSameAsClassic( String string ) {
+    assertEquals( string, StringUtil.environmentSubstitute( string, variables ),
+      VariableTemplate.compile( string ).render( variables ) );
+  }
+
+  @Test
+  public void testCompiledStrings() {
+    VariableTemplate template = VariableTemplate.compile( "${dir}/%%name%%_${unknown}.csv" );
+    assertTrue( template.isCompiled() );
+    assertEquals( 3, template.getVariableCount() );
+    assertEquals( "/tmp/data/file_${unknown}.csv", template.render( variables ) );
+
+    variables.put( "unknown", "1" );
+    assertEquals( "/tmp/data/file_1.csv", template.render( variables ) );
+
+    assertEquals( "plain", VariableTemplate.compile( "plain" ).render( variables ) );
+    assertEquals( "A", VariableTemplate.compile( "$[41]" ).render( variables ) );
+    assertNull( VariableTemplate.compile( null ).render( variables ) );
+  }
+
+  @Test
+  public void testAmbiguousStringsAreNotCompiled() {
+    assertFalse( VariableTemplate.compile( "$%%empty%%{name}" ).isCompiled() );
+    assertFalse( VariableTemplate.compile( "${a%%name%%}" ).isCompiled() );
+    assertFalse( VariableTemplate.compile( "$[4${name}]" ).isCompiled() );
+    assertFalse( VariableTemplate.compile( "${a[1]}" ).isCompiled() );
+  }
+
+  @Test
+  public void testSameAsClassicSubstitution() {
+    String[] strings = { "", "${name}", "%%name%%", "${dir}/${name}.txt", "${nested}", "%%nested%%", "${windows}",
+      "%%windows%%", "$%%empty%%{name}", "$${empty}{name}", "$%%empty%%[41]", "${empty}$[41,42]", "$[41${empty}]",
+      "${brace}", "$${brace}", "$%%brace%%", "%%bracket%%", "$${bracket}", "$%%bracket%%", "${dollar}{name}",
+      "%%dollar%%{name}", "${dollar}[41]", "${percent}%", "%%percent%%%name%%", "100%% ${name}", "${name", "%%name",
+      "${${name}}", "%%${name}%%", "${%%name%%}", "$[41", "${unknown}", "%%unknown%%", "${}", "%%%%", "a}b]c{d[e" };
+    for ( String string : strings ) {
+      assertSameAsClassic( string );
+    }
+  }
+
+  @Test
+  public void testSameAsClassicSubstitutionForRandomStrings() {
+    String[] parts = { "$", "{", "}", "[", "]", "%", "%%", "name", "empty", "brace", "bracket", "dollar", "percent",
+      "windows", "nested", "41", ",", "x", "/" };
+    Random random = new Random( 42 );
+    for ( int i = 0; i < 20000; i++ ) {
+      StringBuilder string = new StringBuilder();
+      int length = random.nextInt( 12 );
+      for ( int j = 0; j < length; j++ ) {
+        string.append( parts[random.nextInt( parts.length )] );
+      }
+      assertSameAsClassic( string.toString() );
+    }
+  }
+}
@@ -123,6 +123,24 @@ public class VariablesTest {
     }
   }
 
+  @Test
+  public void testSubstitutionFollowsVariableChanges() {
+    variables.setVariable( "dir", "/tmp" );
+    assertEquals( "/tmp/file.txt", variables.environmentSubstitute( "${dir}/file.txt" ) );
+    assertEquals( "/tmp/file.txt", variables.environmentSubstitute( "${dir}/file.txt" ) );
+
+    variables.setVariable( "dir", "/data" );
+    assertEquals( "/data/file.txt", variables.environmentSubstitute( "${dir}/file.txt" ) );
+
+    variables.setVariable( "dir", null );
+    assertEquals( "${dir}/file.txt", variables.environmentSubstitute( "${dir}/file.txt" ) );
+
+    Variables parent = new Variables();
+    parent.setVariable( "dir", "/parent" );
+    variables.copyVariablesFrom( parent );
+    assertEquals( "/parent/file.txt", variables.environmentSubstitute( "${dir}/file.txt" ) );
+  }
+
   // Note:  Not using lambda so this can be ported to older version compatible with 1.7
   private Callable<Boolean> newCallable() {
     return new Callable<Boolean>() {
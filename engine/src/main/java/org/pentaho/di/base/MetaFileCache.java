@@ -0,0 +1,460 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.base;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.BaseLogTable;
+import org.pentaho.di.core.logging.ChannelLogTable;
+import org.pentaho.di.core.logging.JobEntryLogTable;
+import org.pentaho.di.core.logging.JobLogTable;
+import org.pentaho.di.core.logging.MetricsLogTable;
+import org.pentaho.di.core.logging.PerformanceLogTable;
+import org.pentaho.di.core.logging.StepLogTable;
+import org.pentaho.di.core.logging.TransLogTable;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryObject;
+import org.pentaho.di.repository.RepositoryObjectType;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.metastore.api.IMetaStore;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A process wide cache of the transformations and jobs loaded by job entries and executor steps. Jobs looping over
+ * the same transformation thousands of times then only load (parse the XML, look up the plugins, build the step
+ * metadata) once and get a copy for every execution.<br>
+ * <br>
+ * Files are cached by their resolved name and are loaded again once their modification time or size changes.
+ * Repository objects are cached by object ID and are loaded again once their modification date changes. The metadata
+ * is only handed to callers loading it with the same repository and metastore instances, which it can refer to.
+ * The least recently used entry is dropped once the cache holds {@link Const#KETTLE_META_FILE_CACHE_SIZE} entries. The
+ * cache is disabled by default.<br>
+ * <br>
+ * The cached metadata is never handed out: every caller gets its own copy, with its own variables initialized from the
+ * given parent variables, just like a freshly loaded file.
+ *
+ * @since 8.3
+ */
+public class MetaFileCache {
+
+  /** Loads the metadata when it's not in the cache */
+  public interface MetaLoader<T> {
+    T load() throws KettleException;
+  }
+
+  private static MetaFileCache instance;
+
+  private final int maxSize;
+  private final Map<CacheKey, CacheEntry> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  @VisibleForTesting
+  MetaFileCache( int maxSize ) {
+    this.maxSize = maxSize;
+    entries = new LinkedHashMap<CacheKey, CacheEntry>( 16, 0.75f, true ) {
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<CacheKey, CacheEntry> eldest ) {
+        if ( size() > MetaFileCache.this.maxSize ) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public static synchronized MetaFileCache getInstance() {
+    if ( instance == null ) {
+      instance = new MetaFileCache( Const.toInt( System.getProperty( Const.KETTLE_META_FILE_CACHE_SIZE ), 0 ) );
+    }
+    return instance;
+  }
+
+  /**
+   * Get a transformation loaded from a file.
+   *
+   * @param filename
+   *          the name of the file
+   * @param space
+   *          the variables to resolve the file name with and to initialize the variables of the transformation from
+   * @param repository
+   *          the repository the loader passes to the transformation, can be null
+   * @param metaStore
+   *          the metastore the loader passes to the transformation, can be null
+   * @param loader
+   *          loads the transformation when it's not in the cache
+   * @return the transformation, a copy if it was cached
+   * @throws KettleException
+   *           in case the transformation can't be loaded
+   */
+  public TransMeta getTransMeta( String filename, VariableSpace space, Repository repository, IMetaStore metaStore,
+    MetaLoader<TransMeta> loader ) throws KettleException {
+    if ( !isEnabled() ) {
+      return loader.load();
+    }
+    CacheKey key = getFileKey( TransMeta.XML_TAG, filename, space, repository, metaStore );
+    if ( key == null ) {
+      return loader.load();
+    }
+    TransMeta cached = (TransMeta) lookup( key );
+    if ( cached != null ) {
+      return copyOf( cached, space );
+    }
+    TransMeta transMeta = loader.load();
+    store( key, copyOf( transMeta, null ) );
+    return transMeta;
+  }
+
+  /**
+   * Get the last revision of a transformation loaded from a repository.
+   *
+   * @param repository
+   *          the repository
+   * @param objectId
+   *          the ID of the transformation in the repository
+   * @param space
+   *          the variables to initialize the variables of the transformation from
+   * @param loader
+   *          loads the transformation when it's not in the cache
+   * @return a copy of the transformation
+   * @throws KettleException
+   *           in case the transformation can't be loaded
+   */
+  public TransMeta getTransMeta( Repository repository, ObjectId objectId, VariableSpace space,
+    MetaLoader<TransMeta> loader ) throws KettleException {
+    if ( !isEnabled() ) {
+      return loader.load();
+    }
+    CacheKey key = getRepositoryKey( RepositoryObjectType.TRANSFORMATION, repository, objectId );
+    if ( key == null ) {
+      return loader.load();
+    }
+    TransMeta cached = (TransMeta) lookup( key );
+    if ( cached == null ) {
+      // The repository loads the transformation without parent variables, it's kept as it is
+      //
+      cached = loader.load();
+      store( key, cached );
+    }
+    return cached == null ? null : copyOf( cached, space );
+  }
+
+  /**
+   * Get a job loaded from a file.
+   *
+   * @param filename
+   *          the name of the file
+   * @param space
+   *          the variables to resolve the file name with and to initialize the variables of the job from
+   * @param repository
+   *          the repository the loader passes to the job, can be null
+   * @param metaStore
+   *          the metastore the loader passes to the job, can be null
+   * @param loader
+   *          loads the job when it's not in the cache
+   * @return the job, a copy if it was cached
+   * @throws KettleException
+   *           in case the job can't be loaded
+   */
+  public JobMeta getJobMeta( String filename, VariableSpace space, Repository repository, IMetaStore metaStore,
+    MetaLoader<JobMeta> loader ) throws KettleException {
+    if ( !isEnabled() ) {
+      return loader.load();
+    }
+    CacheKey key = getFileKey( JobMeta.XML_TAG, filename, space, repository, metaStore );
+    if ( key == null ) {
+      return loader.load();
+    }
+    JobMeta cached = (JobMeta) lookup( key );
+    if ( cached != null ) {
+      return copyOf( cached, space );
+    }
+    JobMeta jobMeta = loader.load();
+    store( key, copyOf( jobMeta, null ) );
+    return jobMeta;
+  }
+
+  /**
+   * Get the last revision of a job loaded from a repository.
+   *
+   * @param repository
+   *          the repository
+   * @param objectId
+   *          the ID of the job in the repository
+   * @param space
+   *          the variables to initialize the variables of the job from
+   * @param loader
+   *          loads the job when it's not in the cache
+   * @return a copy of the job
+   * @throws KettleException
+   *           in case the job can't be loaded
+   */
+  public JobMeta getJobMeta( Repository repository, ObjectId objectId, VariableSpace space,
+    MetaLoader<JobMeta> loader ) throws KettleException {
+    if ( !isEnabled() ) {
+      return loader.load();
+    }
+    CacheKey key = getRepositoryKey( RepositoryObjectType.JOB, repository, objectId );
+    if ( key == null ) {
+      return loader.load();
+    }
+    JobMeta cached = (JobMeta) lookup( key );
+    if ( cached == null ) {
+      // The repository loads the job without parent variables, it's kept as it is
+      //
+      cached = loader.load();
+      store( key, cached );
+    }
+    return cached == null ? null : copyOf( cached, space );
+  }
+
+  /**
+   * @return the key of a file, null if the file doesn't exist or we can't tell when it changes
+   */
+  private CacheKey getFileKey( String type, String filename, VariableSpace space, Repository repository,
+    IMetaStore metaStore ) {
+    if ( Utils.isEmpty( filename ) ) {
+      return null;
+    }
+    try {
+      FileObject file = KettleVFS.getFileObject( filename, space );
+      if ( !file.exists() ) {
+        return null;
+      }
+      long lastModified = file.getContent().getLastModifiedTime();
+      if ( lastModified <= 0 ) {
+        return null;
+      }
+      return new CacheKey( type + ":" + file.getName().getURI(), repository, metaStore,
+        lastModified + ":" + file.getContent().getSize() );
+    } catch ( Exception e ) {
+      // Let the loader report the problem
+      return null;
+    }
+  }
+
+  /**
+   * @return the key of a repository object, null if we can't tell when it changes
+   */
+  private CacheKey getRepositoryKey( RepositoryObjectType type, Repository repository, ObjectId objectId ) {
+    if ( repository == null || objectId == null ) {
+      return null;
+    }
+    try {
+      RepositoryObject information = repository.getObjectInformation( objectId, type );
+      if ( information == null || information.getModifiedDate() == null ) {
+        return null;
+      }
+      return new CacheKey( type.getTypeDescription() + ":" + objectId.getId(), repository, null,
+        String.valueOf( information.getModifiedDate().getTime() ) );
+    } catch ( Exception e ) {
+      return null;
+    }
+  }
+
+  private synchronized AbstractMeta lookup( CacheKey key ) {
+    CacheEntry entry = entries.get( key );
+    if ( entry != null && entry.version.equals( key.version ) ) {
+      hits.incrementAndGet();
+      return entry.meta;
+    }
+    if ( entry != null ) {
+      // The file changed since we loaded it
+      entries.remove( key );
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  private synchronized void store( CacheKey key, AbstractMeta meta ) {
+    if ( meta != null ) {
+      entries.put( key, new CacheEntry( key.version, meta ) );
+    }
+  }
+
+  /**
+   * Copy a transformation so that nothing the caller changes ends up in the cache. The copy gets its own variables,
+   * caches, attributes and log tables.
+   */
+  @VisibleForTesting
+  static TransMeta copyOf( TransMeta transMeta, VariableSpace space ) {
+    TransMeta copy = (TransMeta) transMeta.realClone( false );
+    if ( copy == null ) {
+      return null;
+    }
+    copyVariablesAndAttributes( transMeta, copy, space );
+    copy.setTransLogTable( replaceSpace( (TransLogTable) transMeta.getTransLogTable().clone(), copy ) );
+    copy.setPerformanceLogTable(
+      replaceSpace( (PerformanceLogTable) transMeta.getPerformanceLogTable().clone(), copy ) );
+    copy.setStepLogTable( replaceSpace( (StepLogTable) transMeta.getStepLogTable().clone(), copy ) );
+    copy.setMetricsLogTable( replaceSpace( (MetricsLogTable) transMeta.getMetricsLogTable().clone(), copy ) );
+    copy.setChannelLogTable( replaceSpace( (ChannelLogTable) transMeta.getChannelLogTable().clone(), copy ) );
+    return copy;
+  }
+
+  /**
+   * Copy a job so that nothing the caller changes ends up in the cache. The copy gets its own variables, caches,
+   * attributes and log tables.
+   */
+  @VisibleForTesting
+  static JobMeta copyOf( JobMeta jobMeta, VariableSpace space ) {
+    JobMeta copy = (JobMeta) jobMeta.realClone( false );
+    if ( copy == null ) {
+      return null;
+    }
+    copyVariablesAndAttributes( jobMeta, copy, space );
+    copy.setJobLogTable( replaceSpace( (JobLogTable) jobMeta.getJobLogTable().clone(), copy ) );
+    copy.setJobEntryLogTable( replaceSpace( (JobEntryLogTable) jobMeta.getJobEntryLogTable().clone(), copy ) );
+    copy.setChannelLogTable( replaceSpace( (ChannelLogTable) jobMeta.getChannelLogTable().clone(), copy ) );
+    return copy;
+  }
+
+  private static void copyVariablesAndAttributes( AbstractMeta meta, AbstractMeta copy, VariableSpace space ) {
+    // The same variables as when loading the file with the given parent variables
+    //
+    copy.shareVariablesWith( new Variables() );
+    copy.initializeVariablesFrom( space );
+    copy.setInternalKettleVariables();
+
+    Map<String, Map<String, String>> attributesMap = new HashMap<>();
+    if ( meta.getAttributesMap() != null ) {
+      for ( Map.Entry<String, Map<String, String>> group : meta.getAttributesMap().entrySet() ) {
+        attributesMap.put( group.getKey(),
+          group.getValue() == null ? null : new HashMap<String, String>( group.getValue() ) );
+      }
+    }
+    copy.setAttributesMap( attributesMap );
+  }
+
+  private static <T extends BaseLogTable> T replaceSpace( T logTable, AbstractMeta meta ) {
+    logTable.replaceSpace( meta, meta );
+    return logTable;
+  }
+
+  private boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * @return the number of times a cached transformation or job was handed out
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of times a transformation or job wasn't cached yet or had changed since it was cached
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of entries dropped because the cache was full
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of cached transformations and jobs
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the maximum number of cached transformations and jobs, 0 if caching is disabled
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Remove all the cached transformations and jobs
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * The name of a file or repository object with the repository and metastore it's loaded with. Those are compared by
+   * identity: metadata loaded for one repository connection isn't handed to another one. The version isn't part of the
+   * key, it tells whether the cached entry is still current.
+   */
+  private static final class CacheKey {
+    private final String name;
+    private final Repository repository;
+    private final IMetaStore metaStore;
+    private final String version;
+
+    CacheKey( String name, Repository repository, IMetaStore metaStore, String version ) {
+      this.name = name;
+      this.repository = repository;
+      this.metaStore = metaStore;
+      this.version = version;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+      if ( !( obj instanceof CacheKey ) ) {
+        return false;
+      }
+      CacheKey other = (CacheKey) obj;
+      return name.equals( other.name ) && repository == other.repository && metaStore == other.metaStore;
+    }
+
+    @Override
+    public int hashCode() {
+      return ( name.hashCode() * 31 + System.identityHashCode( repository ) ) * 31
+        + System.identityHashCode( metaStore );
+    }
+  }
+
+  private static final class CacheEntry {
+    private final String version;
+    private final AbstractMeta meta;
+
+    CacheEntry( String version, AbstractMeta meta ) {
+      this.version = version;
+      this.meta = meta;
+    }
+  }
+}
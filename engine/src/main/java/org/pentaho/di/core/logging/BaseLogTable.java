@@ -91,6 +91,20 @@ public abstract class BaseLogTable {
     }
   }
 
+  /**
+   * Resolve the variables and look up the logging connection of this log table in another transformation or job, for
+   * example a copy of the one it was loaded with.
+   *
+   * @param space
+   *          the variables to resolve the connection, schema and table names with
+   * @param databasesInterface
+   *          the connections to look up the logging connection in
+   */
+  public void replaceSpace( VariableSpace space, HasDatabasesInterface databasesInterface ) {
+    this.space = space;
+    this.databasesInterface = databasesInterface;
+  }
+
   public String toString() {
     if ( isDefined() ) {
       return getDatabaseMeta().getName() + "-" + getActualTableName();
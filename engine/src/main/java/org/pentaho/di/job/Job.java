@@ -158,6 +158,12 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
   /** A flat list of results in THIS job, in the order of execution of job entries */
   private final LinkedList<JobEntryResult> jobEntryResults = new LinkedList<JobEntryResult>();
 
+  /** The execution times of the job entries in THIS job */
+  private final Map<JobEntryCopy, JobEntryTiming> jobEntryTimings = new ConcurrentHashMap<>();
+
+  /** Runs the job entries launched in parallel, created when the first one is launched */
+  private JobEntryScheduler scheduler;
+
   private Date startDate, endDate, currentDate, logDate, depDate;
 
   private long batchId;
@@ -261,6 +267,8 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     synchronized ( jobEntryResults ) {
       jobEntryResults.clear();
     }
+    jobEntryTimings.clear();
+    scheduler = null;
     errors = new AtomicInteger( 0 );
     batchId = -1;
     passedBatchId = -1;
@@ -681,6 +689,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
       log.snap( Metrics.METRIC_JOBENTRY_STOP, cloneJei.toString() );
 
       final long end = System.currentTimeMillis();
+      getJobEntryTiming( jobEntryCopy ).addExecution( end - start );
       if ( interactive ) {
         if ( jobEntryCopy.isTransformation() ) {
           getActiveJobEntryTransformations().remove( jobEntryCopy );
@@ -738,7 +747,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     // Keep track of all the threads we fired in case of parallel execution...
     // Keep track of the results of these executions too.
     //
-    final List<Thread> threads = new ArrayList<Thread>();
+    final List<JobEntryScheduler.Branch> branches = new ArrayList<JobEntryScheduler.Branch>();
     // next 2 lists is being modified concurrently so must be synchronized for this case.
     final Queue<Result> threadResults = new ConcurrentLinkedQueue<Result>();
     final Queue<KettleException> threadExceptions = new ConcurrentLinkedQueue<KettleException>();
@@ -808,9 +817,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
               }
             }
           };
-          Thread thread = new Thread( runnable );
-          threads.add( thread );
-          thread.start();
+          branches.add( getScheduler().launch( nextEntry, runnable ) );
           if ( log.isBasic() ) {
             log.logBasic( BaseMessages.getString( PKG, "Job.Log.LaunchedJobEntryInParallel", nextEntry.getName() ) );
           }
@@ -836,12 +843,11 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     // finish...
     //
     if ( jobEntryCopy.isLaunchingInParallel() ) {
-      for ( int i = 0; i < threads.size(); i++ ) {
-        Thread thread = threads.get( i );
+      for ( int i = 0; i < branches.size(); i++ ) {
         JobEntryCopy nextEntry = threadEntries.get( i );
 
         try {
-          thread.join();
+          getScheduler().await( branches.get( i ) );
         } catch ( InterruptedException e ) {
           log.logError( jobMeta.toString(), BaseMessages.getString( PKG,
               "Job.Log.UnexpectedErrorWhileWaitingForJobEntry", nextEntry.getName() ) );
@@ -879,6 +885,9 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     //
     for ( Result threadResult : threadResults ) {
       res.add( threadResult );
+      if ( threadResult.getRows() != res.getRows() ) {
+        threadResult.closeRows();
+      }
     }
 
     // If there have been errors, logically, we need to set the result to
@@ -888,6 +897,13 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
       res.setResult( false );
     }
 
+    // The copy of the previous result is only passed on if the job entry returned it, otherwise the temporary files of
+    // its rows can go.
+    //
+    if ( prevResult.getRows() != res.getRows() && prevResult.getRows() != newResult.getRows() ) {
+      prevResult.closeRows();
+    }
+
     return res;
   }
 
@@ -2076,6 +2092,41 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     }
   }
 
+  /**
+   * Gets the execution times of the job entries in THIS job.
+   *
+   * @return a copy of the execution times per job entry copy
+   */
+  public Map<JobEntryCopy, JobEntryTiming> getJobEntryTimings() {
+    return new HashMap<JobEntryCopy, JobEntryTiming>( jobEntryTimings );
+  }
+
+  JobEntryTiming getJobEntryTiming( JobEntryCopy jobEntryCopy ) {
+    return jobEntryTimings.computeIfAbsent( jobEntryCopy, copy -> new JobEntryTiming() );
+  }
+
+  /**
+   * @return the execution times of the job entry copy, or null if it wasn't launched or executed yet
+   */
+  JobEntryTiming findJobEntryTiming( JobEntryCopy jobEntryCopy ) {
+    return jobEntryTimings.get( jobEntryCopy );
+  }
+
+  /**
+   * The scheduler for the job entries launched in parallel. The pool size is read when the first entry is launched,
+   * once the variables of the job are set.
+   */
+  synchronized JobEntryScheduler getScheduler() {
+    if ( scheduler == null ) {
+      int poolSize = Const.toInt( environmentSubstitute( getVariable( Const.KETTLE_JOB_PARALLEL_POOL_SIZE ) ), 0 );
+      scheduler = new JobEntryScheduler( this, poolSize );
+      if ( poolSize > 0 && log.isDetailed() ) {
+        log.logDetailed( BaseMessages.getString( PKG, "Job.Log.ParallelPoolSize", poolSize ) );
+      }
+    }
+    return scheduler;
+  }
+
   /**
    * Gets the carteObjectId.
    *
@@ -0,0 +1,202 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.job;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.job.entry.JobEntryCopy;
+
+/**
+ * Runs the job entries a job launches in parallel on a limited number of worker threads, see
+ * {@link org.pentaho.di.core.Const#KETTLE_JOB_PARALLEL_POOL_SIZE}. Branches that can't start right away are queued, the
+ * one with the longest critical path (the slowest chain of job entries that follows it) goes first.<br>
+ * <br>
+ * A job entry waiting for its parallel branches runs the ones that didn't start yet in its own thread. That way nested
+ * parallel branches never wait for a worker that's taken by their parent. With a pool size of 0 or less every branch
+ * gets a new thread, as it always did.
+ */
+class JobEntryScheduler {
+
+  private final Job job;
+  private final int poolSize;
+
+  private final PriorityBlockingQueue<Branch> queue = new PriorityBlockingQueue<>();
+  private final AtomicInteger workers = new AtomicInteger( 0 );
+  private final AtomicLong sequence = new AtomicLong( 0L );
+
+  JobEntryScheduler( Job job, int poolSize ) {
+    this.job = job;
+    this.poolSize = poolSize;
+  }
+
+  int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Launch a parallel branch starting with the given job entry.
+   *
+   * @param entry
+   *          the first job entry of the branch
+   * @param runnable
+   *          executes the branch, expected to handle its own errors
+   * @return the branch to {@link #await(Branch)}
+   */
+  Branch launch( JobEntryCopy entry, Runnable runnable ) {
+    Branch branch = new Branch( entry, runnable, criticalPath( entry ), sequence.getAndIncrement() );
+    if ( poolSize <= 0 ) {
+      new Thread( branch ).start();
+      return branch;
+    }
+    queue.add( branch );
+    if ( reserveWorker() ) {
+      new Thread( this::work, job.getName() + " - parallel job entries" ).start();
+    }
+    return branch;
+  }
+
+  /**
+   * Wait until a branch is finished, running it in this thread if no worker started it yet.
+   */
+  void await( Branch branch ) throws InterruptedException {
+    if ( queue.remove( branch ) ) {
+      branch.run();
+    }
+    try {
+      branch.get();
+    } catch ( ExecutionException e ) {
+      // The runnable handles its own errors, this only happens with an unexpected error
+      //
+      throw new IllegalStateException( e.getCause() );
+    }
+  }
+
+  private boolean reserveWorker() {
+    while ( true ) {
+      int current = workers.get();
+      if ( current >= poolSize ) {
+        return false;
+      }
+      if ( workers.compareAndSet( current, current + 1 ) ) {
+        return true;
+      }
+    }
+  }
+
+  private void work() {
+    while ( true ) {
+      Branch branch = queue.poll();
+      if ( branch != null ) {
+        branch.run();
+        continue;
+      }
+      workers.decrementAndGet();
+
+      // A branch queued right before we gave up our place still needs a worker
+      //
+      if ( queue.isEmpty() || !reserveWorker() ) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * The length of the slowest chain of job entries starting with the given one. The length of a job entry is its
+   * average execution time so far in milliseconds, at least 1. Hops back to an entry on the chain are ignored.<br>
+   * <br>
+   * It's calculated every time a branch is launched, so it uses the execution times of the entries that finished
+   * since the previous launch.
+   */
+  long criticalPath( JobEntryCopy entry ) {
+    return criticalPath( entry, new HashSet<JobEntryCopy>(), new HashMap<JobEntryCopy, Long>() );
+  }
+
+  private long criticalPath( JobEntryCopy entry, Set<JobEntryCopy> chain, Map<JobEntryCopy, Long> criticalPaths ) {
+    Long known = criticalPaths.get( entry );
+    if ( known != null ) {
+      return known;
+    }
+    if ( !chain.add( entry ) ) {
+      return 0L;
+    }
+    JobMeta jobMeta = job.getJobMeta();
+    long longest = 0L;
+    int nrNext = jobMeta.findNrNextJobEntries( entry );
+    for ( int i = 0; i < nrNext; i++ ) {
+      longest = Math.max( longest, criticalPath( jobMeta.findNextJobEntry( entry, i ), chain, criticalPaths ) );
+    }
+    chain.remove( entry );
+
+    JobEntryTiming timing = job.findJobEntryTiming( entry );
+    long length = Math.max( 1L, timing == null ? 0L : timing.getAverageDuration() ) + longest;
+    criticalPaths.put( entry, length );
+    return length;
+  }
+
+  /**
+   * A parallel branch, runs only once: either in a worker or in the thread waiting for it.
+   */
+  final class Branch extends FutureTask<Void> implements Comparable<Branch> {
+    private final JobEntryCopy entry;
+    private final long criticalPath;
+    private final long nr;
+    private final long queued = System.nanoTime();
+    private final AtomicBoolean started = new AtomicBoolean( false );
+
+    Branch( JobEntryCopy entry, Runnable runnable, long criticalPath, long nr ) {
+      super( runnable, null );
+      this.entry = entry;
+      this.criticalPath = criticalPath;
+      this.nr = nr;
+    }
+
+    JobEntryCopy getEntry() {
+      return entry;
+    }
+
+    @Override
+    public void run() {
+      if ( started.compareAndSet( false, true ) ) {
+        job.getJobEntryTiming( entry ).addWaitTime( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - queued ) );
+        super.run();
+      }
+    }
+
+    @Override
+    public int compareTo( Branch other ) {
+      int cmp = Long.compare( other.criticalPath, criticalPath );
+      return cmp != 0 ? cmp : Long.compare( nr, other.nr );
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.job;
+
+/**
+ * Execution times of one job entry copy in a job: how often it ran, how long it took and how long it waited for a free
+ * worker when it was launched in parallel. See {@link Job#getJobEntryTimings()}.
+ *
+ * @since 8.3
+ */
+public class JobEntryTiming {
+
+  private long executions;
+  private long totalDuration;
+  private long maxDuration;
+  private long lastDuration;
+  private long totalWaitTime;
+
+  synchronized void addExecution( long durationMillis ) {
+    executions++;
+    totalDuration += durationMillis;
+    maxDuration = Math.max( maxDuration, durationMillis );
+    lastDuration = durationMillis;
+  }
+
+  synchronized void addWaitTime( long waitMillis ) {
+    totalWaitTime += waitMillis;
+  }
+
+  /**
+   * @return the number of times the job entry was executed
+   */
+  public synchronized long getExecutions() {
+    return executions;
+  }
+
+  /**
+   * @return the total execution time in milliseconds
+   */
+  public synchronized long getTotalDuration() {
+    return totalDuration;
+  }
+
+  /**
+   * @return the average execution time in milliseconds, 0 if the job entry wasn't executed yet
+   */
+  public synchronized long getAverageDuration() {
+    return executions == 0 ? 0L : totalDuration / executions;
+  }
+
+  /**
+   * @return the longest execution time in milliseconds
+   */
+  public synchronized long getMaxDuration() {
+    return maxDuration;
+  }
+
+  /**
+   * @return the execution time of the last execution in milliseconds
+   */
+  public synchronized long getLastDuration() {
+    return lastDuration;
+  }
+
+  /**
+   * @return the total time in milliseconds the job entry was queued, waiting for a worker to run it in parallel
+   */
+  public synchronized long getTotalWaitTime() {
+    return totalWaitTime;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "executions=" + executions + ", total=" + totalDuration + "ms, max=" + maxDuration + "ms, waited="
+      + totalWaitTime + "ms";
+  }
+}
@@ -410,13 +410,27 @@ public class JobMeta extends AbstractMeta
         jobMeta.databases = new ArrayList<DatabaseMeta>();
         jobMeta.slaveServers = new ArrayList<SlaveServer>();
         jobMeta.namedParams = new NamedParamsDefault();
+        jobMeta.loopCache = new HashMap<String, Boolean>();
       }
 
       for ( JobEntryCopy entry : jobcopies ) {
         jobMeta.jobcopies.add( (JobEntryCopy) entry.clone_deep() );
       }
+      // The hop clones still refer to the original job entry copies, point them to the cloned ones
       for ( JobHopMeta entry : jobhops ) {
-        jobMeta.jobhops.add( (JobHopMeta) entry.clone() );
+        JobHopMeta hopClone = (JobHopMeta) entry.clone();
+        JobEntryCopy fromEntry = entry.getFromEntry() == null
+          ? null : jobMeta.findJobEntry( entry.getFromEntry().getName(), entry.getFromEntry().getNr(), true );
+        if ( fromEntry != null ) {
+          hopClone.setFromEntry( fromEntry );
+        }
+        JobEntryCopy toEntry = entry.getToEntry() == null
+          ? null : jobMeta.findJobEntry( entry.getToEntry().getName(), entry.getToEntry().getNr(), true );
+        if ( toEntry != null ) {
+          hopClone.setToEntry( toEntry );
+        }
+        hopClone.setChanged( entry.hasChanged() );
+        jobMeta.jobhops.add( hopClone );
       }
       for ( NotePadMeta entry : notes ) {
         jobMeta.notes.add( (NotePadMeta) entry.clone() );
@@ -23,12 +23,14 @@
 package org.pentaho.di.job.entries.job;
 
 import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.base.MetaFileCache;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.CheckResultInterface;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ObjectLocationSpecificationMethod;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.ResultRows;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.SQLStatement;
 import org.pentaho.di.core.database.DatabaseMeta;
@@ -699,7 +701,7 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
 
       RowMetaAndData resultRow = null;
       boolean first = true;
-      List<RowMetaAndData> rows = new ArrayList<RowMetaAndData>( result.getRows() );
+      List<RowMetaAndData> rows = ResultRows.copyOf( result.getRows() );
 
       while ( ( first && !execPerRow )
         || ( execPerRow && rows != null && iteration < rows.size() && result.getNrErrors() == 0 ) ) {
@@ -713,7 +715,7 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
         }
 
         if ( rows != null && execPerRow ) {
-          resultRow = rows.get( iteration );
+          resultRow = ResultRows.cloneData( rows.get( iteration ) );
         } else {
           resultRow = null;
         }
@@ -1144,7 +1146,7 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
 
         // Set the result rows too, if any ...
         if ( !Utils.isEmpty( oneResult.getRows() ) ) {
-          result.setRows( new ArrayList<RowMetaAndData>( oneResult.getRows() ) );
+          result.setRows( ResultRows.copyOf( oneResult.getRows() ) );
         }
 
         // if one of them fails (in the loop), increase the number of errors
@@ -1155,6 +1157,9 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
 
         iteration++;
       }
+      if ( rows instanceof ResultRows ) {
+        ( (ResultRows) rows ).close();
+      }
 
     } catch ( KettleException ke ) {
       logError( "Error running job entry 'job' : ", ke );
@@ -1375,7 +1380,8 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
           String realFilename = tmpSpace.environmentSubstitute( getFilename() );
 
           try {
-            jobMeta = new JobMeta( tmpSpace, realFilename, rep, metaStore, null );
+            jobMeta = MetaFileCache.getInstance().getJobMeta( realFilename, tmpSpace, rep, metaStore,
+              () -> new JobMeta( tmpSpace, realFilename, rep, metaStore, null ) );
           } catch ( KettleException e ) {
             // try to load from repository, this job may have been developed locally and later uploaded to the repository
             jobMeta = getJobMetaFromRepository( rep, r, realFilename );
@@ -1391,7 +1397,9 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
             if ( !transPath.endsWith( RepositoryObjectType.JOB.getExtension() ) ) {
               transPath = transPath + RepositoryObjectType.JOB.getExtension();
             }
-            jobMeta = new JobMeta( tmpSpace, transPath, rep, metaStore, null );
+            final String jobFilename = transPath;
+            jobMeta = MetaFileCache.getInstance().getJobMeta( jobFilename, tmpSpace, rep, metaStore,
+              () -> new JobMeta( tmpSpace, jobFilename, rep, metaStore, null ) );
           } else {
             jobMeta = getJobMetaFromRepository( rep, r, transPath );
           }
@@ -1400,7 +1408,8 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
           if ( rep != null ) {
             // Load the last version...
             //
-            jobMeta = rep.loadJob( jobObjectId, null );
+            jobMeta = MetaFileCache.getInstance().getJobMeta( rep, jobObjectId, tmpSpace,
+              () -> rep.loadJob( jobObjectId, null ) );
             break;
           } else {
             throw new KettleException(
@@ -23,12 +23,14 @@
 package org.pentaho.di.job.entries.trans;
 
 import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.base.MetaFileCache;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.CheckResultInterface;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ObjectLocationSpecificationMethod;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.ResultRows;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.SQLStatement;
 import org.pentaho.di.core.database.DatabaseMeta;
@@ -737,7 +739,7 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
 
     RowMetaAndData resultRow = null;
     boolean first = true;
-    List<RowMetaAndData> rows = new ArrayList<RowMetaAndData>( result.getRows() );
+    List<RowMetaAndData> rows = ResultRows.copyOf( result.getRows() );
 
     while ( ( first && !execPerRow )
       || ( execPerRow && rows != null && iteration < rows.size() && result.getNrErrors() == 0 )
@@ -749,7 +751,7 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
         result.getRows().clear();
       }
       if ( rows != null && execPerRow ) {
-        resultRow = rows.get( iteration );
+        resultRow = ResultRows.cloneData( rows.get( iteration ) );
       } else {
         resultRow = null;
       }
@@ -790,7 +792,7 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
         }
 
         if ( clearResultRows ) {
-          previousResult.setRows( new ArrayList<RowMetaAndData>() );
+          previousResult.setRows( new ResultRows() );
         }
 
         if ( clearResultFiles ) {
@@ -1231,6 +1233,9 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
       }
       iteration++;
     }
+    if ( rows instanceof ResultRows ) {
+      ( (ResultRows) rows ).close();
+    }
 
     if ( setLogfile ) {
       if ( logChannelFileWriter != null ) {
@@ -1306,7 +1311,8 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
           String realFilename = tmpSpace.environmentSubstitute( getFilename() );
 
           try {
-            transMeta = new TransMeta( realFilename, metaStore, null, true, null, null );
+            transMeta = MetaFileCache.getInstance().getTransMeta( realFilename, null, null, metaStore,
+              () -> new TransMeta( realFilename, metaStore, null, true, null, null ) );
           } catch ( KettleException e ) {
             // try to load from repository, this trans may have been developed locally and later uploaded to the
             // repository
@@ -1325,7 +1331,9 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
             if ( !transPath.endsWith( RepositoryObjectType.TRANSFORMATION.getExtension() ) ) {
               transPath = transPath + RepositoryObjectType.TRANSFORMATION.getExtension();
             }
-            transMeta = new TransMeta( transPath, metaStore, null, true, this, null );
+            final String transFilename = transPath;
+            transMeta = MetaFileCache.getInstance().getTransMeta( transFilename, this, null, metaStore,
+              () -> new TransMeta( transFilename, metaStore, null, true, this, null ) );
           } else {
             transMeta = rep == null ? new TransMeta( transPath, metaStore, null, true, this, null ) : getTransMetaFromRepository( rep, r, transPath );
           }
@@ -1339,7 +1347,8 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
           if ( rep != null ) {
             // Load the last revision
             //
-            transMeta = rep.loadTransformation( transObjectId, null );
+            transMeta = MetaFileCache.getInstance().getTransMeta( rep, transObjectId, tmpSpace,
+              () -> rep.loadTransformation( transObjectId, null ) );
           }
           break;
         default:
@@ -28,6 +28,7 @@ import static org.pentaho.di.core.Const.INTERNAL_VARIABLE_TRANSFORMATION_FILENAM
 import static org.pentaho.di.core.Const.INTERNAL_VARIABLE_JOB_FILENAME_NAME;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.pentaho.di.base.MetaFileCache;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ObjectLocationSpecificationMethod;
 import org.pentaho.di.core.exception.KettleException;
@@ -143,7 +144,9 @@ public abstract class StepWithMappingMeta extends BaseSerializingMeta implements
             }
           }
           if ( mappingTransMeta == null ) {
-            mappingTransMeta = new TransMeta( realFilename, metaStore, rep, true, tmpSpace, null );
+            final String transFilename = realFilename;
+            mappingTransMeta = MetaFileCache.getInstance().getTransMeta( transFilename, tmpSpace, rep, metaStore,
+              () -> new TransMeta( transFilename, metaStore, rep, true, tmpSpace, null ) );
             LogChannel.GENERAL.logDetailed( "Loading transformation from repository", "Transformation was loaded from XML file [" + realFilename + "]" );
           }
         } catch ( Exception e ) {
@@ -196,7 +199,8 @@ public abstract class StepWithMappingMeta extends BaseSerializingMeta implements
 
       case REPOSITORY_BY_REFERENCE:
         // Read the last revision by reference...
-        mappingTransMeta = rep.loadTransformation( executorMeta.getTransObjectId(), null );
+        mappingTransMeta = MetaFileCache.getInstance().getTransMeta( rep, executorMeta.getTransObjectId(), tmpSpace,
+          () -> rep.loadTransformation( executorMeta.getTransObjectId(), null ) );
         break;
       default:
         break;
@@ -30,14 +30,17 @@ import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Queue;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -68,6 +71,9 @@ import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.QueueRowSet;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.ResultRows;
+import org.pentaho.di.core.RingBufferRowSet;
+import org.pentaho.di.core.RowBatchRowSet;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.SingleRowRowSet;
@@ -128,6 +134,7 @@ import org.pentaho.di.trans.cluster.TransSplitter;
 import org.pentaho.di.trans.performance.StepPerformanceSnapShot;
 import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.BaseStepData.StepExecutionStatus;
+import org.pentaho.di.trans.step.FusedRunThread;
 import org.pentaho.di.trans.step.RunThread;
 import org.pentaho.di.trans.step.StepAdapter;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -137,6 +144,8 @@ import org.pentaho.di.trans.step.StepListener;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepPartitioningMeta;
+import org.pentaho.di.trans.step.StepThreadLauncher;
+import org.pentaho.di.trans.step.StepThreadMode;
 import org.pentaho.di.trans.steps.mappinginput.MappingInput;
 import org.pentaho.di.trans.steps.mappingoutput.MappingOutput;
 import org.pentaho.di.www.PrepareExecutionTransServlet;
@@ -281,6 +290,18 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
    */
   private List<StepMetaDataCombi> steps;
 
+  /**
+   * The linear chains of steps running in a single thread each, see {@link Const#KETTLE_STEP_FUSION}.
+   */
+  private List<List<StepMeta>> fusedChains = new ArrayList<>();
+
+  /**
+   * The IDs of the step plugins which can be part of a chain of steps running in a single thread. These steps read one
+   * row, write at most one row and never wait for anything else.
+   */
+  private static final Set<String> FUSABLE_STEP_IDS = new HashSet<>( Arrays.asList( "Dummy", "SelectValues",
+    "Constant", "Calculator", "FilterRows", "StringOperations", "SetValueField" ) );
+
   /**
    * The class number.
    */
@@ -566,7 +587,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
     activeSubtransformations = new ConcurrentHashMap<>();
     activeSubjobs = new HashMap<>();
 
-    resultRows = new ArrayList<>();
+    resultRows = new ResultRows();
     resultFiles = new ArrayList<>();
     counters = new Hashtable<>();
 
@@ -832,6 +853,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
     List<StepMeta> hopsteps = transMeta.getTransHopSteps( false );
 
+    fusedChains = isStepFusionEnabled() ? findFusedChains( hopsteps ) : new ArrayList<List<StepMeta>>();
+
     if ( log.isDetailed() ) {
       log.logDetailed( BaseMessages.getString( PKG, "Trans.Log.FoundDefferentSteps", String.valueOf( hopsteps
         .size() ) ) );
@@ -920,8 +943,20 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                 //
                 Boolean batchingRowSet =
                   ValueMetaString.convertStringToBoolean( System.getProperty( Const.KETTLE_BATCHING_ROWSET ) );
-                if ( batchingRowSet != null && batchingRowSet.booleanValue() ) {
+                if ( dispatchType == TYPE_DISP_1_1 && isFusedHop( thisStep, nextStep ) ) {
+                  // Both steps run in the same thread: nothing to wait for or to lock
+                  //
+                  rowSet = new QueueRowSet();
+                } else if ( batchingRowSet != null && batchingRowSet.booleanValue() ) {
                   rowSet = new BlockingBatchingRowSet( transMeta.getSizeRowset() );
+                } else if ( dispatchType == TYPE_DISP_1_1 && isRowBatchRowSetEnabled() ) {
+                  rowSet =
+                    new RowBatchRowSet( transMeta.getSizeRowset(), Const.toInt( System
+                      .getProperty( Const.KETTLE_ROW_BATCH_SIZE ), Const.ROW_BATCH_SIZE ) );
+                } else if ( dispatchType == TYPE_DISP_1_1 && isRingBufferRowSetEnabled() ) {
+                  // Exactly one thread writes and one thread reads: no need to lock anything
+                  //
+                  rowSet = new RingBufferRowSet( transMeta.getSizeRowset() );
                 } else {
                   rowSet = new BlockingRowSet( transMeta.getSizeRowset() );
                 }
@@ -1281,6 +1316,105 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
     setReadyToStart( true );
   }
 
+  /**
+   * @return true unless the lock-free ring buffer row set was switched off with
+   *         {@link Const#KETTLE_RING_BUFFER_ROWSET}
+   */
+  private boolean isRingBufferRowSetEnabled() {
+    Boolean ringBufferRowSet =
+      ValueMetaString.convertStringToBoolean( System.getProperty( Const.KETTLE_RING_BUFFER_ROWSET ) );
+    return ringBufferRowSet == null || ringBufferRowSet.booleanValue();
+  }
+
+  /**
+   * @return true if linear chains of steps should run in a single thread, see {@link Const#KETTLE_STEP_FUSION}
+   */
+  private boolean isStepFusionEnabled() {
+    if ( transMeta.getTransformationType() != TransMeta.TransformationType.Normal ) {
+      return false;
+    }
+    Boolean stepFusion = ValueMetaString.convertStringToBoolean( getVariable( Const.KETTLE_STEP_FUSION, "N" ) );
+    return stepFusion != null && stepFusion.booleanValue();
+  }
+
+  /**
+   * Find the linear chains of steps which can run in a single thread. Two steps are chained when both are fusable and
+   * the first one only writes to the second one, which only reads from the first one.
+   *
+   * @param hopsteps
+   *          the steps of the transformation
+   * @return the chains of at least 2 steps, every chain from the first to the last step
+   */
+  List<List<StepMeta>> findFusedChains( List<StepMeta> hopsteps ) {
+    List<List<StepMeta>> chains = new ArrayList<>();
+    for ( StepMeta stepMeta : hopsteps ) {
+      // Only start a chain at the first step
+      //
+      List<StepMeta> previousSteps = transMeta.findPreviousSteps( stepMeta, true );
+      if ( previousSteps.size() == 1 && isFusedHopCandidate( previousSteps.get( 0 ), stepMeta ) ) {
+        continue;
+      }
+      List<StepMeta> chain = new ArrayList<>();
+      chain.add( stepMeta );
+      StepMeta lastStep = stepMeta;
+      List<StepMeta> nextSteps = transMeta.findNextSteps( lastStep );
+      while ( nextSteps.size() == 1 && isFusedHopCandidate( lastStep, nextSteps.get( 0 ) )
+        && !chain.contains( nextSteps.get( 0 ) ) ) {
+        lastStep = nextSteps.get( 0 );
+        chain.add( lastStep );
+        nextSteps = transMeta.findNextSteps( lastStep );
+      }
+      if ( chain.size() > 1 ) {
+        chains.add( chain );
+        if ( log.isDetailed() ) {
+          log.logDetailed( BaseMessages.getString( PKG, "Trans.Log.FusedStepChain", chain.get( 0 ).getName(),
+            lastStep.getName(), String.valueOf( chain.size() ) ) );
+        }
+      }
+    }
+    return chains;
+  }
+
+  private boolean isFusedHopCandidate( StepMeta fromStep, StepMeta toStep ) {
+    if ( !isFusable( fromStep ) || !isFusable( toStep ) ) {
+      return false;
+    }
+    if ( transMeta.findNextSteps( fromStep ).size() != 1 ) {
+      return false;
+    }
+    // No info steps or other steps writing to the target step
+    //
+    List<StepMeta> previousSteps = transMeta.findPreviousSteps( toStep, true );
+    return previousSteps.size() == 1 && previousSteps.get( 0 ).equals( fromStep )
+      && transMeta.findPreviousSteps( toStep, false ).size() == 1;
+  }
+
+  private boolean isFusable( StepMeta stepMeta ) {
+    return FUSABLE_STEP_IDS.contains( stepMeta.getStepID() ) && stepMeta.getCopies() == 1
+      && !stepMeta.isPartitioned() && !stepMeta.isMapping() && !stepMeta.isDoingErrorHandling()
+      && stepMeta.getTargetStepPartitioningMeta() == null && stepMeta.getRemoteInputSteps().isEmpty()
+      && stepMeta.getRemoteOutputSteps().isEmpty();
+  }
+
+  private boolean isFusedHop( StepMeta fromStep, StepMeta toStep ) {
+    for ( List<StepMeta> chain : fusedChains ) {
+      int index = chain.indexOf( fromStep );
+      if ( index >= 0 ) {
+        return index + 1 < chain.size() && chain.get( index + 1 ).equals( toStep );
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if columnar row batches were switched on with {@link Const#KETTLE_ROW_BATCH_ROWSET}
+   */
+  private boolean isRowBatchRowSetEnabled() {
+    Boolean rowBatchRowSet =
+      ValueMetaString.convertStringToBoolean( System.getProperty( Const.KETTLE_ROW_BATCH_ROWSET ) );
+    return rowBatchRowSet != null && rowBatchRowSet.booleanValue();
+  }
+
   @SuppressWarnings ( "deprecation" )
   private void checkCompatibility() {
     // If we don't have a previous result and transMeta does have one, someone has been using a deprecated method.
@@ -1474,28 +1608,85 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
         // Now start all the threads...
         //
-        for ( int i = 0; i < steps.size(); i++ ) {
-          final StepMetaDataCombi combi = steps.get( i );
-          RunThread runThread = new RunThread( combi );
-          Thread thread = new Thread( runThread );
-          thread.setName( getName() + " - " + combi.stepname );
-          ExtensionPointHandler.callExtensionPoint( log, KettleExtensionPoint.StepBeforeStart.id, combi );
-          // Call an extension point at the end of the step
+        StepThreadMode stepThreadMode =
+          StepThreadMode.getStepThreadModeByCode( getVariable( Const.KETTLE_STEP_THREAD_MODE ) );
+        if ( log.isDetailed() ) {
+          log.logDetailed( BaseMessages.getString( PKG, "Trans.Log.StepThreadMode", stepThreadMode.getCode() ) );
+        }
+        Map<StepMeta, StepMetaDataCombi> fusedSteps = new HashMap<>();
+        for ( List<StepMeta> chain : fusedChains ) {
+          for ( StepMeta stepMeta : chain ) {
+            fusedSteps.put( stepMeta, null );
+          }
+        }
+        int nrStepThreads = 0;
+        for ( StepMetaDataCombi combi : steps ) {
+          if ( !fusedSteps.containsKey( combi.stepMeta ) ) {
+            nrStepThreads++;
+          }
+        }
+        nrStepThreads += fusedChains.size();
+
+        // All the step threads are reserved up front: in pooled mode the transformation fails here when the pool
+        // can't run all of its steps at the same time.
+        //
+        StepThreadLauncher.Reservation reservation;
+        try {
+          reservation = StepThreadLauncher.getInstance().reserve( stepThreadMode, nrStepThreads );
+        } catch ( KettleException e ) {
+          // None of the steps run, clean up the way a transformation that fails to initialize does
           //
-          combi.step.addStepListener( new StepAdapter() {
+          for ( StepMetaDataCombi combi : steps ) {
+            combi.step.dispose( combi.meta, combi.data );
+            combi.data.setStatus( StepExecutionStatus.STATUS_HALTED );
+          }
+          try {
+            fireTransFinishedListeners();
+          } catch ( KettleException listenerException ) {
+            log.logError( BaseMessages.getString( PKG, "Trans.FinishListeners.Exception" ) );
+          } finally {
+            setFinished( true );
+          }
+          throw e;
+        }
+        try ( StepThreadLauncher.Reservation stepThreads = reservation ) {
+          for ( int i = 0; i < steps.size(); i++ ) {
+            final StepMetaDataCombi combi = steps.get( i );
+            ExtensionPointHandler.callExtensionPoint( log, KettleExtensionPoint.StepBeforeStart.id, combi );
+            // Call an extension point at the end of the step
+            //
+            combi.step.addStepListener( new StepAdapter() {
 
-            @Override
-            public void stepFinished( Trans trans, StepMeta stepMeta, StepInterface step ) {
-              try {
-                ExtensionPointHandler.callExtensionPoint( log, KettleExtensionPoint.StepFinished.id, combi );
-              } catch ( KettleException e ) {
-                throw new RuntimeException( "Unexpected error in calling extension point upon step finish", e );
+              @Override
+              public void stepFinished( Trans trans, StepMeta stepMeta, StepInterface step ) {
+                try {
+                  ExtensionPointHandler.callExtensionPoint( log, KettleExtensionPoint.StepFinished.id, combi );
+                } catch ( KettleException e ) {
+                  throw new RuntimeException( "Unexpected error in calling extension point upon step finish", e );
+                }
               }
-            }
 
-          } );
+            } );
+
+            if ( fusedSteps.containsKey( combi.stepMeta ) ) {
+              fusedSteps.put( combi.stepMeta, combi );
+            } else {
+              RunThread runThread = new RunThread( combi );
+              stepThreads.start( getName() + " - " + combi.stepname, runThread );
+            }
+          }
 
-          thread.start();
+          // Every chain of fused steps runs in a single thread
+          //
+          for ( List<StepMeta> chain : fusedChains ) {
+            List<StepMetaDataCombi> combis = new ArrayList<>();
+            for ( StepMeta stepMeta : chain ) {
+              combis.add( fusedSteps.get( stepMeta ) );
+            }
+            FusedRunThread runThread = new FusedRunThread( combis );
+            stepThreads.start( getName() + " - " + chain.get( 0 ).getName() + " .. "
+              + chain.get( chain.size() - 1 ).getName(), runThread );
+          }
         }
         break;
 
@@ -1650,10 +1841,19 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         StepMeta stepMeta = steps.get( i ).stepMeta;
         StepInterface step = steps.get( i ).step;
 
-        StepPerformanceSnapShot snapShot =
-          new StepPerformanceSnapShot( seqNr, getBatchId(), new Date(), getName(), stepMeta.getName(), step.getCopy(),
-            step.getLinesRead(), step.getLinesWritten(), step.getLinesInput(), step.getLinesOutput(), step
-            .getLinesUpdated(), step.getLinesRejected(), step.getErrors() );
+        StepPerformanceSnapShot snapShot;
+        if ( step instanceof BaseStep ) {
+          BaseStep.StatusCounters counters = ( (BaseStep) step ).getStatusCounters();
+          snapShot =
+            new StepPerformanceSnapShot( seqNr, getBatchId(), new Date(), getName(), stepMeta.getName(), step
+              .getCopy(), counters.getLinesRead(), counters.getLinesWritten(), counters.getLinesInput(), counters
+              .getLinesOutput(), counters.getLinesUpdated(), counters.getLinesRejected(), counters.getErrors() );
+        } else {
+          snapShot =
+            new StepPerformanceSnapShot( seqNr, getBatchId(), new Date(), getName(), stepMeta.getName(), step
+              .getCopy(), step.getLinesRead(), step.getLinesWritten(), step.getLinesInput(), step.getLinesOutput(),
+              step.getLinesUpdated(), step.getLinesRejected(), step.getErrors() );
+        }
 
         synchronized ( stepPerformanceSnapShots ) {
           List<StepPerformanceSnapShot> snapShotList = stepPerformanceSnapShots.get( step.toString() );
@@ -580,6 +580,9 @@ public class TransMeta extends AbstractMeta
         transMeta.clusterSchemas = new ArrayList<>();
         transMeta.namedParams = new NamedParamsDefault();
         transMeta.stepChangeListeners = new ArrayList<>();
+        transMeta.stepsFieldsCache = new HashMap<>();
+        transMeta.loopCache = new HashMap<>();
+        transMeta.previousStepCache = new HashMap<>();
       }
       for ( DatabaseMeta db : databases ) {
         transMeta.addDatabase( (DatabaseMeta) db.clone() );
@@ -603,8 +606,18 @@ public class TransMeta extends AbstractMeta
           }
         }
       }
+      // The hop clones still refer to the original steps, point them to the cloned steps
       for ( TransHopMeta hop : hops ) {
-        transMeta.addTransHop( (TransHopMeta) hop.clone() );
+        TransHopMeta hopClone = (TransHopMeta) hop.clone();
+        StepMeta fromStep = hop.getFromStep() == null ? null : transMeta.findStep( hop.getFromStep().getName() );
+        if ( fromStep != null ) {
+          hopClone.setFromStep( fromStep );
+        }
+        StepMeta toStep = hop.getToStep() == null ? null : transMeta.findStep( hop.getToStep().getName() );
+        if ( toStep != null ) {
+          hopClone.setToStep( toStep );
+        }
+        transMeta.addTransHop( hopClone );
       }
       for ( NotePadMeta note : notes ) {
         transMeta.addNote( (NotePadMeta) note.clone() );
@@ -34,11 +34,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -51,8 +53,10 @@ import org.pentaho.di.core.Const;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.ExtensionDataInterface;
 import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowBatchRowSet;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.RowSetSignal;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleRowException;
 import org.pentaho.di.core.exception.KettleStepException;
@@ -62,7 +66,9 @@ import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.logging.LogLevel;
 import org.pentaho.di.core.logging.LoggingObjectInterface;
 import org.pentaho.di.core.logging.LoggingObjectType;
+import org.pentaho.di.core.row.FrozenRowMeta;
 import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowBatch;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -165,7 +171,10 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
   private Trans trans;
 
-  private final Object statusCountersLock = new Object();
+  // The status counters are updated by the step thread and read by the monitoring threads (Spoon, Carte, performance
+  // snapshots, ...). They are updated atomically through the field updaters below, which keeps both sides free of
+  // locks, see getStatusCounters() for a snapshot. The fields themselves stay public for steps that still use them.
+  //
 
   /**
    * nr of lines read from previous step(s)
@@ -173,7 +182,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @deprecated use {@link #getLinesRead()}, {@link #incrementLinesRead()}, or {@link #decrementLinesRead()}
    */
   @Deprecated
-  public long linesRead;
+  public volatile long linesRead;
 
   /**
    * nr of lines written to next step(s)
@@ -181,7 +190,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @deprecated use {@link #getLinesWritten()}, {@link #incrementLinesWritten()}, or {@link #decrementLinesWritten()}
    */
   @Deprecated
-  public long linesWritten;
+  public volatile long linesWritten;
 
   /**
    * nr of lines read from file or database
@@ -189,7 +198,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @deprecated use {@link #getLinesInput()} or {@link #incrementLinesInput()}
    */
   @Deprecated
-  public long linesInput;
+  public volatile long linesInput;
 
   /**
    * nr of lines written to file or database
@@ -197,7 +206,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @deprecated use {@link #getLinesOutput()} or {@link #incrementLinesOutput()}
    */
   @Deprecated
-  public long linesOutput;
+  public volatile long linesOutput;
 
   /**
    * nr of updates in a database table or file
@@ -205,7 +214,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @deprecated use {@link #getLinesUpdated()} or {@link #incrementLinesUpdated()}
    */
   @Deprecated
-  public long linesUpdated;
+  public volatile long linesUpdated;
 
   /**
    * nr of lines skipped
@@ -213,15 +222,30 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @deprecated use {@link #getLinesSkipped()} or {@link #incrementLinesSkipped()}
    */
   @Deprecated
-  public long linesSkipped;
+  public volatile long linesSkipped;
 
   /**
-   * total sleep time in ns caused by an empty input buffer (previous step is slow)
+   * nr of lines rejected to an error handling step
    *
    * @deprecated use {@link #getLinesRejected()} or {@link #incrementLinesRejected()}
    */
   @Deprecated
-  public long linesRejected;
+  public volatile long linesRejected;
+
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_READ =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesRead" );
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_WRITTEN =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesWritten" );
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_INPUT =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesInput" );
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_OUTPUT =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesOutput" );
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_UPDATED =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesUpdated" );
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_SKIPPED =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesSkipped" );
+  private static final AtomicLongFieldUpdater<BaseStep> LINES_REJECTED =
+    AtomicLongFieldUpdater.newUpdater( BaseStep.class, "linesRejected" );
 
   private boolean distributed;
 
@@ -244,6 +268,11 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
   private final ReentrantReadWriteLock inputRowSetsLock = new ReentrantReadWriteLock();
 
+  /**
+   * Raised by the input rowsets when rows arrive and by this step when it gets resumed or stopped
+   */
+  private final RowSetSignal rowSetSignal = new RowSetSignal();
+
   /**
    * the rowsets on the output, size() == nr of target steps
    */
@@ -338,6 +367,12 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
   private RowMetaInterface inputRowMeta;
 
+  /** Set when the input row metadata is handed to the step frozen, see {@link Const#KETTLE_FROZEN_ROW_META} */
+  private Boolean frozenRowMetaEnabled;
+
+  /** The frozen input row metadata by the row metadata of the input row set it was made from */
+  private final Map<RowMetaInterface, RowMetaInterface> frozenRowMetas = new IdentityHashMap<>();
+
   /**
    * step partitioning information of the NEXT step
    */
@@ -373,6 +408,21 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
   private static int NR_OF_ROWS_IN_BLOCK = 500;
 
+  /**
+   * The maximum time to wait for a signal before checking the input rowsets or the paused flag again
+   */
+  private static final long SIGNAL_WAIT_MILLIS = 100L;
+
+  /**
+   * The maximum number of input row metadata instances a frozen copy is kept of
+   */
+  private static final int FROZEN_ROW_META_CACHE_SIZE = 32;
+
+  /**
+   * The number of rows in a batch collected from single rows, see {@link #getRowBatch()}
+   */
+  private int rowBatchSize;
+
   private int blockPointer;
 
   /**
@@ -486,16 +536,6 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
     init = false;
 
-    synchronized ( statusCountersLock ) {
-      linesRead = 0L; // new AtomicLong(0L); // Keep some statistics!
-      linesWritten = 0L; // new AtomicLong(0L);
-      linesUpdated = 0L; // new AtomicLong(0L);
-      linesSkipped = 0L; // new AtomicLong(0L);
-      linesRejected = 0L; // new AtomicLong(0L);
-      linesInput = 0L; // new AtomicLong(0L);
-      linesOutput = 0L; // new AtomicLong(0L);
-    }
-
     inputRowSets = null;
     outputRowSets = null;
     nextSteps = null;
@@ -912,9 +952,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public long getLinesRead() {
-    synchronized ( statusCountersLock ) {
-      return linesRead;
-    }
+    return LINES_READ.get( this );
   }
 
   /**
@@ -923,9 +961,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return Returns the new value
    */
   public long incrementLinesRead() {
-    synchronized ( statusCountersLock ) {
-      return ++linesRead;
-    }
+    return LINES_READ.incrementAndGet( this );
   }
 
   /**
@@ -934,18 +970,14 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return Returns the new value
    */
   public long decrementLinesRead() {
-    synchronized ( statusCountersLock ) {
-      return --linesRead;
-    }
+    return LINES_READ.decrementAndGet( this );
   }
 
   /**
    * @param newLinesReadValue the new number of lines read from previous steps
    */
   public void setLinesRead( long newLinesReadValue ) {
-    synchronized ( statusCountersLock ) {
-      linesRead = newLinesReadValue;
-    }
+    LINES_READ.set( this, newLinesReadValue );
   }
 
   /**
@@ -953,9 +985,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public long getLinesInput() {
-    synchronized ( statusCountersLock ) {
-      return linesInput;
-    }
+    return LINES_INPUT.get( this );
   }
 
   /**
@@ -964,18 +994,14 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return the new incremented value
    */
   public long incrementLinesInput() {
-    synchronized ( statusCountersLock ) {
-      return ++linesInput;
-    }
+    return LINES_INPUT.incrementAndGet( this );
   }
 
   /**
    * @param newLinesInputValue the new number of lines read from an input source: database, file, socket, etc.
    */
   public void setLinesInput( long newLinesInputValue ) {
-    synchronized ( statusCountersLock ) {
-      linesInput = newLinesInputValue;
-    }
+    LINES_INPUT.set( this, newLinesInputValue );
   }
 
   /**
@@ -983,9 +1009,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public long getLinesOutput() {
-    synchronized ( statusCountersLock ) {
-      return linesOutput;
-    }
+    return LINES_OUTPUT.get( this );
   }
 
   /**
@@ -994,18 +1018,14 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return the new incremented value
    */
   public long incrementLinesOutput() {
-    synchronized ( statusCountersLock ) {
-      return ++linesOutput;
-    }
+    return LINES_OUTPUT.incrementAndGet( this );
   }
 
   /**
    * @param newLinesOutputValue the new number of lines written to an output target: database, file, socket, etc.
    */
   public void setLinesOutput( long newLinesOutputValue ) {
-    synchronized ( statusCountersLock ) {
-      linesOutput = newLinesOutputValue;
-    }
+    LINES_OUTPUT.set( this, newLinesOutputValue );
   }
 
   /**
@@ -1013,9 +1033,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public long getLinesWritten() {
-    synchronized ( statusCountersLock ) {
-      return linesWritten;
-    }
+    return LINES_WRITTEN.get( this );
   }
 
   /**
@@ -1024,9 +1042,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return Returns the new value
    */
   public long incrementLinesWritten() {
-    synchronized ( statusCountersLock ) {
-      return ++linesWritten;
-    }
+    return LINES_WRITTEN.incrementAndGet( this );
   }
 
   /**
@@ -1035,18 +1051,14 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return Returns the new value
    */
   public long decrementLinesWritten() {
-    synchronized ( statusCountersLock ) {
-      return --linesWritten;
-    }
+    return LINES_WRITTEN.decrementAndGet( this );
   }
 
   /**
    * @param newLinesWrittenValue the new number of lines written to next steps
    */
   public void setLinesWritten( long newLinesWrittenValue ) {
-    synchronized ( statusCountersLock ) {
-      linesWritten = newLinesWrittenValue;
-    }
+    LINES_WRITTEN.set( this, newLinesWrittenValue );
   }
 
   /**
@@ -1054,9 +1066,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public long getLinesUpdated() {
-    synchronized ( statusCountersLock ) {
-      return linesUpdated;
-    }
+    return LINES_UPDATED.get( this );
   }
 
   /**
@@ -1065,18 +1075,14 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return the new incremented value
    */
   public long incrementLinesUpdated() {
-    synchronized ( statusCountersLock ) {
-      return ++linesUpdated;
-    }
+    return LINES_UPDATED.incrementAndGet( this );
   }
 
   /**
    * @param newLinesUpdatedValue the new number of lines updated in an output target: database, file, socket, etc.
    */
   public void setLinesUpdated( long newLinesUpdatedValue ) {
-    synchronized ( statusCountersLock ) {
-      linesUpdated = newLinesUpdatedValue;
-    }
+    LINES_UPDATED.set( this, newLinesUpdatedValue );
   }
 
   /**
@@ -1084,9 +1090,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public long getLinesRejected() {
-    synchronized ( statusCountersLock ) {
-      return linesRejected;
-    }
+    return LINES_REJECTED.get( this );
   }
 
   /**
@@ -1095,9 +1099,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return the new incremented value
    */
   public long incrementLinesRejected() {
-    synchronized ( statusCountersLock ) {
-      return ++linesRejected;
-    }
+    return LINES_REJECTED.incrementAndGet( this );
   }
 
   /**
@@ -1105,18 +1107,14 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   @Override
   public void setLinesRejected( long newLinesRejectedValue ) {
-    synchronized ( statusCountersLock ) {
-      linesRejected = newLinesRejectedValue;
-    }
+    LINES_REJECTED.set( this, newLinesRejectedValue );
   }
 
   /**
    * @return the number of lines skipped
    */
   public long getLinesSkipped() {
-    synchronized ( statusCountersLock ) {
-      return linesSkipped;
-    }
+    return LINES_SKIPPED.get( this );
   }
 
   /**
@@ -1125,17 +1123,101 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * @return the new incremented value
    */
   public long incrementLinesSkipped() {
-    synchronized ( statusCountersLock ) {
-      return ++linesSkipped;
-    }
+    return LINES_SKIPPED.incrementAndGet( this );
   }
 
   /**
    * @param newLinesSkippedValue lines number of lines skipped
    */
   public void setLinesSkipped( long newLinesSkippedValue ) {
-    synchronized ( statusCountersLock ) {
-      linesSkipped = newLinesSkippedValue;
+    LINES_SKIPPED.set( this, newLinesSkippedValue );
+  }
+
+  /**
+   * Reads the status counters as they were at one moment in time, without blocking the step. The counters are read
+   * until two reads in a row return the same values: counters only grow, so those values were all current right
+   * between both reads. This is a best effort: for a step that keeps changing them, the last read is returned after a
+   * few tries and its counters may be a few rows apart.
+   *
+   * @return the lines read, written, input, output, updated, rejected and the errors
+   */
+  public StatusCounters getStatusCounters() {
+    StatusCounters previous = new StatusCounters( this );
+    for ( int i = 0; i < 10; i++ ) {
+      StatusCounters current = new StatusCounters( this );
+      if ( current.equals( previous ) ) {
+        return current;
+      }
+      previous = current;
+    }
+    return previous;
+  }
+
+  /**
+   * A view of the status counters of a step, see {@link BaseStep#getStatusCounters()}.
+   */
+  public static final class StatusCounters {
+    private final long linesRead;
+    private final long linesWritten;
+    private final long linesInput;
+    private final long linesOutput;
+    private final long linesUpdated;
+    private final long linesRejected;
+    private final long errors;
+
+    private StatusCounters( BaseStep step ) {
+      linesRead = step.getLinesRead();
+      linesWritten = step.getLinesWritten();
+      linesInput = step.getLinesInput();
+      linesOutput = step.getLinesOutput();
+      linesUpdated = step.getLinesUpdated();
+      linesRejected = step.getLinesRejected();
+      errors = step.getErrors();
+    }
+
+    public long getLinesRead() {
+      return linesRead;
+    }
+
+    public long getLinesWritten() {
+      return linesWritten;
+    }
+
+    public long getLinesInput() {
+      return linesInput;
+    }
+
+    public long getLinesOutput() {
+      return linesOutput;
+    }
+
+    public long getLinesUpdated() {
+      return linesUpdated;
+    }
+
+    public long getLinesRejected() {
+      return linesRejected;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+      if ( !( obj instanceof StatusCounters ) ) {
+        return false;
+      }
+      StatusCounters other = (StatusCounters) obj;
+      return linesRead == other.linesRead && linesWritten == other.linesWritten && linesInput == other.linesInput
+        && linesOutput == other.linesOutput && linesUpdated == other.linesUpdated
+        && linesRejected == other.linesRejected && errors == other.errors;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode( new long[] {
+        linesRead, linesWritten, linesInput, linesOutput, linesUpdated, linesRejected, errors } );
     }
   }
 
@@ -1271,13 +1353,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
   private void handlePutRow( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
     // Are we pausing the step? If so, stall forever...
     //
-    while ( paused.get() && !stopped.get() ) {
-      try {
-        Thread.sleep( 1 );
-      } catch ( InterruptedException e ) {
-        throw new KettleStepException( e );
-      }
-    }
+    waitWhilePaused();
 
     // Right after the pause loop we have to check if this thread is stopped or
     // not.
@@ -1525,11 +1601,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
         // the buffer to grow to its full capacity.
         //
         if ( isUsingThreadPriorityManagment() && !rs.isDone() && rs.size() >= upperBufferBoundary && !isStopped() ) {
-          try {
-            Thread.sleep( 0, 1 );
-          } catch ( InterruptedException e ) {
-            // Ignore sleep interruption exception
-          }
+          Thread.yield();
         }
 
         // Loop until we find room in the target rowset
@@ -1561,11 +1633,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
         // the buffer to grow to its full capacity.
         //
         if ( isUsingThreadPriorityManagment() && !rs.isDone() && rs.size() >= upperBufferBoundary && !isStopped() ) {
-          try {
-            Thread.sleep( 0, 1 );
-          } catch ( InterruptedException e ) {
-            // Ignore sleep interruption exception
-          }
+          Thread.yield();
         }
 
         try {
@@ -1620,13 +1688,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
     // Are we pausing the step? If so, stall forever...
     //
-    while ( paused.get() && !stopped.get() ) {
-      try {
-        Thread.sleep( 1 );
-      } catch ( InterruptedException e ) {
-        throw new KettleStepException( e );
-      }
-    }
+    waitWhilePaused();
 
     // call all row listeners...
     //
@@ -1815,6 +1877,88 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     }
   }
 
+  /**
+   * Park the step thread for as long as the step is paused. We're woken up when the step is resumed or stopped.
+   *
+   * @throws KettleStepException in case the step thread got interrupted
+   */
+  private void waitWhilePaused() throws KettleStepException {
+    while ( paused.get() && !stopped.get() ) {
+      try {
+        rowSetSignal.await( () -> !paused.get() || stopped.get(), SIGNAL_WAIT_MILLIS, TimeUnit.MILLISECONDS );
+      } catch ( InterruptedException e ) {
+        throw new KettleStepException( e );
+      }
+    }
+  }
+
+  /**
+   * Park the step thread until a row arrives on any of the input rowsets, one of them is done or the step is stopped.
+   * Rowsets that can't signal us are polled every millisecond. The caller is expected not to hold the input rowsets
+   * lock: rowsets can be added or removed while we wait.
+   */
+  private void waitForInputRows() {
+    flushRowBatches();
+
+    final List<RowSet> rowSets;
+    inputRowSetsLock.readLock().lock();
+    try {
+      rowSets = new ArrayList<RowSet>( inputRowSets );
+    } finally {
+      inputRowSetsLock.readLock().unlock();
+    }
+
+    long timeout = SIGNAL_WAIT_MILLIS;
+    for ( RowSet rowSet : rowSets ) {
+      if ( rowSet.getRowSetSignal() != rowSetSignal ) {
+        timeout = 1L;
+        break;
+      }
+    }
+    try {
+      rowSetSignal.await( () -> isInputRowAvailable( rowSets ), timeout, TimeUnit.MILLISECONDS );
+    } catch ( InterruptedException e ) {
+      // Ignore interruption, we check for stopped in the calling loop
+    }
+  }
+
+  /**
+   * Pass on the rows held back in partially filled batches: the next steps shouldn't wait for them while we wait for
+   * input.
+   */
+  private void flushRowBatches() {
+    outputRowSetsLock.readLock().lock();
+    try {
+      for ( RowSet rowSet : outputRowSets ) {
+        if ( rowSet instanceof RowBatchRowSet ) {
+          ( (RowBatchRowSet) rowSet ).flush();
+        }
+      }
+    } finally {
+      outputRowSetsLock.readLock().unlock();
+    }
+  }
+
+  private boolean isInputRowAvailable( List<RowSet> rowSets ) {
+    if ( stopped.get() ) {
+      return true;
+    }
+    for ( RowSet rowSet : rowSets ) {
+      if ( rowSet.size() > 0 || rowSet.isDone() ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the signal raised by the input rowsets of this step
+   */
+  @VisibleForTesting
+  RowSetSignal getRowSetSignal() {
+    return rowSetSignal;
+  }
+
 
   /**
    * In case of getRow, we receive data from previous steps through the input rowset. In case we split the stream, we
@@ -1830,13 +1974,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
     // Are we pausing the step? If so, stall forever...
     //
-    while ( paused.get() && !stopped.get() ) {
-      try {
-        Thread.sleep( 100 );
-      } catch ( InterruptedException e ) {
-        throw new KettleStepException( e );
-      }
-    }
+    waitWhilePaused();
 
     if ( stopped.get() ) {
       if ( log.isDebug() ) {
@@ -1892,11 +2030,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
       //
       if ( isUsingThreadPriorityManagment()
         && !inputRowSet.isDone() && inputRowSet.size() <= lowerBufferBoundary && !isStopped() ) {
-        try {
-          Thread.sleep( 0, 1 );
-        } catch ( InterruptedException e ) {
-          // Ignore sleep interruption exception
-        }
+        Thread.yield();
       }
 
       // See if this step is receiving partitioned data...
@@ -1911,12 +2045,13 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
       // rowset, then switch to another etc.
       // We can use timeouts to switch from one to another...
       //
+      int emptyRowSets = 0;
       while ( row == null && !isStopped() ) {
         // Get a row from the input in row set ...
-        // Timeout immediately if nothing is there to read.
+        // Don't wait if nothing is there to read.
         // We will then switch to the next row set to read from...
         //
-        row = inputRowSet.getRowWait( 1, TimeUnit.MILLISECONDS );
+        row = inputRowSet.getRowWait( 0, TimeUnit.MILLISECONDS );
         if ( row != null ) {
           incrementLinesRead();
           blockPointer++;
@@ -1927,7 +2062,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
           // the input stream and move on to the next one...
           //
           if ( inputRowSet.isDone() ) {
-            row = inputRowSet.getRowWait( 1, TimeUnit.MILLISECONDS );
+            row = inputRowSet.getRowWait( 0, TimeUnit.MILLISECONDS );
             if ( row == null ) {
 
               // Must release the read lock before acquisition of the write lock to prevent deadlocks.
@@ -1952,6 +2087,23 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
               incrementLinesRead();
             }
           }
+
+          // All input row sets came up empty: wait until one of them signals a new row
+          //
+          if ( row == null && ++emptyRowSets >= inputRowSets.size() ) {
+            // Don't keep the threads adding or removing input rowsets waiting while we wait
+            //
+            inputRowSetsLock.readLock().unlock();
+            try {
+              waitForInputRows();
+            } finally {
+              inputRowSetsLock.readLock().lock();
+            }
+            if ( inputRowSets.isEmpty() ) {
+              return null; // We're completely done.
+            }
+            emptyRowSets = 0;
+          }
           nextInputStream();
           inputRowSet = currentInputStream();
         }
@@ -1980,7 +2132,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     // Also set the meta data on the first occurrence.
     // or if prevSteps.length > 1 inputRowMeta can be changed
     if ( inputRowMeta == null || prevSteps.length > 1 ) {
-      inputRowMeta = inputRowSet.getRowMeta();
+      inputRowMeta = getRowMetaForStep( inputRowSet.getRowMeta() );
     }
 
     if ( row != null ) {
@@ -2002,6 +2154,184 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     return row;
   }
 
+  /**
+   * Read a batch of rows from the input of this step. When this step reads from a single {@link RowBatchRowSet} the
+   * batches of the previous step are handed over as they are. Otherwise the batch is filled with the rows read with
+   * {@link #getRow()} which are available without waiting.
+   *
+   * @return the next batch of rows or null if there are no more rows to be expected
+   * @throws KettleException in case something goes wrong reading the rows
+   */
+  public RowBatch getRowBatch() throws KettleException {
+    RowBatchRowSet batchRowSet = getRowBatchInputRowSet();
+    if ( batchRowSet == null ) {
+      return collectRowBatch();
+    }
+
+    waitWhilePaused();
+    if ( stopped.get() ) {
+      if ( log.isDebug() ) {
+        logDebug( BaseMessages.getString( PKG, "BaseStep.Log.StopLookingForMoreRows" ) );
+      }
+      stopAll();
+      return null;
+    }
+    waitUntilTransformationIsStarted();
+
+    RowBatch batch = null;
+    while ( batch == null && !isStopped() ) {
+      batch = batchRowSet.getBatchWait( 0, TimeUnit.MILLISECONDS );
+      if ( batch == null ) {
+        if ( batchRowSet.isDone() ) {
+          batch = batchRowSet.getBatchWait( 0, TimeUnit.MILLISECONDS );
+          if ( batch == null ) {
+            inputRowSetsLock.writeLock().lock();
+            try {
+              inputRowSets.remove( batchRowSet );
+            } finally {
+              inputRowSetsLock.writeLock().unlock();
+            }
+            return null;
+          }
+        } else {
+          waitForInputRows();
+        }
+      }
+    }
+    if ( batch == null ) {
+      return null;
+    }
+
+    if ( inputRowMeta == null ) {
+      inputRowMeta = getRowMetaForStep( batchRowSet.getRowMeta() );
+    }
+    LINES_READ.addAndGet( this, batch.size() );
+    verifyRejectionRates();
+
+    return batch;
+  }
+
+  /**
+   * Fill a batch with rows read the classic way.
+   */
+  private RowBatch collectRowBatch() throws KettleException {
+    Object[] row = getRow();
+    if ( row == null ) {
+      return null;
+    }
+    RowBatch batch = new RowBatch( getInputRowMeta(), getRowBatchSize() );
+    batch.addRow( row );
+    while ( !batch.isFull() && isInputRowBuffered() ) {
+      row = getRow();
+      if ( row == null ) {
+        break;
+      }
+      batch.addRow( row );
+    }
+    return batch;
+  }
+
+  private boolean isInputRowBuffered() {
+    inputRowSetsLock.readLock().lock();
+    try {
+      for ( RowSet rowSet : inputRowSets ) {
+        if ( rowSet.size() > 0 ) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      inputRowSetsLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Send a batch of rows to the next step. The batch is handed over as a whole when this step writes to a single
+   * {@link RowBatchRowSet}. Otherwise every row in the batch is passed to {@link #putRow(RowMetaInterface, Object[])}.
+   *
+   * @param rowMeta the layout of the rows in the batch
+   * @param batch   the rows to send, the batch should not be modified afterwards
+   * @throws KettleStepException in case something goes wrong writing the rows
+   */
+  public void putRowBatch( RowMetaInterface rowMeta, RowBatch batch ) throws KettleStepException {
+    RowBatchRowSet batchRowSet = getRowBatchOutputRowSet();
+    if ( batchRowSet == null ) {
+      for ( int i = 0; i < batch.size(); i++ ) {
+        putRow( rowMeta, batch.getRow( i ) );
+      }
+      return;
+    }
+
+    waitWhilePaused();
+    if ( stopped.get() && !safeStopped.get() ) {
+      if ( log.isDebug() ) {
+        logDebug( BaseMessages.getString( PKG, "BaseStep.Log.StopPuttingARow" ) );
+      }
+      stopAll();
+      return;
+    }
+    waitUntilTransformationIsStarted();
+
+    RowMetaInterface toBeSent = batchRowSet.getRowMeta() == null ? rowMeta.clone() : batchRowSet.getRowMeta();
+    while ( !batchRowSet.putBatchWait( toBeSent, batch, Const.TIMEOUT_PUT_MILLIS, TimeUnit.MILLISECONDS ) ) {
+      if ( isStopped() && !safeStopped.get() ) {
+        return;
+      }
+    }
+    LINES_WRITTEN.addAndGet( this, batch.size() );
+  }
+
+  /**
+   * @return true if this step reads from a single row set passing batches of rows, see {@link #getRowBatch()}
+   */
+  public boolean isReadingRowBatches() {
+    return getRowBatchInputRowSet() != null;
+  }
+
+  /**
+   * Batches can only be read as a whole if nobody needs to see the individual rows: no row listeners, no safe mode
+   * checks and no special row handler.
+   */
+  private RowBatchRowSet getRowBatchInputRowSet() {
+    if ( !( getRowHandler() instanceof DefaultRowHandler ) || !rowListeners.isEmpty() || trans.isSafeModeEnabled()
+      || !remoteInputSteps.isEmpty() ) {
+      return null;
+    }
+    inputRowSetsLock.readLock().lock();
+    try {
+      if ( inputRowSets.size() == 1 && inputRowSets.get( 0 ) instanceof RowBatchRowSet ) {
+        return (RowBatchRowSet) inputRowSets.get( 0 );
+      }
+      return null;
+    } finally {
+      inputRowSetsLock.readLock().unlock();
+    }
+  }
+
+  private RowBatchRowSet getRowBatchOutputRowSet() {
+    if ( !( getRowHandler() instanceof DefaultRowHandler ) || !rowListeners.isEmpty() || terminator
+      || repartitioning != StepPartitioningMeta.PARTITIONING_METHOD_NONE ) {
+      return null;
+    }
+    outputRowSetsLock.readLock().lock();
+    try {
+      if ( outputRowSets.size() == 1 && outputRowSets.get( 0 ) instanceof RowBatchRowSet ) {
+        return (RowBatchRowSet) outputRowSets.get( 0 );
+      }
+      return null;
+    } finally {
+      outputRowSetsLock.readLock().unlock();
+    }
+  }
+
+  private int getRowBatchSize() {
+    if ( rowBatchSize <= 0 ) {
+      rowBatchSize =
+        Math.max( 1, Const.toInt( System.getProperty( Const.KETTLE_ROW_BATCH_SIZE ), Const.ROW_BATCH_SIZE ) );
+    }
+    return rowBatchSize;
+  }
+
   /**
    * RowHandler controls how getRow/putRow are handled.
    * The default RowHandler will simply call
@@ -2039,6 +2369,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
           for ( RemoteStep remoteStep : remoteInputSteps ) {
             try {
               BlockingRowSet rowSet = remoteStep.openReaderSocket( this );
+              rowSet.setRowSetSignal( rowSetSignal );
               inputRowSets.add( rowSet );
             } catch ( Exception e ) {
               throw new KettleStepException( "Error opening reader socket to remote step '" + remoteStep + "'", e );
@@ -2216,13 +2547,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
   public Object[] handleGetRowFrom( RowSet rowSet ) throws KettleStepException {
     // Are we pausing the step? If so, stall forever...
     //
-    while ( paused.get() && !stopped.get() ) {
-      try {
-        Thread.sleep( 10 );
-      } catch ( InterruptedException e ) {
-        throw new KettleStepException( e );
-      }
-    }
+    waitWhilePaused();
 
     // Have all threads started?
     // Are we running yet? If not, wait a bit until all threads have been
@@ -2245,11 +2570,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     //
     if ( isUsingThreadPriorityManagment()
       && !rowSet.isDone() && rowSet.size() <= lowerBufferBoundary && !isStopped() ) {
-      try {
-        Thread.sleep( 0, 1 );
-      } catch ( InterruptedException e ) {
-        // Ignore sleep interruption exception
-      }
+      Thread.yield();
     }
 
     // Grab a row... If nothing received after a timeout, try again.
@@ -2701,6 +3022,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
               break;
           }
           if ( rowSet != null ) {
+            rowSet.setRowSetSignal( rowSetSignal );
             inputRowSets.add( rowSet );
             if ( log.isDetailed() ) {
               logDetailed( BaseMessages.getString( PKG, "BaseStep.Log.FoundInputRowset", rowSet.getName() ) );
@@ -3005,6 +3327,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
   @Override
   public void stopAll() {
     stopped.set( true );
+    rowSetSignal.signal();
     trans.stopAll();
   }
 
@@ -3046,6 +3369,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
   @Override
   public void setStopped( boolean stopped ) {
     this.stopped.set( stopped );
+    rowSetSignal.signal();
   }
 
   @Override
@@ -3095,6 +3419,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   public void setPaused( boolean paused ) {
     this.paused.set( paused );
+    rowSetSignal.signal();
   }
 
   /**
@@ -3384,22 +3709,20 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    * Log summary.
    */
   public void logSummary() {
-    synchronized ( statusCountersLock ) {
-      long li = getLinesInput();
-      long lo = getLinesOutput();
-      long lr = getLinesRead();
-      long lw = getLinesWritten();
-      long lu = getLinesUpdated();
-      long lj = getLinesRejected();
-      if ( li > 0 || lo > 0 || lr > 0 || lw > 0 || lu > 0 || lj > 0 || errors > 0 ) {
-        logBasic( BaseMessages.getString( PKG, "BaseStep.Log.SummaryInfo", String.valueOf( li ), String
-          .valueOf( lo ), String.valueOf( lr ), String.valueOf( lw ), String.valueOf( lw ), String
-          .valueOf( errors + lj ) ) );
-      } else {
-        logDetailed( BaseMessages.getString( PKG, "BaseStep.Log.SummaryInfo", String.valueOf( li ), String
-          .valueOf( lo ), String.valueOf( lr ), String.valueOf( lw ), String.valueOf( lw ), String
-          .valueOf( errors + lj ) ) );
-      }
+    long li = getLinesInput();
+    long lo = getLinesOutput();
+    long lr = getLinesRead();
+    long lw = getLinesWritten();
+    long lu = getLinesUpdated();
+    long lj = getLinesRejected();
+    if ( li > 0 || lo > 0 || lr > 0 || lw > 0 || lu > 0 || lj > 0 || errors > 0 ) {
+      logBasic( BaseMessages.getString( PKG, "BaseStep.Log.SummaryInfo", String.valueOf( li ), String
+        .valueOf( lo ), String.valueOf( lr ), String.valueOf( lw ), String.valueOf( lw ), String
+        .valueOf( errors + lj ) ) );
+    } else {
+      logDetailed( BaseMessages.getString( PKG, "BaseStep.Log.SummaryInfo", String.valueOf( li ), String
+        .valueOf( lo ), String.valueOf( lr ), String.valueOf( lw ), String.valueOf( lw ), String
+        .valueOf( errors + lj ) ) );
     }
   }
 
@@ -3433,6 +3756,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
   public void addRowSetToInputRowSets( RowSet rowSet ) {
     inputRowSetsLock.writeLock().lock();
     try {
+      rowSet.setRowSetSignal( rowSetSignal );
       inputRowSets.add( rowSet );
     } finally {
       inputRowSetsLock.writeLock().unlock();
@@ -3461,11 +3785,11 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     inputRowSetsLock.writeLock().lock();
     try {
       for ( int i = 0; i < inputRowSets.size(); i++ ) {
-        BlockingRowSet rs = (BlockingRowSet) inputRowSets.get( i );
+        RowSet rs = inputRowSets.get( i );
         if ( rs.getOriginStepName().equalsIgnoreCase( stepName ) ) {
           // swap this one and position 0...that means, the main stream is always stream 0 --> easy!
           //
-          BlockingRowSet zero = (BlockingRowSet) inputRowSets.get( 0 );
+          RowSet zero = inputRowSets.get( 0 );
           inputRowSets.set( 0, rs );
           inputRowSets.set( i, zero );
         }
@@ -3481,6 +3805,9 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
   public void setInputRowSets( List<RowSet> inputRowSets ) {
     inputRowSetsLock.writeLock().lock();
     try {
+      for ( RowSet rowSet : inputRowSets ) {
+        rowSet.setRowSetSignal( rowSetSignal );
+      }
       this.inputRowSets = inputRowSets;
     } finally {
       inputRowSetsLock.writeLock().unlock();
@@ -3734,6 +4061,35 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
       && ( lines % getTransMeta().getFeedbackSize() ) == 0;
   }
 
+  /**
+   * With {@link Const#KETTLE_FROZEN_ROW_META} switched on the step gets an immutable copy of the row metadata of an
+   * input row set, which doesn't take any locks. One copy is kept per row metadata instance, so reading from several
+   * input row sets in turn doesn't copy the row metadata over and over.
+   *
+   * @param rowMeta
+   *          the row metadata of the input row set
+   * @return the row metadata to use as input row metadata of this step
+   */
+  private RowMetaInterface getRowMetaForStep( RowMetaInterface rowMeta ) {
+    if ( frozenRowMetaEnabled == null ) {
+      Boolean frozen = ValueMetaString.convertStringToBoolean( getVariable( Const.KETTLE_FROZEN_ROW_META, "N" ) );
+      frozenRowMetaEnabled = frozen != null && frozen;
+    }
+    if ( !frozenRowMetaEnabled || rowMeta == null ) {
+      return rowMeta;
+    }
+    RowMetaInterface frozenRowMeta = frozenRowMetas.get( rowMeta );
+    if ( frozenRowMeta == null ) {
+      if ( frozenRowMetas.size() >= FROZEN_ROW_META_CACHE_SIZE ) {
+        // A row set that keeps handing out new row metadata, don't hold on to all of it
+        frozenRowMetas.clear();
+      }
+      frozenRowMeta = FrozenRowMeta.freeze( rowMeta );
+      frozenRowMetas.put( rowMeta, frozenRowMeta );
+    }
+    return frozenRowMeta;
+  }
+
   /**
    * @return the rowMeta
    */
@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import java.util.List;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowSet;
+
+/**
+ * Runs a linear chain of step copies in a single thread, see {@link Const#KETTLE_STEP_FUSION}. Every step of the chain
+ * reads from the previous one through a single row set, no other hops are allowed in between.<br>
+ * <br>
+ * The steps are called from the first to the last one, over and over again, like in a serial single threaded
+ * transformation. A step further down the chain is only called when there's a row waiting for it or when the previous
+ * step is done, so it never waits for a row that can only arrive from this very thread. Only the first step of the
+ * chain waits for rows from other steps.<br>
+ * <br>
+ * Every step keeps its own log channel, metrics and row counters and is finished as soon as it's done, exactly like a
+ * step running in its own {@link RunThread}.
+ *
+ * @since 8.3
+ */
+public class FusedRunThread implements Runnable {
+
+  private final StepMetaDataCombi[] combis;
+
+  /** For every step in the chain the row set it reads from, null for the first step */
+  private final RowSet[] inputRowSets;
+
+  /**
+   * @param chain
+   *          the step copies of the chain, from first to last
+   */
+  public FusedRunThread( List<StepMetaDataCombi> chain ) {
+    combis = chain.toArray( new StepMetaDataCombi[chain.size()] );
+    inputRowSets = new RowSet[combis.length];
+    for ( int i = 1; i < combis.length; i++ ) {
+      List<RowSet> rowSets = combis[i].step.getInputRowSets();
+      if ( rowSets.size() != 1 ) {
+        throw new IllegalArgumentException( "Step '" + combis[i].stepname
+          + "' can't be part of a chain, it needs to read from exactly one row set" );
+      }
+      inputRowSets[i] = rowSets.get( 0 );
+
+      // Yielding to the thread writing to the row set would be yielding to ourselves
+      //
+      combis[i].step.setUsingThreadPriorityManagment( false );
+    }
+  }
+
+  public void run() {
+    boolean[] finished = new boolean[combis.length];
+    int nrFinished = 0;
+    try {
+      for ( StepMetaDataCombi combi : combis ) {
+        RunThread.startStep( combi.step, combi.step.getLogChannel() );
+      }
+
+      while ( nrFinished < combis.length ) {
+        for ( int i = 0; i < combis.length; i++ ) {
+          if ( finished[i] ) {
+            continue;
+          }
+          StepMetaDataCombi combi = combis[i];
+          if ( !combi.step.isStopped() && !canProcessRow( i ) ) {
+            continue;
+          }
+
+          boolean done = combi.step.isStopped();
+          if ( !done ) {
+            try {
+              done = !combi.step.processRow( combi.meta, combi.data ) || combi.step.isStopped();
+            } catch ( Throwable t ) {
+              RunThread.handleStepError( combi.step, combi.step.getLogChannel(), t );
+              done = true;
+            }
+          }
+          if ( done ) {
+            finish( i );
+            finished[i] = true;
+            nrFinished++;
+          }
+        }
+      }
+    } finally {
+      // Never leave a step of the chain behind, whatever happened
+      //
+      for ( int i = 0; i < combis.length; i++ ) {
+        if ( !finished[i] ) {
+          finish( i );
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the step can be called without waiting for rows
+   */
+  private boolean canProcessRow( int index ) {
+    RowSet rowSet = inputRowSets[index];
+    return rowSet == null || rowSet.size() > 0 || rowSet.isDone();
+  }
+
+  private void finish( int index ) {
+    StepMetaDataCombi combi = combis[index];
+    try {
+      RunThread.finishStep( combi.step, combi.meta, combi.data, combi.step.getLogChannel() );
+    } finally {
+      // A step which stopped without flagging its output as done would keep the next one waiting forever
+      //
+      if ( index + 1 < combis.length ) {
+        inputRowSets[index + 1].setDone();
+      }
+    }
+  }
+}
@@ -60,7 +60,8 @@ import org.w3c.dom.Node;
 /**
  * Defines and handles communication to and from remote steps.
  *
- * TODO: add compression as a parameter/option TODO add buffer size as a parameter
+ * When the streams are compressed, GZIP is used unless the compression type is {@link #COMPRESSION_SNAPPY}: the rows
+ * are then sent in frames compressed with Snappy, see {@link SnappyFrameOutputStream}.
  *
  * @author Matt
  *
@@ -69,6 +70,9 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
   public static final String XML_TAG = "remotestep";
 
+  public static final String COMPRESSION_GZIP = "GZIP";
+  public static final String COMPRESSION_SNAPPY = "Snappy";
+
   private static final long TIMEOUT_IN_SECONDS = 30;
 
   /** The target or source slave server with which we're exchanging data */
@@ -104,6 +108,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
   private int bufferSize;
   private boolean compressingStreams;
+  private String compressionType;
 
   private boolean encryptingStreams;
   private byte[] key;
@@ -116,6 +121,10 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
   private GZIPInputStream gzipInputStream;
 
+  private SnappyFrameOutputStream snappyOutputStream;
+
+  private SnappyFrameInputStream snappyInputStream;
+
   private BufferedInputStream bufferedInputStream;
 
   protected BufferedOutputStream bufferedOutputStream;
@@ -180,6 +189,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     xml.append( XMLHandler.addTagValue( "port", port, false ) );
     xml.append( XMLHandler.addTagValue( "buffer_size", bufferSize, false ) );
     xml.append( XMLHandler.addTagValue( "compressed_streams", compressingStreams, false ) );
+    xml.append( XMLHandler.addTagValue( "compression_type", compressionType, false ) );
 
     xml.append( XMLHandler.addTagValue( "source_step_name", sourceStep, false ) );
     xml.append( XMLHandler.addTagValue( "source_step_copy", sourceStepCopyNr, false ) );
@@ -213,6 +223,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     port = XMLHandler.getTagValue( node, "port" );
     bufferSize = Integer.parseInt( XMLHandler.getTagValue( node, "buffer_size" ) );
     compressingStreams = "Y".equalsIgnoreCase( XMLHandler.getTagValue( node, "compressed_streams" ) );
+    compressionType = XMLHandler.getTagValue( node, "compression_type" );
 
     sourceStep = XMLHandler.getTagValue( node, "source_step_name" );
     sourceStepCopyNr = Integer.parseInt( XMLHandler.getTagValue( node, "source_step_copy" ) );
@@ -356,7 +367,10 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
           // Create the output stream...
           OutputStream socketOut = socket.getOutputStream();
 
-          if ( compressingStreams ) {
+          if ( compressingStreams && isSnappyCompression() ) {
+            snappyOutputStream = new SnappyFrameOutputStream( socketOut, getFrameSize() );
+            bufferedOutputStream = new BufferedOutputStream( snappyOutputStream, bufferSize );
+          } else if ( compressingStreams ) {
             gzipOutputStream = new GZIPOutputStream( socketOut, 50000 );
             bufferedOutputStream = new BufferedOutputStream( gzipOutputStream, bufferSize );
           } else {
@@ -415,7 +429,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
             rowData = baseStep.getRowFrom( rowSet );
           }
 
-          if ( compressingStreams ) {
+          if ( gzipOutputStream != null ) {
             outputStream.flush();
             gzipOutputStream.finish();
           } else {
@@ -447,6 +461,9 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
               if ( gzipOutputStream != null ) {
                 gzipOutputStream.close();
               }
+              if ( snappyOutputStream != null ) {
+                snappyOutputStream.close();
+              }
             }
           } catch ( Exception e ) {
             baseStep.logError( "Error shutting down output streams on the server socket of remote step", e );
@@ -456,6 +473,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
           outputStream = null;
           bufferedOutputStream = null;
           gzipOutputStream = null;
+          snappyOutputStream = null;
           cipherOutputStream = null;
 
           //
@@ -500,6 +518,10 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
           gzipInputStream.close();
           gzipInputStream = null;
         }
+        if ( snappyInputStream != null ) {
+          snappyInputStream.close();
+          snappyInputStream = null;
+        }
         if ( cipherInputStream != null ) {
           cipherInputStream.close();
           cipherInputStream = null;
@@ -512,6 +534,10 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
           gzipOutputStream.close();
           gzipOutputStream = null;
         }
+        if ( snappyOutputStream != null ) {
+          snappyOutputStream.close();
+          snappyOutputStream = null;
+        }
         if ( bufferedOutputStream != null ) {
           bufferedOutputStream.close();
           bufferedOutputStream = null;
@@ -583,7 +609,10 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
         connected = true;
 
         InputStream socketStream = socket.getInputStream();
-        if ( compressingStreams ) {
+        if ( compressingStreams && isSnappyCompression() ) {
+          snappyInputStream = new SnappyFrameInputStream( socketStream );
+          bufferedInputStream = new BufferedInputStream( snappyInputStream, bufferSize );
+        } else if ( compressingStreams ) {
           gzipInputStream = new GZIPInputStream( socketStream );
           bufferedInputStream = new BufferedInputStream( gzipInputStream, bufferSize );
         } else {
@@ -772,6 +801,14 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
             }
           }
           gzipInputStream = null;
+          if ( snappyInputStream != null ) {
+            try {
+              snappyInputStream.close();
+            } catch ( Exception e ) {
+              baseStep.logError( "Error closing input stream on socket connection to remote step", e );
+            }
+          }
+          snappyInputStream = null;
           baseStep.logDetailed( "Closed connection to server socket to read rows from remote step on server "
             + realHostname + " port " + portNumber + " - Local port=" + socket.getLocalPort() );
         }
@@ -891,6 +928,33 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     this.compressingStreams = compressingStreams;
   }
 
+  /**
+   * @return the compression used when the streams are compressed: {@link #COMPRESSION_GZIP} (also when null) or
+   *         {@link #COMPRESSION_SNAPPY}
+   */
+  public String getCompressionType() {
+    return compressionType;
+  }
+
+  /**
+   * @param compressionType
+   *          the compression used when the streams are compressed
+   */
+  public void setCompressionType( String compressionType ) {
+    this.compressionType = compressionType;
+  }
+
+  private boolean isSnappyCompression() {
+    return COMPRESSION_SNAPPY.equalsIgnoreCase( compressionType );
+  }
+
+  /**
+   * A frame holds at least the socket buffer, small frames don't compress well.
+   */
+  private int getFrameSize() {
+    return Math.max( bufferSize, SnappyFrameOutputStream.DEFAULT_FRAME_SIZE );
+  }
+
   /**
    * @return the remoteHostname
    */
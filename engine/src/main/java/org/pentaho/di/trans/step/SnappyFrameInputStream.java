@@ -0,0 +1,139 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Reads the frames written by a {@link SnappyFrameOutputStream}. The end of the underlying stream is only accepted in
+ * between two frames.
+ *
+ * @since 8.3
+ */
+class SnappyFrameInputStream extends InputStream {
+
+  /** Protects against allocating huge buffers for a corrupt frame header */
+  static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+  private final InputStream in;
+  private final byte[] header = new byte[SnappyFrameOutputStream.HEADER_SIZE];
+  private byte[] stored = new byte[0];
+  private byte[] buffer = new byte[0];
+  private int pos;
+  private int limit;
+
+  SnappyFrameInputStream( InputStream in ) {
+    this.in = in;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if ( pos >= limit && !readFrame() ) {
+      return -1;
+    }
+    return buffer[pos++] & 0xff;
+  }
+
+  @Override
+  public int read( byte[] b, int off, int len ) throws IOException {
+    if ( len == 0 ) {
+      return 0;
+    }
+    if ( pos >= limit && !readFrame() ) {
+      return -1;
+    }
+    int size = Math.min( len, limit - pos );
+    System.arraycopy( buffer, pos, b, off, size );
+    pos += size;
+    return size;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return limit - pos;
+  }
+
+  /**
+   * @return false if the underlying stream ended before the next frame
+   */
+  private boolean readFrame() throws IOException {
+    do {
+      if ( !readFully( header, 0, header.length, true ) ) {
+        return false;
+      }
+      int rawLength = getInt( header, 0 );
+      int storedLength = getInt( header, 4 );
+      if ( rawLength < 0 || rawLength > MAX_FRAME_SIZE || storedLength < 0 || storedLength > rawLength ) {
+        throw new IOException( "Invalid frame header received from remote step: length " + rawLength
+          + ", stored length " + storedLength );
+      }
+      if ( buffer.length < rawLength ) {
+        buffer = new byte[rawLength];
+      }
+      if ( storedLength == rawLength ) {
+        readFully( buffer, 0, rawLength, false );
+      } else {
+        if ( stored.length < storedLength ) {
+          stored = new byte[storedLength];
+        }
+        readFully( stored, 0, storedLength, false );
+        if ( Snappy.uncompress( stored, 0, storedLength, buffer, 0 ) != rawLength ) {
+          throw new IOException( "Frame received from remote step doesn't have the expected length of " + rawLength );
+        }
+      }
+      pos = 0;
+      limit = rawLength;
+    } while ( limit == 0 );
+    return true;
+  }
+
+  private boolean readFully( byte[] b, int off, int len, boolean endAllowed ) throws IOException {
+    int done = 0;
+    while ( done < len ) {
+      int n = in.read( b, off + done, len - done );
+      if ( n < 0 ) {
+        if ( endAllowed && done == 0 ) {
+          return false;
+        }
+        throw new EOFException( "Unexpected end of a frame received from remote step" );
+      }
+      done += n;
+    }
+    return true;
+  }
+
+  static int getInt( byte[] b, int off ) {
+    return ( ( b[off] & 0xff ) << 24 ) | ( ( b[off + 1] & 0xff ) << 16 ) | ( ( b[off + 2] & 0xff ) << 8 )
+      | ( b[off + 3] & 0xff );
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
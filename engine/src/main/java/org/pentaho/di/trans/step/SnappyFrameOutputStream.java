@@ -0,0 +1,120 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Writes the data sent to a remote step in frames compressed with Snappy. The data is collected until a frame is full
+ * (or the stream is flushed), then the frame is compressed and written in one go: the uncompressed length, the stored
+ * length and the stored bytes. A frame that doesn't get any smaller is stored as it is, which is flagged by a stored
+ * length equal to the uncompressed length.<br>
+ * <br>
+ * Read the frames back with {@link SnappyFrameInputStream}.
+ *
+ * @since 8.3
+ */
+class SnappyFrameOutputStream extends OutputStream {
+
+  /** The default amount of uncompressed data in a frame */
+  static final int DEFAULT_FRAME_SIZE = 64 * 1024;
+
+  /** The uncompressed length and the stored length */
+  static final int HEADER_SIZE = 8;
+
+  private final OutputStream out;
+  private final byte[] buffer;
+  private int count;
+
+  /** The header followed by the stored data, written with a single call to the underlying stream */
+  private final byte[] frame;
+
+  SnappyFrameOutputStream( OutputStream out, int frameSize ) {
+    this.out = out;
+    this.buffer = new byte[Math.max( 1, frameSize )];
+    this.frame = new byte[HEADER_SIZE + Snappy.maxCompressedLength( buffer.length )];
+  }
+
+  @Override
+  public void write( int b ) throws IOException {
+    if ( count >= buffer.length ) {
+      writeFrame();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException {
+    while ( len > 0 ) {
+      if ( count >= buffer.length ) {
+        writeFrame();
+      }
+      int size = Math.min( len, buffer.length - count );
+      System.arraycopy( b, off, buffer, count, size );
+      count += size;
+      off += size;
+      len -= size;
+    }
+  }
+
+  private void writeFrame() throws IOException {
+    if ( count == 0 ) {
+      return;
+    }
+    int stored = Snappy.compress( buffer, 0, count, frame, HEADER_SIZE );
+    if ( stored >= count ) {
+      System.arraycopy( buffer, 0, frame, HEADER_SIZE, count );
+      stored = count;
+    }
+    putInt( frame, 0, count );
+    putInt( frame, 4, stored );
+    out.write( frame, 0, HEADER_SIZE + stored );
+    count = 0;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writeFrame();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  static void putInt( byte[] b, int off, int value ) {
+    b[off] = (byte) ( value >>> 24 );
+    b[off + 1] = (byte) ( value >>> 16 );
+    b[off + 2] = (byte) ( value >>> 8 );
+    b[off + 3] = (byte) value;
+  }
+}
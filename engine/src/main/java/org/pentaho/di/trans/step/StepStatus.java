@@ -79,13 +79,24 @@ public class StepStatus {
 
     this.stepname = baseStep.getStepname();
     this.copy = baseStep.getCopy();
-    this.linesRead = linesRead + baseStep.getLinesRead();
-    this.linesWritten = linesWritten + baseStep.getLinesWritten();
-    this.linesInput = linesInput + baseStep.getLinesInput();
-    this.linesOutput = linesOutput + baseStep.getLinesOutput();
-    this.linesUpdated = linesUpdated + baseStep.getLinesUpdated();
-    this.linesRejected = linesRejected + baseStep.getLinesRejected();
-    this.errors = errors + baseStep.getErrors();
+    if ( baseStep instanceof BaseStep ) {
+      BaseStep.StatusCounters counters = ( (BaseStep) baseStep ).getStatusCounters();
+      this.linesRead = linesRead + counters.getLinesRead();
+      this.linesWritten = linesWritten + counters.getLinesWritten();
+      this.linesInput = linesInput + counters.getLinesInput();
+      this.linesOutput = linesOutput + counters.getLinesOutput();
+      this.linesUpdated = linesUpdated + counters.getLinesUpdated();
+      this.linesRejected = linesRejected + counters.getLinesRejected();
+      this.errors = errors + counters.getErrors();
+    } else {
+      this.linesRead = linesRead + baseStep.getLinesRead();
+      this.linesWritten = linesWritten + baseStep.getLinesWritten();
+      this.linesInput = linesInput + baseStep.getLinesInput();
+      this.linesOutput = linesOutput + baseStep.getLinesOutput();
+      this.linesUpdated = linesUpdated + baseStep.getLinesUpdated();
+      this.linesRejected = linesRejected + baseStep.getLinesRejected();
+      this.errors = errors + baseStep.getErrors();
+    }
     this.accumlatedRuntime = accumlatedRuntime + baseStep.getRuntime();
     this.statusDescription = baseStep.getStatus().getDescription();
 
@@ -0,0 +1,255 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.step;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Starts the {@link RunThread}s of the step copies of a transformation according to a {@link StepThreadMode}.<br>
+ * <br>
+ * Pooled step threads come from a single process wide pool, so Carte running lots of transformations re-uses threads
+ * instead of creating and destroying hundreds of them per transformation. A step thread blocks until its step is done
+ * and the steps of a transformation wait for each other's rows, so a transformation has to get a pooled thread for
+ * every step copy at once. The threads are {@link #reserve(StepThreadMode, int) reserved} before the steps start: when
+ * fewer than that of the {@link Const#KETTLE_STEP_THREAD_POOL_SIZE} threads are free, the transformation fails to
+ * start instead of waiting for threads that might never come free.
+ *
+ * @since 8.3
+ */
+public class StepThreadLauncher {
+
+  private static Class<?> PKG = StepThreadLauncher.class; // for i18n purposes, needed by Translator2!!
+
+  /** The default maximum number of pooled step threads */
+  public static final int DEFAULT_POOL_SIZE = 1000;
+
+  /** Idle pooled threads are removed after this number of seconds */
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  private static StepThreadLauncher instance;
+
+  private final int poolSize;
+  private final ThreadPoolExecutor pool;
+
+  /** The pooled threads which aren't reserved by a transformation */
+  private final Semaphore freeThreads;
+
+  /** Creates virtual threads through reflection: we still need to run on Java 8. Null if not available. */
+  private final Method ofVirtual;
+  private final Method builderName;
+  private final Method builderStart;
+
+  @VisibleForTesting
+  StepThreadLauncher( int poolSize ) {
+    this.poolSize = Math.max( 1, poolSize );
+    freeThreads = new Semaphore( this.poolSize );
+    final AtomicInteger threadNr = new AtomicInteger( 0 );
+    ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable r ) {
+        // Not a daemon thread, just like the thread of a step in platform mode
+        return new Thread( r, "Kettle step thread " + threadNr.incrementAndGet() );
+      }
+    };
+    // Every task has a reserved thread, the queue only holds a task until a thread that just finished a step takes it
+    //
+    pool =
+      new ThreadPoolExecutor( this.poolSize, this.poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), threadFactory );
+    pool.allowCoreThreadTimeOut( true );
+
+    Method virtual = null;
+    Method name = null;
+    Method start = null;
+    try {
+      virtual = Thread.class.getMethod( "ofVirtual" );
+      Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+      name = builderClass.getMethod( "name", String.class );
+      start = builderClass.getMethod( "start", Runnable.class );
+    } catch ( Exception e ) {
+      // No virtual threads on this Java runtime
+      virtual = null;
+    }
+    ofVirtual = virtual;
+    builderName = name;
+    builderStart = start;
+  }
+
+  public static synchronized StepThreadLauncher getInstance() {
+    if ( instance == null ) {
+      instance =
+        new StepThreadLauncher( Const.toInt( System.getProperty( Const.KETTLE_STEP_THREAD_POOL_SIZE ),
+          DEFAULT_POOL_SIZE ) );
+    }
+    return instance;
+  }
+
+  /**
+   * @return true if this Java runtime supports virtual threads
+   */
+  public boolean isVirtualThreadSupported() {
+    return ofVirtual != null;
+  }
+
+  /**
+   * Reserve the threads to run the step copies of a transformation. In pooled mode, or in virtual mode on a Java
+   * runtime without virtual threads, this takes all the pooled threads at once.
+   *
+   * @param mode
+   *          the step thread mode
+   * @param nrThreads
+   *          the number of threads to start
+   * @return the reservation to start the threads with, close it to give back the threads that weren't started
+   * @throws KettleException
+   *           when the step thread pool doesn't have that many free threads
+   */
+  public Reservation reserve( StepThreadMode mode, int nrThreads ) throws KettleException {
+    boolean pooled = mode == StepThreadMode.Pooled || ( mode == StepThreadMode.Virtual && ofVirtual == null );
+    if ( !pooled || nrThreads <= 0 ) {
+      return new Reservation( mode, 0 );
+    }
+    if ( nrThreads > poolSize ) {
+      throw new KettleException( BaseMessages.getString( PKG, "StepThreadLauncher.Exception.PoolTooSmall",
+        String.valueOf( nrThreads ), String.valueOf( poolSize ) ) );
+    }
+    if ( !freeThreads.tryAcquire( nrThreads ) ) {
+      throw new KettleException( BaseMessages.getString( PKG, "StepThreadLauncher.Exception.PoolBusy",
+        String.valueOf( nrThreads ), String.valueOf( freeThreads.availablePermits() ), String.valueOf( poolSize ) ) );
+    }
+    return new Reservation( mode, nrThreads );
+  }
+
+  /**
+   * The threads reserved for the step copies of a transformation.
+   */
+  public final class Reservation implements AutoCloseable {
+    private final StepThreadMode mode;
+    private int pooledThreads;
+
+    private Reservation( StepThreadMode mode, int pooledThreads ) {
+      this.mode = mode;
+      this.pooledThreads = pooledThreads;
+    }
+
+    /**
+     * Start running a step copy.
+     *
+     * @param threadName
+     *          the name of the thread, typically the transformation and step name
+     * @param runThread
+     *          the step copy to run
+     * @throws IllegalStateException
+     *           when all the reserved pooled threads were already started
+     */
+    public void start( String threadName, Runnable runThread ) {
+      if ( pooledThreads > 0 ) {
+        pooledThreads--;
+        startPooled( threadName, runThread );
+      } else if ( mode == StepThreadMode.Platform ) {
+        startPlatform( threadName, runThread );
+      } else if ( mode != StepThreadMode.Virtual || !startVirtual( threadName, runThread ) ) {
+        throw new IllegalStateException( "No " + mode.getCode() + " step thread available for " + threadName );
+      }
+    }
+
+    /**
+     * Give back the reserved pooled threads which weren't started.
+     */
+    @Override
+    public void close() {
+      freeThreads.release( pooledThreads );
+      pooledThreads = 0;
+    }
+  }
+
+  private void startPlatform( String threadName, Runnable runThread ) {
+    Thread thread = new Thread( runThread );
+    thread.setName( threadName );
+    thread.start();
+  }
+
+  private void startPooled( final String threadName, final Runnable runThread ) {
+    pool.execute( new Runnable() {
+      @Override
+      public void run() {
+        Thread thread = Thread.currentThread();
+        String poolName = thread.getName();
+        thread.setName( threadName );
+        try {
+          runThread.run();
+        } finally {
+          // Don't leak the interrupted state or the name to the next step running on this thread
+          Thread.interrupted();
+          thread.setName( poolName );
+          freeThreads.release();
+        }
+      }
+    } );
+  }
+
+  private boolean startVirtual( String threadName, Runnable runThread ) {
+    if ( ofVirtual == null ) {
+      return false;
+    }
+    try {
+      Object builder = ofVirtual.invoke( null );
+      builder = builderName.invoke( builder, threadName );
+      builderStart.invoke( builder, runThread );
+      return true;
+    } catch ( Exception e ) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the number of pooled threads currently running a step
+   */
+  public int getActivePooledThreadCount() {
+    return pool.getActiveCount();
+  }
+
+  /**
+   * @return the number of threads in the pool, both busy and idle
+   */
+  public int getPooledThreadCount() {
+    return pool.getPoolSize();
+  }
+
+  /**
+   * @return the number of pooled threads which aren't reserved by a transformation
+   */
+  public int getFreePooledThreadCount() {
+    return freeThreads.availablePermits();
+  }
+}
@@ -0,0 +1,70 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.step;
+
+/**
+ * Describes how the threads running the steps of a normal (multi-threaded) transformation are created.
+ *
+ * @since 8.3
+ */
+public enum StepThreadMode {
+
+  /** A new platform thread for every step copy, the classic behavior. */
+  Platform( "platform" ),
+
+  /** Step copies run on threads taken from a process wide pool, which are reused once a step is done. */
+  Pooled( "pooled" ),
+
+  /** Step copies run on virtual threads. Falls back to pooled threads on a Java runtime without virtual threads. */
+  Virtual( "virtual" );
+
+  private final String code;
+
+  StepThreadMode( String code ) {
+    this.code = code;
+  }
+
+  /**
+   * @return the code used in the KETTLE_STEP_THREAD_MODE variable
+   */
+  public String getCode() {
+    return code;
+  }
+
+  /**
+   * Gets the step thread mode by code.
+   *
+   * @param code
+   *          the code, case insensitive
+   * @return the step thread mode or {@link #Platform} if the code is empty or unknown
+   */
+  public static StepThreadMode getStepThreadModeByCode( String code ) {
+    if ( code != null ) {
+      for ( StepThreadMode mode : values() ) {
+        if ( mode.code.equalsIgnoreCase( code.trim() ) ) {
+          return mode;
+        }
+      }
+    }
+    return Platform;
+  }
+}
@@ -22,8 +22,12 @@
 
 package org.pentaho.di.trans.steps.databaselookup;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.util.Utils;
@@ -76,8 +80,48 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
    */
   @VisibleForTesting
   synchronized Object[] lookupValues( RowMetaInterface inputRowMeta, Object[] row ) throws KettleException {
-    Object[] outputRow = RowDataUtil.resizeArray( row, data.outputRowMeta.size() );
+    Object[] lookupRow = getLookupRow( inputRowMeta, row );
+
+    Object[] add;
+    boolean cache_now = false;
+    boolean cacheHit = false;
+
+    // First, check if we looked up before
+    if ( meta.isCached() ) {
+      add = data.cache.getRowFromCache( data.lookupMeta, lookupRow );
+      if ( add != null ) {
+        cacheHit = true;
+      }
+    } else {
+      add = null;
+    }
 
+    if ( add == null ) {
+      if ( !( meta.isCached() && meta.isLoadingAllDataInCache() ) || data.hasDBCondition ) { // do not go to the
+        // database when all rows
+        // are in (exception LIKE
+        // operator)
+        if ( log.isRowLevel() ) {
+          logRowlevel( BaseMessages.getString( PKG, "DatabaseLookup.Log.AddedValuesToLookupRow1" )
+            + meta.getStreamKeyField1().length
+            + BaseMessages.getString( PKG, "DatabaseLookup.Log.AddedValuesToLookupRow2" )
+            + data.lookupMeta.getString( lookupRow ) );
+        }
+
+        data.db.setValuesLookup( data.lookupMeta, lookupRow );
+        add = data.db.getLookup( meta.isFailingOnMultipleResults() );
+        cache_now = true;
+      }
+    }
+
+    return addLookupValues( inputRowMeta, row, lookupRow, add, cacheHit, cache_now,
+      add != null && !cacheHit ? data.db.getReturnRowMeta() : null );
+  }
+
+  /**
+   * Build the key values to look up from an input row, converted to the types of the key fields in the table.
+   */
+  private Object[] getLookupRow( RowMetaInterface inputRowMeta, Object[] row ) throws KettleException {
     Object[] lookupRow = new Object[ data.lookupMeta.size() ];
     int lookupIndex = 0;
 
@@ -109,38 +153,20 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         lookupIndex++;
       }
     }
+    return lookupRow;
+  }
 
-    Object[] add;
-    boolean cache_now = false;
-    boolean cacheHit = false;
-
-    // First, check if we looked up before
-    if ( meta.isCached() ) {
-      add = data.cache.getRowFromCache( data.lookupMeta, lookupRow );
-      if ( add != null ) {
-        cacheHit = true;
-      }
-    } else {
-      add = null;
-    }
-
-    if ( add == null ) {
-      if ( !( meta.isCached() && meta.isLoadingAllDataInCache() ) || data.hasDBCondition ) { // do not go to the
-        // database when all rows
-        // are in (exception LIKE
-        // operator)
-        if ( log.isRowLevel() ) {
-          logRowlevel( BaseMessages.getString( PKG, "DatabaseLookup.Log.AddedValuesToLookupRow1" )
-            + meta.getStreamKeyField1().length
-            + BaseMessages.getString( PKG, "DatabaseLookup.Log.AddedValuesToLookupRow2" )
-            + data.lookupMeta.getString( lookupRow ) );
-        }
-
-        data.db.setValuesLookup( data.lookupMeta, lookupRow );
-        add = data.db.getLookup( meta.isFailingOnMultipleResults() );
-        cache_now = true;
-      }
-    }
+  /**
+   * Add the looked up values, or the defaults if nothing was found, to an input row.
+   *
+   * @param add the looked up values or null if nothing was found
+   * @param returnedRowMeta the metadata of the values returned by the database, only used when there was no cache hit
+   * @return the output row or null if the row doesn't have to be passed on
+   */
+  private Object[] addLookupValues( RowMetaInterface inputRowMeta, Object[] row, Object[] lookupRow, Object[] add,
+                                    boolean cacheHit, boolean cache_now, RowMetaInterface returnedRowMeta )
+    throws KettleException {
+    Object[] outputRow = RowDataUtil.resizeArray( row, data.outputRowMeta.size() );
 
     if ( add == null ) { // nothing was found, unknown code: add default values
       if ( meta.isEatingRowOnLookupFailure() ) {
@@ -183,7 +209,7 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         // that should not be a problem.
         //
         for ( int i = 0; i < types.length; i++ ) {
-          ValueMetaInterface returned = data.db.getReturnRowMeta().getValueMeta( i );
+          ValueMetaInterface returned = returnedRowMeta.getValueMeta( i );
           ValueMetaInterface expected = data.returnMeta.getValueMeta( i );
 
           if ( returned != null && types[ i ] > 0 && types[ i ] != returned.getType() ) {
@@ -312,14 +338,20 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
   @Override
   public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
     Object[] r = getRow(); // Get row from input rowset & set row busy!
+
+    meta = (DatabaseLookupMeta) smi;
+    data = (DatabaseLookupData) sdi;
+
     if ( r == null ) { // no more input to be expected...
+      // Pass on the rows still waiting in batches
+      //
+      if ( data.batchSize > 0 && !flushBatches() ) {
+        return false;
+      }
       setOutputDone();
       return false;
     }
 
-    meta = (DatabaseLookupMeta) smi;
-    data = (DatabaseLookupData) sdi;
-
     if ( first ) {
       first = false;
 
@@ -387,6 +419,7 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         loadAllTableDataIntoTheCache();
       }
 
+      initBatches();
     }
 
     if ( log.isRowLevel() ) {
@@ -394,35 +427,218 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         + getInputRowMeta().getString( r ) );
     }
 
+    if ( data.batchSize > 0 ) {
+      return addToBatch( r );
+    }
+
     try {
       // add new lookup values to the row
       Object[] outputRow = lookupValues( getInputRowMeta(), r );
 
-      if ( outputRow != null ) {
-        // copy row to output rowset(s);
-        putRow( data.outputRowMeta, outputRow );
+      putLookupRow( r, outputRow );
+    } catch ( KettleException e ) {
+      return handleLookupError( r, e );
+    }
+
+    return true;
+  }
 
-        if ( log.isRowLevel() ) {
-          logRowlevel( BaseMessages.getString( PKG, "DatabaseLookup.Log.WroteRowToNextStep" )
-            + getInputRowMeta().getString( r ) );
-        }
-        if ( checkFeedback( getLinesRead() ) ) {
-          logBasic( "linenr " + getLinesRead() );
+  private void putLookupRow( Object[] r, Object[] outputRow ) throws KettleException {
+    if ( outputRow != null ) {
+      // copy row to output rowset(s);
+      putRow( data.outputRowMeta, outputRow );
+
+      if ( log.isRowLevel() ) {
+        logRowlevel( BaseMessages.getString( PKG, "DatabaseLookup.Log.WroteRowToNextStep" )
+          + getInputRowMeta().getString( r ) );
+      }
+      if ( checkFeedback( getLinesRead() ) ) {
+        logBasic( "linenr " + getLinesRead() );
+      }
+    }
+  }
+
+  /**
+   * @return false if the error stopped the step
+   */
+  private boolean handleLookupError( Object[] r, KettleException e ) throws KettleException {
+    if ( getStepMeta().isDoingErrorHandling() ) {
+      putError( getInputRowMeta(), r, 1, e.getMessage(), null, "DBLOOKUPD001" );
+      return true;
+    }
+    logError( BaseMessages.getString( PKG, "DatabaseLookup.ERROR003.UnexpectedErrorDuringProcessing" )
+      + e.getMessage() );
+    setErrors( 1 );
+    stopAll();
+    setOutputDone(); // signal end to receiver(s)
+    return false;
+  }
+
+  /**
+   * See if the rows can be looked up in batches: only lookups with "=" conditions qualify, and there's no point when
+   * all the data is in the cache anyway.
+   */
+  private void initBatches() {
+    data.batchSize = 0;
+    int batchSize = Const.toInt( getVariable( Const.KETTLE_DATABASE_LOOKUP_BATCH_SIZE, "0" ), 0 );
+    if ( batchSize <= 1 || data.lookupMeta.isEmpty() || ( meta.isCached() && meta.isLoadingAllDataInCache() ) ) {
+      return;
+    }
+    for ( int condition : data.conditions ) {
+      if ( condition != DatabaseLookupMeta.CONDITION_EQ ) {
+        if ( log.isDetailed() ) {
+          logDetailed( BaseMessages.getString( PKG, "DatabaseLookup.Log.BatchNotPossible" ) );
         }
+        return;
+      }
+    }
+
+    data.batchSize = batchSize;
+    data.batchKeyMeta = data.lookupMeta.clone();
+    for ( ValueMetaInterface valueMeta : data.batchKeyMeta.getValueMetaList() ) {
+      valueMeta.setStorageType( ValueMetaInterface.STORAGE_TYPE_NORMAL );
+    }
+    DatabaseMeta dbMeta = meta.getDatabaseMeta();
+    data.batchSql = DatabaseLookupBatch.getSql( dbMeta,
+      dbMeta.getQuotedSchemaTableCombination(
+        environmentSubstitute( meta.getSchemaName() ), environmentSubstitute( meta.getTablename() ) ),
+      meta.getTableKeyField(), meta.getReturnValueField(), meta.getOrderByClause(), batchSize );
+    data.pendingBatches = new ArrayDeque<>();
+
+    // Extra connections can't be used when all steps share a transaction
+    //
+    int threads = Const.toInt( getVariable( Const.KETTLE_DATABASE_LOOKUP_BATCH_THREADS, "0" ), 0 );
+    if ( threads > 0 && !getTransMeta().isUsingUniqueConnections() ) {
+      data.batchThreads = threads;
+      data.batchExecutor = Executors.newFixedThreadPool( threads );
+      data.batchDatabases = new LinkedBlockingQueue<>();
+      data.openedBatchDatabases = new ArrayList<>();
+    }
+
+    if ( log.isDetailed() ) {
+      logDetailed( BaseMessages.getString( PKG, "DatabaseLookup.Log.LookingUpInBatches", batchSize,
+        data.batchThreads ) );
+    }
+  }
+
+  private boolean addToBatch( Object[] r ) throws KettleException {
+    Object[] lookupRow;
+    Object[] cachedValue = null;
+    try {
+      lookupRow = getLookupRow( getInputRowMeta(), r );
+      if ( meta.isCached() ) {
+        cachedValue = data.cache.getRowFromCache( data.lookupMeta, lookupRow );
       }
     } catch ( KettleException e ) {
-      if ( getStepMeta().isDoingErrorHandling() ) {
-        putError( getInputRowMeta(), r, 1, e.getMessage(), null, "DBLOOKUPD001" );
-      } else {
-        logError( BaseMessages.getString( PKG, "DatabaseLookup.ERROR003.UnexpectedErrorDuringProcessing" )
-          + e.getMessage() );
-        setErrors( 1 );
-        stopAll();
-        setOutputDone(); // signal end to receiver(s)
+      // Rows which are already waiting go first
+      //
+      return flushBatches() && handleLookupError( r, e );
+    }
+
+    if ( data.batch == null ) {
+      data.batch = new DatabaseLookupBatch( data.batchKeyMeta );
+    }
+    data.batch.addRow( r, lookupRow, cachedValue );
+
+    // Don't keep too many rows around when most of them are found in the cache
+    //
+    if ( data.batch.getKeyCount() >= data.batchSize
+      || data.batch.getRowCount() >= data.batchSize * DatabaseLookupData.BATCH_ROWS_FACTOR ) {
+      return submitBatch( false );
+    }
+    return true;
+  }
+
+  /**
+   * Look up the keys of the current batch, directly or in a separate thread, and pass on the rows of the batches which
+   * are done.
+   *
+   * @param all
+   *          true to wait for all the batches
+   * @return false if an error stopped the step
+   */
+  private boolean submitBatch( boolean all ) throws KettleException {
+    final DatabaseLookupBatch batch = data.batch;
+    data.batch = null;
+    if ( batch != null ) {
+      if ( batch.getKeyCount() > 0 ) {
+        if ( data.batchExecutor == null ) {
+          batch.lookup( data.db, data.batchSql, data.batchSize, meta.isFailingOnMultipleResults(),
+            data.returnMeta.size() );
+        } else {
+          batch.submit( data.batchExecutor, new Runnable() {
+            @Override
+            public void run() {
+              lookupInBatchDatabase( batch );
+            }
+          } );
+        }
+      }
+      data.pendingBatches.add( batch );
+    }
+
+    // The oldest batch goes first to keep the order of the rows
+    //
+    while ( !data.pendingBatches.isEmpty()
+      && ( all || data.pendingBatches.size() > data.batchThreads || data.pendingBatches.peek().isDone() ) ) {
+      if ( !putBatchRows( data.pendingBatches.poll() ) ) {
         return false;
       }
     }
+    return true;
+  }
 
+  private boolean flushBatches() throws KettleException {
+    if ( data.pendingBatches == null ) {
+      return true;
+    }
+    return submitBatch( true );
+  }
+
+  private void lookupInBatchDatabase( DatabaseLookupBatch batch ) {
+    Database db = data.batchDatabases.poll();
+    try {
+      if ( db == null ) {
+        db = getDatabase( meta.getDatabaseMeta() );
+        synchronized ( data.openedBatchDatabases ) {
+          data.openedBatchDatabases.add( db );
+        }
+        try {
+          connectDatabase( db );
+        } catch ( KettleDatabaseException e ) {
+          // Report the error on all the rows of the batch
+          //
+          batch.setError( e );
+          return;
+        }
+      }
+      batch.lookup( db, data.batchSql, data.batchSize, meta.isFailingOnMultipleResults(), data.returnMeta.size() );
+    } finally {
+      if ( db != null && db.getConnection() != null ) {
+        data.batchDatabases.add( db );
+      }
+    }
+  }
+
+  private boolean putBatchRows( DatabaseLookupBatch batch ) throws KettleException {
+    batch.await();
+    for ( int i = 0; i < batch.getRowCount(); i++ ) {
+      if ( isStopped() ) {
+        return false;
+      }
+      Object[] r = batch.getRow( i );
+      try {
+        Object[] add = batch.getValues( i );
+        boolean cacheHit = batch.isCached( i );
+        Object[] outputRow = addLookupValues( getInputRowMeta(), r, batch.getLookupRow( i ), add, cacheHit, !cacheHit,
+          batch.getReturnRowMeta() );
+        putLookupRow( r, outputRow );
+      } catch ( KettleException e ) {
+        if ( !handleLookupError( r, e ) ) {
+          return false;
+        }
+      }
+    }
     return true;
   }
 
@@ -557,6 +773,13 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
       }
       data.isCanceled = true;
     }
+    if ( data.openedBatchDatabases != null ) {
+      synchronized ( data.openedBatchDatabases ) {
+        for ( Database db : data.openedBatchDatabases ) {
+          db.cancelQuery();
+        }
+      }
+    }
   }
 
   @Override
@@ -610,10 +833,24 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
     if ( data.db != null ) {
       data.db.disconnect();
     }
+    if ( data.batchExecutor != null ) {
+      data.batchExecutor.shutdownNow();
+      data.batchExecutor = null;
+    }
+    if ( data.openedBatchDatabases != null ) {
+      synchronized ( data.openedBatchDatabases ) {
+        for ( Database db : data.openedBatchDatabases ) {
+          db.disconnect();
+        }
+        data.openedBatchDatabases.clear();
+      }
+    }
 
     // Recover memory immediately, allow in-memory data to be garbage collected
     //
     data.cache = null;
+    data.batch = null;
+    data.pendingBatches = null;
 
     super.dispose( smi, sdi );
   }
@@ -0,0 +1,423 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.databaselookup;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * A batch of input rows of the {@linkplain DatabaseLookup} step. The distinct keys of the rows which were not found in
+ * the cache are looked up with a single query: {@code key IN ( ?, ? ... )} for a single key field or
+ * {@code ( key1 = ? AND key2 = ? ) OR ...} for several. The rows keep their order, they are passed on once the whole
+ * batch has been looked up.<br>
+ * <br>
+ * Only lookups with "=" conditions can be batched.
+ */
+public class DatabaseLookupBatch {
+
+  static final String MULTIPLE_RESULTS_MESSAGE =
+    "Only 1 row was expected as a result of a lookup, and at least 2 were found!";
+
+  private final RowMetaInterface keyMeta;
+  private final List<Object[]> rows = new ArrayList<Object[]>();
+  private final List<Object[]> lookupRows = new ArrayList<Object[]>();
+  private final List<Object[]> cachedValues = new ArrayList<Object[]>();
+  private final Map<RowMetaAndData, Object[]> keys = new LinkedHashMap<RowMetaAndData, Object[]>();
+
+  private Map<RowMetaAndData, Object[]> found;
+  private Set<RowMetaAndData> multiple;
+  private RowMetaInterface returnRowMeta;
+  private KettleException error;
+  private Future<?> future;
+
+  /**
+   * @param keyMeta
+   *          the metadata of the lookup keys, in normal storage
+   */
+  public DatabaseLookupBatch( RowMetaInterface keyMeta ) {
+    this.keyMeta = keyMeta;
+  }
+
+  /**
+   * Add an input row.
+   *
+   * @param row
+   *          the input row
+   * @param lookupRow
+   *          the key values of the row
+   * @param cachedValue
+   *          the values found in the cache or null if the key has to be looked up
+   */
+  public void addRow( Object[] row, Object[] lookupRow, Object[] cachedValue ) {
+    rows.add( row );
+    lookupRows.add( lookupRow );
+    cachedValues.add( cachedValue );
+    if ( cachedValue == null ) {
+      keys.put( new RowMetaAndData( keyMeta, lookupRow ), lookupRow );
+    }
+  }
+
+  public int getRowCount() {
+    return rows.size();
+  }
+
+  /**
+   * @return the number of distinct keys to look up
+   */
+  public int getKeyCount() {
+    return keys.size();
+  }
+
+  public Object[] getRow( int index ) {
+    return rows.get( index );
+  }
+
+  public Object[] getLookupRow( int index ) {
+    return lookupRows.get( index );
+  }
+
+  /**
+   * @return true if the values of the row were found in the cache
+   */
+  public boolean isCached( int index ) {
+    return cachedValues.get( index ) != null;
+  }
+
+  /**
+   * Get the looked up values of a row.
+   *
+   * @return the values or null if nothing was found
+   * @throws KettleException
+   *           in case the lookup of the batch failed, or the key was found more than once and that isn't allowed
+   */
+  public Object[] getValues( int index ) throws KettleException {
+    Object[] cachedValue = cachedValues.get( index );
+    if ( cachedValue != null ) {
+      return cachedValue;
+    }
+    if ( error != null ) {
+      throw error;
+    }
+    RowMetaAndData key = new RowMetaAndData( keyMeta, lookupRows.get( index ) );
+    if ( multiple != null && multiple.contains( key ) ) {
+      throw new KettleDatabaseException( MULTIPLE_RESULTS_MESSAGE );
+    }
+    Object[] values = found.get( key );
+    return values == null ? null : values.clone();
+  }
+
+  /**
+   * @return the metadata of the values returned by the database
+   */
+  public RowMetaInterface getReturnRowMeta() {
+    return returnRowMeta;
+  }
+
+  /**
+   * Flag the lookup of the batch as failed, the error is reported for every row which isn't found in the cache.
+   */
+  public void setError( KettleException error ) {
+    this.error = error;
+  }
+
+  /**
+   * Look up the keys of this batch in a separate thread.
+   */
+  public void submit( ExecutorService executor, Runnable lookup ) {
+    future = executor.submit( lookup );
+  }
+
+  /**
+   * @return true if the batch is looked up and the rows can be passed on
+   */
+  public boolean isDone() {
+    return future == null || future.isDone();
+  }
+
+  /**
+   * Wait until the batch is looked up.
+   */
+  public void await() throws KettleException {
+    if ( future == null ) {
+      return;
+    }
+    try {
+      future.get();
+    } catch ( InterruptedException e ) {
+      throw new KettleException( "Interrupted while waiting for a batch of lookups", e );
+    } catch ( ExecutionException e ) {
+      throw new KettleException( "Unexpected error in a batch of lookups", e.getCause() );
+    }
+  }
+
+  /**
+   * Look up the keys of the batch. Errors are kept and reported for every row with {@link #getValues(int)}.<br>
+   * <br>
+   * The database compares the keys with its own rules: a case insensitive collation or CHAR padding can return key
+   * values which are not equal to the ones looked up. The returned rows are therefore matched to the keys on a
+   * normalized form of the key values (see {@link #getMatchValue(Object)}). Keys of the batch that have the same
+   * normalized form can't be told apart that way, they are looked up one by one.
+   *
+   * @param db
+   *          the connected database to use
+   * @param sql
+   *          the query for the batch size, see {@link #getSql(DatabaseMeta, String, String[], String[], String, int)}
+   * @param batchSize
+   *          the number of keys in the query, the keys are padded with the last key
+   * @param failOnMultipleResults
+   *          true if a key found more than once is an error
+   * @param nrValues
+   *          the number of values returned for a key, the key fields are returned after the values
+   */
+  public void lookup( Database db, String sql, int batchSize, boolean failOnMultipleResults, int nrValues ) {
+    try {
+      found = new HashMap<RowMetaAndData, Object[]>( keys.size() * 2 );
+
+      Map<List<Object>, List<Object[]>> keysByMatch = new HashMap<List<Object>, List<Object[]>>( keys.size() * 2 );
+      for ( Object[] lookupRow : keys.values() ) {
+        List<Object> matchKey = getMatchKey( keyMeta, lookupRow );
+        List<Object[]> matchingKeys = keysByMatch.get( matchKey );
+        if ( matchingKeys == null ) {
+          matchingKeys = new ArrayList<Object[]>( 1 );
+          keysByMatch.put( matchKey, matchingKeys );
+        }
+        matchingKeys.add( lookupRow );
+      }
+
+      // The rows are in the order of the ORDER BY clause: the first one of a key is the one a single lookup returns
+      //
+      Map<List<Object>, List<Object[]>> valuesByMatch =
+        query( db, sql, batchSize, new ArrayList<Object[]>( keys.values() ), nrValues );
+
+      List<Object[]> ambiguousKeys = new ArrayList<Object[]>();
+      for ( Map.Entry<List<Object>, List<Object[]>> entry : keysByMatch.entrySet() ) {
+        List<Object[]> matchingKeys = entry.getValue();
+        if ( matchingKeys.size() == 1 ) {
+          setValues( matchingKeys.get( 0 ), valuesByMatch.get( entry.getKey() ), failOnMultipleResults );
+        } else {
+          ambiguousKeys.addAll( matchingKeys );
+        }
+      }
+      for ( Object[] lookupRow : ambiguousKeys ) {
+        List<Object[]> lookupRows = new ArrayList<Object[]>( 1 );
+        lookupRows.add( lookupRow );
+        List<Object[]> values = new ArrayList<Object[]>();
+        for ( List<Object[]> matchingValues : query( db, sql, batchSize, lookupRows, nrValues ).values() ) {
+          values.addAll( matchingValues );
+        }
+        setValues( lookupRow, values, failOnMultipleResults );
+      }
+    } catch ( KettleException e ) {
+      error = e;
+    } catch ( RuntimeException e ) {
+      error = new KettleException( "Unexpected error in a batch of lookups", e );
+    }
+  }
+
+  /**
+   * Run the batch query for the given keys, padded with the last one.
+   *
+   * @return the returned values, grouped by the normalized key values they were returned with
+   */
+  private Map<List<Object>, List<Object[]>> query( Database db, String sql, int batchSize, List<Object[]> keyRows,
+    int nrValues ) throws KettleException {
+    RowMetaInterface paramsMeta = new RowMeta();
+    Object[] params = new Object[batchSize * keyMeta.size()];
+    int index = 0;
+    Object[] lookupRow = null;
+    for ( int i = 0; i < batchSize; i++ ) {
+      // Repeat the last key: that way the query is always the same and the database can reuse its plan
+      //
+      if ( i < keyRows.size() ) {
+        lookupRow = keyRows.get( i );
+      }
+      for ( int k = 0; k < keyMeta.size(); k++ ) {
+        paramsMeta.addValueMeta( keyMeta.getValueMeta( k ).clone() );
+        params[index++] = lookupRow[k];
+      }
+    }
+
+    List<Object[]> result = db.getRows( sql, paramsMeta, params, ResultSet.FETCH_FORWARD, false, 0, null );
+    RowMetaInterface resultMeta = db.getReturnRowMeta();
+
+    if ( returnRowMeta == null ) {
+      returnRowMeta = new RowMeta();
+      for ( int i = 0; i < nrValues; i++ ) {
+        returnRowMeta.addValueMeta( resultMeta.getValueMeta( i ) );
+      }
+    }
+
+    Map<List<Object>, List<Object[]>> valuesByMatch = new LinkedHashMap<List<Object>, List<Object[]>>();
+    for ( Object[] resultRow : result ) {
+      Object[] keyData = new Object[keyMeta.size()];
+      for ( int k = 0; k < keyMeta.size(); k++ ) {
+        ValueMetaInterface keyValueMeta = keyMeta.getValueMeta( k );
+        ValueMetaInterface resultValueMeta = resultMeta.getValueMeta( nrValues + k );
+        keyData[k] = resultRow[nrValues + k];
+        if ( keyValueMeta.getType() != resultValueMeta.getType() ) {
+          keyData[k] = keyValueMeta.convertData( resultValueMeta, keyData[k] );
+        }
+      }
+      List<Object> matchKey = getMatchKey( keyMeta, keyData );
+      List<Object[]> values = valuesByMatch.get( matchKey );
+      if ( values == null ) {
+        values = new ArrayList<Object[]>( 1 );
+        valuesByMatch.put( matchKey, values );
+      }
+      Object[] value = new Object[nrValues];
+      System.arraycopy( resultRow, 0, value, 0, nrValues );
+      values.add( value );
+    }
+    return valuesByMatch;
+  }
+
+  private void setValues( Object[] lookupRow, List<Object[]> values, boolean failOnMultipleResults ) {
+    if ( values == null || values.isEmpty() ) {
+      return;
+    }
+    RowMetaAndData key = new RowMetaAndData( keyMeta, lookupRow );
+    found.put( key, values.get( 0 ) );
+    if ( failOnMultipleResults && values.size() > 1 ) {
+      if ( multiple == null ) {
+        multiple = new HashSet<RowMetaAndData>();
+      }
+      multiple.add( key );
+    }
+  }
+
+  private static List<Object> getMatchKey( RowMetaInterface keyMeta, Object[] keyData ) throws KettleException {
+    List<Object> matchKey = new ArrayList<Object>( keyMeta.size() );
+    for ( int k = 0; k < keyMeta.size(); k++ ) {
+      ValueMetaInterface valueMeta = keyMeta.getValueMeta( k );
+      matchKey.add( valueMeta.isNull( keyData[k] ) ? null : getMatchValue( keyData[k] ) );
+    }
+    return matchKey;
+  }
+
+  /**
+   * A key value as it's used to match returned rows to keys. The value is rather too coarse than too fine: values that
+   * compare equal in any database must have the same match value. Strings are compared without trailing spaces and
+   * ignoring case, numbers without their scale and dates on their milliseconds.
+   */
+  static Object getMatchValue( Object value ) {
+    if ( value instanceof String ) {
+      return Const.rtrim( (String) value ).toLowerCase( Locale.ROOT );
+    }
+    if ( value instanceof BigDecimal ) {
+      BigDecimal number = (BigDecimal) value;
+      return number.signum() == 0 ? BigDecimal.ZERO : number.stripTrailingZeros();
+    }
+    if ( value instanceof Double ) {
+      double number = (Double) value;
+      return number == 0.0 ? 0.0 : number;
+    }
+    if ( value instanceof Date ) {
+      return ( (Date) value ).getTime();
+    }
+    if ( value instanceof byte[] ) {
+      return ByteBuffer.wrap( (byte[]) value );
+    }
+    return value;
+  }
+
+  /**
+   * Build the query to look up a batch of keys.
+   *
+   * @param dbMeta
+   *          the database
+   * @param schemaTable
+   *          the quoted schema and table
+   * @param keyFields
+   *          the key fields of the table
+   * @param returnFields
+   *          the fields to return
+   * @param orderBy
+   *          the order by clause or null
+   * @param batchSize
+   *          the number of keys
+   * @return the query returning the return fields followed by the key fields
+   */
+  public static String getSql( DatabaseMeta dbMeta, String schemaTable, String[] keyFields, String[] returnFields,
+    String orderBy, int batchSize ) {
+    StringBuilder sql = new StringBuilder( 128 + batchSize * 16 * keyFields.length );
+    sql.append( "SELECT " );
+    for ( int i = 0; i < returnFields.length; i++ ) {
+      sql.append( dbMeta.quoteField( returnFields[i] ) ).append( ", " );
+    }
+    for ( int i = 0; i < keyFields.length; i++ ) {
+      if ( i > 0 ) {
+        sql.append( ", " );
+      }
+      sql.append( dbMeta.quoteField( keyFields[i] ) );
+    }
+    sql.append( " FROM " ).append( schemaTable ).append( " WHERE " );
+
+    if ( keyFields.length == 1 ) {
+      sql.append( dbMeta.quoteField( keyFields[0] ) ).append( " IN (" );
+      for ( int i = 0; i < batchSize; i++ ) {
+        sql.append( i > 0 ? ", ?" : " ?" );
+      }
+      sql.append( " )" );
+    } else {
+      for ( int i = 0; i < batchSize; i++ ) {
+        sql.append( i > 0 ? " OR ( " : "( " );
+        for ( int k = 0; k < keyFields.length; k++ ) {
+          if ( k > 0 ) {
+            sql.append( " AND " );
+          }
+          sql.append( dbMeta.quoteField( keyFields[k] ) ).append( " = ?" );
+        }
+        sql.append( " )" );
+      }
+    }
+
+    if ( orderBy != null && orderBy.length() != 0 ) {
+      sql.append( " ORDER BY " ).append( orderBy );
+    }
+    return sql.toString();
+  }
+}
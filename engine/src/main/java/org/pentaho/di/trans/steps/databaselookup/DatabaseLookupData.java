@@ -22,6 +22,11 @@
 
 package org.pentaho.di.trans.steps.databaselookup;
 
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -49,6 +54,22 @@ public class DatabaseLookupData extends BaseStepData implements StepDataInterfac
   public int[] conditions;
   public boolean hasDBCondition;
 
+  /** A batch is looked up once it holds this many times the batch size rows, even if most came from the cache */
+  public static final int BATCH_ROWS_FACTOR = 8;
+
+  /** The number of distinct keys looked up with a single query, 0 if every row is looked up by itself */
+  public int batchSize;
+  public RowMetaInterface batchKeyMeta;
+  public String batchSql;
+  public DatabaseLookupBatch batch;
+  public Deque<DatabaseLookupBatch> pendingBatches;
+
+  /** The number of batches looked up at the same time with separate connections, 0 to use the step connection */
+  public int batchThreads;
+  public ExecutorService batchExecutor;
+  public BlockingQueue<Database> batchDatabases;
+  public List<Database> openedBatchDatabases;
+
   public DatabaseLookupData() {
     super();
 
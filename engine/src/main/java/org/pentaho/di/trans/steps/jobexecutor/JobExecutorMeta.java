@@ -22,6 +22,7 @@
 
 package org.pentaho.di.trans.steps.jobexecutor;
 
+import org.pentaho.di.base.MetaFileCache;
 import org.pentaho.di.core.CheckResult;
 import org.pentaho.di.core.CheckResultInterface;
 import org.pentaho.di.core.Const;
@@ -646,7 +647,9 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
             }
           }
           if ( mappingJobMeta == null ) {
-            mappingJobMeta = new JobMeta( null, realFilename, rep, metaStore, null );
+            final String jobFilename = realFilename;
+            mappingJobMeta = MetaFileCache.getInstance().getJobMeta( jobFilename, null, rep, metaStore,
+              () -> new JobMeta( null, jobFilename, rep, metaStore, null ) );
             LogChannel.GENERAL.logDetailed( "Loading job from repository", "Job was loaded from XML file ["
               + realFilename + "]" );
           }
@@ -697,7 +700,8 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
 
       case REPOSITORY_BY_REFERENCE:
         // Read the last revision by reference...
-        mappingJobMeta = rep.loadJob( executorMeta.getJobObjectId(), null );
+        mappingJobMeta = MetaFileCache.getInstance().getJobMeta( rep, executorMeta.getJobObjectId(), tmpSpace,
+          () -> rep.loadJob( executorMeta.getJobObjectId(), null ) );
         break;
       default:
         break;
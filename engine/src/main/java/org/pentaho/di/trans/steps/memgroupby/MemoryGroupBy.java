@@ -25,6 +25,7 @@ package org.pentaho.di.trans.steps.memgroupby;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -32,6 +33,7 @@ import org.apache.commons.math.stat.descriptive.rank.Percentile;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleFileException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
@@ -42,18 +44,30 @@ import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.TransMeta.TransformationType;
 import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByData.HashEntry;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByData.SpillFile;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMerge.Partial;
 
 /**
- * Groups information based on aggregation rules. (sum, count, ...)
+ * Groups information based on aggregation rules. (sum, count, ...)<br>
+ * <br>
+ * All groups are kept in a hash table. When a memory budget is set (see {@link Const#KETTLE_MEMORY_GROUP_BY_MAX_GROUPS}
+ * and {@link Const#KETTLE_MEMORY_GROUP_BY_FREE_MEMORY_LIMIT}) and the hash table grows beyond it, the groups in memory
+ * keep on aggregating but the rows of new groups are written to temporary files, partitioned by the hash of the group.
+ * Once the groups in memory are written out, the files are aggregated one by one, in the same way.<br>
+ * <br>
+ * When {@link Const#KETTLE_MEMORY_GROUP_BY_MERGE_COPIES} is set, the copies of a step that isn't partitioned only
+ * compute partial aggregates over the rows they receive. The last copy to finish merges them into the final result.
  *
  * @author Matt
  * @since 2-jun-2003
@@ -85,11 +99,6 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
     Object[] r = getRow(); // get row!
 
     if ( first ) {
-      if ( ( r == null ) && ( !meta.isAlwaysGivingBackOneRow() ) ) {
-        setOutputDone();
-        return false;
-      }
-
       String val = getVariable( Const.KETTLE_AGGREGATION_ALL_NULLS_ARE_ZERO, "N" );
       allNullsAreZero = ValueMetaBase.convertStringToBoolean( val );
       val = getVariable( Const.KETTLE_AGGREGATION_MIN_NULL_IS_VALUED, "N" );
@@ -97,6 +106,23 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       compatibilityMode = ValueMetaBase.convertStringToBoolean(
         getVariable( Const.KETTLE_COMPATIBILITY_MEMORY_GROUP_BY_SUM_AVERAGE_RETURN_NUMBER_TYPE, "N" ) );
 
+      // The memory budget, spilling is disabled by default
+      //
+      data.maxGroups = Const.toInt( getVariable( Const.KETTLE_MEMORY_GROUP_BY_MAX_GROUPS, "0" ), 0 );
+      data.freeMemoryPctLimit = Const.toInt( getVariable( Const.KETTLE_MEMORY_GROUP_BY_FREE_MEMORY_LIMIT, "0" ), 0 );
+      data.spillDirectory =
+        environmentSubstitute( getVariable( Const.KETTLE_MEMORY_GROUP_BY_SPILL_DIRECTORY, "%%java.io.tmpdir%%" ) );
+
+      if ( ( r == null ) && ( !meta.isAlwaysGivingBackOneRow() ) ) {
+        // The other copies might have received rows
+        //
+        if ( data.merge != null && mergeCopies() ) {
+          handleLastOfGroup();
+        }
+        setOutputDone();
+        return false;
+      }
+
       // What is the output looking like?
       //
       data.inputRowMeta = getInputRowMeta();
@@ -174,7 +200,9 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
     // Here is where we start to do the real work...
     //
     if ( r == null ) { // no more input to be expected... (or none received in the first place)
-      handleLastOfGroup();
+      if ( data.merge == null || mergeCopies() ) {
+        handleLastOfGroup();
+      }
 
       setOutputDone();
       return false;
@@ -185,6 +213,7 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       data.newBatch = false;
     }
 
+    data.hasInput = true;
     addToAggregate( r );
 
     if ( checkFeedback( getLinesRead() ) ) {
@@ -197,27 +226,20 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
   }
 
   private void handleLastOfGroup() throws KettleException {
+    boolean hasGroups = !data.map.isEmpty();
+
     // Dump the content of the map...
     //
-    for ( HashEntry entry : data.map.keySet() ) {
-      Aggregate aggregate = data.map.get( entry );
-      Object[] aggregateResult = getAggregateResult( aggregate );
+    writeGroups();
 
-      Object[] outputRowData = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
-      int index = 0;
-      for ( int i = 0; i < data.groupMeta.size(); i++ ) {
-        outputRowData[index++] = data.groupMeta.getValueMeta( i ).convertToNormalStorageType( entry.getGroupData()[i] );
-      }
-      for ( int i = 0; i < data.aggMeta.size(); i++ ) {
-        outputRowData[index++] = data.aggMeta.getValueMeta( i ).convertToNormalStorageType( aggregateResult[i] );
-      }
-      putRow( data.outputRowMeta, outputRowData );
-    }
+    // Then aggregate the rows of the groups which didn't fit in memory
+    //
+    aggregateSpillFiles();
 
     // What if we always need to give back one row?
     // This means we give back 0 for count all, count distinct, null for everything else
     //
-    if ( data.map.isEmpty() && meta.isAlwaysGivingBackOneRow() ) {
+    if ( !hasGroups && meta.isAlwaysGivingBackOneRow() ) {
       Object[] outputRowData = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
       int index = 0;
       for ( int i = 0; i < data.groupMeta.size(); i++ ) {
@@ -236,6 +258,310 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
     }
   }
 
+  private void writeGroups() throws KettleException {
+    for ( HashEntry entry : data.map.keySet() ) {
+      Aggregate aggregate = data.map.get( entry );
+      Object[] aggregateResult = getAggregateResult( aggregate );
+
+      Object[] outputRowData = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+      int index = 0;
+      for ( int i = 0; i < data.groupMeta.size(); i++ ) {
+        outputRowData[index++] = data.groupMeta.getValueMeta( i ).convertToNormalStorageType( entry.getGroupData()[i] );
+      }
+      for ( int i = 0; i < data.aggMeta.size(); i++ ) {
+        outputRowData[index++] = data.aggMeta.getValueMeta( i ).convertToNormalStorageType( aggregateResult[i] );
+      }
+      putRow( data.outputRowMeta, outputRowData );
+    }
+  }
+
+  /**
+   * Hand over the groups of this copy. The last copy to finish merges the groups of all the copies.
+   *
+   * @return true if this copy now holds the groups of all the copies and should write them
+   */
+  private boolean mergeCopies() throws KettleException {
+    Partial partial = new Partial( getCopy(), data, data.map, data.spillFiles, data.hasInput );
+    data.map = new HashMap<HashEntry, Aggregate>( 5000 );
+    data.spillFiles = null;
+    data.spilling = false;
+
+    List<Partial> partials = data.merge.addPartial( partial );
+    if ( partials == null ) {
+      return false;
+    }
+    if ( log.isDetailed() ) {
+      logDetailed( BaseMessages.getString( PKG, "MemoryGroupBy.Log.MergingCopies", partials.size() ) );
+    }
+
+    try {
+      // We need the metadata of the groups, this copy might not have received any rows
+      //
+      if ( !data.hasInput ) {
+        for ( Partial other : partials ) {
+          if ( other.hasInput() ) {
+            adoptMetadata( other.getData() );
+            break;
+          }
+        }
+      }
+
+      for ( Partial other : partials ) {
+        for ( Map.Entry<HashEntry, Aggregate> entry : other.getMap().entrySet() ) {
+          Aggregate aggregate = data.map.get( entry.getKey() );
+          if ( aggregate == null ) {
+            data.map.put( entry.getKey(), entry.getValue() );
+          } else {
+            mergeAggregate( aggregate, entry.getValue() );
+          }
+        }
+      }
+
+      // The rows of the groups that didn't fit in the memory of a copy are simply aggregated again
+      //
+      for ( Partial other : partials ) {
+        SpillFile[] files = other.getSpillFiles();
+        for ( int i = 0; files != null && i < files.length && !isStopped(); i++ ) {
+          if ( files[i] == null ) {
+            continue;
+          }
+          Object[] r = files[i].readRow( data.inputRowMeta );
+          while ( r != null ) {
+            addToAggregate( r );
+            r = files[i].readRow( data.inputRowMeta );
+          }
+          files[i].delete();
+          files[i] = null;
+        }
+      }
+    } finally {
+      for ( Partial other : partials ) {
+        MemoryGroupByData.deleteSpillFiles( other.getSpillFiles() );
+      }
+    }
+    return true;
+  }
+
+  private void adoptMetadata( MemoryGroupByData other ) {
+    data.inputRowMeta = other.inputRowMeta;
+    data.outputRowMeta = other.outputRowMeta;
+    data.groupMeta = other.groupMeta;
+    data.entryMeta = other.entryMeta;
+    data.aggMeta = other.aggMeta;
+    data.groupAggMeta = other.groupAggMeta;
+    data.groupnrs = other.groupnrs;
+    data.subjectnrs = other.subjectnrs;
+    data.valueMetaInteger = other.valueMetaInteger;
+    data.valueMetaNumber = other.valueMetaNumber;
+  }
+
+  /**
+   * Used for junits in MemoryGroupByMergeTest<br>
+   * <br>
+   * Merge the aggregate of a group computed by another step copy into this one.
+   *
+   * @param aggregate
+   *          the aggregate to update
+   * @param other
+   *          the aggregate of the same group computed over other rows
+   * @throws KettleException
+   */
+  @SuppressWarnings( "unchecked" ) void mergeAggregate( Aggregate aggregate, Aggregate other ) throws KettleException {
+    for ( int i = 0; i < data.subjectnrs.length; i++ ) {
+      Object value = aggregate.agg[i];
+      Object otherValue = other.agg[i];
+      ValueMetaInterface valueMeta = data.aggMeta.getValueMeta( i );
+
+      switch ( meta.getAggregateType()[i] ) {
+        case MemoryGroupByMeta.TYPE_GROUP_SUM:
+          aggregate.agg[i] = ValueDataUtil.sum( valueMeta, value, valueMeta, otherValue );
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_AVERAGE:
+          aggregate.agg[i] = ValueDataUtil.sum( valueMeta, value, valueMeta, otherValue );
+          aggregate.counts[i] += other.counts[i];
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_MEDIAN:
+        case MemoryGroupByMeta.TYPE_GROUP_PERCENTILE:
+          ( (List<Double>) value ).addAll( (List<Double>) otherValue );
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
+          // Combine the counts, means and sums of squared differences of both parts
+          //
+          long count = aggregate.counts[i];
+          long otherCount = other.counts[i];
+          if ( otherCount == 0 ) {
+            break;
+          }
+          double n = count + otherCount;
+          double delta = other.mean[i] - aggregate.mean[i];
+          double sum = value == null ? 0.0 : (Double) value;
+          double otherSum = otherValue == null ? 0.0 : (Double) otherValue;
+
+          aggregate.mean[i] = aggregate.mean[i] + delta * otherCount / n;
+          aggregate.agg[i] = sum + otherSum + delta * delta * count * otherCount / n;
+          aggregate.counts[i] = count + otherCount;
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_COUNT_DISTINCT:
+          if ( other.distinctObjs == null || other.distinctObjs[i] == null ) {
+            break;
+          }
+          if ( aggregate.distinctObjs == null ) {
+            aggregate.distinctObjs = new Set[meta.getSubjectField().length];
+          }
+          if ( aggregate.distinctObjs[i] == null ) {
+            aggregate.distinctObjs[i] = new TreeSet<>();
+          }
+          aggregate.distinctObjs[i].addAll( other.distinctObjs[i] );
+          aggregate.counts[i] = aggregate.distinctObjs[i].size();
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL:
+        case MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY:
+          aggregate.counts[i] += other.counts[i];
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_MIN:
+          boolean otherIsNull = valueMeta.isNull( otherValue );
+          boolean valueIsNull = valueMeta.isNull( value );
+          if ( minNullIsValued || ( !otherIsNull && !valueIsNull ) ) {
+            aggregate.agg[i] = valueMeta.compare( otherValue, value ) < 0 ? otherValue : value;
+          } else if ( valueIsNull && !otherIsNull ) {
+            aggregate.agg[i] = otherValue;
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_MAX:
+          if ( valueMeta.compare( otherValue, value ) > 0 ) {
+            aggregate.agg[i] = otherValue;
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_FIRST:
+          if ( !valueMeta.isNull( otherValue ) && value == null ) {
+            aggregate.agg[i] = otherValue;
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_LAST:
+          if ( !valueMeta.isNull( otherValue ) ) {
+            aggregate.agg[i] = otherValue;
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_FIRST_INCL_NULL:
+          if ( aggregate.counts[i] == 0 ) {
+            aggregate.agg[i] = otherValue;
+            aggregate.counts[i] = other.counts[i];
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_LAST_INCL_NULL:
+          aggregate.agg[i] = otherValue;
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_CONCAT_COMMA:
+        case MemoryGroupByMeta.TYPE_GROUP_CONCAT_STRING:
+          String separator = ", ";
+          if ( meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_CONCAT_STRING ) {
+            separator = Utils.isEmpty( meta.getValueField()[i] ) ? "" : environmentSubstitute( meta.getValueField()[i] );
+          }
+          StringBuilder sb = (StringBuilder) value;
+          StringBuilder otherSb = (StringBuilder) otherValue;
+          if ( otherSb.length() > 0 ) {
+            if ( sb.length() > 0 ) {
+              sb.append( separator );
+            }
+            sb.append( otherSb );
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Aggregate the spill files one at a time. The groups of a spill file that don't fit in memory are spilled again, one
+   * level deeper.
+   */
+  private void aggregateSpillFiles() throws KettleException {
+    if ( data.spillFiles == null ) {
+      return;
+    }
+    // The groups in memory are written out, free the memory first
+    //
+    data.map.clear();
+
+    SpillFile[] files = data.spillFiles;
+    int level = data.spillLevel;
+    data.spillFiles = null;
+    data.spilling = false;
+
+    try {
+      for ( int i = 0; i < files.length && !isStopped(); i++ ) {
+        if ( files[i] == null ) {
+          continue;
+        }
+        if ( log.isDetailed() ) {
+          logDetailed( BaseMessages.getString( PKG, "MemoryGroupBy.Log.AggregatingSpillFile", files[i].getRows(),
+            level + 1 ) );
+        }
+        data.spillLevel = level + 1;
+        Object[] r = files[i].readRow( data.inputRowMeta );
+        while ( r != null ) {
+          addToAggregate( r );
+          r = files[i].readRow( data.inputRowMeta );
+        }
+        files[i].delete();
+        files[i] = null;
+
+        writeGroups();
+        data.map.clear();
+        aggregateSpillFiles();
+      }
+    } finally {
+      MemoryGroupByData.deleteSpillFiles( files );
+      data.spillLevel = level;
+    }
+  }
+
+  /**
+   * @return true if no new groups should be added to the hash table
+   */
+  private boolean isOverMemoryBudget() {
+    if ( data.map.isEmpty() || data.spillLevel >= MemoryGroupByData.MAX_SPILL_LEVELS ) {
+      return false;
+    }
+    if ( data.maxGroups > 0 && data.map.size() >= data.maxGroups ) {
+      return true;
+    }
+    // Check the free memory every 1000 groups...
+    //
+    if ( data.freeMemoryPctLimit > 0 && ++data.freeCounter >= 1000 ) {
+      data.freeCounter = 0;
+      return Const.getPercentageFreeMemory() < data.freeMemoryPctLimit;
+    }
+    return false;
+  }
+
+  private void spillRow( HashEntry entry, Object[] r ) throws KettleException {
+    if ( !data.spilling ) {
+      data.spilling = true;
+      if ( data.spillFiles == null ) {
+        data.spillFiles = new SpillFile[MemoryGroupByData.SPILL_PARTITIONS];
+      }
+      if ( log.isDetailed() ) {
+        logDetailed( BaseMessages.getString( PKG, "MemoryGroupBy.Log.StartSpilling", data.map.size(),
+          data.spillLevel ) );
+      }
+    }
+
+    int partition = data.getSpillPartition( entry );
+    SpillFile file = data.spillFiles[partition];
+    if ( file == null ) {
+      try {
+        file = new SpillFile( KettleVFS.createTempFile( "memgroupby", ".tmp", data.spillDirectory, this ) );
+      } catch ( KettleFileException e ) {
+        throw new KettleException( BaseMessages.getString(
+          PKG, "MemoryGroupBy.Exception.UnableToCreateTemporaryFile" ), e );
+      }
+      data.spillFiles[partition] = file;
+    }
+    file.writeRow( data.inputRowMeta, r );
+  }
+
   /**
    * Used for junits in MemoryGroupByAggregationNullsTest
    *
@@ -252,6 +578,13 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
 
     Aggregate aggregate = data.map.get( entry );
     if ( aggregate == null ) {
+      // Over the memory budget: the groups in memory keep on aggregating, the rows of new groups go to disk
+      //
+      if ( data.spilling || isOverMemoryBudget() ) {
+        spillRow( entry, r );
+        return;
+      }
+
       // Create a new value...
       //
       aggregate = new Aggregate();
@@ -565,15 +898,51 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
 
     if ( super.init( smi, sdi ) ) {
       data.map = new HashMap<HashEntry, Aggregate>( 5000 );
+      data.merge = getMerge();
       return true;
     }
     return false;
   }
 
+  /**
+   * @return the merge shared by all the copies of this step, or null if every copy aggregates on its own
+   */
+  private MemoryGroupByMerge getMerge() {
+    if ( !Boolean.TRUE.equals(
+      ValueMetaBase.convertStringToBoolean( getVariable( Const.KETTLE_MEMORY_GROUP_BY_MERGE_COPIES, "N" ) ) )
+      || getStepMeta().isPartitioned() || getTrans() == null
+      || getTransMeta().getTransformationType() != TransformationType.Normal ) {
+      return null;
+    }
+    List<StepInterface> copies = getTrans().findStepInterfaces( getStepname() );
+    if ( copies == null || copies.size() < 2 ) {
+      return null;
+    }
+    StepInterface firstCopy = getTrans().getStepInterface( getStepname(), 0 );
+    if ( !( firstCopy instanceof MemoryGroupBy ) ) {
+      return null;
+    }
+
+    // The copies are initialized in parallel, the first one to get here creates the merge
+    //
+    MemoryGroupByData firstData = ( (MemoryGroupBy) firstCopy ).data;
+    synchronized ( firstData ) {
+      if ( firstData.merge == null ) {
+        firstData.merge = new MemoryGroupByMerge( copies.size() );
+      }
+      return firstData.merge;
+    }
+  }
+
   @Override
   public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
     super.dispose( smi, sdi );
-    ( (MemoryGroupByData) sdi ).clear();
+    data = (MemoryGroupByData) sdi;
+    if ( data.merge != null && isStopped() ) {
+      // The other copies won't finish, throw away what they handed over
+      data.merge.discard();
+    }
+    data.clear();
   }
 
   @Override
@@ -22,13 +22,24 @@
 
 package org.pentaho.di.trans.steps.memgroupby;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleFileException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
 
 /**
  * @author Matt
@@ -36,6 +47,13 @@ import org.pentaho.di.trans.step.StepDataInterface;
  *
  */
 public class MemoryGroupByData extends BaseStepData implements StepDataInterface {
+  /** The number of hash bits used to pick the spill file of a row, per spill level */
+  public static final int SPILL_PARTITION_BITS = 4;
+  public static final int SPILL_PARTITIONS = 1 << SPILL_PARTITION_BITS;
+
+  /** Every spill level uses different hash bits, after that we stop spilling */
+  public static final int MAX_SPILL_LEVELS = 32 / SPILL_PARTITION_BITS;
+
   public class HashEntry {
     private Object[] groupData;
 
@@ -99,6 +117,24 @@ public class MemoryGroupByData extends BaseStepData implements StepDataInterface
 
   public boolean newBatch;
 
+  /** The memory budget: the maximum number of groups in memory, 0 means no limit */
+  public int maxGroups;
+
+  /** The memory budget: the minimum percentage of free memory, 0 means no limit */
+  public int freeMemoryPctLimit;
+  public int freeCounter;
+
+  public String spillDirectory;
+
+  /** True if rows of new groups are written to the spill files */
+  public boolean spilling;
+  public int spillLevel;
+  public SpillFile[] spillFiles;
+
+  /** The groups of all the copies of this step are merged into one result, null if every copy aggregates on its own */
+  public MemoryGroupByMerge merge;
+  public boolean hasInput;
+
   public MemoryGroupByData() {
     super();
 
@@ -108,10 +144,122 @@ public class MemoryGroupByData extends BaseStepData implements StepDataInterface
     return new HashEntry( groupData );
   }
 
+  /**
+   * Pick the spill file for a group. Every spill level looks at different bits of the hash code, so the groups of a
+   * spill file are spread over all the spill files of the next level.
+   *
+   * @param entry
+   *          the group
+   * @return the index of the spill file
+   */
+  public int getSpillPartition( HashEntry entry ) {
+    // Scramble the hash code first: the hash codes of simple values like integers don't use all the bits
+    //
+    int h = entry.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return ( h >>> ( spillLevel * SPILL_PARTITION_BITS ) ) & ( SPILL_PARTITIONS - 1 );
+  }
+
   /**
    * Method responsible for clearing out memory hogs
    */
   public void clear() {
     map = new HashMap<MemoryGroupByData.HashEntry, Aggregate>();
+    deleteSpillFiles( spillFiles );
+    spillFiles = null;
+    spilling = false;
+    spillLevel = 0;
+  }
+
+  public static void deleteSpillFiles( SpillFile[] files ) {
+    if ( files == null ) {
+      return;
+    }
+    for ( int i = 0; i < files.length; i++ ) {
+      if ( files[i] != null ) {
+        files[i].delete();
+        files[i] = null;
+      }
+    }
+  }
+
+  /**
+   * A temporary file with the input rows of groups that didn't fit in memory.
+   */
+  public static class SpillFile {
+    private final FileObject fileObject;
+    private DataOutputStream outputStream;
+    private DataInputStream inputStream;
+    private long rows;
+    private long rowsRead;
+
+    public SpillFile( FileObject fileObject ) throws KettleFileException {
+      this.fileObject = fileObject;
+      try {
+        this.outputStream =
+          new DataOutputStream( new BufferedOutputStream( new SnappyOutputStream( KettleVFS.getOutputStream(
+            fileObject, false ) ), 50000 ) );
+      } catch ( IOException e ) {
+        throw new KettleFileException( e );
+      }
+    }
+
+    public void writeRow( RowMetaInterface rowMeta, Object[] row ) throws KettleFileException {
+      rowMeta.writeData( outputStream, row );
+      rows++;
+    }
+
+    /**
+     * Read back the rows, the file is closed for writing when the first row is read.
+     *
+     * @param rowMeta
+     *          the layout of the rows in the file
+     * @return the next row or null if all rows were read
+     */
+    public Object[] readRow( RowMetaInterface rowMeta ) throws KettleException {
+      if ( rowsRead >= rows ) {
+        return null;
+      }
+      try {
+        if ( inputStream == null ) {
+          outputStream.close();
+          outputStream = null;
+          inputStream =
+            new DataInputStream( new BufferedInputStream( new SnappyInputStream( KettleVFS.getInputStream(
+              fileObject ) ), 50000 ) );
+        }
+        rowsRead++;
+        return rowMeta.readData( inputStream );
+      } catch ( IOException e ) {
+        throw new KettleFileException( e );
+      }
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    /**
+     * Close and delete the file, errors are ignored: there's nothing we can do about them.
+     */
+    public void delete() {
+      try {
+        if ( outputStream != null ) {
+          outputStream.close();
+          outputStream = null;
+        }
+        if ( inputStream != null ) {
+          inputStream.close();
+          inputStream = null;
+        }
+        fileObject.delete();
+      } catch ( Exception e ) {
+        // ignore
+      }
+    }
   }
 }
@@ -0,0 +1,143 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.memgroupby;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByData.HashEntry;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByData.SpillFile;
+
+/**
+ * Collects the partial aggregates of all the copies of a Memory Group By step. Every copy aggregates the rows it
+ * receives and hands over its groups once its input is done. The last copy to finish merges the groups of all copies
+ * and writes the result.
+ *
+ * @since 8.3
+ */
+public class MemoryGroupByMerge {
+
+  /**
+   * The groups of one step copy.
+   */
+  public static class Partial {
+    private final int copyNr;
+    private final MemoryGroupByData data;
+    private final Map<HashEntry, Aggregate> map;
+    private final SpillFile[] spillFiles;
+    private final boolean hasInput;
+
+    public Partial( int copyNr, MemoryGroupByData data, Map<HashEntry, Aggregate> map, SpillFile[] spillFiles,
+      boolean hasInput ) {
+      this.copyNr = copyNr;
+      this.data = data;
+      this.map = map;
+      this.spillFiles = spillFiles;
+      this.hasInput = hasInput;
+    }
+
+    public int getCopyNr() {
+      return copyNr;
+    }
+
+    /**
+     * @return the step data of the copy, holding the metadata of the groups
+     */
+    public MemoryGroupByData getData() {
+      return data;
+    }
+
+    public Map<HashEntry, Aggregate> getMap() {
+      return map;
+    }
+
+    /**
+     * @return the rows of the groups that didn't fit in memory, or null
+     */
+    public SpillFile[] getSpillFiles() {
+      return spillFiles;
+    }
+
+    /**
+     * @return true if the copy received rows, and so has the metadata of the groups
+     */
+    public boolean hasInput() {
+      return hasInput;
+    }
+  }
+
+  private final int copies;
+  private final List<Partial> partials = new ArrayList<>();
+  private boolean discarded;
+
+  public MemoryGroupByMerge( int copies ) {
+    this.copies = copies;
+  }
+
+  /**
+   * Hand over the groups of a copy.
+   *
+   * @param partial
+   *          the groups of the copy
+   * @return the groups of all copies, in copy order, if this was the last copy to finish. Null otherwise.
+   */
+  public synchronized List<Partial> addPartial( Partial partial ) {
+    if ( discarded ) {
+      MemoryGroupByData.deleteSpillFiles( partial.getSpillFiles() );
+      return null;
+    }
+    partials.add( partial );
+    if ( partials.size() < copies ) {
+      return null;
+    }
+
+    List<Partial> all = new ArrayList<>( partials );
+    partials.clear();
+    Collections.sort( all, new Comparator<Partial>() {
+      @Override
+      public int compare( Partial one, Partial two ) {
+        return Integer.compare( one.getCopyNr(), two.getCopyNr() );
+      }
+    } );
+    return all;
+  }
+
+  /**
+   * Throw away the groups handed over so far, used when the transformation is stopped before all copies are done.
+   */
+  public synchronized void discard() {
+    discarded = true;
+    for ( Partial partial : partials ) {
+      MemoryGroupByData.deleteSpillFiles( partial.getSpillFiles() );
+    }
+    partials.clear();
+  }
+
+  public int getCopies() {
+    return copies;
+  }
+}
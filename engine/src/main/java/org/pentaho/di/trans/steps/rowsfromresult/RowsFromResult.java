@@ -23,6 +23,7 @@
 package org.pentaho.di.trans.steps.rowsfromresult;
 
 import org.pentaho.di.core.Result;
+import org.pentaho.di.core.ResultRows;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.i18n.BaseMessages;
@@ -53,16 +54,29 @@ public class RowsFromResult extends BaseStep implements StepInterface {
   }
 
   public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
-    Result previousResult = getTrans().getPreviousResult();
-    if ( previousResult == null || getLinesRead() >= previousResult.getRows().size() ) {
+    if ( !getInputRowSets().isEmpty() ) {
+      return passProducedRow();
+    }
+
+    data = (RowsFromResultData) sdi;
+
+    if ( data.resultRows == null ) {
+      Result previousResult = getTrans().getPreviousResult();
+      if ( previousResult == null || previousResult.getRows() == null ) {
+        setOutputDone();
+        return false;
+      }
+      data.resultRows = previousResult.getRows().iterator();
+    }
+    if ( !data.resultRows.hasNext() ) {
       setOutputDone();
       return false;
     }
-    RowMetaAndData row = previousResult.getRows().get( (int) getLinesRead() );
+    // The rows are shared with the other copies of the result, the steps after this one can change the data in place
+    //
+    RowMetaAndData row = ResultRows.cloneData( data.resultRows.next() );
     incrementLinesRead();
 
-    data = (RowsFromResultData) sdi;
-
     // We don't get the meta-data from the previous steps (there aren't any) but from the previous transformation or job
     //
     data.outputRowMeta = row.getRowMeta();
@@ -79,4 +93,25 @@ public class RowsFromResult extends BaseStep implements StepInterface {
 
     return true;
   }
+
+  /**
+   * A row producer hands the result rows to this step one group at a time, the previous result isn't used. This is how
+   * a Transformation Executor feeds the sub-transformations it re-uses.
+   */
+  private boolean passProducedRow() throws KettleException {
+    Object[] row = getRow();
+    if ( row == null ) {
+      setOutputDone();
+      return false;
+    }
+    data.outputRowMeta = getInputRowMeta();
+    putRow( data.outputRowMeta, row );
+
+    if ( checkFeedback( getLinesRead() ) ) {
+      if ( log.isBasic() ) {
+        logBasic( BaseMessages.getString( PKG, "RowsFromResult.Log.LineNumber" ) + getLinesRead() );
+      }
+    }
+    return true;
+  }
 }
@@ -22,6 +22,9 @@
 
 package org.pentaho.di.trans.steps.rowsfromresult;
 
+import java.util.Iterator;
+
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -33,6 +36,9 @@ import org.pentaho.di.trans.step.StepDataInterface;
 public class RowsFromResultData extends BaseStepData implements StepDataInterface {
   public RowMetaInterface outputRowMeta;
 
+  /** Streams the rows of the previous result, they can be read back from temporary files */
+  Iterator<RowMetaAndData> resultRows;
+
   public RowsFromResultData() {
     super();
   }
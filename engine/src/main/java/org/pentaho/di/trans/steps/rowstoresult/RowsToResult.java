@@ -78,6 +78,18 @@ public class RowsToResult extends BaseStep implements StepInterface {
     return true;
   }
 
+  /**
+   * Add the rows of this batch to the result, the single threaded engine doesn't signal the end of the rows in between
+   * batches.
+   */
+  @Override
+  public void batchComplete() throws KettleException {
+    if ( data != null && !data.rows.isEmpty() ) {
+      getTrans().getResultRows().addAll( data.rows );
+      data.rows.clear();
+    }
+  }
+
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
     meta = (RowsToResultMeta) smi;
     data = (RowsToResultData) sdi;
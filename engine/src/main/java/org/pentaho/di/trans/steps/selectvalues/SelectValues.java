@@ -25,7 +25,9 @@ package org.pentaho.di.trans.steps.selectvalues;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.pentaho.di.core.Const;
@@ -33,6 +35,7 @@ import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.exception.KettleConversionException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowBatch;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -64,86 +67,97 @@ public class SelectValues extends BaseStep implements StepInterface {
   }
 
   /**
-   * Only select the values that are still needed...
-   * <p/>
-   * Put the values in the right order...
-   * <p/>
-   * Change the meta-data information if needed...
-   * <p/>
+   * Look up the indexes of the selected fields in the source row, the first time around.
    *
-   * @param row The row to manipulate
-   * @return true if everything went well, false if we need to stop because of an error!
+   * @return false if the selection is invalid, in which case the step is stopped
    */
-  private synchronized Object[] selectValues( RowMetaInterface rowMeta, Object[] rowData ) throws KettleValueException {
-    if ( data.firstselect ) {
-      data.firstselect = false;
+  private boolean prepareSelect( RowMetaInterface rowMeta ) {
+    data.firstselect = false;
 
-      // We need to create a new meta-data row to drive the output
-      // We also want to know the indexes of the selected fields in the source row.
-      //
-      data.fieldnrs = new int[ meta.getSelectFields().length ];
-      for ( int i = 0; i < data.fieldnrs.length; i++ ) {
-        data.fieldnrs[ i ] = rowMeta.indexOfValue( meta.getSelectFields()[ i ].getName() );
-        if ( data.fieldnrs[ i ] < 0 ) {
-          logError( BaseMessages.getString( PKG, "SelectValues.Log.CouldNotFindField", meta.getSelectFields()[i]
-              .getName() ) );
+    // We need to create a new meta-data row to drive the output
+    // We also want to know the indexes of the selected fields in the source row.
+    //
+    data.fieldnrs = new int[ meta.getSelectFields().length ];
+    for ( int i = 0; i < data.fieldnrs.length; i++ ) {
+      data.fieldnrs[ i ] = rowMeta.indexOfValue( meta.getSelectFields()[ i ].getName() );
+      if ( data.fieldnrs[ i ] < 0 ) {
+        logError( BaseMessages.getString( PKG, "SelectValues.Log.CouldNotFindField", meta.getSelectFields()[i]
+            .getName() ) );
+        setErrors( 1 );
+        stopAll();
+        return false;
+      }
+    }
+
+    // Check for doubles in the selected fields... AFTER renaming!!
+    //
+    int[] cnt = new int[ meta.getSelectFields().length ];
+    for ( int i = 0; i < meta.getSelectFields().length; i++ ) {
+      cnt[ i ] = 0;
+      for ( int j = 0; j < meta.getSelectFields().length; j++ ) {
+        String one = Const.NVL( meta.getSelectFields()[ i ].getRename(), meta.getSelectFields()[ i ].getName() );
+        String two = Const.NVL( meta.getSelectFields()[ j ].getRename(), meta.getSelectFields()[ j ].getName() );
+        if ( one.equals( two ) ) {
+          cnt[ i ]++;
+        }
+
+        if ( cnt[ i ] > 1 ) {
+          logError( BaseMessages.getString( PKG, "SelectValues.Log.FieldCouldNotSpecifiedMoreThanTwice", one ) );
           setErrors( 1 );
           stopAll();
-          return null;
+          return false;
         }
       }
+    }
 
-      // Check for doubles in the selected fields... AFTER renaming!!
+    // See if we need to include (and sort) the non-specified fields as well...
+    //
+    if ( meta.isSelectingAndSortingUnspecifiedFields() ) {
+      // Select the unspecified fields.
+      // Sort the fields
+      // Add them after the specified fields...
       //
-      int[] cnt = new int[ meta.getSelectFields().length ];
-      for ( int i = 0; i < meta.getSelectFields().length; i++ ) {
-        cnt[ i ] = 0;
-        for ( int j = 0; j < meta.getSelectFields().length; j++ ) {
-          String one = Const.NVL( meta.getSelectFields()[ i ].getRename(), meta.getSelectFields()[ i ].getName() );
-          String two = Const.NVL( meta.getSelectFields()[ j ].getRename(), meta.getSelectFields()[ j ].getName() );
-          if ( one.equals( two ) ) {
-            cnt[ i ]++;
-          }
-
-          if ( cnt[ i ] > 1 ) {
-            logError( BaseMessages.getString( PKG, "SelectValues.Log.FieldCouldNotSpecifiedMoreThanTwice", one ) );
-            setErrors( 1 );
-            stopAll();
-            return null;
-          }
+      List<String> extra = new ArrayList<>();
+      ArrayList<Integer> unspecifiedKeyNrs = new ArrayList<>();
+      for ( int i = 0; i < rowMeta.size(); i++ ) {
+        String fieldName = rowMeta.getValueMeta( i ).getName();
+        if ( Const.indexOfString( fieldName, meta.getSelectName() ) < 0 ) {
+          extra.add( fieldName );
         }
       }
+      Collections.sort( extra );
+      for ( String fieldName : extra ) {
+        int index = rowMeta.indexOfValue( fieldName );
+        unspecifiedKeyNrs.add( index );
+      }
 
-      // See if we need to include (and sort) the non-specified fields as well...
+      // Create the extra field list...
       //
-      if ( meta.isSelectingAndSortingUnspecifiedFields() ) {
-        // Select the unspecified fields.
-        // Sort the fields
-        // Add them after the specified fields...
-        //
-        List<String> extra = new ArrayList<>();
-        ArrayList<Integer> unspecifiedKeyNrs = new ArrayList<>();
-        for ( int i = 0; i < rowMeta.size(); i++ ) {
-          String fieldName = rowMeta.getValueMeta( i ).getName();
-          if ( Const.indexOfString( fieldName, meta.getSelectName() ) < 0 ) {
-            extra.add( fieldName );
-          }
-        }
-        Collections.sort( extra );
-        for ( String fieldName : extra ) {
-          int index = rowMeta.indexOfValue( fieldName );
-          unspecifiedKeyNrs.add( index );
-        }
-
-        // Create the extra field list...
-        //
-        data.extraFieldnrs = new int[ unspecifiedKeyNrs.size() ];
-        for ( int i = 0; i < data.extraFieldnrs.length; i++ ) {
-          data.extraFieldnrs[ i ] = unspecifiedKeyNrs.get( i );
-        }
-      } else {
-        data.extraFieldnrs = new int[] {};
+      data.extraFieldnrs = new int[ unspecifiedKeyNrs.size() ];
+      for ( int i = 0; i < data.extraFieldnrs.length; i++ ) {
+        data.extraFieldnrs[ i ] = unspecifiedKeyNrs.get( i );
       }
+    } else {
+      data.extraFieldnrs = new int[] {};
+    }
+
+    return true;
+  }
+
+  /**
+   * Only select the values that are still needed...
+   * <p/>
+   * Put the values in the right order...
+   * <p/>
+   * Change the meta-data information if needed...
+   * <p/>
+   *
+   * @param row The row to manipulate
+   * @return true if everything went well, false if we need to stop because of an error!
+   */
+  private synchronized Object[] selectValues( RowMetaInterface rowMeta, Object[] rowData ) throws KettleValueException {
+    if ( data.firstselect && !prepareSelect( rowMeta ) ) {
+      return null;
     }
 
     // Create a new output row
@@ -183,48 +197,59 @@ public class SelectValues extends BaseStep implements StepInterface {
   }
 
   /**
-   * Remove the values that are no longer needed.
-   * <p/>
+   * Look up the indexes of the fields to remove, the first time around.
    *
-   * @param row The row to manipulate
-   * @return true if everything went well, false if we need to stop because of an error!
+   * @return false if one of the fields is invalid, in which case the step is stopped
    */
-  private synchronized Object[] removeValues( RowMetaInterface rowMeta, Object[] rowData ) {
-    if ( data.firstdeselect ) {
-      data.firstdeselect = false;
-
-      data.removenrs = new int[ meta.getDeleteName().length ];
-      for ( int i = 0; i < data.removenrs.length; i++ ) {
-        data.removenrs[ i ] = rowMeta.indexOfValue( meta.getDeleteName()[ i ] );
-        if ( data.removenrs[ i ] < 0 ) {
-          logError( BaseMessages.getString( PKG, "SelectValues.Log.CouldNotFindField", meta.getDeleteName()[ i ] ) );
+  private boolean prepareRemove( RowMetaInterface rowMeta ) {
+    data.firstdeselect = false;
+
+    data.removenrs = new int[ meta.getDeleteName().length ];
+    for ( int i = 0; i < data.removenrs.length; i++ ) {
+      data.removenrs[ i ] = rowMeta.indexOfValue( meta.getDeleteName()[ i ] );
+      if ( data.removenrs[ i ] < 0 ) {
+        logError( BaseMessages.getString( PKG, "SelectValues.Log.CouldNotFindField", meta.getDeleteName()[ i ] ) );
+        setErrors( 1 );
+        stopAll();
+        return false;
+      }
+    }
+
+    // Check for doubles in the selected fields...
+    int[] cnt = new int[ meta.getDeleteName().length ];
+    for ( int i = 0; i < meta.getDeleteName().length; i++ ) {
+      cnt[ i ] = 0;
+      for ( int j = 0; j < meta.getDeleteName().length; j++ ) {
+        if ( meta.getDeleteName()[ i ].equals( meta.getDeleteName()[ j ] ) ) {
+          cnt[ i ]++;
+        }
+
+        if ( cnt[ i ] > 1 ) {
+          logError( BaseMessages.getString( PKG, "SelectValues.Log.FieldCouldNotSpecifiedMoreThanTwice2",
+            meta.getDeleteName()[ i ] ) );
           setErrors( 1 );
           stopAll();
-          return null;
+          return false;
         }
       }
+    }
 
-      // Check for doubles in the selected fields...
-      int[] cnt = new int[ meta.getDeleteName().length ];
-      for ( int i = 0; i < meta.getDeleteName().length; i++ ) {
-        cnt[ i ] = 0;
-        for ( int j = 0; j < meta.getDeleteName().length; j++ ) {
-          if ( meta.getDeleteName()[ i ].equals( meta.getDeleteName()[ j ] ) ) {
-            cnt[ i ]++;
-          }
+    // Sort removenrs descending. So that we can delete in ascending order...
+    Arrays.sort( data.removenrs );
 
-          if ( cnt[ i ] > 1 ) {
-            logError( BaseMessages.getString( PKG, "SelectValues.Log.FieldCouldNotSpecifiedMoreThanTwice2",
-              meta.getDeleteName()[ i ] ) );
-            setErrors( 1 );
-            stopAll();
-            return null;
-          }
-        }
-      }
+    return true;
+  }
 
-      // Sort removenrs descending. So that we can delete in ascending order...
-      Arrays.sort( data.removenrs );
+  /**
+   * Remove the values that are no longer needed.
+   * <p/>
+   *
+   * @param row The row to manipulate
+   * @return true if everything went well, false if we need to stop because of an error!
+   */
+  private synchronized Object[] removeValues( RowMetaInterface rowMeta, Object[] rowData ) {
+    if ( data.firstdeselect && !prepareRemove( rowMeta ) ) {
+      return null;
     }
 
     /*
@@ -340,6 +365,13 @@ public class SelectValues extends BaseStep implements StepInterface {
     meta = (SelectValuesMeta) smi;
     data = (SelectValuesData) sdi;
 
+    if ( first ) {
+      data.rowBatches = isProcessingRowBatches();
+    }
+    if ( data.rowBatches ) {
+      return processRowBatch();
+    }
+
     Object[] rowData = getRow(); // get row from rowset, wait for our turn, indicate busy!
     if ( rowData == null ) { // no more input to be expected...
 
@@ -359,13 +391,7 @@ public class SelectValues extends BaseStep implements StepInterface {
 
     if ( first ) {
       first = false;
-
-      data.selectRowMeta = getInputRowMeta().clone();
-      meta.getSelectFields( data.selectRowMeta, getStepname() );
-      data.deselectRowMeta = data.selectRowMeta.clone();
-      meta.getDeleteFields( data.deselectRowMeta );
-      data.metadataRowMeta = data.deselectRowMeta.clone();
-      meta.getMetadataFields( data.metadataRowMeta, getStepname(), this );
+      prepareOutputRowMeta();
     }
 
     try {
@@ -416,6 +442,101 @@ public class SelectValues extends BaseStep implements StepInterface {
     return true;
   }
 
+  private void prepareOutputRowMeta() throws KettleException {
+    data.selectRowMeta = getInputRowMeta().clone();
+    meta.getSelectFields( data.selectRowMeta, getStepname() );
+    data.deselectRowMeta = data.selectRowMeta.clone();
+    meta.getDeleteFields( data.deselectRowMeta );
+    data.metadataRowMeta = data.deselectRowMeta.clone();
+    meta.getMetadataFields( data.metadataRowMeta, getStepname(), this );
+  }
+
+  /**
+   * Selecting and removing fields only picks columns, which can be done on a whole batch of rows at once. Changing the
+   * meta-data converts values and error handling needs the individual rows, so those are done row by row.
+   */
+  private boolean isProcessingRowBatches() {
+    if ( data.metadata || getStepMeta().isDoingErrorHandling() || log.isRowLevel() || !isReadingRowBatches() ) {
+      return false;
+    }
+    // A field selected twice would share its values with the copy, the row by row path clones them
+    //
+    Set<String> names = new HashSet<>();
+    for ( SelectValuesMeta.SelectField field : meta.getSelectFields() ) {
+      if ( !names.add( field.getName() ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Select and remove fields on a whole batch of rows. The output batch shares the column data of the input batch.
+   */
+  private boolean processRowBatch() throws KettleException {
+    RowBatch batch = getRowBatch();
+    if ( batch == null ) {
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+      prepareOutputRowMeta();
+
+      data.batchFieldnrs = getBatchFieldnrs( getInputRowMeta() );
+      if ( data.batchFieldnrs == null ) {
+        setOutputDone(); // signal end to receiver(s)
+        return false;
+      }
+    }
+
+    putRowBatch( data.metadataRowMeta, batch.selectColumns( data.metadataRowMeta, data.batchFieldnrs ) );
+
+    if ( checkFeedback( getLinesRead() ) ) {
+      logBasic( BaseMessages.getString( PKG, "SelectValues.Log.LineNumber" ) + getLinesRead() );
+    }
+
+    return true;
+  }
+
+  /**
+   * @return for every output field the index of the input field it comes from, null in case of an error
+   */
+  private int[] getBatchFieldnrs( RowMetaInterface rowMeta ) {
+    int[] fieldnrs = new int[ rowMeta.size() ];
+    for ( int i = 0; i < fieldnrs.length; i++ ) {
+      fieldnrs[ i ] = i;
+    }
+
+    if ( data.select ) {
+      if ( !prepareSelect( rowMeta ) ) {
+        return null;
+      }
+      fieldnrs = new int[ data.fieldnrs.length + data.extraFieldnrs.length ];
+      System.arraycopy( data.fieldnrs, 0, fieldnrs, 0, data.fieldnrs.length );
+      System.arraycopy( data.extraFieldnrs, 0, fieldnrs, data.fieldnrs.length, data.extraFieldnrs.length );
+    }
+
+    if ( data.deselect ) {
+      if ( !prepareRemove( data.selectRowMeta ) ) {
+        return null;
+      }
+      // removenrs is sorted and doesn't contain doubles
+      //
+      int[] kept = new int[ fieldnrs.length - data.removenrs.length ];
+      int keptIndex = 0;
+      for ( int i = 0; i < fieldnrs.length; i++ ) {
+        if ( Arrays.binarySearch( data.removenrs, i ) < 0 ) {
+          kept[ keptIndex++ ] = fieldnrs[ i ];
+        }
+      }
+      fieldnrs = kept;
+    }
+
+    return fieldnrs;
+  }
+
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
     meta = (SelectValuesMeta) smi;
     data = (SelectValuesData) sdi;
@@ -50,4 +50,7 @@ public class SelectValuesData extends BaseStepData implements StepDataInterface
   public boolean select; // "normal" selection of fields.
   public boolean deselect; // de-select mode
   public boolean metadata; // change meta-data (rename & change length/precision)
+
+  public boolean rowBatches; // select and/or de-select on whole batches of rows
+  public int[] batchFieldnrs;
 }
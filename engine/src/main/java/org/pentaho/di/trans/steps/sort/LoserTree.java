@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.sort;
+
+import java.util.Comparator;
+
+/**
+ * Merges the rows of a number of sorted runs. Every inner node of the tree remembers the run that lost the match played
+ * there, so replacing the smallest row only needs one comparison per level of the tree: log2(runs) comparisons per
+ * row instead of a search and an insert in a sorted list.<br>
+ * <br>
+ * A run without rows left is represented by a null row and loses every match. When two rows are equal the run with
+ * the lowest number wins, which keeps the merge stable.
+ */
+class LoserTree {
+
+  private final Comparator<Object[]> comparator;
+  private final Object[][] rows;
+  private final int[] losers;
+  private int winner;
+
+  /**
+   * @param comparator
+   *          the order of the rows
+   * @param firstRows
+   *          the first row of every run, null for an empty run
+   */
+  LoserTree( Comparator<Object[]> comparator, Object[][] firstRows ) {
+    this.comparator = comparator;
+    this.rows = firstRows;
+    this.losers = new int[Math.max( 1, rows.length )];
+    this.winner = rows.length == 0 ? -1 : play( 1 );
+  }
+
+  /**
+   * Play the matches in the subtree of the given node. The leaves are the nodes from rows.length up.
+   *
+   * @return the run winning the subtree
+   */
+  private int play( int node ) {
+    if ( node >= rows.length ) {
+      return node - rows.length;
+    }
+    int left = play( 2 * node );
+    int right = play( 2 * node + 1 );
+    if ( beats( right, left ) ) {
+      losers[node] = left;
+      return right;
+    }
+    losers[node] = right;
+    return left;
+  }
+
+  private boolean beats( int run, int other ) {
+    Object[] row = rows[run];
+    Object[] otherRow = rows[other];
+    if ( row == null ) {
+      return false;
+    }
+    if ( otherRow == null ) {
+      return true;
+    }
+    int cmp = comparator.compare( row, otherRow );
+    return cmp < 0 || ( cmp == 0 && run < other );
+  }
+
+  /**
+   * @return the run with the smallest row, -1 if there are no rows left
+   */
+  int getWinner() {
+    return winner < 0 || rows[winner] == null ? -1 : winner;
+  }
+
+  /**
+   * @return the smallest row, null if there are no rows left
+   */
+  Object[] getWinnerRow() {
+    return winner < 0 ? null : rows[winner];
+  }
+
+  /**
+   * Replace the smallest row with the next row of the same run and find the new smallest row.
+   *
+   * @param row
+   *          the next row of the winning run, null if the run has no more rows
+   */
+  void replaceWinner( Object[] row ) {
+    if ( winner < 0 ) {
+      return;
+    }
+    rows[winner] = row;
+    int candidate = winner;
+    for ( int node = ( winner + rows.length ) / 2; node > 0; node /= 2 ) {
+      if ( beats( losers[node], candidate ) ) {
+        int loser = candidate;
+        candidate = losers[node];
+        losers[node] = loser;
+      }
+    }
+    winner = candidate;
+  }
+}
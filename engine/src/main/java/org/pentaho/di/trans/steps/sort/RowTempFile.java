@@ -24,7 +24,10 @@ package org.pentaho.di.trans.steps.sort;
 
 /**
  * Keeps track of which temporary file a row is coming from
+ *
+ * @deprecated Sort Rows merges its temporary files with a loser tree and no longer uses this class.
  */
+@Deprecated
 public class RowTempFile {
   public Object[] row;
   public int fileNumber;
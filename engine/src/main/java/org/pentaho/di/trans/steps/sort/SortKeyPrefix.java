@@ -0,0 +1,145 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.sort;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+/**
+ * Turns the value of the first sort key into a 64 bit number with the same order: if one value sorts before another,
+ * its prefix is never larger. Comparing two prefixes is a lot cheaper than comparing the values, so rows are only
+ * compared field by field when their prefixes are the same.<br>
+ * <br>
+ * Only types with a fixed, locale independent order get a prefix: Integer, Number, Date, Timestamp, Boolean and
+ * String when it's compared case sensitive, without collator and without ignoring whitespace. Value metas which bring
+ * their own compare() (plugin types or subclasses) never get one: their order is theirs to decide.
+ */
+class SortKeyPrefix {
+
+  private static final int KIND_INTEGER = 0;
+  private static final int KIND_NUMBER = 1;
+  private static final int KIND_DATE = 2;
+  private static final int KIND_BOOLEAN = 3;
+  private static final int KIND_STRING = 4;
+
+  /** The number of string characters packed in a prefix */
+  private static final int STRING_CHARS = 4;
+
+  private final ValueMetaInterface valueMeta;
+  private final int kind;
+
+  private SortKeyPrefix( ValueMetaInterface valueMeta, int kind ) {
+    this.valueMeta = valueMeta;
+    this.kind = kind;
+  }
+
+  /**
+   * @return the prefix calculator for the given sort key or null if the key doesn't have a binary comparable prefix
+   */
+  static SortKeyPrefix create( ValueMetaInterface valueMeta ) {
+    if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL || !hasStandardCompare( valueMeta ) ) {
+      return null;
+    }
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return new SortKeyPrefix( valueMeta, KIND_INTEGER );
+      case ValueMetaInterface.TYPE_NUMBER:
+        return new SortKeyPrefix( valueMeta, KIND_NUMBER );
+      case ValueMetaInterface.TYPE_DATE:
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        return new SortKeyPrefix( valueMeta, KIND_DATE );
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return new SortKeyPrefix( valueMeta, KIND_BOOLEAN );
+      case ValueMetaInterface.TYPE_STRING:
+        if ( valueMeta.isCollatorDisabled() && !valueMeta.isCaseInsensitive() && !valueMeta.isIgnoreWhitespace() ) {
+          return new SortKeyPrefix( valueMeta, KIND_STRING );
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return true if the value meta compares values with the compare() of the standard value metas
+   */
+  static boolean hasStandardCompare( ValueMetaInterface valueMeta ) {
+    try {
+      Class<?> declaringClass =
+          valueMeta.getClass().getMethod( "compare", Object.class, Object.class ).getDeclaringClass();
+      return declaringClass == ValueMetaBase.class || declaringClass == ValueMetaTimestamp.class;
+    } catch ( NoSuchMethodException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * @return a number which compares (signed) like the value of the sort key
+   */
+  long prefix( Object value ) throws KettleValueException {
+    long prefix;
+    if ( valueMeta.isNull( value ) ) {
+      // Null values come first, Long.MIN_VALUE is the smallest prefix of any kind.
+      //
+      prefix = Long.MIN_VALUE;
+    } else {
+      switch ( kind ) {
+        case KIND_INTEGER:
+          prefix = valueMeta.getInteger( value );
+          break;
+        case KIND_NUMBER:
+          // Flip all but the sign bit of negative numbers: same order as Double.compare()
+          //
+          long bits = Double.doubleToLongBits( valueMeta.getNumber( value ) );
+          prefix = bits ^ ( ( bits >> 63 ) & Long.MAX_VALUE );
+          break;
+        case KIND_DATE:
+          prefix = valueMeta.getDate( value ).getTime();
+          break;
+        case KIND_BOOLEAN:
+          prefix = valueMeta.getBoolean( value ) ? 1L : 0L;
+          break;
+        default:
+          prefix = stringPrefix( valueMeta.getString( value ) );
+          break;
+      }
+    }
+    return valueMeta.isSortedDescending() ? ~prefix : prefix;
+  }
+
+  /**
+   * Pack the first characters in the upper bits, shorter strings are padded with zeros. The sign bit is flipped so that
+   * the unsigned character order becomes a signed order.
+   */
+  private static long stringPrefix( String string ) {
+    long prefix = 0L;
+    for ( int i = 0; i < STRING_CHARS; i++ ) {
+      prefix <<= 16;
+      if ( i < string.length() ) {
+        prefix |= string.charAt( i );
+      }
+    }
+    return prefix ^ Long.MIN_VALUE;
+  }
+}
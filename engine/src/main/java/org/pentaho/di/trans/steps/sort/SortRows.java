@@ -31,7 +31,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -54,6 +54,8 @@ import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
 
 /**
  * Sort the rows in the input-streams based on certain criteria
@@ -64,6 +66,11 @@ import org.pentaho.di.trans.step.StepMetaInterface;
 public class SortRows extends BaseStep implements StepInterface {
   private static Class<?> PKG = SortRows.class; // for i18n
 
+  /**
+   * Below this number of rows sorting on all cores costs more than it saves
+   */
+  private static final int PARALLEL_SORT_THRESHOLD = 50000;
+
   private SortRowsMeta meta;
   private SortRowsData data;
 
@@ -133,7 +140,7 @@ public class SortRows extends BaseStep implements StepInterface {
 
     // Then write them to disk...
     DataOutputStream dos;
-    GZIPOutputStream gzos;
+    OutputStream cos;
     int p;
 
     try {
@@ -144,11 +151,16 @@ public class SortRows extends BaseStep implements StepInterface {
       data.files.add( fileObject ); // Remember the files!
       OutputStream outputStream = KettleVFS.getOutputStream( fileObject, false );
       if ( data.compressFiles ) {
-        gzos = new GZIPOutputStream( new BufferedOutputStream( outputStream ) );
-        dos = new DataOutputStream( gzos );
+        if ( data.snappyCompression ) {
+          cos = new SnappyOutputStream( outputStream );
+          dos = new DataOutputStream( new BufferedOutputStream( cos, 500000 ) );
+        } else {
+          cos = new GZIPOutputStream( new BufferedOutputStream( outputStream ) );
+          dos = new DataOutputStream( cos );
+        }
       } else {
         dos = new DataOutputStream( new BufferedOutputStream( outputStream, 500000 ) );
-        gzos = null;
+        cos = null;
       }
 
       // Just write the data, nothing else
@@ -208,8 +220,8 @@ public class SortRows extends BaseStep implements StepInterface {
 
       // Close temp-file
       dos.close(); // close data stream
-      if ( gzos != null ) {
-        gzos.close(); // close gzip stream
+      if ( cos != null ) {
+        cos.close(); // close compression stream
       }
       outputStream.close(); // close file stream
 
@@ -230,12 +242,6 @@ public class SortRows extends BaseStep implements StepInterface {
     data.getBufferIndex = 0;
   }
 
-  private DataInputStream getDataInputStream( GZIPInputStream gzipInputStream ) {
-    DataInputStream result = new DataInputStream( gzipInputStream );
-    data.gzis.add( gzipInputStream );
-    return result;
-  }
-
   // get sorted rows from available files in iterative manner.
   // that means call to this method will continue to return rows
   // till all temp files will not be read to the end.
@@ -243,11 +249,12 @@ public class SortRows extends BaseStep implements StepInterface {
     Object[] retval;
 
     // Open all files at once and read one row from each file...
-    if ( data.files.size() > 0 && ( data.dis.size() == 0 || data.fis.size() == 0 ) ) {
+    if ( data.files.size() > 0 && data.mergeTree == null ) {
       if ( log.isBasic() ) {
         logBasic( BaseMessages.getString( PKG, "SortRows.Basic.OpeningTempFiles", data.files.size() ) );
       }
 
+      Object[][] firstRows = new Object[data.files.size()][];
       try {
         for ( int f = 0; f < data.files.size() && !isStopped(); f++ ) {
           FileObject fileObject = data.files.get( f );
@@ -259,7 +266,9 @@ public class SortRows extends BaseStep implements StepInterface {
           DataInputStream di;
           data.fis.add( fi );
           if ( data.compressFiles ) {
-            di = getDataInputStream( new GZIPInputStream( new BufferedInputStream( fi ) ) );
+            InputStream compressed =
+              data.snappyCompression ? new SnappyInputStream( fi ) : new GZIPInputStream( new BufferedInputStream( fi ) );
+            di = new DataInputStream( new BufferedInputStream( compressed, 50000 ) );
           } else {
             di = new DataInputStream( new BufferedInputStream( fi, 50000 ) );
           }
@@ -274,17 +283,15 @@ public class SortRows extends BaseStep implements StepInterface {
           }
 
           if ( buffersize > 0 ) {
-            Object[] row = data.outputRowMeta.readData( di );
-            data.rowbuffer.add( row ); // new row from input stream
-            data.tempRows.add( new RowTempFile( row, f ) );
+            firstRows[f] = data.outputRowMeta.readData( di );
           }
         }
-
-        // Sort the data row buffer
-        Collections.sort( data.tempRows, data.comparator );
       } catch ( Exception e ) {
         logError( BaseMessages.getString( PKG, "SortRows.Error.ErrorReadingBackTempFiles" ), e );
       }
+
+      // The loser tree finds the smallest of the rows read from the files
+      data.mergeTree = new LoserTree( data.rowComparator, firstRows );
     }
 
     if ( data.files.size() == 0 ) {
@@ -299,47 +306,30 @@ public class SortRows extends BaseStep implements StepInterface {
     } else {
       // read from disk processing
 
-      if ( data.rowbuffer.size() == 0 ) {
+      int smallest = data.mergeTree.getWinner();
+      if ( smallest < 0 ) {
         retval = null;
       } else {
-        // We now have "filenr" rows waiting: which one is the smallest?
-        //
+        retval = data.mergeTree.getWinnerRow();
         if ( log.isRowLevel() ) {
-          for ( int i = 0; i < data.rowbuffer.size() && !isStopped(); i++ ) {
-            Object[] b = data.rowbuffer.get( i );
-            logRowlevel( BaseMessages
-                .getString( PKG, "SortRows.RowLevel.PrintRow", i, data.outputRowMeta.getString( b ) ) );
-          }
+          logRowlevel( BaseMessages
+              .getString( PKG, "SortRows.RowLevel.PrintRow", smallest, data.outputRowMeta.getString( retval ) ) );
         }
 
-        RowTempFile rowTempFile = data.tempRows.remove( 0 );
-        retval = rowTempFile.row;
-        int smallest = rowTempFile.fileNumber;
-
         // now get another Row for position smallest
 
         FileObject file = data.files.get( smallest );
         DataInputStream di = data.dis.get( smallest );
         InputStream fi = data.fis.get( smallest );
 
+        Object[] row2;
         try {
-          Object[] row2 = data.outputRowMeta.readData( di );
-          RowTempFile extra = new RowTempFile( row2, smallest );
-
-          int index = Collections.binarySearch( data.tempRows, extra, data.comparator );
-          if ( index < 0 ) {
-            data.tempRows.add( index * ( -1 ) - 1, extra );
-          } else {
-            data.tempRows.add( index, extra );
-          }
+          row2 = data.outputRowMeta.readData( di );
         } catch ( KettleFileException fe ) { // empty file or EOF mostly
-          GZIPInputStream gzfi = ( data.compressFiles ) ? data.gzis.get( smallest ) : null;
+          row2 = null;
           try {
             di.close();
             fi.close();
-            if ( gzfi != null ) {
-              gzfi.close();
-            }
             file.delete();
           } catch ( IOException e ) {
             logError( BaseMessages.getString( PKG, "SortRows.Error.UnableToCloseFile", smallest, file.toString() ) );
@@ -347,26 +337,10 @@ public class SortRows extends BaseStep implements StepInterface {
             stopAll();
             return null;
           }
-
-          data.files.remove( smallest );
-          data.dis.remove( smallest );
-          data.fis.remove( smallest );
-
-          if ( gzfi != null ) {
-            data.gzis.remove( smallest );
-          }
-
-          // Also update all file numbers in in data.tempRows if they are larger
-          // than smallest.
-          //
-          for ( RowTempFile rtf : data.tempRows ) {
-            if ( rtf.fileNumber > smallest ) {
-              rtf.fileNumber--;
-            }
-          }
         } catch ( SocketTimeoutException e ) {
           throw new KettleValueException( e ); // should never happen on local files
         }
+        data.mergeTree.replaceWinner( row2 );
       }
     }
     return retval;
@@ -418,7 +392,6 @@ public class SortRows extends BaseStep implements StepInterface {
       // Metadata
       data.outputRowMeta = inputRowMeta.clone();
       meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
-      data.comparator = new RowTemapFileComparator( data.outputRowMeta, data.fieldnrs );
 
       for ( int i = 0; i < fieldNames.length; i++ ) {
         data.fieldnrs[i] = inputRowMeta.indexOfValue( fieldNames[i] );
@@ -438,6 +411,9 @@ public class SortRows extends BaseStep implements StepInterface {
         i++;
       }
       data.rowComparator = new RowObjectArrayComparator( data.outputRowMeta, data.fieldnrs );
+      data.keyPrefix =
+          data.fieldnrs.length == 0 ? null : SortKeyPrefix.create( data.outputRowMeta.getValueMeta( data.fieldnrs[0] ) );
+      data.parallelSort = isParallelSortSafe();
     } // end if first
 
     // it is not first row and it is null
@@ -570,13 +546,9 @@ public class SortRows extends BaseStep implements StepInterface {
     //
     data.buffer = new ArrayList<Object[]>( 5000 );
 
-    // Buffer for reading from disk
-    //
-    data.rowbuffer = new ArrayList<Object[]>( 5000 );
-
     data.compressFiles = getBooleanValueOfVariable( meta.getCompressFilesVariable(), meta.getCompressFiles() );
-
-    data.tempRows = new ArrayList<RowTempFile>();
+    data.snappyCompression =
+        !"GZip".equalsIgnoreCase( Const.NVL( getVariable( Const.KETTLE_SORT_ROWS_COMPRESSION ), "Snappy" ).trim() );
 
     data.minSortSize = 5000;
 
@@ -594,7 +566,7 @@ public class SortRows extends BaseStep implements StepInterface {
     // Clean out the sort buffer
     data.buffer.clear();
     data.getBufferIndex = 0;
-    data.rowbuffer.clear();
+    data.mergeTree = null;
 
     // close any open DataInputStream objects
     if ( ( data.dis != null ) && ( data.dis.size() > 0 ) ) {
@@ -619,6 +591,10 @@ public class SortRows extends BaseStep implements StepInterface {
         logError( e.getLocalizedMessage(), e );
       }
     }
+    data.files.clear();
+    data.fis.clear();
+    data.dis.clear();
+    data.bufferSizes.clear();
   }
 
   /**
@@ -626,7 +602,29 @@ public class SortRows extends BaseStep implements StepInterface {
    */
   void quickSort( List<Object[]> elements ) throws KettleException {
     if ( elements.size() > 0 ) {
-      Collections.sort( elements, data.rowComparator );
+      if ( data.keyPrefix == null ) {
+        Object[][] rows = elements.toArray( new Object[elements.size()][] );
+        sort( rows, data.rowComparator );
+        for ( int i = 0; i < rows.length; i++ ) {
+          elements.set( i, rows[i] );
+        }
+      } else {
+        // Compare the binary prefixes of the first key, the rows themselves only when the prefixes are equal
+        //
+        int keyIndex = data.fieldnrs[0];
+        PrefixedRow[] rows = new PrefixedRow[elements.size()];
+        for ( int i = 0; i < rows.length; i++ ) {
+          Object[] row = elements.get( i );
+          rows[i] = new PrefixedRow( data.keyPrefix.prefix( row[keyIndex] ), row );
+        }
+        sort( rows, ( one, two ) -> {
+          int cmp = Long.compare( one.prefix, two.prefix );
+          return cmp != 0 ? cmp : data.rowComparator.compare( one.row, two.row );
+        } );
+        for ( int i = 0; i < rows.length; i++ ) {
+          elements.set( i, rows[i].row );
+        }
+      }
 
       long nrConversions = 0L;
       for ( ValueMetaInterface valueMeta : data.outputRowMeta.getValueMetaList() ) {
@@ -639,6 +637,48 @@ public class SortRows extends BaseStep implements StepInterface {
     }
   }
 
+  /**
+   * Sort on all cores when there are enough rows and comparing them doesn't touch any shared state. Both sorts are
+   * stable.
+   */
+  private <T> void sort( T[] rows, Comparator<? super T> comparator ) {
+    if ( data.parallelSort && rows.length >= PARALLEL_SORT_THRESHOLD ) {
+      Arrays.parallelSort( rows, comparator );
+    } else {
+      Arrays.sort( rows, comparator );
+    }
+  }
+
+  /**
+   * Comparing Strings with a collator, values of other types than the ones below or values with a custom compare()
+   * might use state shared between threads.
+   */
+  private boolean isParallelSortSafe() {
+    for ( int fieldnr : data.fieldnrs ) {
+      ValueMetaInterface valueMeta = data.outputRowMeta.getValueMeta( fieldnr );
+      if ( !SortKeyPrefix.hasStandardCompare( valueMeta ) ) {
+        return false;
+      }
+      switch ( valueMeta.getType() ) {
+        case ValueMetaInterface.TYPE_INTEGER:
+        case ValueMetaInterface.TYPE_NUMBER:
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+        case ValueMetaInterface.TYPE_DATE:
+        case ValueMetaInterface.TYPE_TIMESTAMP:
+        case ValueMetaInterface.TYPE_BOOLEAN:
+          break;
+        case ValueMetaInterface.TYPE_STRING:
+          if ( !valueMeta.isCollatorDisabled() ) {
+            return false;
+          }
+          break;
+        default:
+          return false;
+      }
+    }
+    return Runtime.getRuntime().availableProcessors() > 1;
+  }
+
   /**
    * Calling this method will alert the step that we finished passing records to the step. Specifically for steps like
    * "Sort Rows" it means that the buffered rows can be sorted and passed on.
@@ -687,22 +727,6 @@ public class SortRows extends BaseStep implements StepInterface {
     }
   }
 
-  private class RowTemapFileComparator extends SortRowsComparator implements Comparator<RowTempFile> {
-    RowTemapFileComparator( RowMetaInterface rowMeta, int[] fieldNrs ) {
-      super( rowMeta, fieldNrs );
-    }
-
-    @Override
-    public int compare( RowTempFile o1, RowTempFile o2 ) {
-      try {
-        return rowMeta.compare( o1.row, o2.row, fieldNrs );
-      } catch ( KettleValueException e ) {
-        logError( "Error comparing rows: " + e.toString() );
-        return 0;
-      }
-    }
-  }
-
   private class RowObjectArrayComparator extends SortRowsComparator implements Comparator<Object[]> {
     RowObjectArrayComparator( RowMetaInterface rowMeta, int[] fieldNrs ) {
       super( rowMeta, fieldNrs );
@@ -718,4 +742,17 @@ public class SortRows extends BaseStep implements StepInterface {
       }
     }
   }
+
+  /**
+   * A row with the binary prefix of its first sort key.
+   */
+  private static final class PrefixedRow {
+    final long prefix;
+    final Object[] row;
+
+    PrefixedRow( long prefix, Object[] row ) {
+      this.prefix = prefix;
+      this.row = row;
+    }
+  }
 }
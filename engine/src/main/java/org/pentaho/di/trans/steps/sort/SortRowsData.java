@@ -44,24 +44,34 @@ public class SortRowsData extends BaseStepData implements StepDataInterface {
   public int getBufferIndex;
 
   public List<InputStream> fis;
+  /** @deprecated the compressed input streams are kept in {@link #fis}, this list stays empty */
+  @Deprecated
   public List<GZIPInputStream> gzis;
   public List<DataInputStream> dis;
+  /** @deprecated no longer used, the rows being merged are kept in the merge tree */
+  @Deprecated
   public List<Object[]> rowbuffer;
   public List<Integer> bufferSizes;
 
-  // To store rows and file references
+  /** @deprecated no longer used, the rows being merged are kept in the merge tree */
+  @Deprecated
   public List<RowTempFile> tempRows;
 
+  // Merges the rows read back from the files
+  LoserTree mergeTree;
+
   public int[] fieldnrs; // the corresponding field numbers;
   public FileObject fil;
   public RowMetaInterface outputRowMeta;
   public int sortSize;
   public boolean compressFiles;
+  public boolean snappyCompression;
   public int[] convertKeysToNative;
   public boolean convertAnyKeysToNative;
 
-  Comparator<RowTempFile> comparator;
   Comparator<Object[]> rowComparator;
+  SortKeyPrefix keyPrefix;
+  boolean parallelSort;
 
   public int freeCounter;
   public int freeMemoryPct;
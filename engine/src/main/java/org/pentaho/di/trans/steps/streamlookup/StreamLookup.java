@@ -26,16 +26,19 @@ import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.util.Collections;
 
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.hash.ByteArrayHashIndex;
+import org.pentaho.di.core.hash.CompactByteArrayHashIndex;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.core.row.value.ValueMetaFactory;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.i18n.BaseMessages;
@@ -146,6 +149,13 @@ public class StreamLookup extends BaseStep implements StepInterface {
         + data.infoStream.getStepname() + "]" );
     }
 
+    // The sorted list and integer pair options keep their own data structures
+    //
+    data.useCompactIndex =
+      Boolean.TRUE.equals(
+        ValueMetaBase.convertStringToBoolean( getVariable( Const.KETTLE_STREAM_LOOKUP_COMPACT_INDEX, "N" ) ) )
+        && !( meta.isMemoryPreservationActive() && ( meta.isUsingSortedList() || meta.isUsingIntegerPair() ) );
+
     int[] keyNrs = new int[meta.getKeylookup().length];
     int[] valueNrs = new int[meta.getValue().length];
     boolean firstRun = true;
@@ -218,6 +228,11 @@ public class StreamLookup extends BaseStep implements StepInterface {
       rowData = getRowFrom( rowSet );
     }
 
+    if ( data.compactIndex != null && log.isDetailed() ) {
+      logDetailed( BaseMessages.getString( PKG, "StreamLookup.Log.CompactIndexSize", data.compactIndex.getSize(),
+        data.compactIndex.getHeapBytes(), data.compactIndex.getSpilledBytes() ) );
+    }
+
     return true;
   }
 
@@ -293,8 +308,16 @@ public class StreamLookup extends BaseStep implements StepInterface {
   }
 
   private void addToCache( RowMetaInterface keyMeta, Object[] keyData, RowMetaInterface valueMeta,
-    Object[] valueData ) throws KettleValueException {
-    if ( meta.isMemoryPreservationActive() ) {
+    Object[] valueData ) throws KettleException {
+    if ( data.useCompactIndex ) {
+      if ( data.compactIndex == null ) {
+        long maxMemory = Const.toLong( getVariable( Const.KETTLE_STREAM_LOOKUP_MAX_MEMORY, "0" ), 0L ) * 1024 * 1024;
+        String spillDirectory =
+          environmentSubstitute( getVariable( Const.KETTLE_STREAM_LOOKUP_SPILL_DIRECTORY, "%%java.io.tmpdir%%" ) );
+        data.compactIndex = new CompactByteArrayHashIndex( maxMemory, spillDirectory );
+      }
+      data.compactIndex.put( RowMeta.extractData( keyMeta, keyData ), RowMeta.extractData( valueMeta, valueData ) );
+    } else if ( meta.isMemoryPreservationActive() ) {
       if ( meta.isUsingSortedList() ) {
         KeyValue keyValue = new KeyValue( keyData, valueData );
         int idx = Collections.binarySearch( data.list, keyValue, data.comparator );
@@ -336,7 +359,13 @@ public class StreamLookup extends BaseStep implements StepInterface {
   }
 
   private Object[] getFromCache( RowMetaInterface keyMeta, Object[] keyData ) throws KettleValueException {
-    if ( meta.isMemoryPreservationActive() ) {
+    if ( data.useCompactIndex ) {
+      byte[] value = data.compactIndex.get( RowMeta.extractData( keyMeta, keyData ) );
+      if ( value == null ) {
+        return null;
+      }
+      return RowMeta.getRow( data.cacheValueMeta, value );
+    } else if ( meta.isMemoryPreservationActive() ) {
       if ( meta.isUsingSortedList() ) {
         KeyValue keyValue = new KeyValue( keyData, null );
         int idx = Collections.binarySearch( data.list, keyValue, data.comparator );
@@ -483,6 +512,10 @@ public class StreamLookup extends BaseStep implements StepInterface {
     data.list = null;
     data.hashIndex = null;
     data.longIndex = null;
+    if ( data.compactIndex != null ) {
+      data.compactIndex.close();
+      data.compactIndex = null;
+    }
 
     super.dispose( smi, sdi );
   }
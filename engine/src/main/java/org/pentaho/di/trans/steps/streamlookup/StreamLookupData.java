@@ -31,6 +31,7 @@ import java.util.Map;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.hash.ByteArrayHashIndex;
+import org.pentaho.di.core.hash.CompactByteArrayHashIndex;
 import org.pentaho.di.core.hash.LongHashIndex;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
@@ -74,6 +75,10 @@ public class StreamLookupData extends BaseStepData implements StepDataInterface
   public ByteArrayHashIndex hashIndex;
   public LongHashIndex longIndex;
 
+  /** Used instead of the map or the byte array hash index when the compact index is enabled */
+  public CompactByteArrayHashIndex compactIndex;
+  public boolean useCompactIndex;
+
   public RowMetaInterface lookupMeta;
 
   public RowMetaInterface infoMeta;
@@ -0,0 +1,243 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.tableoutput;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * Writes rows to a PostgreSQL table with COPY ... FROM STDIN in the default text format: the values are separated by
+ * tabs, null values are written as \N and backslashes, tabs and line breaks in values are escaped.<br>
+ * <br>
+ * Dates are written with the offset of the local time zone, which gives the same result as the prepared statements
+ * of the PostgreSQL driver: the local time for timestamp columns, the absolute time for timestamptz columns.
+ *
+ * @since 8.3
+ */
+public class PGCopyRowWriter {
+
+  private static final char DELIMITER = '\t';
+  private static final String NULL_VALUE = "\\N";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final RowMetaInterface rowMeta;
+  private final Charset charset;
+  private final PGCopyOutputStream out;
+
+  private final StringBuilder line = new StringBuilder( 256 );
+  private final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+  private final SimpleDateFormat zoneFormat = new SimpleDateFormat( "Z" );
+
+  /**
+   * Start a COPY on the given connection.
+   *
+   * @param connection
+   *          the connection of the PostgreSQL driver
+   * @param copyCommand
+   *          the COPY command, see {@link #getCopyCommand(DatabaseMeta, String, String, RowMetaInterface)}
+   * @param rowMeta
+   *          the layout of the rows to write
+   * @param charset
+   *          the client encoding of the connection
+   */
+  public PGCopyRowWriter( PGConnection connection, String copyCommand, RowMetaInterface rowMeta, Charset charset )
+    throws SQLException {
+    this( rowMeta, charset, new PGCopyOutputStream( connection, copyCommand ) );
+  }
+
+  PGCopyRowWriter( RowMetaInterface rowMeta, Charset charset, PGCopyOutputStream out ) {
+    this.rowMeta = rowMeta;
+    this.charset = charset;
+    this.out = out;
+  }
+
+  /**
+   * @return the COPY command loading the given fields into a table
+   */
+  public static String getCopyCommand( DatabaseMeta databaseMeta, String schemaName, String tableName,
+    RowMetaInterface rowMeta ) {
+    StringBuilder copy = new StringBuilder( 128 );
+    copy.append( "COPY " ).append( databaseMeta.getQuotedSchemaTableCombination( schemaName, tableName ) );
+    copy.append( " (" );
+    for ( int i = 0; i < rowMeta.size(); i++ ) {
+      if ( i > 0 ) {
+        copy.append( ", " );
+      }
+      copy.append( databaseMeta.quoteField( rowMeta.getValueMeta( i ).getName() ) );
+    }
+    copy.append( ") FROM STDIN" );
+    return copy.toString();
+  }
+
+  /**
+   * Look up the encoding the server expects on the connection, UTF-8 if it can't be determined.
+   */
+  public static Charset getClientEncoding( Connection connection ) {
+    try ( Statement statement = connection.createStatement();
+          ResultSet rs = statement.executeQuery( "show client_encoding" ) ) {
+      if ( rs.next() ) {
+        return Charset.forName( rs.getString( 1 ) );
+      }
+    } catch ( SQLException | IllegalArgumentException e ) {
+      // Use the encoding of the PostgreSQL driver
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  public void writeRow( Object[] row ) throws KettleDatabaseException {
+    try {
+      out.write( encodeRow( row ).getBytes( charset ) );
+    } catch ( IOException | KettleValueException e ) {
+      throw new KettleDatabaseException( "Error writing row to COPY stream", e );
+    }
+  }
+
+  /**
+   * Finish the COPY, the rows are only safe once the transaction is committed.
+   *
+   * @return the number of rows copied
+   */
+  public long endCopy() throws KettleDatabaseException {
+    try {
+      return out.endCopy();
+    } catch ( SQLException e ) {
+      throw new KettleDatabaseException( "Error finishing COPY", e );
+    }
+  }
+
+  /**
+   * Abort the COPY after an error, nothing is loaded.
+   */
+  public void cancelCopy() throws KettleDatabaseException {
+    try {
+      if ( out.isActive() ) {
+        out.cancelCopy();
+      }
+    } catch ( SQLException e ) {
+      throw new KettleDatabaseException( "Error cancelling COPY", e );
+    }
+  }
+
+  String encodeRow( Object[] row ) throws KettleValueException {
+    line.setLength( 0 );
+    for ( int i = 0; i < rowMeta.size(); i++ ) {
+      if ( i > 0 ) {
+        line.append( DELIMITER );
+      }
+      ValueMetaInterface valueMeta = rowMeta.getValueMeta( i );
+      Object value = i < row.length ? row[i] : null;
+      if ( valueMeta.isNull( value ) ) {
+        line.append( NULL_VALUE );
+        continue;
+      }
+      switch ( valueMeta.getType() ) {
+        case ValueMetaInterface.TYPE_INTEGER:
+          line.append( valueMeta.getInteger( value ).longValue() );
+          break;
+        case ValueMetaInterface.TYPE_NUMBER:
+          line.append( valueMeta.getNumber( value ).doubleValue() );
+          break;
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+          line.append( valueMeta.getBigNumber( value ).toString() );
+          break;
+        case ValueMetaInterface.TYPE_BOOLEAN:
+          line.append( valueMeta.getBoolean( value ) ? 't' : 'f' );
+          break;
+        case ValueMetaInterface.TYPE_DATE:
+        case ValueMetaInterface.TYPE_TIMESTAMP:
+          appendDate( valueMeta.getDate( value ) );
+          break;
+        case ValueMetaInterface.TYPE_BINARY:
+          appendBinary( valueMeta.getBinary( value ) );
+          break;
+        default:
+          appendEscaped( valueMeta.getString( value ) );
+          break;
+      }
+    }
+    line.append( '\n' );
+    return line.toString();
+  }
+
+  private void appendDate( Date date ) {
+    line.append( dateFormat.format( date ) );
+    int nanos;
+    if ( date instanceof Timestamp ) {
+      nanos = ( (Timestamp) date ).getNanos();
+    } else {
+      nanos = (int) Math.floorMod( date.getTime(), 1000L ) * 1000000;
+    }
+    if ( nanos > 0 ) {
+      line.append( '.' ).append( Integer.toString( 1000000000 + nanos ), 1, 10 );
+    }
+    line.append( zoneFormat.format( date ) );
+  }
+
+  private void appendBinary( byte[] bytes ) {
+    // The bytea hex format \x..., with the backslash escaped
+    line.append( "\\\\x" );
+    for ( byte b : bytes ) {
+      line.append( HEX[( b >> 4 ) & 0xf] ).append( HEX[b & 0xf] );
+    }
+  }
+
+  private void appendEscaped( String value ) {
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      switch ( c ) {
+        case '\\':
+          line.append( "\\\\" );
+          break;
+        case '\t':
+          line.append( "\\t" );
+          break;
+        case '\n':
+          line.append( "\\n" );
+          break;
+        case '\r':
+          line.append( "\\r" );
+          break;
+        default:
+          line.append( c );
+          break;
+      }
+    }
+  }
+}
@@ -34,6 +34,7 @@ import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
@@ -43,10 +44,13 @@ import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.postgresql.PGConnection;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -239,6 +243,15 @@ public class TableOutput extends BaseStep implements StepInterface {
       throw new KettleStepException( "The tablename is not defined (empty)" );
     }
 
+    if ( data.writerPool != null ) {
+      data.writerPool.write( tableName, insertRowData, outputRowData );
+      return null;
+    }
+    if ( data.copyMode || data.bulkInsertRows > 1 ) {
+      writeToTableInBulk( tableName, insertRowData, outputRowData );
+      return null;
+    }
+
     insertStatement = data.preparedStatements.get( tableName );
     if ( insertStatement == null ) {
       String sql =
@@ -427,6 +440,160 @@ public class TableOutput extends BaseStep implements StepInterface {
     return outputRowData;
   }
 
+  /**
+   * Send a row with a multi-row insert statement or with COPY. Errors can't be traced back to a single row so the
+   * rows are only passed on to the next steps after a commit.
+   */
+  private void writeToTableInBulk( String tableName, Object[] insertRowData, Object[] outputRowData )
+    throws KettleException {
+    try {
+      if ( data.copyMode ) {
+        getCopyWriter( tableName ).writeRow( insertRowData );
+      } else {
+        List<Object[]> rows = data.bulkRowsMap.get( tableName );
+        if ( rows == null ) {
+          rows = new ArrayList<Object[]>();
+          data.bulkRowsMap.put( tableName, rows );
+        }
+        rows.add( insertRowData );
+        if ( rows.size() >= getBulkInsertRows() ) {
+          flushBulkRows( tableName );
+        }
+      }
+      if ( isRowLevel() ) {
+        logRowlevel( "Written row: " + data.insertRowMeta.getString( insertRowData ) );
+      }
+      data.batchBuffer.add( outputRowData );
+
+      Integer commitCounter = data.commitCounterMap.get( tableName );
+      commitCounter = commitCounter == null ? 1 : commitCounter + 1;
+      if ( ( data.commitSize > 0 ) && ( ( commitCounter % data.commitSize ) == 0 ) ) {
+        flushBulkRows( tableName );
+        data.db.commit();
+        commitCounter = 0;
+
+        for ( Object[] row : data.batchBuffer ) {
+          putRow( data.outputRowMeta, row );
+          incrementLinesOutput();
+        }
+        data.batchBuffer.clear();
+      }
+      data.commitCounterMap.put( tableName, commitCounter );
+    } catch ( KettleDatabaseException dbe ) {
+      setErrors( getErrors() + 1 );
+      cancelCopy();
+      data.db.rollback();
+      throw new KettleException( "Error inserting rows into table [" + tableName + "]", dbe );
+    }
+  }
+
+  /**
+   * @return the number of rows in a multi-row insert statement, limited by the number of parameters the database
+   *         accepts in a statement
+   */
+  private int getBulkInsertRows() {
+    int maxRows = data.maxBulkInsertParameters / Math.max( 1, data.insertRowMeta.size() );
+    return Math.max( 1, Math.min( data.bulkInsertRows, maxRows ) );
+  }
+
+  /**
+   * Send the rows waiting for the given table to the database. With COPY the active copy is finished.
+   */
+  void flushBulkRows( String tableName ) throws KettleDatabaseException {
+    if ( data.copyMode ) {
+      if ( data.copyWriter != null ) {
+        PGCopyRowWriter copyWriter = data.copyWriter;
+        data.copyWriter = null;
+        data.copyTableName = null;
+        long nrRows = copyWriter.endCopy();
+        if ( log.isDetailed() ) {
+          logDetailed( "Copied " + nrRows + " rows into table [" + tableName + "]" );
+        }
+      }
+      return;
+    }
+
+    List<Object[]> rows = data.bulkRowsMap.get( tableName );
+    if ( rows == null || rows.isEmpty() ) {
+      return;
+    }
+    int rowsPerStatement = getBulkInsertRows();
+    int nrFields = data.insertRowMeta.size();
+    int start = 0;
+    while ( start < rows.size() ) {
+      int nrRows = Math.min( rowsPerStatement, rows.size() - start );
+
+      // The statement for a full set of rows is reused, the one for the rest only happens before a commit.
+      //
+      boolean full = nrRows == rowsPerStatement;
+      PreparedStatement insertStatement = full ? data.bulkStatements.get( tableName ) : null;
+      if ( insertStatement == null ) {
+        String sql =
+          data.db.getInsertStatement(
+            environmentSubstitute( meta.getSchemaName() ), tableName, data.insertRowMeta, nrRows );
+        if ( log.isDetailed() && full ) {
+          logDetailed( "Prepared statement for " + nrRows + " rows : " + sql );
+        }
+        insertStatement = data.db.prepareSQL( sql );
+        if ( full ) {
+          data.bulkStatements.put( tableName, insertStatement );
+        }
+      }
+      try {
+        for ( int r = 0; r < nrRows; r++ ) {
+          Object[] row = rows.get( start + r );
+          for ( int i = 0; i < nrFields; i++ ) {
+            data.db.setValue( insertStatement, data.insertRowMeta.getValueMeta( i ), row[i], r * nrFields + i + 1 );
+          }
+        }
+        data.db.insertRow( insertStatement, false, false );
+      } finally {
+        if ( !full ) {
+          data.db.closePreparedStatement( insertStatement );
+        }
+      }
+      start += nrRows;
+    }
+    rows.clear();
+  }
+
+  /**
+   * @return the COPY writer for the given table, the COPY of another table is finished first
+   */
+  private PGCopyRowWriter getCopyWriter( String tableName ) throws KettleDatabaseException {
+    if ( data.copyWriter != null && !tableName.equals( data.copyTableName ) ) {
+      flushBulkRows( data.copyTableName );
+    }
+    if ( data.copyWriter == null ) {
+      String copyCommand =
+        PGCopyRowWriter.getCopyCommand(
+          data.databaseMeta, environmentSubstitute( meta.getSchemaName() ), tableName, data.insertRowMeta );
+      if ( log.isDetailed() ) {
+        logDetailed( "Starting copy : " + copyCommand );
+      }
+      try {
+        PGConnection connection = data.db.getConnection().unwrap( PGConnection.class );
+        data.copyWriter = new PGCopyRowWriter( connection, copyCommand, data.insertRowMeta, data.copyCharset );
+        data.copyTableName = tableName;
+      } catch ( SQLException e ) {
+        throw new KettleDatabaseException( "Unable to start " + copyCommand, e );
+      }
+    }
+    return data.copyWriter;
+  }
+
+  private void cancelCopy() {
+    if ( data.copyWriter != null ) {
+      try {
+        data.copyWriter.cancelCopy();
+      } catch ( KettleDatabaseException e ) {
+        logError( "Unable to cancel the copy into table [" + data.copyTableName + "]", e );
+      }
+      data.copyWriter = null;
+      data.copyTableName = null;
+    }
+  }
+
   public boolean isRowLevel() {
     return log.isRowLevel();
   }
@@ -548,6 +715,9 @@ public class TableOutput extends BaseStep implements StepInterface {
           data.tableName = environmentSubstitute( meta.getTableName() );
         }
 
+        initBulkMode( dbInterface );
+        initWriterPool();
+
         return true;
       } catch ( KettleException e ) {
         logError( "An error occurred intialising this step: " + e.getMessage() );
@@ -558,6 +728,64 @@ public class TableOutput extends BaseStep implements StepInterface {
     return false;
   }
 
+  /**
+   * Multi-row inserts and COPY send many rows at once, they can't be used when errors need to be traced back to single
+   * rows or when generated keys are needed. The rows are only passed on after a commit so they are not used without a
+   * commit size either: all the rows would be kept in memory until the end.
+   */
+  void initBulkMode( DatabaseInterface dbInterface ) {
+    if ( getStepMeta().isDoingErrorHandling() || meta.ignoreErrors() || meta.isReturningGeneratedKeys()
+      || data.useSafePoints || data.commitSize <= 0 || data.commitSize == Integer.MAX_VALUE ) {
+      return;
+    }
+
+    data.copyMode = Boolean.TRUE.equals(
+      ValueMetaString.convertStringToBoolean( getVariable( Const.KETTLE_TABLE_OUTPUT_COPY, "N" ) ) );
+    if ( data.copyMode ) {
+      Connection connection = data.db.getConnection();
+      try {
+        data.copyMode = connection.isWrapperFor( PGConnection.class );
+      } catch ( SQLException e ) {
+        data.copyMode = false;
+      }
+      if ( data.copyMode ) {
+        data.copyCharset = PGCopyRowWriter.getClientEncoding( connection );
+        if ( log.isBasic() ) {
+          logBasic( "Loading rows with COPY (client encoding " + data.copyCharset + ")" );
+        }
+        return;
+      }
+      logBasic( "COPY is only supported with the PostgreSQL driver, inserting rows instead" );
+    }
+
+    data.maxBulkInsertParameters = dbInterface.getMaxMultiRowInsertParameters();
+    if ( data.maxBulkInsertParameters > 0 ) {
+      data.bulkInsertRows = Const.toInt( getVariable( Const.KETTLE_TABLE_OUTPUT_BULK_ROWS ), 0 );
+      if ( data.bulkInsertRows > 1 && log.isBasic() ) {
+        logBasic( "Inserting up to " + data.bulkInsertRows + " rows per statement" );
+      }
+    }
+  }
+
+  /**
+   * Start the writers inserting rows on their own connections. They can't take part in the single transaction of
+   * unique connections, return generated keys or use savepoints. Without a commit size there's no pool either: every
+   * writer would keep its rows uncommitted, and away from the next steps, until the end.
+   */
+  void initWriterPool() throws KettleException {
+    int nrWriters = Const.toInt( getVariable( Const.KETTLE_TABLE_OUTPUT_WRITERS ), 1 );
+    if ( nrWriters <= 1 || meta.isReturningGeneratedKeys() || getTransMeta().isUsingUniqueConnections()
+      || data.useSafePoints || data.copyMode || data.bulkInsertRows > 1
+      || data.commitSize <= 0 || data.commitSize == Integer.MAX_VALUE ) {
+      return;
+    }
+    data.writerPool = new TableOutputWriterPool( this, meta, data, nrWriters );
+    data.writerPool.start();
+    if ( log.isBasic() ) {
+      logBasic( "Inserting rows with " + nrWriters + " writers" );
+    }
+  }
+
   void truncateTable() throws KettleDatabaseException {
     if ( !meta.isPartitioningEnabled() && !meta.isTableNameInField() ) {
       // Only the first one truncates in a non-partitioned step copy
@@ -577,6 +805,18 @@ public class TableOutput extends BaseStep implements StepInterface {
 
     if ( data.db != null ) {
       try {
+        if ( data.writerPool != null ) {
+          TableOutputWriterPool writerPool = data.writerPool;
+          data.writerPool = null;
+          if ( getErrors() == 0 && !isStopped() ) {
+            writerPool.finish();
+          } else {
+            writerPool.abort();
+          }
+        }
+        if ( data.copyMode || data.bulkInsertRows > 1 ) {
+          disposeBulkRows();
+        }
         for ( String schemaTable : data.preparedStatements.keySet() ) {
           // Get a commit counter per prepared statement to keep track of separate tables, etc.
           //
@@ -634,6 +874,33 @@ public class TableOutput extends BaseStep implements StepInterface {
     }
   }
 
+  /**
+   * Send the remaining rows and commit them. After an error they are thrown away.
+   */
+  private void disposeBulkRows() throws KettleDatabaseException {
+    try {
+      if ( getErrors() == 0 ) {
+        if ( data.copyMode ) {
+          flushBulkRows( data.copyTableName );
+        } else {
+          for ( String tableName : data.bulkRowsMap.keySet() ) {
+            flushBulkRows( tableName );
+          }
+        }
+        data.db.commit();
+      } else {
+        cancelCopy();
+        data.bulkRowsMap.clear();
+        data.batchBuffer.clear();
+      }
+    } finally {
+      for ( PreparedStatement insertStatement : data.bulkStatements.values() ) {
+        data.db.closePreparedStatement( insertStatement );
+      }
+      data.bulkStatements.clear();
+    }
+  }
+
   /**
    * Allows subclasses of TableOuput to get hold of the step meta
    *
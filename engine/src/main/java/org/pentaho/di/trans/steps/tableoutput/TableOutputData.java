@@ -22,6 +22,7 @@
 
 package org.pentaho.di.trans.steps.tableoutput;
 
+import java.nio.charset.Charset;
 import java.sql.PreparedStatement;
 import java.sql.Savepoint;
 import java.text.SimpleDateFormat;
@@ -78,6 +79,29 @@ public class TableOutputData extends BaseStepData implements StepDataInterface {
 
   public int commitSize;
 
+  /** The number of rows in a multi-row insert statement, these are only used when this is more than 1 */
+  public int bulkInsertRows;
+
+  /** The maximum number of parameters in a multi-row insert statement */
+  public int maxBulkInsertParameters;
+
+  /** The rows waiting to be sent in a multi-row insert statement, per table */
+  public Map<String, List<Object[]>> bulkRowsMap;
+
+  /** The multi-row insert statements for a full set of rows, per table */
+  public Map<String, PreparedStatement> bulkStatements;
+
+  /** Load the rows with COPY FROM STDIN */
+  public boolean copyMode;
+  public Charset copyCharset;
+
+  /** Only one COPY can be active on a connection: the one for the table of the last row */
+  public PGCopyRowWriter copyWriter;
+  public String copyTableName;
+
+  /** The writers inserting rows on their own connections, null if the step inserts the rows itself */
+  TableOutputWriterPool writerPool;
+
   public TableOutputData() {
     super();
 
@@ -93,6 +117,9 @@ public class TableOutputData extends BaseStepData implements StepDataInterface {
     batchBuffer = new ArrayList<Object[]>();
     commitCounterMap = new HashMap<String, Integer>();
 
+    bulkRowsMap = new HashMap<String, List<Object[]>>();
+    bulkStatements = new HashMap<String, PreparedStatement>();
+
     releaseSavepoint = true;
   }
 }
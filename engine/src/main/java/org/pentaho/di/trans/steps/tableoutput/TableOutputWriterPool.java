@@ -0,0 +1,360 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.tableoutput;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.exception.KettleDatabaseBatchException;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+
+/**
+ * A pool of writer threads for the Table Output step, each with its own database connection. The step thread hands
+ * the rows to the writers through a bounded queue. Every writer commits after the commit size of rows it inserted.
+ * <br>
+ * <br>
+ * Rows are only passed on to the next steps (or the error hop) by the step thread, once they are committed. After a
+ * failure without error handling every writer rolls back the rows it didn't commit yet and the step fails. Rows that
+ * were committed by a writer stay in the table, just like with multiple step copies.
+ *
+ * @since 8.3
+ */
+class TableOutputWriterPool {
+
+  private static final long POLL_MILLIS = 100;
+
+  /** Marks the end of the rows for one writer */
+  private static final WriterRow END = new WriterRow( null, null, null );
+
+  private final TableOutput step;
+  private final TableOutputMeta meta;
+  private final TableOutputData data;
+
+  private final List<Writer> writers = new ArrayList<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private final BlockingQueue<WriterRow> queue;
+
+  /** The rows which are committed or rejected, to be passed on by the step thread */
+  private final Queue<WriterRow> results = new ConcurrentLinkedQueue<>();
+
+  private final AtomicReference<Exception> failure = new AtomicReference<>();
+  private volatile boolean aborted;
+
+  TableOutputWriterPool( TableOutput step, TableOutputMeta meta, TableOutputData data, int nrWriters ) {
+    this.step = step;
+    this.meta = meta;
+    this.data = data;
+    this.queue = new ArrayBlockingQueue<>( Math.max( nrWriters, step.getTransMeta().getSizeRowset() ) );
+    for ( int i = 0; i < nrWriters; i++ ) {
+      writers.add( new Writer( createDatabase() ) );
+    }
+  }
+
+  Database createDatabase() {
+    return new Database( step, meta.getDatabaseMeta() );
+  }
+
+  /**
+   * Connect all the writers to the database and start them.
+   */
+  void start() throws KettleException {
+    try {
+      for ( Writer writer : writers ) {
+        writer.connect();
+      }
+    } catch ( KettleException e ) {
+      for ( Writer writer : writers ) {
+        writer.db.disconnect();
+      }
+      throw e;
+    }
+    for ( int i = 0; i < writers.size(); i++ ) {
+      Thread thread = new Thread( writers.get( i ), step.getStepname() + " - writer " + ( i + 1 ) );
+      thread.setDaemon( true );
+      threads.add( thread );
+      thread.start();
+    }
+  }
+
+  /**
+   * Hand a row to the writers. This blocks while all writers are busy.
+   */
+  void write( String tableName, Object[] insertRowData, Object[] outputRowData ) throws KettleException {
+    WriterRow row = new WriterRow( tableName, insertRowData, outputRowData );
+    try {
+      while ( !queue.offer( row, POLL_MILLIS, TimeUnit.MILLISECONDS ) ) {
+        checkFailure();
+        passResults();
+      }
+    } catch ( InterruptedException e ) {
+      throw new KettleStepException( "Interrupted while handing a row to the table writers", e );
+    }
+    checkFailure();
+    passResults();
+  }
+
+  /**
+   * Pass on the rows committed or rejected by the writers, this is only called by the step thread.
+   */
+  void passResults() throws KettleStepException {
+    WriterRow row;
+    while ( ( row = results.poll() ) != null ) {
+      if ( row.errorMessage == null ) {
+        step.putRow( data.outputRowMeta, row.outputRowData );
+        step.incrementLinesOutput();
+      } else {
+        step.putError( data.outputRowMeta, row.outputRowData, 1L, row.errorMessage, null, row.errorCode );
+      }
+    }
+  }
+
+  /**
+   * Let the writers commit their last rows, wait for them to finish and pass on the results.
+   */
+  void finish() throws KettleException {
+    try {
+      for ( Thread thread : threads ) {
+        while ( thread.isAlive() && !queue.offer( END, POLL_MILLIS, TimeUnit.MILLISECONDS ) ) {
+          passResults();
+        }
+      }
+      for ( Thread thread : threads ) {
+        while ( thread.isAlive() ) {
+          thread.join( POLL_MILLIS );
+          passResults();
+        }
+      }
+    } catch ( InterruptedException e ) {
+      abort();
+      throw new KettleStepException( "Interrupted while waiting for the table writers", e );
+    }
+    passResults();
+    checkFailure();
+  }
+
+  /**
+   * Stop the writers, they roll back the rows they didn't commit yet.
+   */
+  void abort() {
+    aborted = true;
+    queue.clear();
+    for ( Thread thread : threads ) {
+      try {
+        thread.join();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void checkFailure() throws KettleException {
+    Exception e = failure.get();
+    if ( e != null ) {
+      throw new KettleException( "Error inserting rows with the table writers", e );
+    }
+  }
+
+  private void fail( Exception e ) {
+    failure.compareAndSet( null, e );
+    aborted = true;
+  }
+
+  private static final class WriterRow {
+    private final String tableName;
+    private final Object[] insertRowData;
+    private final Object[] outputRowData;
+    private String errorMessage;
+    private String errorCode;
+
+    WriterRow( String tableName, Object[] insertRowData, Object[] outputRowData ) {
+      this.tableName = tableName;
+      this.insertRowData = insertRowData;
+      this.outputRowData = outputRowData;
+    }
+  }
+
+  /**
+   * Inserts rows on its own connection.
+   */
+  private final class Writer implements Runnable {
+    private final Database db;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /** The rows inserted since the last commit, per table */
+    private final Map<String, List<WriterRow>> uncommitted = new LinkedHashMap<>();
+    private int nrUncommitted;
+    private boolean useBatch;
+
+    Writer( Database db ) {
+      this.db = db;
+    }
+
+    void connect() throws KettleException {
+      db.shareVariablesWith( step );
+      db.connect( step.getPartitionID() );
+      db.setCommit( data.commitSize );
+      useBatch = db.getUseBatchInsert( data.batchMode );
+    }
+
+    @Override
+    public void run() {
+      try {
+        while ( !aborted ) {
+          WriterRow row = queue.poll( POLL_MILLIS, TimeUnit.MILLISECONDS );
+          if ( row == END ) {
+            commit();
+            break;
+          }
+          if ( row != null ) {
+            insert( row );
+          }
+        }
+      } catch ( Exception e ) {
+        fail( e );
+      } finally {
+        if ( aborted ) {
+          try {
+            db.rollback();
+          } catch ( KettleDatabaseException e ) {
+            step.logError( "Unable to roll back the rows of a table writer", e );
+          }
+        }
+        for ( PreparedStatement statement : statements.values() ) {
+          try {
+            db.closePreparedStatement( statement );
+          } catch ( KettleDatabaseException e ) {
+            step.logError( "Unable to close the statement of a table writer", e );
+          }
+        }
+        db.disconnect();
+      }
+    }
+
+    private void insert( WriterRow row ) throws KettleException {
+      PreparedStatement statement = statements.get( row.tableName );
+      if ( statement == null ) {
+        String sql =
+          db.getInsertStatement( step.environmentSubstitute( meta.getSchemaName() ), row.tableName,
+            data.insertRowMeta );
+        statement = db.prepareSQL( sql );
+        statements.put( row.tableName, statement );
+      }
+
+      try {
+        db.setValues( data.insertRowMeta, row.insertRowData, statement );
+        db.insertRow( statement, data.batchMode, false );
+      } catch ( KettleDatabaseException e ) {
+        // The row didn't make it into the batch either
+        if ( !step.getStepMeta().isDoingErrorHandling() ) {
+          throw e;
+        }
+        reject( row, e.toString(), "TOP001" );
+        return;
+      }
+
+      List<WriterRow> rows = uncommitted.get( row.tableName );
+      if ( rows == null ) {
+        rows = new ArrayList<>();
+        uncommitted.put( row.tableName, rows );
+      }
+      rows.add( row );
+      if ( ++nrUncommitted >= data.commitSize ) {
+        commit();
+      }
+    }
+
+    /**
+     * Execute the batches and commit, the rows of a failing batch are sent to the error hop when error handling is
+     * enabled.
+     */
+    private void commit() throws KettleException {
+      List<WriterRow> committed = new ArrayList<>();
+      for ( Map.Entry<String, List<WriterRow>> entry : uncommitted.entrySet() ) {
+        List<WriterRow> rows = entry.getValue();
+        if ( useBatch && !rows.isEmpty() ) {
+          PreparedStatement statement = statements.get( entry.getKey() );
+          try {
+            statement.executeBatch();
+            statement.clearBatch();
+          } catch ( SQLException e ) {
+            KettleDatabaseBatchException be = Database.createKettleDatabaseBatchException( "Error updating batch", e );
+            if ( !step.getStepMeta().isDoingErrorHandling() ) {
+              throw be;
+            }
+            db.clearBatch( statement );
+            rejectBatch( rows, be, committed );
+            continue;
+          }
+        }
+        committed.addAll( rows );
+      }
+      db.commit();
+      results.addAll( committed );
+      uncommitted.clear();
+      nrUncommitted = 0;
+    }
+
+    /**
+     * Rows with an update count are fine, the others are rejected, as with a single connection.
+     */
+    private void rejectBatch( List<WriterRow> rows, KettleDatabaseBatchException be, List<WriterRow> committed ) {
+      int[] updateCounts = be.getUpdateCounts();
+      List<Exception> exceptions = be.getExceptionsList();
+      int errNr = 0;
+      for ( int i = 0; i < rows.size(); i++ ) {
+        WriterRow row = rows.get( i );
+        if ( updateCounts != null && i < updateCounts.length && updateCounts[i] > 0 ) {
+          committed.add( row );
+        } else {
+          String message = be.toString();
+          if ( exceptions != null && errNr < exceptions.size() ) {
+            message = exceptions.get( errNr++ ).toString();
+          }
+          reject( row, message, updateCounts == null ? "TOP0003" : "TOP0002" );
+        }
+      }
+    }
+
+    private void reject( WriterRow row, String errorMessage, String errorCode ) {
+      row.errorMessage = errorMessage;
+      row.errorCode = errorCode;
+      results.add( row );
+    }
+  }
+}
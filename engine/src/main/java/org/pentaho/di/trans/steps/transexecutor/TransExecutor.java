@@ -40,6 +40,7 @@ import org.pentaho.di.core.logging.KettleLogStore;
 import org.pentaho.di.core.logging.LoggingRegistry;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.DelegationListener;
 import org.pentaho.di.trans.StepWithMappingMeta;
@@ -91,6 +92,9 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
       if ( row == null ) {
         executeTransformation( null );
+        if ( transExecutorData.pool != null ) {
+          transExecutorData.pool.finish();
+        }
         setOutputDone();
         return false;
       }
@@ -202,6 +206,13 @@ public class TransExecutor extends BaseStep implements StepInterface {
     }
     transExecutorData.groupTimeStart = System.currentTimeMillis();
 
+    if ( transExecutorData.pool != null ) {
+      // The pool holds on to the group until it's executed
+      transExecutorData.pool.execute( transExecutorData.groupBuffer );
+      transExecutorData.groupBuffer = new ArrayList<RowMetaAndData>();
+      return;
+    }
+
     if ( first ) {
       discardLogLines( transExecutorData );
     }
@@ -242,6 +253,15 @@ public class TransExecutor extends BaseStep implements StepInterface {
       result.setNrErrors( 1 );
     }
 
+    collectResults( result, System.currentTimeMillis() - transExecutorData.groupTimeStart );
+
+    transExecutorData.groupBuffer.clear();
+  }
+
+  /**
+   * Stop this transformation if the execution of a group failed and pass on the results of the execution.
+   */
+  void collectResults( Result result, long executionTime ) throws KettleException {
     if ( result.isSafeStop() ) {
       getTrans().safeStop();
     } else if ( result.getNrErrors() > 0 ) {
@@ -249,10 +269,8 @@ public class TransExecutor extends BaseStep implements StepInterface {
     }
 
     collectTransResults( result );
-    collectExecutionResults( result );
+    collectExecutionResults( result, executionTime );
     collectExecutionResultFiles( result );
-
-    transExecutorData.groupBuffer.clear();
   }
 
   @VisibleForTesting
@@ -268,7 +286,11 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
   @VisibleForTesting
   Trans createInternalTrans() throws KettleException {
-    Trans executorTrans = new Trans( getData().getExecutorTransMeta(), this );
+    return createInternalTrans( getData().getExecutorTransMeta() );
+  }
+
+  Trans createInternalTrans( TransMeta executorTransMeta ) throws KettleException {
+    Trans executorTrans = new Trans( executorTransMeta, this );
 
     executorTrans.setParentTrans( getTrans() );
     executorTrans.setRepository( getTrans().getRepository() );
@@ -286,6 +308,10 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
   @VisibleForTesting
   void passParametersToTrans( List<String> incomingFieldValues ) throws KettleException {
+    passParametersToTrans( getExecutorTrans(), incomingFieldValues );
+  }
+
+  void passParametersToTrans( Trans trans, List<String> incomingFieldValues ) throws KettleException {
     //The values of the incoming fields from the previous step.
     if ( incomingFieldValues == null ) {
       incomingFieldValues = new ArrayList<String>();
@@ -341,7 +367,6 @@ public class TransExecutor extends BaseStep implements StepInterface {
       inputFieldValues[i] = resolvingValuesMap.get( parameters.getVariable()[i] );
     }
 
-    Trans trans = getExecutorTrans();
     StepWithMappingMeta
         .activateParams( trans, trans, this, trans.listParameters(), parameters.getVariable(), inputFieldValues );
   }
@@ -358,13 +383,17 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
   @VisibleForTesting
   void collectExecutionResults( Result result ) throws KettleException {
+    collectExecutionResults( result, System.currentTimeMillis() - getData().groupTimeStart );
+  }
+
+  void collectExecutionResults( Result result, long executionTime ) throws KettleException {
     RowSet executionResultsRowSet = getData().getExecutionResultRowSet();
     if ( meta.getExecutionResultTargetStepMeta() != null && executionResultsRowSet != null ) {
       Object[] outputRow = RowDataUtil.allocateRowData( getData().getExecutionResultsOutputRowMeta().size() );
       int idx = 0;
 
       if ( !Utils.isEmpty( meta.getExecutionTimeField() ) ) {
-        outputRow[ idx++ ] = Long.valueOf( System.currentTimeMillis() - getData().groupTimeStart );
+        outputRow[ idx++ ] = Long.valueOf( executionTime );
       }
       if ( !Utils.isEmpty( meta.getExecutionResultField() ) ) {
         outputRow[ idx++ ] = Boolean.valueOf( result.getResult() );
@@ -400,12 +429,20 @@ public class TransExecutor extends BaseStep implements StepInterface {
         outputRow[ idx++ ] = Long.valueOf( result.getExitStatus() );
       }
       if ( !Utils.isEmpty( meta.getExecutionLogTextField() ) ) {
-        String channelId = getData().getExecutorTrans().getLogChannelId();
-        String logText = KettleLogStore.getAppender().getBuffer( channelId, false ).toString();
+        // A pooled sub-transformation has the log text of the group in the result
+        String logText = result.getLogText();
+        if ( logText == null ) {
+          String channelId = getData().getExecutorTrans().getLogChannelId();
+          logText = KettleLogStore.getAppender().getBuffer( channelId, false ).toString();
+        }
         outputRow[ idx++ ] = logText;
       }
       if ( !Utils.isEmpty( meta.getExecutionLogChannelIdField() ) ) {
-        outputRow[ idx++ ] = getData().getExecutorTrans().getLogChannelId();
+        String channelId = result.getLogChannelId();
+        if ( channelId == null ) {
+          channelId = getData().getExecutorTrans().getLogChannelId();
+        }
+        outputRow[ idx++ ] = channelId;
       }
 
       putRowTo( getData().getExecutionResultsOutputRowMeta(), outputRow, executionResultsRowSet );
@@ -463,6 +500,9 @@ public class TransExecutor extends BaseStep implements StepInterface {
           if ( !Utils.isEmpty( meta.getGroupField() ) ) {
             transExecutorData.groupField = environmentSubstitute( meta.getGroupField() );
           }
+
+          initPool();
+
           // That's all for now...
           return true;
         } else {
@@ -477,6 +517,30 @@ public class TransExecutor extends BaseStep implements StepInterface {
     return false;
   }
 
+  /**
+   * Start a pool of re-used sub-transformations if one is configured and the sub-transformation can run in the single
+   * threaded engine.
+   */
+  private void initPool() {
+    int poolSize = Const.toInt( getVariable( Const.KETTLE_TRANS_EXECUTOR_POOL_SIZE, "0" ), 0 );
+    if ( poolSize <= 0 ) {
+      return;
+    }
+    TransExecutorData transExecutorData = getData();
+    if ( !TransExecutorPool.isSupported( transExecutorData.getExecutorTransMeta(), meta.getParameters().getField() ) ) {
+      logBasic( BaseMessages.getString( PKG, "TransExecutor.Log.PoolNotSupported" ) );
+      return;
+    }
+    boolean keepOrder = !Boolean.FALSE.equals(
+      ValueMetaString.convertStringToBoolean( getVariable( Const.KETTLE_TRANS_EXECUTOR_POOL_KEEP_ORDER, "Y" ) ) );
+    transExecutorData.pool =
+      new TransExecutorPool( this, meta, transExecutorData.getExecutorTransMeta(), poolSize, keepOrder );
+    transExecutorData.pool.start();
+    if ( log.isBasic() ) {
+      logBasic( BaseMessages.getString( PKG, "TransExecutor.Log.UsingPool", String.valueOf( poolSize ) ) );
+    }
+  }
+
   @VisibleForTesting
   TransMeta loadExecutorTransMeta() throws KettleException {
     return TransExecutorMeta.loadMappingMeta( meta, meta.getRepository(), meta.getMetaStore(), this, meta.getParameters().isInheritingAllVariables() );
@@ -484,6 +548,10 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
   public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
     TransExecutorData transExecutorData = getData();
+    if ( transExecutorData.pool != null ) {
+      transExecutorData.pool.dispose();
+      transExecutorData.pool = null;
+    }
     transExecutorData.groupBuffer = null;
     super.dispose( smi, sdi );
   }
@@ -493,6 +561,9 @@ public class TransExecutor extends BaseStep implements StepInterface {
     if ( getData().getExecutorTrans() != null ) {
       getData().getExecutorTrans().stopAll();
     }
+    if ( getData().pool != null ) {
+      getData().pool.stopAll();
+    }
   }
 
   public void stopAll() {
@@ -500,6 +571,9 @@ public class TransExecutor extends BaseStep implements StepInterface {
     if ( getData().getExecutorTrans() != null ) {
       getData().getExecutorTrans().stopAll();
     }
+    if ( getData().pool != null ) {
+      getData().pool.stopAll();
+    }
 
     // Also stop this step
     super.stopAll();
@@ -64,6 +64,9 @@ public class TransExecutorData extends BaseStepData implements StepDataInterface
   private RowSet resultFilesRowSet;
   private RowSet executionResultRowSet;
 
+  /** The re-used sub-transformations executing the groups, null if every group gets a new transformation */
+  TransExecutorPool pool;
+
   public TransExecutorData() {
     super();
   }
@@ -0,0 +1,418 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.transexecutor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LoggingRegistry;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.job.DelegationListener;
+import org.pentaho.di.trans.RowProducer;
+import org.pentaho.di.trans.SingleThreadedTransExecutor;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.TransMeta.TransformationType;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.rowsfromresult.RowsFromResultMeta;
+
+/**
+ * A pool of worker threads for the Transformation Executor step, each re-using its own prepared sub-transformation for
+ * one group of rows after the other. The sub-transformation is prepared and its steps are initialized once, so the
+ * setup of the steps, their threads and database connections isn't repeated for every group.<br>
+ * <br>
+ * The sub-transformations run in the single threaded engine, just like with the Single Threader step. The rows of a
+ * group are fed to the "Get rows from result" steps through a row producer and pass through all steps in one iteration.
+ * After that every step is told the batch is complete, so steps like Sort rows or Group by pass on their rows and "Copy
+ * rows to result" hands over its rows as the result of the group. See {@link #isSupported(TransMeta, String[])} for
+ * the sub-transformations this works for.<br>
+ * <br>
+ * The results of the groups are only passed on to the next steps by the step thread, in the order of the groups unless
+ * that is switched off. A sub-transformation that fails is disposed, the next group gets a fresh one.
+ *
+ * @since 8.3
+ */
+class TransExecutorPool {
+
+  private static final long POLL_MILLIS = 100;
+
+  /** How long dispose waits for a worker to stop its sub-transformation */
+  private static final long DISPOSE_TIMEOUT_MILLIS = 10000;
+
+  /** Marks the end of the groups for one worker */
+  private static final Group END = new Group( -1, null );
+
+  private final TransExecutor step;
+  private final TransExecutorMeta meta;
+  private final TransMeta executorTransMeta;
+  private final boolean keepOrder;
+
+  private final List<Worker> workers = new ArrayList<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private final BlockingQueue<Group> groups = new LinkedBlockingQueue<>();
+  private final BlockingQueue<GroupResult> results = new LinkedBlockingQueue<>();
+
+  /** The results which are waiting for the results of earlier groups, only accessed by the step thread */
+  private final Map<Long, GroupResult> waitingResults = new TreeMap<>();
+
+  private long nextGroupNr;
+  private long nextResultNr;
+  private int executing;
+
+  TransExecutorPool( TransExecutor step, TransExecutorMeta meta, TransMeta executorTransMeta, int size,
+    boolean keepOrder ) {
+    this.step = step;
+    this.meta = meta;
+    this.executorTransMeta = executorTransMeta;
+    this.keepOrder = keepOrder;
+    for ( int i = 0; i < size; i++ ) {
+      workers.add( new Worker() );
+    }
+  }
+
+  /**
+   * The single threaded engine only works for transformations where all rows come from "Get rows from result" steps:
+   * other steps without input would only read their rows for the first group. All steps need to support the single
+   * threaded engine and the parameters can't depend on the values of the rows, they are only set once.
+   *
+   * @param transMeta
+   *          the sub-transformation
+   * @param parameterFields
+   *          the fields the parameters of the sub-transformation get their values from
+   * @return true if the sub-transformation can be executed by a pool
+   */
+  static boolean isSupported( TransMeta transMeta, String[] parameterFields ) {
+    if ( parameterFields != null ) {
+      for ( String field : parameterFields ) {
+        if ( !Utils.isEmpty( field ) ) {
+          return false;
+        }
+      }
+    }
+    boolean hasResultInput = false;
+    for ( StepMeta stepMeta : transMeta.getSteps() ) {
+      boolean singleThreaded = false;
+      for ( TransformationType type : stepMeta.getStepMetaInterface().getSupportedTransformationTypes() ) {
+        singleThreaded |= type == TransformationType.SingleThreaded;
+      }
+      if ( !singleThreaded ) {
+        return false;
+      }
+      if ( stepMeta.getStepMetaInterface() instanceof RowsFromResultMeta ) {
+        hasResultInput = true;
+      } else if ( transMeta.findPreviousSteps( stepMeta ).isEmpty() ) {
+        return false;
+      }
+    }
+    return hasResultInput;
+  }
+
+  /**
+   * Start the worker threads, their sub-transformations are prepared when they receive their first group.
+   */
+  void start() {
+    for ( int i = 0; i < workers.size(); i++ ) {
+      Thread thread = new Thread( workers.get( i ), step.getStepname() + " - executor " + ( i + 1 ) );
+      threads.add( thread );
+      thread.start();
+    }
+  }
+
+  /**
+   * Hand a group of rows to the workers. This blocks while all workers are busy. The results of the groups executed so
+   * far are passed on.
+   */
+  void execute( List<RowMetaAndData> rows ) throws KettleException {
+    while ( executing >= workers.size() && !step.isStopped() ) {
+      passResults( true );
+    }
+    groups.add( new Group( nextGroupNr++, rows ) );
+    executing++;
+    passResults( false );
+  }
+
+  /**
+   * Wait until all groups are executed and pass on their results.
+   */
+  void finish() throws KettleException {
+    while ( executing > 0 && !step.isStopped() ) {
+      passResults( true );
+    }
+  }
+
+  /**
+   * Pass on the results of executed groups, this is only called by the step thread.
+   *
+   * @param wait
+   *          wait a little while for a group to finish if none did
+   */
+  private void passResults( boolean wait ) throws KettleException {
+    GroupResult result;
+    try {
+      result = wait ? results.poll( POLL_MILLIS, TimeUnit.MILLISECONDS ) : results.poll();
+    } catch ( InterruptedException e ) {
+      throw new KettleStepException( "Interrupted while waiting for the execution of a group of rows", e );
+    }
+    while ( result != null ) {
+      executing--;
+      if ( keepOrder ) {
+        waitingResults.put( result.groupNr, result );
+        while ( ( result = waitingResults.remove( nextResultNr ) ) != null ) {
+          nextResultNr++;
+          step.collectResults( result.result, result.executionTime );
+        }
+      } else {
+        step.collectResults( result.result, result.executionTime );
+      }
+      result = results.poll();
+    }
+  }
+
+  /**
+   * Stop the sub-transformations which are executing a group.
+   */
+  void stopAll() {
+    for ( Worker worker : workers ) {
+      Trans trans = worker.trans;
+      if ( trans != null ) {
+        trans.stopAll();
+      }
+    }
+  }
+
+  /**
+   * Stop the workers and dispose their sub-transformations. Groups which aren't executed yet are dropped, nobody
+   * collects their results anymore. A worker that doesn't stop in time is interrupted and left behind.
+   */
+  void dispose() {
+    groups.clear();
+    stopAll();
+    for ( int i = 0; i < workers.size(); i++ ) {
+      groups.add( END );
+    }
+    long deadline = System.currentTimeMillis() + DISPOSE_TIMEOUT_MILLIS;
+    for ( Thread thread : threads ) {
+      try {
+        thread.join( Math.max( 1, deadline - System.currentTimeMillis() ) );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if ( thread.isAlive() ) {
+        step.logError( "The executor thread '" + thread.getName() + "' didn't stop within "
+          + DISPOSE_TIMEOUT_MILLIS + "ms, interrupting it" );
+        thread.interrupt();
+      }
+    }
+  }
+
+  int getSize() {
+    return workers.size();
+  }
+
+  /**
+   * Prepare a new sub-transformation. Every one gets its own copy of the metadata, so that the caches of the metadata
+   * aren't shared between threads.
+   */
+  Trans prepareTrans() throws KettleException {
+    TransMeta transMeta;
+    synchronized ( executorTransMeta ) {
+      transMeta = (TransMeta) executorTransMeta.realClone( false );
+    }
+    transMeta.setTransformationType( TransformationType.SingleThreaded );
+    transMeta.setUsingThreadPriorityManagment( false );
+
+    Trans trans = step.createInternalTrans( transMeta );
+    step.passParametersToTrans( trans, null );
+    trans.prepareExecution( step.getTrans().getArguments() );
+    return trans;
+  }
+
+  /**
+   * A worker executing groups of rows on its own sub-transformation.
+   */
+  private class Worker implements Runnable {
+    private volatile Trans trans;
+    private SingleThreadedTransExecutor executor;
+    private List<RowProducer> producers;
+
+    /** The totals of the sub-transformation after the previous group */
+    private Result previousTotals;
+    private Set<String> previousResultFiles;
+
+    @Override
+    public void run() {
+      try {
+        Group group;
+        while ( ( group = groups.take() ) != END ) {
+          results.add( execute( group ) );
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      } finally {
+        disposeTrans();
+      }
+    }
+
+    private GroupResult execute( Group group ) {
+      long startTime = System.currentTimeMillis();
+      Result result;
+      try {
+        if ( trans == null ) {
+          startTrans();
+        }
+        result = executeGroup( group );
+      } catch ( Exception e ) {
+        step.logError( "An error occurred executing the transformation: ", e );
+        result = new Result();
+        result.setResult( false );
+        result.setNrErrors( 1 );
+      }
+      if ( result.getNrErrors() > 0 || result.isStopped() ) {
+        disposeTrans();
+      }
+      return new GroupResult( group.groupNr, result, System.currentTimeMillis() - startTime );
+    }
+
+    private void startTrans() throws KettleException {
+      Trans newTrans = prepareTrans();
+
+      producers = new ArrayList<>();
+      for ( StepMetaDataCombi combi : newTrans.getSteps() ) {
+        if ( combi.meta instanceof RowsFromResultMeta ) {
+          producers.add( newTrans.addRowProducer( combi.stepname, combi.copy ) );
+        }
+      }
+      newTrans.startThreads();
+      executor = new SingleThreadedTransExecutor( newTrans );
+      previousTotals = new Result();
+      previousResultFiles = new HashSet<>();
+      trans = newTrans;
+
+      // keep track for drill down in Spoon...
+      step.getTrans().addActiveSubTransformation( step.getStepname(), newTrans );
+
+      for ( DelegationListener delegationListener : step.getTrans().getDelegationListeners() ) {
+        delegationListener.transformationDelegationStarted( newTrans, new TransExecutionConfiguration() );
+      }
+    }
+
+    private Result executeGroup( Group group ) throws KettleException {
+      int firstLogLine = KettleLogStore.getLastBufferLineNr();
+
+      Result previousResult = new Result();
+      previousResult.setRows( group.rows );
+      trans.setPreviousResult( previousResult );
+      for ( RowMetaAndData row : group.rows ) {
+        for ( RowProducer producer : producers ) {
+          producer.putRow( row.getRowMeta(), row.getData() );
+        }
+      }
+      executor.oneIteration();
+
+      // The totals of the sub-transformation grow with every group, only pass on what this group added
+      //
+      Result totals = trans.getResult();
+      Result result = new Result();
+      result.setNrErrors( totals.getNrErrors() );
+      result.setResult( totals.getNrErrors() == 0 );
+      result.setStopped( totals.isStopped() );
+      result.setSafeStop( totals.isSafeStop() );
+      result.setNrLinesRead( totals.getNrLinesRead() - previousTotals.getNrLinesRead() );
+      result.setNrLinesInput( totals.getNrLinesInput() - previousTotals.getNrLinesInput() );
+      result.setNrLinesWritten( totals.getNrLinesWritten() - previousTotals.getNrLinesWritten() );
+      result.setNrLinesOutput( totals.getNrLinesOutput() - previousTotals.getNrLinesOutput() );
+      result.setNrLinesUpdated( totals.getNrLinesUpdated() - previousTotals.getNrLinesUpdated() );
+      result.setNrLinesRejected( totals.getNrLinesRejected() - previousTotals.getNrLinesRejected() );
+      previousTotals = totals;
+
+      result.setRows( new ArrayList<>( trans.getResultRows() ) );
+      trans.getResultRows().clear();
+      for ( Map.Entry<String, ResultFile> entry : totals.getResultFiles().entrySet() ) {
+        if ( previousResultFiles.add( entry.getKey() ) ) {
+          result.getResultFiles().put( entry.getKey(), entry.getValue() );
+        }
+      }
+
+      result.setLogChannelId( trans.getLogChannelId() );
+      if ( !Utils.isEmpty( meta.getExecutionLogTextField() ) ) {
+        result.setLogText(
+          KettleLogStore.getAppender().getBuffer( trans.getLogChannelId(), false, firstLogLine ).toString() );
+      }
+      return result;
+    }
+
+    private void disposeTrans() {
+      Trans oldTrans = trans;
+      if ( oldTrans == null ) {
+        return;
+      }
+      trans = null;
+      try {
+        executor.dispose();
+      } catch ( KettleException e ) {
+        step.logError( "Unable to dispose the sub-transformation", e );
+      }
+      KettleLogStore.discardLines( oldTrans.getLogChannelId(), false );
+      LoggingRegistry.getInstance().removeIncludingChildren( oldTrans.getLogChannelId() );
+    }
+  }
+
+  private static final class Group {
+    private final long groupNr;
+    private final List<RowMetaAndData> rows;
+
+    Group( long groupNr, List<RowMetaAndData> rows ) {
+      this.groupNr = groupNr;
+      this.rows = rows;
+    }
+  }
+
+  private static final class GroupResult {
+    private final long groupNr;
+    private final Result result;
+    private final long executionTime;
+
+    GroupResult( long groupNr, Result result, long executionTime ) {
+      this.groupNr = groupNr;
+      this.result = result;
+      this.executionTime = executionTime;
+    }
+  }
+}
@@ -45,6 +45,7 @@ import org.pentaho.di.core.util.EnvUtil;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.www.cache.CarteStatusCache;
 
 public class CarteSingleton {
 
@@ -171,6 +172,7 @@ public class CarteSingleton {
                     //
                     LoggingRegistry.getInstance().removeIncludingChildren( trans.getLogChannelId() );
                     KettleLogStore.discardLines( trans.getLogChannelId(), false );
+                    CarteStatusCache.getInstance().remove( trans.getLogChannelId() );
 
                     // transformationMap.deallocateServerSocketPorts(entry);
 
@@ -198,6 +200,7 @@ public class CarteSingleton {
                     //
                     String id = jobMap.getJob( entry ).getLogChannelId();
                     LoggingRegistry.getInstance().removeLogChannelFileWriterBuffer( id );
+                    CarteStatusCache.getInstance().remove( id );
 
                     jobMap.removeJob( entry );
 
@@ -34,7 +34,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.owasp.encoder.Encode;
-import org.pentaho.di.cluster.HttpUtil;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.util.EnvUtil;
 import org.pentaho.di.core.util.Utils;
@@ -256,7 +255,6 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
             out.flush();
           } else {
             int lastLineNr = KettleLogStore.getLastBufferLineNr();
-            String logText = getLogText( job, startLineNr, lastLineNr );
 
             response.setContentType( "text/xml" );
             response.setCharacterEncoding( Const.XML_ENCODING );
@@ -267,11 +265,8 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
             jobStatus.setLogDate( job.getLogDate() );
 
             // The log can be quite large at times, we are going to putIfAbsent a base64 encoding around a compressed
-            // stream
-
-
-            // of bytes to handle this one.
-            String loggingString = HttpUtil.encodeBase64ZippedString( logText );
+            // stream of bytes to handle this one. Only the lines logged since the previous request are compressed.
+            String loggingString = cache.getLoggingString( logId, startLineNr, lastLineNr );
             jobStatus.setLoggingString( loggingString );
 
             // Also set the result object...
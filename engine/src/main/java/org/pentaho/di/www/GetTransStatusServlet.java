@@ -34,7 +34,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.owasp.encoder.Encode;
-import org.pentaho.di.cluster.HttpUtil;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.util.EnvUtil;
 import org.pentaho.di.core.util.Utils;
@@ -268,7 +267,6 @@ public class GetTransStatusServlet extends BaseHttpServlet implements CartePlugi
           } else {
             int lastLineNr = KettleLogStore.getLastBufferLineNr();
 
-            String logText = getLogText( trans, startLineNr, lastLineNr );
 
             response.setContentType( "text/xml" );
             response.setCharacterEncoding( Const.XML_ENCODING );
@@ -288,9 +286,8 @@ public class GetTransStatusServlet extends BaseHttpServlet implements CartePlugi
             }
 
             // The log can be quite large at times, we are going to putIfAbsent a base64 encoding around a compressed
-            // stream
-            // of bytes to handle this one.
-            String loggingString = HttpUtil.encodeBase64ZippedString( logText );
+            // stream of bytes to handle this one. Only the lines logged since the previous request are compressed.
+            String loggingString = cache.getLoggingString( logId, startLineNr, lastLineNr );
             transStatus.setLoggingString( loggingString );
             //        transStatus.setLoggingUncompressedSize( logText.length() );
 
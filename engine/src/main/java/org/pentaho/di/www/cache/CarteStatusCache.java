@@ -25,10 +25,14 @@ package org.pentaho.di.www.cache;
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.io.FileUtils;
 import org.hibernate.cache.CacheException;
+import org.pentaho.di.cluster.HttpUtil;
 import org.pentaho.di.core.Const;
 import org.hibernate.cache.Cache;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.KettleLogStore;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.time.LocalDate;
 import java.util.Map;
@@ -57,8 +61,35 @@ public class CarteStatusCache implements Cache {
       }
     } );
 
+  /** The maximum number of log channels with a cached compressed log */
+  private static final int MAX_LOG_CHANNELS = 1000;
+
+  /** The maximum compressed size of the cached logs of all channels together */
+  static final long MAX_LOG_SEGMENTS_SIZE = 128L * 1024 * 1024;
+
   private final Map<String, CachedItem> cachedMap = new ConcurrentHashMap<>();
 
+  private final Map<String, LogSegments> logSegmentsMap = new ConcurrentHashMap<>();
+
+  /** Guards the size of the cached logs, and removing them from the map */
+  private final Object logSegmentsLock = new Object();
+
+  private long logSegmentsSize;
+
+  private long maxLogSegmentsSize = MAX_LOG_SEGMENTS_SIZE;
+
+  private final LogSegments.SizeBudget logSegmentsBudget = new LogSegments.SizeBudget() {
+    @Override
+    public boolean reserve( LogSegments logSegments, int bytes ) {
+      return reserveLogSegmentsSize( logSegments, bytes );
+    }
+
+    @Override
+    public void release( LogSegments logSegments ) {
+      releaseLogSegmentsSize( logSegments );
+    }
+  };
+
   private static CarteStatusCache instance = null;
 
   private int period = 0;
@@ -77,6 +108,7 @@ public class CarteStatusCache implements Cache {
     timeUnit = TimeUnit.valueOf( Const.getEnvironmentVariable( "CARTE_CLEAR_TIMEUNIT", "DAYS" ) );
 
     removeService.scheduleAtFixedRate( this::clear, 1, 1, TimeUnit.DAYS );
+    removeService.scheduleAtFixedRate( this::removeIdleLogSegments, 1, 1, TimeUnit.MINUTES );
   }
 
 
@@ -122,7 +154,133 @@ public class CarteStatusCache implements Cache {
     return null;
   }
 
+  /**
+   * Get the log of a channel and its children, compressed and encoded like
+   * {@link HttpUtil#encodeBase64ZippedString(String)} does. The compressed log is kept per channel and only the lines
+   * written since the previous call are compressed, so a client polling the status costs O(new lines) instead of
+   * O(total log). The cached logs of all channels together take at most {@link #MAX_LOG_SEGMENTS_SIZE} bytes, the
+   * least recently read ones are dropped first. A log that isn't read for the clear period of this cache
+   * (CARTE_CLEAR_PERIOD and CARTE_CLEAR_TIMEUNIT) is dropped as well.
+   *
+   * @param logId
+   *          the log channel id
+   * @param from
+   *          the log lines after this line number are returned
+   * @param to
+   *          the last line number to return
+   * @return the compressed and encoded log
+   * @throws KettleException
+   *           in case the log couldn't be compressed
+   */
+  public String getLoggingString( String logId, int from, int to ) throws KettleException {
+    try {
+      String loggingString = null;
+      if ( logId != null ) {
+        LogSegments logSegments = logSegmentsMap.get( logId );
+        if ( logSegments == null && logSegmentsMap.size() < MAX_LOG_CHANNELS ) {
+          logSegments =
+            logSegmentsMap.computeIfAbsent( logId,
+              k -> new LogSegments( ( f, t ) -> getLogText( logId, f, t ), logSegmentsBudget ) );
+        }
+        if ( logSegments != null ) {
+          loggingString = logSegments.getLoggingString( from, to );
+        }
+      }
+      if ( loggingString == null ) {
+        loggingString = HttpUtil.encodeBase64ZippedString( getLogText( logId, from, to ) );
+      }
+      return loggingString;
+    } catch ( IOException e ) {
+      throw new KettleException( "Unable to compress the log", e );
+    } catch ( OutOfMemoryError error ) {
+      throw new KettleException( "Log string is too long", error );
+    }
+  }
+
+  private static String getLogText( String logId, int from, int to ) {
+    return KettleLogStore.getAppender().getBuffer( logId, false, from, to ).toString();
+  }
+
+  /**
+   * Make room for a log that grows: drop the least recently read logs of other channels until it fits.
+   */
+  private boolean reserveLogSegmentsSize( LogSegments logSegments, int bytes ) {
+    synchronized ( logSegmentsLock ) {
+      if ( logSegments.isDiscarded() ) {
+        return false;
+      }
+      while ( logSegmentsSize + bytes > maxLogSegmentsSize ) {
+        Map.Entry<String, LogSegments> leastRecent = null;
+        for ( Map.Entry<String, LogSegments> entry : logSegmentsMap.entrySet() ) {
+          LogSegments other = entry.getValue();
+          if ( other != logSegments && other.reservedSize > 0
+            && ( leastRecent == null || other.getLastAccess() < leastRecent.getValue().getLastAccess() ) ) {
+            leastRecent = entry;
+          }
+        }
+        if ( leastRecent == null ) {
+          return false;
+        }
+        removeLogSegments( leastRecent.getKey(), leastRecent.getValue() );
+      }
+      logSegmentsSize += bytes;
+      logSegments.reservedSize += bytes;
+      return true;
+    }
+  }
+
+  private void releaseLogSegmentsSize( LogSegments logSegments ) {
+    synchronized ( logSegmentsLock ) {
+      logSegmentsSize -= logSegments.reservedSize;
+      logSegments.reservedSize = 0;
+    }
+  }
+
+  private void removeLogSegments( String id, LogSegments logSegments ) {
+    synchronized ( logSegmentsLock ) {
+      if ( logSegmentsMap.remove( id, logSegments ) ) {
+        logSegments.discard();
+        releaseLogSegmentsSize( logSegments );
+      }
+    }
+  }
+
+  /**
+   * Drop the cached logs which weren't read for the clear period of this cache.
+   */
+  void removeIdleLogSegments() {
+    long idleSince = System.currentTimeMillis() - timeUnit.toMillis( period );
+    logSegmentsMap.forEach( ( id, logSegments ) -> {
+      if ( logSegments.getLastAccess() < idleSince ) {
+        removeLogSegments( id, logSegments );
+      }
+    } );
+  }
+
+  @VisibleForTesting
+  long getLogSegmentsSize() {
+    synchronized ( logSegmentsLock ) {
+      return logSegmentsSize;
+    }
+  }
+
+  @VisibleForTesting
+  void setMaxLogSegmentsSize( long maxLogSegmentsSize ) {
+    synchronized ( logSegmentsLock ) {
+      this.maxLogSegmentsSize = maxLogSegmentsSize;
+    }
+  }
+
+  @VisibleForTesting
+  Map<String, LogSegments> getLogSegmentsMap() {
+    return logSegmentsMap;
+  }
+
   public void remove( String id ) {
+    LogSegments logSegments = logSegmentsMap.get( id );
+    if ( logSegments != null ) {
+      removeLogSegments( id, logSegments );
+    }
     CachedItem item = cachedMap.remove( id );
     if ( item != null ) {
       removeTask( item.getFile() );
@@ -178,6 +336,7 @@ public class CarteStatusCache implements Cache {
         remove( k );
       }
     } );
+    removeIdleLogSegments();
   }
 
   @Override
@@ -0,0 +1,228 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www.cache;
+
+import org.apache.commons.codec.binary.Base64;
+import org.pentaho.di.core.Const;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The log of one log channel as a chain of gzip compressed segments. Every call only compresses the log lines written
+ * since the previous one and appends them as a new segment. The log after a line number is the concatenation of the
+ * segments after it: a series of gzip members is itself a valid gzip stream, so the result reads like
+ * {@link org.pentaho.di.cluster.HttpUtil#encodeBase64ZippedString(String)}.<br>
+ * <br>
+ * The segments of all channels share a {@link SizeBudget}: a channel that can't grow any more drops its segments and is
+ * no longer cached.
+ */
+class LogSegments {
+
+  /** The maximum compressed size of the log of a channel, larger logs are no longer cached */
+  static final int MAX_SIZE = 16 * 1024 * 1024;
+
+  @FunctionalInterface
+  interface LogText {
+    /**
+     * @return the log text of the lines after line number from up to and including line number to
+     */
+    String getLogText( int from, int to );
+  }
+
+  /**
+   * Keeps the size of the segments of all channels in check.
+   */
+  interface SizeBudget {
+    /**
+     * @return true if the segments can grow by the given number of bytes, false if they should be dropped
+     */
+    boolean reserve( LogSegments logSegments, int bytes );
+
+    /**
+     * The segments were dropped, the bytes reserved for them are free again.
+     */
+    void release( LogSegments logSegments );
+  }
+
+  /** A budget which only limits the size of one channel to {@link #MAX_SIZE} */
+  static final SizeBudget UNLIMITED = new SizeBudget() {
+    @Override
+    public boolean reserve( LogSegments logSegments, int bytes ) {
+      return true;
+    }
+
+    @Override
+    public void release( LogSegments logSegments ) {
+    }
+  };
+
+  private final LogText logText;
+  private final SizeBudget sizeBudget;
+  private final List<Segment> segments = new ArrayList<>();
+
+  /** There are no log lines after this line number up to lastNr */
+  private int openStart;
+
+  /** The segments hold the log up to this line number */
+  private int lastNr;
+
+  private int size;
+  private boolean full;
+
+  /** Set once the segments are dropped from the cache, they're no longer used */
+  private volatile boolean discarded;
+
+  /** The last time the segments were read, in milliseconds */
+  private volatile long lastAccess = System.currentTimeMillis();
+
+  /** The bytes reserved in the size budget, guarded by the budget */
+  long reservedSize;
+
+  LogSegments( LogText logText ) {
+    this( logText, UNLIMITED );
+  }
+
+  LogSegments( LogText logText, SizeBudget sizeBudget ) {
+    this.logText = logText;
+    this.sizeBudget = sizeBudget;
+  }
+
+  /**
+   * Get the log lines after line number from up to line number to, compressed and base64 encoded. A cursor beyond the
+   * cached log, like the first request of a client that starts in the middle of the log, first adds the log up to that
+   * cursor.
+   *
+   * @return the encoded log or null if it can't be served from the segments
+   */
+  synchronized String getLoggingString( int from, int to ) throws IOException {
+    lastAccess = System.currentTimeMillis();
+    if ( full || discarded || to < lastNr || from > to ) {
+      return null;
+    }
+
+    if ( ( from > lastNr && !append( from ) ) || !append( to ) ) {
+      return null;
+    }
+
+    if ( from >= openStart ) {
+      return encode( segments.size() );
+    }
+    for ( int i = 0; i < segments.size(); i++ ) {
+      Segment segment = segments.get( i );
+      if ( segment.firstFrom <= from && from <= segment.lastFrom ) {
+        return encode( i );
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Add the log lines after the cached log up to the given line number as a new segment.
+   *
+   * @return false if the segments grew too large and were dropped
+   */
+  private boolean append( int nr ) throws IOException {
+    if ( nr <= lastNr ) {
+      return true;
+    }
+    String text = logText.getLogText( lastNr, nr );
+    if ( !text.isEmpty() ) {
+      byte[] compressed = compress( text );
+      if ( size + compressed.length > MAX_SIZE || !sizeBudget.reserve( this, compressed.length ) ) {
+        full = true;
+        segments.clear();
+        size = 0;
+        sizeBudget.release( this );
+        return false;
+      }
+      segments.add( new Segment( openStart, lastNr, compressed ) );
+      size += compressed.length;
+      openStart = nr;
+    }
+    lastNr = nr;
+    return true;
+  }
+
+  /**
+   * Mark the segments as no longer used, expects the caller to release their size from the budget.
+   */
+  void discard() {
+    discarded = true;
+  }
+
+  boolean isDiscarded() {
+    return discarded;
+  }
+
+  long getLastAccess() {
+    return lastAccess;
+  }
+  private String encode( int firstSegment ) throws IOException {
+    if ( firstSegment >= segments.size() ) {
+      return new String( Base64.encodeBase64Chunked( compress( "" ) ), StandardCharsets.US_ASCII );
+    }
+    int length = 0;
+    for ( int i = firstSegment; i < segments.size(); i++ ) {
+      length += segments.get( i ).data.length;
+    }
+    byte[] all = new byte[length];
+    int offset = 0;
+    for ( int i = firstSegment; i < segments.size(); i++ ) {
+      byte[] data = segments.get( i ).data;
+      System.arraycopy( data, 0, all, offset, data.length );
+      offset += data.length;
+    }
+    return new String( Base64.encodeBase64Chunked( all ), StandardCharsets.US_ASCII );
+  }
+
+  private static byte[] compress( String text ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream( Math.max( 32, text.length() / 4 ) );
+    try ( GZIPOutputStream gzos = new GZIPOutputStream( out ) ) {
+      gzos.write( text.getBytes( Charset.forName( Const.XML_ENCODING ) ) );
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * The compressed log lines of one call. All cursors from firstFrom up to lastFrom start with this segment: there
+   * were no log lines in between.
+   */
+  private static final class Segment {
+    private final int firstFrom;
+    private final int lastFrom;
+    private final byte[] data;
+
+    Segment( int firstFrom, int lastFrom, byte[] data ) {
+      this.firstFrom = firstFrom;
+      this.lastFrom = lastFrom;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.job.JobHopMeta;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.special.JobEntrySpecial;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryObject;
+import org.pentaho.di.repository.RepositoryObjectType;
+import org.pentaho.di.repository.StringObjectId;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.metastore.api.IMetaStore;
+
+public class MetaFileCacheTest {
+
+  private File file;
+  private AtomicInteger loads;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws KettleException {
+    KettleEnvironment.init();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile( "MetaFileCacheTest", ".ktr" );
+    writeTransformation( "dummy" );
+    loads = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testDisabledCacheAlwaysLoads() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 0 );
+    load( cache );
+    load( cache );
+
+    assertEquals( 2, loads.get() );
+    assertEquals( 0, cache.size() );
+  }
+
+  @Test
+  public void testCachedTransformationIsCopied() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 10 );
+    TransMeta first = load( cache );
+    first.setVariable( "changed", "Y" );
+    first.addStep( new StepMeta( "extra", new DummyTransMeta() ) );
+    first.getTransLogTable().setTableName( "changed" );
+
+    TransMeta second = load( cache );
+    TransMeta third = load( cache );
+
+    assertEquals( 1, loads.get() );
+    assertEquals( 2, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+    assertNotSame( second, third );
+    assertEquals( 1, second.nrSteps() );
+    assertEquals( "dummy", second.getStep( 0 ).getName() );
+    assertEquals( file.getAbsolutePath(), second.getFilename() );
+    assertNull( second.getVariable( "changed" ) );
+    assertNull( second.getTransLogTable().getTableName() );
+
+    // Every copy has its own variables and steps
+    //
+    second.setVariable( "second", "Y" );
+    second.getStep( 0 ).setName( "renamed" );
+    assertNull( third.getVariable( "second" ) );
+    assertEquals( "dummy", third.getStep( 0 ).getName() );
+  }
+
+  @Test
+  public void testCopiedHopsReferToTheCopiedSteps() {
+    TransMeta transMeta = new TransMeta();
+    StepMeta from = new StepMeta( "from", new DummyTransMeta() );
+    StepMeta to = new StepMeta( "to", new DummyTransMeta() );
+    transMeta.addStep( from );
+    transMeta.addStep( to );
+    transMeta.addTransHop( new TransHopMeta( from, to ) );
+
+    TransMeta copy = MetaFileCache.copyOf( transMeta, null );
+
+    List<StepMeta> hopSteps = copy.getTransHopSteps( false );
+    assertEquals( 2, hopSteps.size() );
+    assertSame( copy.findStep( "from" ), hopSteps.get( 0 ) );
+    assertSame( copy.findStep( "to" ), hopSteps.get( 1 ) );
+    assertNotSame( from, copy.findStep( "from" ) );
+    assertSame( copy.findStep( "to" ), copy.findNextSteps( copy.findStep( "from" ) ).get( 0 ) );
+  }
+
+  @Test
+  public void testCopiedHopsReferToTheCopiedJobEntries() {
+    JobMeta jobMeta = new JobMeta();
+    JobEntryCopy start = new JobEntryCopy( new JobEntrySpecial( "START", true, false ) );
+    JobEntryCopy next = new JobEntryCopy( new JobEntrySpecial( "next", false, true ) );
+    jobMeta.addJobEntry( start );
+    jobMeta.addJobEntry( next );
+    jobMeta.addJobHop( new JobHopMeta( start, next ) );
+
+    JobMeta copy = MetaFileCache.copyOf( jobMeta, null );
+
+    JobEntryCopy copyStart = copy.findJobEntry( "START", 0, true );
+    JobEntryCopy copyNext = copy.findJobEntry( "next", 0, true );
+    assertNotSame( start, copyStart );
+    assertSame( copyNext, copy.findNextJobEntry( copyStart, 0 ) );
+    assertSame( copyStart, copy.getJobHop( 0 ).getFromEntry() );
+    assertSame( copyNext, copy.getJobHop( 0 ).getToEntry() );
+  }
+
+  @Test
+  public void testCopyGetsTheParentVariables() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 10 );
+    load( cache );
+    Variables parent = new Variables();
+    parent.setVariable( "PARENT_VARIABLE", "parent" );
+
+    TransMeta copy = cache.getTransMeta( file.getAbsolutePath(), parent, null, null, () -> loadTransMeta() );
+
+    assertEquals( "parent", copy.getVariable( "PARENT_VARIABLE" ) );
+    assertEquals( file.getName(), copy.getVariable( Const.INTERNAL_VARIABLE_TRANSFORMATION_FILENAME_NAME ) );
+  }
+
+  @Test
+  public void testChangedFileIsLoadedAgain() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 10 );
+    load( cache );
+    writeTransformation( "changed step" );
+    assertTrue( file.setLastModified( file.lastModified() + 10000 ) );
+
+    TransMeta transMeta = load( cache );
+
+    assertEquals( 2, loads.get() );
+    assertEquals( "changed step", transMeta.getStep( 0 ).getName() );
+    assertEquals( "changed step", load( cache ).getStep( 0 ).getName() );
+    assertEquals( 2, loads.get() );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 1 );
+    File other = File.createTempFile( "MetaFileCacheTest", ".ktr" );
+    try {
+      Files.write( other.toPath(), Files.readAllBytes( file.toPath() ) );
+      load( cache );
+      cache.getTransMeta( other.getAbsolutePath(), null, null, null,
+        () -> new TransMeta( other.getAbsolutePath() ) );
+      load( cache );
+
+      assertEquals( 2, loads.get() );
+      assertEquals( 1, cache.size() );
+      assertEquals( 2, cache.getEvictions() );
+    } finally {
+      other.delete();
+    }
+  }
+
+  @Test
+  public void testOtherMetaStoreLoadsAgain() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 10 );
+    IMetaStore metaStore = mock( IMetaStore.class );
+    IMetaStore otherMetaStore = mock( IMetaStore.class );
+    cache.getTransMeta( file.getAbsolutePath(), null, null, metaStore, () -> loadTransMeta() );
+    cache.getTransMeta( file.getAbsolutePath(), null, null, otherMetaStore, () -> loadTransMeta() );
+    cache.getTransMeta( file.getAbsolutePath(), null, null, metaStore, () -> loadTransMeta() );
+
+    assertEquals( 2, loads.get() );
+    assertEquals( 2, cache.size() );
+  }
+
+  @Test
+  public void testRepositoryObjectIsCachedPerRepository() throws Exception {
+    MetaFileCache cache = new MetaFileCache( 10 );
+    ObjectId objectId = new StringObjectId( "id" );
+    Repository repository = mockRepository( objectId );
+    Repository otherRepository = mockRepository( objectId );
+    Variables parent = new Variables();
+    parent.setVariable( "PARENT_VARIABLE", "parent" );
+
+    TransMeta first = cache.getTransMeta( repository, objectId, parent, () -> loadTransMeta() );
+    TransMeta second = cache.getTransMeta( repository, objectId, parent, () -> loadTransMeta() );
+    cache.getTransMeta( otherRepository, objectId, null, () -> loadTransMeta() );
+
+    assertEquals( 2, loads.get() );
+    assertNotSame( first, second );
+    assertEquals( "parent", first.getVariable( "PARENT_VARIABLE" ) );
+    assertEquals( "parent", second.getVariable( "PARENT_VARIABLE" ) );
+  }
+
+  private Repository mockRepository( ObjectId objectId ) throws KettleException {
+    Repository repository = mock( Repository.class );
+    RepositoryObject information = mock( RepositoryObject.class );
+    when( information.getModifiedDate() ).thenReturn( new Date( 1000L ) );
+    when( repository.getObjectInformation( objectId, RepositoryObjectType.TRANSFORMATION ) ).thenReturn( information );
+    return repository;
+  }
+
+  private TransMeta load( MetaFileCache cache ) throws KettleException {
+    return cache.getTransMeta( file.getAbsolutePath(), null, null, null, () -> loadTransMeta() );
+  }
+
+  private TransMeta loadTransMeta() throws KettleException {
+    loads.incrementAndGet();
+    return new TransMeta( file.getAbsolutePath() );
+  }
+
+  private void writeTransformation( String stepName ) throws Exception {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName( "cached" );
+    transMeta.addStep( new StepMeta( stepName, new DummyTransMeta() ) );
+    Files.write( file.toPath(), transMeta.getXML().getBytes( StandardCharsets.UTF_8 ) );
+  }
+}
@@ -0,0 +1,183 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.job.entries.special.JobEntrySpecial;
+import org.pentaho.di.job.entry.JobEntryCopy;
+
+public class JobEntrySchedulerTest {
+  private JobMeta jobMeta;
+  private Job job;
+
+  @Before
+  public void setUp() {
+    jobMeta = new JobMeta();
+    job = new Job( null, jobMeta );
+  }
+
+  private JobEntryCopy entry( String name ) {
+    JobEntryCopy copy = new JobEntryCopy( new JobEntrySpecial( name, false, true ) );
+    jobMeta.addJobEntry( copy );
+    return copy;
+  }
+
+  private void hop( JobEntryCopy from, JobEntryCopy to ) {
+    jobMeta.addJobHop( new JobHopMeta( from, to ) );
+  }
+
+  @Test
+  public void testCriticalPath() {
+    JobEntryCopy a = entry( "a" );
+    JobEntryCopy b = entry( "b" );
+    JobEntryCopy c = entry( "c" );
+    JobEntryCopy d = entry( "d" );
+    hop( a, b );
+    hop( b, c );
+    hop( a, d );
+    hop( c, a ); // a loop back is ignored
+    job.getJobEntryTiming( d ).addExecution( 100L );
+
+    assertEquals( 100L, new JobEntryScheduler( job, 2 ).criticalPath( d ) );
+    assertEquals( 101L, new JobEntryScheduler( job, 2 ).criticalPath( a ) );
+    assertEquals( 103L, new JobEntryScheduler( job, 2 ).criticalPath( b ) );
+  }
+
+  @Test
+  public void testCriticalPathUsesNewExecutionTimes() {
+    JobEntryCopy a = entry( "a" );
+    JobEntryCopy b = entry( "b" );
+    hop( a, b );
+    JobEntryScheduler scheduler = new JobEntryScheduler( job, 2 );
+
+    // Nothing ran yet the first time the branch is launched
+    //
+    assertEquals( 2L, scheduler.criticalPath( a ) );
+
+    job.getJobEntryTiming( b ).addExecution( 50L );
+    assertEquals( 51L, scheduler.criticalPath( a ) );
+    job.getJobEntryTiming( a ).addExecution( 10L );
+    assertEquals( 60L, scheduler.criticalPath( a ) );
+    assertEquals( 50L, scheduler.criticalPath( b ) );
+  }
+
+  @Test
+  public void testLimitsParallelBranches() throws Exception {
+    JobEntryScheduler scheduler = new JobEntryScheduler( job, 3 );
+    JobEntryCopy entry = entry( "a" );
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    List<JobEntryScheduler.Branch> branches = new ArrayList<>();
+    for ( int i = 0; i < 20; i++ ) {
+      branches.add( scheduler.launch( entry, () -> {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet( now, Math::max );
+        try {
+          Thread.sleep( 5 );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      } ) );
+    }
+    for ( JobEntryScheduler.Branch branch : branches ) {
+      scheduler.await( branch );
+      assertTrue( branch.isDone() );
+    }
+    // The waiting thread can run a queued branch next to the workers
+    //
+    assertTrue( "max running: " + maxRunning.get(), maxRunning.get() <= 4 );
+    assertTrue( job.getJobEntryTimings().containsKey( entry ) );
+  }
+
+  @Test
+  public void testQueuedBranchesByCriticalPath() throws Exception {
+    JobEntryCopy shortBranch = entry( "short" );
+    JobEntryCopy longBranch = entry( "long" );
+    hop( longBranch, entry( "next" ) );
+    JobEntryScheduler scheduler = new JobEntryScheduler( job, 1 );
+
+    // Keep the only worker busy while the other branches are queued
+    //
+    final CountDownLatch blocker = new CountDownLatch( 1 );
+    JobEntryScheduler.Branch busy = scheduler.launch( entry( "busy" ), () -> {
+      try {
+        blocker.await( 10, TimeUnit.SECONDS );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    } );
+    final List<String> order = Collections.synchronizedList( new ArrayList<String>() );
+    JobEntryScheduler.Branch first = scheduler.launch( shortBranch, () -> order.add( "short" ) );
+    JobEntryScheduler.Branch second = scheduler.launch( longBranch, () -> order.add( "long" ) );
+    blocker.countDown();
+    scheduler.await( busy );
+    while ( !first.isDone() || !second.isDone() ) {
+      Thread.sleep( 1 );
+    }
+    assertEquals( "long", order.get( 0 ) );
+    assertEquals( "short", order.get( 1 ) );
+  }
+
+  @Test
+  public void testNestedBranchesDontDeadlock() throws Exception {
+    final JobEntryScheduler scheduler = new JobEntryScheduler( job, 1 );
+    final JobEntryCopy entry = entry( "a" );
+    final AtomicInteger executed = new AtomicInteger();
+
+    List<JobEntryScheduler.Branch> branches = new ArrayList<>();
+    for ( int i = 0; i < 3; i++ ) {
+      branches.add( scheduler.launch( entry, () -> {
+        List<JobEntryScheduler.Branch> nested = new ArrayList<>();
+        for ( int j = 0; j < 3; j++ ) {
+          nested.add( scheduler.launch( entry, executed::incrementAndGet ) );
+        }
+        try {
+          for ( JobEntryScheduler.Branch branch : nested ) {
+            scheduler.await( branch );
+          }
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+        executed.incrementAndGet();
+      } ) );
+    }
+    for ( JobEntryScheduler.Branch branch : branches ) {
+      scheduler.await( branch );
+    }
+    assertEquals( 12, executed.get() );
+  }
+}
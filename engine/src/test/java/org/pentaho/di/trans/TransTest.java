@@ -51,6 +51,7 @@ import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -58,7 +59,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 
@@ -610,4 +613,38 @@ public class TransTest {
     assertEquals( "Original value defined at run execution", transTest.getVariable( Const.INTERNAL_VARIABLE_ENTRY_CURRENT_DIRECTORY )  );
   }
 
+  @Test
+  public void testFindFusedChains() throws Exception {
+    TransMeta transMeta = new TransMeta();
+    StepMeta input = addStep( transMeta, "RowGenerator", "input" );
+    StepMeta select = addStep( transMeta, "SelectValues", "select" );
+    StepMeta constant = addStep( transMeta, "Constant", "constant" );
+    StepMeta calculator = addStep( transMeta, "Calculator", "calculator" );
+    StepMeta output1 = addStep( transMeta, "Dummy", "output1" );
+    StepMeta output2 = addStep( transMeta, "Dummy", "output2" );
+    transMeta.addTransHop( new TransHopMeta( input, select ) );
+    transMeta.addTransHop( new TransHopMeta( select, constant ) );
+    transMeta.addTransHop( new TransHopMeta( constant, calculator ) );
+    transMeta.addTransHop( new TransHopMeta( calculator, output1 ) );
+    transMeta.addTransHop( new TransHopMeta( calculator, output2 ) );
+
+    // The input step can't be fused and the calculator writes to two steps
+    //
+    Trans fusedTrans = new Trans( transMeta );
+    List<List<StepMeta>> chains = fusedTrans.findFusedChains( transMeta.getTransHopSteps( false ) );
+    assertEquals( 1, chains.size() );
+    assertEquals( Arrays.asList( select, constant, calculator ), chains.get( 0 ) );
+
+    // Steps running in multiple copies aren't fused
+    //
+    constant.setCopies( 2 );
+    assertTrue( fusedTrans.findFusedChains( transMeta.getTransHopSteps( false ) ).isEmpty() );
+  }
+
+  private StepMeta addStep( TransMeta transMeta, String stepId, String name ) {
+    StepMeta stepMeta = new StepMeta( stepId, name, new DummyTransMeta() );
+    stepMeta.setStepID( stepId );
+    transMeta.addStep( stepMeta );
+    return stepMeta;
+  }
 }
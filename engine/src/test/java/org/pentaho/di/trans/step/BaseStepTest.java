@@ -26,8 +26,10 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.mockito.Matchers.any;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -40,9 +42,11 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
@@ -53,6 +57,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.QueueRowSet;
 import org.pentaho.di.core.ResultFile;
 import org.pentaho.di.core.RowMetaAndData;
@@ -527,4 +532,167 @@ public class BaseStepTest {
     baseStepSpy.getRow();
     verify( mockHelper.transMeta, times( 1 ) ).checkRowMixingStatically( any( StepMeta.class ), anyObject() );
   }
+
+  @Test
+  public void testStatusCountersAreThreadSafe() throws Exception {
+    final BaseStep baseStep =
+      new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    final int nrThreads = 4;
+    final int nrIncrements = 10000;
+    Thread[] threads = new Thread[ nrThreads ];
+    for ( int i = 0; i < nrThreads; i++ ) {
+      threads[ i ] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int j = 0; j < nrIncrements; j++ ) {
+            baseStep.incrementLinesRead();
+            baseStep.incrementLinesWritten();
+            baseStep.incrementLinesRejected();
+          }
+        }
+      } );
+      threads[ i ].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertEquals( nrThreads * nrIncrements, baseStep.getLinesRead() );
+    assertEquals( nrThreads * nrIncrements, baseStep.getLinesWritten() );
+    assertEquals( nrThreads * nrIncrements, baseStep.getLinesRejected() );
+
+    assertEquals( nrThreads * nrIncrements - 1, baseStep.decrementLinesRead() );
+    baseStep.setLinesOutput( 42L );
+    assertEquals( 42L, baseStep.getLinesOutput() );
+    assertEquals( 43L, baseStep.incrementLinesOutput() );
+  }
+
+  @Test
+  @SuppressWarnings( "deprecation" )
+  public void testDeprecatedCounterFieldsAreTheCounters() {
+    BaseStep baseStep =
+      new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    baseStep.incrementLinesInput();
+    baseStep.incrementLinesInput();
+    assertEquals( 2L, baseStep.linesInput );
+
+    // Steps that still change the fields directly are seen through the getters
+    //
+    baseStep.linesOutput++;
+    baseStep.linesRejected = 5L;
+    assertEquals( 1L, baseStep.getLinesOutput() );
+    assertEquals( 2L, baseStep.incrementLinesOutput() );
+    assertEquals( 5L, baseStep.getLinesRejected() );
+    assertEquals( 5L, baseStep.getStatusCounters().getLinesRejected() );
+  }
+
+  @Test
+  public void testStatusCountersSnapshot() throws Exception {
+    final BaseStep baseStep =
+      new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    final int nrRows = 2000;
+    Thread step = new Thread( new Runnable() {
+      @Override
+      public void run() {
+        for ( int i = 0; i < nrRows; i++ ) {
+          baseStep.incrementLinesRead();
+          baseStep.incrementLinesWritten();
+          Thread.yield();
+        }
+      }
+    } );
+    step.start();
+    BaseStep.StatusCounters previous = baseStep.getStatusCounters();
+    while ( step.isAlive() ) {
+      // The snapshot is a best effort, but every counter in it is a value the step really had
+      //
+      BaseStep.StatusCounters counters = baseStep.getStatusCounters();
+      assertTrue( counters.getLinesRead() >= previous.getLinesRead() );
+      assertTrue( counters.getLinesWritten() >= previous.getLinesWritten() );
+      assertTrue( counters.getLinesRead() <= nrRows );
+      assertTrue( counters.getLinesWritten() <= nrRows );
+      previous = counters;
+    }
+    step.join();
+
+    baseStep.setLinesInput( 3L );
+    baseStep.setErrors( 2L );
+    BaseStep.StatusCounters counters = baseStep.getStatusCounters();
+    assertEquals( nrRows, counters.getLinesRead() );
+    assertEquals( nrRows, counters.getLinesWritten() );
+    assertEquals( 3L, counters.getLinesInput() );
+    assertEquals( 0L, counters.getLinesOutput() );
+    assertEquals( 2L, counters.getErrors() );
+  }
+
+  @Test( timeout = 10000 )
+  public void testInputRowSetsCanBeAddedWhileWaitingForRows() throws Exception {
+    when( mockHelper.trans.isRunning() ).thenReturn( true );
+    final BaseStep baseStepSpy =
+      spy( new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta,
+        mockHelper.trans ) );
+    doNothing().when( baseStepSpy ).openRemoteInputStepSocketsOnce();
+    baseStepSpy.setInputRowSets( new ArrayList<RowSet>( Collections.singletonList( new BlockingRowSet( 10 ) ) ) );
+
+    final AtomicReference<Object[]> read = new AtomicReference<>();
+    Thread reader = new Thread( () -> {
+      try {
+        read.set( baseStepSpy.getRow() );
+      } catch ( KettleException e ) {
+        // The row stays null
+      }
+    } );
+    reader.start();
+    Thread.sleep( 200 );
+
+    // The reader waits for a row, that mustn't keep us from adding an input row set
+    //
+    BlockingRowSet added = new BlockingRowSet( 10 );
+    added.putRow( new RowMeta(), new Object[] { "row" } );
+    baseStepSpy.addRowSetToInputRowSets( added );
+
+    reader.join();
+    assertEquals( "row", read.get()[0] );
+  }
+
+  @Test( timeout = 10000 )
+  public void testFrozenInputRowMetaIsKeptPerInputRowMeta() throws Exception {
+    when( mockHelper.trans.isRunning() ).thenReturn( true );
+    BaseStep baseStepSpy =
+      spy( new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta,
+        mockHelper.trans ) );
+    doNothing().when( baseStepSpy ).openRemoteInputStepSocketsOnce();
+    baseStepSpy.setVariable( Const.KETTLE_FROZEN_ROW_META, "Y" );
+
+    RowMetaInterface firstMeta = new RowMeta();
+    firstMeta.addValueMeta( new ValueMetaString( "name" ) );
+    RowMetaInterface secondMeta = new RowMeta();
+    secondMeta.addValueMeta( new ValueMetaString( "name" ) );
+    BlockingRowSet first = new BlockingRowSet( 10 );
+    BlockingRowSet second = new BlockingRowSet( 10 );
+    for ( int i = 0; i < 3; i++ ) {
+      first.putRow( firstMeta, new Object[] { "first" } );
+      second.putRow( secondMeta, new Object[] { "second" } );
+    }
+    first.setDone();
+    second.setDone();
+    baseStepSpy.setInputRowSets( new ArrayList<RowSet>( Arrays.asList( first, second ) ) );
+
+    // The step reads from both row sets in turn, every row set meta is frozen only once
+    //
+    Map<RowMetaInterface, RowMetaInterface> frozen = new IdentityHashMap<>();
+    Object[] row;
+    int rows = 0;
+    while ( ( row = baseStepSpy.getRow() ) != null ) {
+      RowMetaInterface source = "first".equals( row[0] ) ? firstMeta : secondMeta;
+      RowMetaInterface inputRowMeta = baseStepSpy.getInputRowMeta();
+      assertNotSame( source, inputRowMeta );
+      RowMetaInterface previous = frozen.put( source, inputRowMeta );
+      if ( previous != null ) {
+        assertSame( previous, inputRowMeta );
+      }
+      rows++;
+    }
+    assertEquals( 6, rows );
+    assertEquals( 2, frozen.size() );
+  }
 }
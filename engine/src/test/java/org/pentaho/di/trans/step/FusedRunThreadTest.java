@@ -0,0 +1,217 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.QueueRowSet;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.steps.mock.StepMockHelper;
+
+public class FusedRunThreadTest {
+
+  private static final int NR_ROWS = 1000;
+
+  private StepMockHelper<StepMetaInterface, StepDataInterface> stepMockHelper;
+  private RowMetaInterface rowMeta;
+  private List<TestStep> chainSteps = new ArrayList<>();
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    KettleLogStore.init();
+  }
+
+  @Before
+  public void setUp() {
+    stepMockHelper =
+      new StepMockHelper<StepMetaInterface, StepDataInterface>( "FUSED", StepMetaInterface.class,
+        StepDataInterface.class );
+    when( stepMockHelper.logChannelInterfaceFactory.create( any(), any( LoggingObjectInterface.class ) ) )
+      .thenReturn( stepMockHelper.logChannelInterface );
+    when( stepMockHelper.trans.isRunning() ).thenReturn( true );
+
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+  }
+
+  @After
+  public void tearDown() {
+    stepMockHelper.cleanUp();
+  }
+
+  @Test
+  public void testChainPassesAllRows() throws Exception {
+    List<Object[]> output = runChain( new TestStep( 1, false ), new TestStep( 1, false ), new TestStep( 1, false ) );
+
+    assertEquals( NR_ROWS, output.size() );
+    for ( int i = 0; i < NR_ROWS; i++ ) {
+      assertEquals( Long.valueOf( i ), output.get( i )[0] );
+    }
+  }
+
+  @Test
+  public void testStepWithoutOutputDoesNotBlockTheChain() throws Exception {
+    TestStep first = new TestStep( 1, false );
+    TestStep filter = new TestStep( 3, false );
+    TestStep last = new TestStep( 2, false );
+    List<Object[]> output = runChain( first, filter, last );
+
+    // Only the multiples of 6 make it through
+    //
+    assertEquals( ( NR_ROWS + 5 ) / 6, output.size() );
+    for ( Object[] row : output ) {
+      assertEquals( 0L, (Long) row[0] % 6 );
+    }
+    assertEquals( NR_ROWS, first.getLinesRead() );
+    assertEquals( NR_ROWS, filter.getLinesRead() );
+    assertEquals( ( NR_ROWS + 2 ) / 3, filter.getLinesWritten() );
+    assertEquals( ( NR_ROWS + 2 ) / 3, last.getLinesRead() );
+    for ( TestStep step : Arrays.asList( first, filter, last ) ) {
+      assertFalse( step.isRunning() );
+      assertEquals( 0, step.getErrors() );
+    }
+  }
+
+  @Test
+  public void testFailingStepFinishesTheChain() throws Exception {
+    TestStep first = new TestStep( 1, false );
+    TestStep failing = new TestStep( 1, true );
+    TestStep last = new TestStep( 1, false );
+    runChain( first, failing, last );
+
+    assertEquals( 1, failing.getErrors() );
+    for ( TestStep step : Arrays.asList( first, failing, last ) ) {
+      assertTrue( step.isStopped() );
+      assertFalse( step.isRunning() );
+    }
+  }
+
+  /**
+   * Run the steps as a chain reading all rows from one row set and return the rows written by the last step.
+   */
+  private List<Object[]> runChain( TestStep... chain ) throws Exception {
+    final RowSet input = new BlockingRowSet( 10 );
+    RowSet output = new BlockingRowSet( NR_ROWS );
+
+    chainSteps = Arrays.asList( chain );
+    List<StepMetaDataCombi> combis = new ArrayList<>();
+    for ( int i = 0; i < chain.length; i++ ) {
+      TestStep step = chain[i];
+      assertTrue( step.init( stepMockHelper.initStepMetaInterface, stepMockHelper.initStepDataInterface ) );
+      step.addRowSetToInputRowSets( i == 0 ? input : chain[i - 1].getOutputRowSets().get( 0 ) );
+      step.addRowSetToOutputRowSets( i == chain.length - 1 ? output : new QueueRowSet() );
+      StepMetaDataCombi combi = new StepMetaDataCombi();
+      combi.step = step;
+      combi.meta = stepMockHelper.processRowsStepMetaInterface;
+      combi.data = stepMockHelper.processRowsStepDataInterface;
+      combi.stepname = "FUSED " + i;
+      combis.add( combi );
+    }
+
+    Thread thread = new Thread( new FusedRunThread( combis ) );
+    thread.start();
+
+    // The first step waits for rows coming from another thread
+    //
+    for ( long i = 0; i < NR_ROWS && !chain[0].isStopped(); i++ ) {
+      while ( !input.putRow( rowMeta, new Object[] { i } ) && !chain[0].isStopped() ) {
+        // the row set is full
+      }
+    }
+    input.setDone();
+    thread.join( 10000 );
+    assertFalse( thread.isAlive() );
+    assertTrue( output.isDone() || chain[0].isStopped() );
+
+    List<Object[]> rows = new ArrayList<>();
+    Object[] row;
+    while ( ( row = output.getRowImmediate() ) != null ) {
+      rows.add( row );
+    }
+    assertNull( output.getRowImmediate() );
+    return rows;
+  }
+
+  /**
+   * Passes on every row with an id which is a multiple of the given number, or fails on the 10th row
+   */
+  private class TestStep extends BaseStep {
+    private final long multiple;
+    private final boolean failing;
+
+    TestStep( long multiple, boolean failing ) {
+      super( stepMockHelper.stepMeta, stepMockHelper.stepDataInterface, 0, stepMockHelper.transMeta,
+        stepMockHelper.trans );
+      this.multiple = multiple;
+      this.failing = failing;
+    }
+
+    @Override
+    public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+      Object[] row = getRow();
+      if ( row == null ) {
+        setOutputDone();
+        return false;
+      }
+      if ( failing && getLinesRead() == 10 ) {
+        throw new KettleException( "Failing on purpose" );
+      }
+      if ( (Long) row[0] % multiple == 0 ) {
+        putRow( getInputRowMeta(), row );
+      }
+      return true;
+    }
+
+    @Override
+    public void stopAll() {
+      // The transformation is a mock: stop the steps of the chain ourselves
+      //
+      for ( TestStep step : chainSteps ) {
+        step.setStopped( true );
+      }
+    }
+  }
+}
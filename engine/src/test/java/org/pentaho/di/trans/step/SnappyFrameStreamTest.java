@@ -0,0 +1,171 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleEOFException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+public class SnappyFrameStreamTest {
+
+  private static final int NR_ROWS = 10000;
+
+  private static RowMetaInterface createRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    return rowMeta;
+  }
+
+  private static void writeRows( RowMetaInterface rowMeta, DataOutputStream out ) throws Exception {
+    for ( long i = 0; i < NR_ROWS; i++ ) {
+      rowMeta.writeData( out, new Object[] { i, "name " + ( i % 10 ) } );
+    }
+    out.flush();
+  }
+
+  private static void readRows( DataInputStream in ) throws Exception {
+    RowMetaInterface rowMeta = createRowMeta();
+    for ( long i = 0; i < NR_ROWS; i++ ) {
+      Object[] row = rowMeta.readData( in );
+      assertEquals( i, row[0] );
+      assertEquals( "name " + ( i % 10 ), row[1] );
+    }
+    try {
+      rowMeta.readData( in );
+      fail( "Expected the end of the stream" );
+    } catch ( KettleEOFException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRowsRoundTrip() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( new SnappyFrameOutputStream( bytes, 4096 ) );
+    writeRows( createRowMeta(), out );
+
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    writeRows( createRowMeta(), new DataOutputStream( plain ) );
+    assertTrue( bytes.size() < plain.size() / 2 );
+
+    readRows( new DataInputStream( new SnappyFrameInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) );
+  }
+
+  @Test
+  public void testIncompressibleDataIsStored() throws Exception {
+    byte[] data = new byte[10000];
+    new Random( 42 ).nextBytes( data );
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SnappyFrameOutputStream out = new SnappyFrameOutputStream( bytes, 1000 );
+    out.write( data, 0, 5 );
+    out.write( data, 5, data.length - 5 );
+    out.close();
+    assertEquals( data.length + 10 * SnappyFrameOutputStream.HEADER_SIZE, bytes.size() );
+
+    SnappyFrameInputStream in = new SnappyFrameInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+    byte[] result = new byte[data.length];
+    new DataInputStream( in ).readFully( result );
+    assertArrayEquals( data, result );
+    assertEquals( -1, in.read() );
+  }
+
+  @Test
+  public void testTruncatedFrame() throws Exception {
+    byte[] data = new byte[100];
+    Arrays.fill( data, (byte) 'x' );
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SnappyFrameOutputStream out = new SnappyFrameOutputStream( bytes, 1000 );
+    out.write( data );
+    out.flush();
+    byte[] frame = bytes.toByteArray();
+
+    SnappyFrameInputStream in =
+      new SnappyFrameInputStream( new ByteArrayInputStream( Arrays.copyOf( frame, frame.length - 1 ) ) );
+    try {
+      in.read();
+      fail( "A truncated frame should be reported" );
+    } catch ( EOFException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInvalidFrameHeader() throws Exception {
+    byte[] header = new byte[SnappyFrameOutputStream.HEADER_SIZE];
+    SnappyFrameOutputStream.putInt( header, 0, 10 );
+    SnappyFrameOutputStream.putInt( header, 4, 20 );
+    try {
+      new SnappyFrameInputStream( new ByteArrayInputStream( header ) ).read();
+      fail( "An invalid frame header should be reported" );
+    } catch ( IOException e ) {
+      assertTrue( e.getMessage().contains( "Invalid frame header" ) );
+    }
+  }
+
+  @Test
+  public void testLoopbackSocket() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try ( ServerSocket serverSocket = new ServerSocket( 0 ) ) {
+      Future<?> writer = executor.submit( () -> {
+        try ( Socket socket = serverSocket.accept() ) {
+          DataOutputStream out = new DataOutputStream( new SnappyFrameOutputStream( socket.getOutputStream(),
+            SnappyFrameOutputStream.DEFAULT_FRAME_SIZE ) );
+          writeRows( createRowMeta(), out );
+          socket.shutdownOutput();
+        }
+        return null;
+      } );
+      try ( Socket socket = new Socket( "localhost", serverSocket.getLocalPort() ) ) {
+        readRows( new DataInputStream( new SnappyFrameInputStream( socket.getInputStream() ) ) );
+      }
+      writer.get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.step;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StepThreadLauncherTest {
+
+  @Test
+  public void testGetStepThreadModeByCode() {
+    assertEquals( StepThreadMode.Platform, StepThreadMode.getStepThreadModeByCode( null ) );
+    assertEquals( StepThreadMode.Platform, StepThreadMode.getStepThreadModeByCode( "unknown" ) );
+    assertEquals( StepThreadMode.Pooled, StepThreadMode.getStepThreadModeByCode( " POOLED " ) );
+    assertEquals( StepThreadMode.Virtual, StepThreadMode.getStepThreadModeByCode( "virtual" ) );
+  }
+
+  @Test
+  public void testAllModesRunTheStep() throws Exception {
+    StepThreadLauncher launcher = new StepThreadLauncher( 2 );
+    for ( StepThreadMode mode : StepThreadMode.values() ) {
+      final CountDownLatch done = new CountDownLatch( 1 );
+      final AtomicReference<String> name = new AtomicReference<>();
+      try ( StepThreadLauncher.Reservation threads = launcher.reserve( mode, 1 ) ) {
+        threads.start( "trans - step", () -> {
+          name.set( Thread.currentThread().getName() );
+          done.countDown();
+        } );
+      }
+      assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+      assertEquals( "trans - step", name.get() );
+    }
+  }
+
+  @Test
+  public void testPooledThreadsAreReusedAndRenamed() throws Exception {
+    StepThreadLauncher launcher = new StepThreadLauncher( 1 );
+    final AtomicReference<Thread> first = new AtomicReference<>();
+    final CountDownLatch firstDone = new CountDownLatch( 1 );
+    launcher.reserve( StepThreadMode.Pooled, 1 ).start( "first", () -> {
+      first.set( Thread.currentThread() );
+      firstDone.countDown();
+    } );
+    assertTrue( firstDone.await( 10, TimeUnit.SECONDS ) );
+
+    // Wait for the pooled thread to become idle again
+    while ( launcher.getActivePooledThreadCount() > 0 ) {
+      Thread.sleep( 1 );
+    }
+    assertNotEquals( "first", first.get().getName() );
+
+    final AtomicReference<Thread> second = new AtomicReference<>();
+    final CountDownLatch secondDone = new CountDownLatch( 1 );
+    launcher.reserve( StepThreadMode.Pooled, 1 ).start( "second", () -> {
+      second.set( Thread.currentThread() );
+      secondDone.countDown();
+    } );
+    assertTrue( secondDone.await( 10, TimeUnit.SECONDS ) );
+    assertEquals( first.get(), second.get() );
+  }
+
+  @Test
+  public void testPoolSmallerThanTheTransformationFails() throws Exception {
+    StepThreadLauncher launcher = new StepThreadLauncher( 2 );
+    try {
+      launcher.reserve( StepThreadMode.Pooled, 3 );
+      fail( "The pool can't run 3 steps at once" );
+    } catch ( KettleException e ) {
+      assertEquals( 2, launcher.getFreePooledThreadCount() );
+    }
+    assertEquals( 0, launcher.getPooledThreadCount() );
+  }
+
+  @Test
+  public void testBusyPoolFailsUntilTheStepsAreDone() throws Exception {
+    StepThreadLauncher launcher = new StepThreadLauncher( 2 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final CountDownLatch running = new CountDownLatch( 1 );
+    final AtomicReference<Thread> thread = new AtomicReference<>();
+    try ( StepThreadLauncher.Reservation threads = launcher.reserve( StepThreadMode.Pooled, 2 ) ) {
+      threads.start( "a", () -> {
+        thread.set( Thread.currentThread() );
+        running.countDown();
+        try {
+          release.await( 10, TimeUnit.SECONDS );
+        } catch ( InterruptedException e ) {
+          // done
+        }
+      } );
+      // The second reserved thread isn't started, closing the reservation gives it back
+    }
+    assertTrue( running.await( 10, TimeUnit.SECONDS ) );
+    assertFalse( thread.get().isDaemon() );
+    assertEquals( 1, launcher.getFreePooledThreadCount() );
+    try {
+      launcher.reserve( StepThreadMode.Pooled, 2 );
+      fail( "Only one pooled thread is free" );
+    } catch ( KettleException e ) {
+      // expected
+    }
+
+    release.countDown();
+    while ( launcher.getFreePooledThreadCount() < 2 ) {
+      Thread.sleep( 1 );
+    }
+    launcher.reserve( StepThreadMode.Pooled, 2 ).close();
+  }
+
+  @Test( expected = IllegalStateException.class )
+  public void testOnlyReservedThreadsStart() throws Exception {
+    StepThreadLauncher launcher = new StepThreadLauncher( 2 );
+    StepThreadLauncher.Reservation threads = launcher.reserve( StepThreadMode.Pooled, 1 );
+    threads.start( "a", () -> { } );
+    threads.start( "b", () -> { } );
+  }
+}
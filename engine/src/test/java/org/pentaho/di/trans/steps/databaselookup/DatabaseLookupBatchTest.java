@@ -0,0 +1,252 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.databaselookup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.ProgressMonitorListener;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+public class DatabaseLookupBatchTest {
+
+  private RowMetaInterface keyMeta;
+  private RowMetaInterface resultMeta;
+  private Database db;
+
+  @Before
+  public void setUp() throws Exception {
+    keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+
+    resultMeta = new RowMeta();
+    resultMeta.addValueMeta( new ValueMetaString( "name" ) );
+    resultMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+
+    db = mock( Database.class );
+    when( db.getReturnRowMeta() ).thenReturn( resultMeta );
+  }
+
+  private void mockResult( Object[]... rows ) throws KettleDatabaseException {
+    when( db.getRows( anyString(), any( RowMetaInterface.class ), any( Object[].class ), anyInt(), anyBoolean(),
+      anyInt(), any( ProgressMonitorListener.class ) ) ).thenReturn( Arrays.asList( rows ) );
+  }
+
+  @Test
+  public void testSql() {
+    DatabaseMeta dbMeta = mock( DatabaseMeta.class );
+    when( dbMeta.quoteField( anyString() ) ).thenAnswer( new Answer<String>() {
+      @Override
+      public String answer( InvocationOnMock invocation ) {
+        return (String) invocation.getArguments()[0];
+      }
+    } );
+
+    assertEquals( "SELECT name, value, id FROM t WHERE id IN ( ?, ?, ? ) ORDER BY name",
+      DatabaseLookupBatch.getSql( dbMeta, "t", new String[] { "id" }, new String[] { "name", "value" }, "name", 3 ) );
+    assertEquals( "SELECT name, a, b FROM t WHERE ( a = ? AND b = ? ) OR ( a = ? AND b = ? )",
+      DatabaseLookupBatch.getSql( dbMeta, "t", new String[] { "a", "b" }, new String[] { "name" }, null, 2 ) );
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    mockResult( new Object[] { "two", 2L }, new Object[] { "one", 1L }, new Object[] { "one again", 1L } );
+
+    DatabaseLookupBatch batch = new DatabaseLookupBatch( keyMeta );
+    batch.addRow( new Object[] { "a" }, new Object[] { 1L }, null );
+    batch.addRow( new Object[] { "b" }, new Object[] { 2L }, null );
+    batch.addRow( new Object[] { "c" }, new Object[] { 1L }, null );
+    batch.addRow( new Object[] { "d" }, new Object[] { 3L }, null );
+    batch.addRow( new Object[] { "e" }, new Object[] { 4L }, new Object[] { "cached" } );
+    assertEquals( 5, batch.getRowCount() );
+    assertEquals( 3, batch.getKeyCount() );
+    assertTrue( batch.isDone() );
+
+    batch.lookup( db, "sql", 4, false, 1 );
+
+    // The keys are padded with the last one up to the batch size
+    ArgumentCaptor<Object[]> params = ArgumentCaptor.forClass( Object[].class );
+    verify( db ).getRows( eq( "sql" ), any( RowMetaInterface.class ), params.capture(), anyInt(), anyBoolean(),
+      anyInt(), any( ProgressMonitorListener.class ) );
+    assertArrayEquals( new Object[] { 1L, 2L, 3L, 3L }, params.getValue() );
+
+    assertArrayEquals( new Object[] { "one" }, batch.getValues( 0 ) );
+    assertArrayEquals( new Object[] { "two" }, batch.getValues( 1 ) );
+    assertArrayEquals( new Object[] { "one" }, batch.getValues( 2 ) );
+    assertNull( batch.getValues( 3 ) );
+    assertArrayEquals( new Object[] { "cached" }, batch.getValues( 4 ) );
+    assertFalse( batch.isCached( 0 ) );
+    assertTrue( batch.isCached( 4 ) );
+    assertEquals( 1, batch.getReturnRowMeta().size() );
+    assertEquals( "name", batch.getReturnRowMeta().getValueMeta( 0 ).getName() );
+  }
+
+  @Test
+  public void testFailOnMultipleResults() throws Exception {
+    mockResult( new Object[] { "one", 1L }, new Object[] { "one again", 1L }, new Object[] { "two", 2L } );
+
+    DatabaseLookupBatch batch = new DatabaseLookupBatch( keyMeta );
+    batch.addRow( new Object[] { "a" }, new Object[] { 1L }, null );
+    batch.addRow( new Object[] { "b" }, new Object[] { 2L }, null );
+    batch.lookup( db, "sql", 2, true, 1 );
+
+    try {
+      batch.getValues( 0 );
+      fail( "Key 1 was found twice" );
+    } catch ( KettleDatabaseException e ) {
+      assertEquals( DatabaseLookupBatch.MULTIPLE_RESULTS_MESSAGE, e.getMessage().trim() );
+    }
+    assertArrayEquals( new Object[] { "two" }, batch.getValues( 1 ) );
+  }
+
+  @Test
+  public void testKeysReturnedWithOtherCaseOrPadding() throws Exception {
+    keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaString( "code" ) );
+    resultMeta = new RowMeta();
+    resultMeta.addValueMeta( new ValueMetaString( "name" ) );
+    resultMeta.addValueMeta( new ValueMetaString( "code" ) );
+    when( db.getReturnRowMeta() ).thenReturn( resultMeta );
+    mockResult( new Object[] { "alpha", "A  " }, new Object[] { "beta", "b" } );
+
+    DatabaseLookupBatch batch = new DatabaseLookupBatch( keyMeta );
+    batch.addRow( new Object[] { 1L }, new Object[] { "a" }, null );
+    batch.addRow( new Object[] { 2L }, new Object[] { "B " }, null );
+    batch.addRow( new Object[] { 3L }, new Object[] { "c" }, null );
+    batch.lookup( db, "sql", 3, true, 1 );
+
+    assertArrayEquals( new Object[] { "alpha" }, batch.getValues( 0 ) );
+    assertArrayEquals( new Object[] { "beta" }, batch.getValues( 1 ) );
+    assertNull( batch.getValues( 2 ) );
+  }
+
+  @Test
+  public void testKeysDifferingInCaseAreLookedUpOneByOne() throws Exception {
+    keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaString( "code" ) );
+    resultMeta = new RowMeta();
+    resultMeta.addValueMeta( new ValueMetaString( "name" ) );
+    resultMeta.addValueMeta( new ValueMetaString( "code" ) );
+    when( db.getReturnRowMeta() ).thenReturn( resultMeta );
+
+    // A case sensitive database: only "A" is in the table
+    //
+    when( db.getRows( anyString(), any( RowMetaInterface.class ), any( Object[].class ), anyInt(), anyBoolean(),
+      anyInt(), any( ProgressMonitorListener.class ) ) ).thenAnswer( new Answer<List<Object[]>>() {
+        @Override
+        public List<Object[]> answer( InvocationOnMock invocation ) {
+          List<Object[]> result = new ArrayList<Object[]>();
+          if ( Arrays.asList( (Object[]) invocation.getArguments()[2] ).contains( "A" ) ) {
+            result.add( new Object[] { "alpha", "A" } );
+          }
+          return result;
+        }
+      } );
+
+    DatabaseLookupBatch batch = new DatabaseLookupBatch( keyMeta );
+    batch.addRow( new Object[] { 1L }, new Object[] { "a" }, null );
+    batch.addRow( new Object[] { 2L }, new Object[] { "A" }, null );
+    batch.lookup( db, "sql", 2, true, 1 );
+
+    assertNull( batch.getValues( 0 ) );
+    assertArrayEquals( new Object[] { "alpha" }, batch.getValues( 1 ) );
+    verify( db, times( 3 ) ).getRows( eq( "sql" ), any( RowMetaInterface.class ), any( Object[].class ), anyInt(),
+      anyBoolean(), anyInt(), any( ProgressMonitorListener.class ) );
+  }
+
+  @Test
+  public void testErrorIsReportedForEveryRow() throws Exception {
+    KettleDatabaseException error = new KettleDatabaseException( "broken" );
+    when( db.getRows( anyString(), any( RowMetaInterface.class ), any( Object[].class ), anyInt(), anyBoolean(),
+      anyInt(), any( ProgressMonitorListener.class ) ) ).thenThrow( error );
+
+    DatabaseLookupBatch batch = new DatabaseLookupBatch( keyMeta );
+    batch.addRow( new Object[] { "a" }, new Object[] { 1L }, null );
+    batch.addRow( new Object[] { "b" }, new Object[] { 2L }, new Object[] { "cached" } );
+    batch.lookup( db, "sql", 2, false, 1 );
+
+    try {
+      batch.getValues( 0 );
+      fail( "The lookup failed" );
+    } catch ( KettleException e ) {
+      assertSame( error, e );
+    }
+    assertArrayEquals( new Object[] { "cached" }, batch.getValues( 1 ) );
+  }
+
+  @Test
+  public void testSubmit() throws Exception {
+    mockResult( new Object[] { "one", 1L } );
+
+    final DatabaseLookupBatch batch = new DatabaseLookupBatch( keyMeta );
+    batch.addRow( new Object[] { "a" }, new Object[] { 1L }, null );
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      batch.submit( executor, new Runnable() {
+        @Override
+        public void run() {
+          batch.lookup( db, "sql", 1, false, 1 );
+        }
+      } );
+      batch.await();
+      assertTrue( batch.isDone() );
+      assertArrayEquals( new Object[] { "one" }, batch.getValues( 0 ) );
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
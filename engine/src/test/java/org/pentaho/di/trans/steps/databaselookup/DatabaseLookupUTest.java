@@ -25,7 +25,9 @@ package org.pentaho.di.trans.steps.databaselookup;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -47,8 +49,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
@@ -61,7 +67,10 @@ import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.ProgressMonitorListener;
+import org.pentaho.di.core.QueueRowSet;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
@@ -441,6 +450,108 @@ public class DatabaseLookupUTest {
     assertNotNull( data.cache.getRowFromCache( data.lookupMeta, new Object[] { 2L } ) );
   }
 
+  @Test
+  public void batchedLookupKeepsRowOrderAndUsesCache() throws Exception {
+    // A table with a case insensitive collation and CHAR(3) codes
+    //
+    final Map<String, String> table = new LinkedHashMap<String, String>();
+    table.put( "A  ", "alpha" );
+    table.put( "B  ", "beta" );
+    table.put( "C  ", "gamma" );
+
+    RowMeta tableMeta = new RowMeta();
+    tableMeta.addValueMeta( new ValueMetaString( "name" ) );
+    tableMeta.addValueMeta( new ValueMetaString( "code" ) );
+
+    final List<Object[]> queriedKeys = new ArrayList<Object[]>();
+    final Database db = mock( Database.class );
+    when( db.getTableFieldsMeta( anyString(), anyString() ) ).thenReturn( tableMeta );
+    when( db.getReturnRowMeta() ).thenReturn( tableMeta );
+    when( db.getRows( anyString(), any( RowMetaInterface.class ), any( Object[].class ), anyInt(), anyBoolean(),
+      anyInt(), any( ProgressMonitorListener.class ) ) ).thenAnswer( new Answer<List<Object[]>>() {
+        @Override
+        public List<Object[]> answer( InvocationOnMock invocation ) {
+          Object[] params = (Object[]) invocation.getArguments()[2];
+          queriedKeys.add( params );
+          List<Object[]> result = new ArrayList<Object[]>();
+          for ( Map.Entry<String, String> entry : table.entrySet() ) {
+            for ( Object param : params ) {
+              if ( entry.getKey().trim().equalsIgnoreCase( (String) param ) ) {
+                result.add( new Object[] { entry.getValue(), entry.getKey() } );
+                break;
+              }
+            }
+          }
+          return result;
+        }
+      } );
+
+    DatabaseLookupMeta meta = new DatabaseLookupMeta();
+    meta.setDefault();
+    MySQLDatabaseMeta mysql = new MySQLDatabaseMeta();
+    mysql.setName( "MySQL" );
+    DatabaseMeta dbMeta = new DatabaseMeta();
+    dbMeta.setDatabaseInterface( mysql );
+    meta.setDatabaseMeta( dbMeta );
+    meta.setTablename( "t" );
+    meta.allocate( 1, 1 );
+    meta.setStreamKeyField1( new String[] { "code" } );
+    meta.setStreamKeyField2( new String[] { "" } );
+    meta.setTableKeyField( new String[] { "code" } );
+    meta.setKeyCondition( new String[] { "=" } );
+    meta.setReturnValueField( new String[] { "name" } );
+    meta.setReturnValueNewName( new String[] { "name" } );
+    meta.setReturnValueDefault( new String[] { "" } );
+    meta.setReturnValueDefaultType( new int[] { ValueMetaInterface.TYPE_STRING } );
+    meta.setCached( true );
+    meta.setCacheSize( 0 );
+
+    DatabaseLookupData data = new DatabaseLookupData();
+    DatabaseLookup step =
+      new DatabaseLookup( mockHelper.stepMeta, data, 0, mockHelper.transMeta, mockHelper.trans ) {
+        @Override
+        Database getDatabase( DatabaseMeta meta ) {
+          return db;
+        }
+      };
+    step.setVariable( Const.KETTLE_DATABASE_LOOKUP_BATCH_SIZE, "3" );
+    assertTrue( step.init( meta, data ) );
+
+    RowMeta inputRowMeta = new RowMeta();
+    inputRowMeta.addValueMeta( new ValueMetaString( "code" ) );
+    String[] codes = { "a", "B", "a", "c", "b", "a", "A", "d" };
+    RowSet input = new QueueRowSet();
+    for ( String code : codes ) {
+      input.putRow( inputRowMeta, new Object[] { code } );
+    }
+    input.setDone();
+    RowSet output = new QueueRowSet();
+    step.setInputRowSets( new ArrayList<RowSet>( Collections.singletonList( input ) ) );
+    step.setOutputRowSets( new ArrayList<RowSet>( Collections.singletonList( output ) ) );
+
+    while ( step.processRow( meta, data ) ) {
+      // keep going
+    }
+    assertEquals( 3, data.batchSize );
+    assertEquals( 2, queriedKeys.size() );
+
+    // The rows keep their order, the keys match whatever the case and padding returned by the database
+    //
+    String[] names = { "alpha", "beta", "alpha", "gamma", "beta", "alpha", "alpha", null };
+    for ( int i = 0; i < codes.length; i++ ) {
+      Object[] row = output.getRow();
+      assertEquals( codes[i], row[0] );
+      assertEquals( codes[i], names[i], row[1] );
+    }
+    assertNull( output.getRow() );
+
+    // The second batch doesn't look up "a" again: it was found in the cache
+    //
+    assertArrayEquals( new Object[] { "a", "B", "c" }, queriedKeys.get( 0 ) );
+    assertArrayEquals( new Object[] { "b", "A", "d" }, queriedKeys.get( 1 ) );
+    assertNotNull( data.cache.getRowFromCache( data.lookupMeta, new Object[] { "c" } ) );
+  }
+
   public class MockDatabaseLookup extends DatabaseLookup {
     public MockDatabaseLookup( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta, Trans trans ) {
       super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
@@ -0,0 +1,165 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.memgroupby;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByData.HashEntry;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMerge.Partial;
+import org.pentaho.di.trans.steps.mock.StepMockHelper;
+
+public class MemoryGroupByMergeTest {
+
+  private static StepMockHelper<MemoryGroupByMeta, MemoryGroupByData> mockHelper;
+
+  private static final int[] TYPES = {
+    MemoryGroupByMeta.TYPE_GROUP_SUM, MemoryGroupByMeta.TYPE_GROUP_AVERAGE, MemoryGroupByMeta.TYPE_GROUP_MEDIAN,
+    MemoryGroupByMeta.TYPE_GROUP_PERCENTILE, MemoryGroupByMeta.TYPE_GROUP_STANDARD_DEVIATION,
+    MemoryGroupByMeta.TYPE_GROUP_COUNT_DISTINCT, MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL,
+    MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY, MemoryGroupByMeta.TYPE_GROUP_MIN, MemoryGroupByMeta.TYPE_GROUP_MAX,
+    MemoryGroupByMeta.TYPE_GROUP_FIRST, MemoryGroupByMeta.TYPE_GROUP_LAST,
+    MemoryGroupByMeta.TYPE_GROUP_FIRST_INCL_NULL, MemoryGroupByMeta.TYPE_GROUP_LAST_INCL_NULL,
+    MemoryGroupByMeta.TYPE_GROUP_CONCAT_COMMA, MemoryGroupByMeta.TYPE_GROUP_CONCAT_STRING };
+
+  private MemoryGroupBy step;
+  private MemoryGroupByData data;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    mockHelper =
+      new StepMockHelper<MemoryGroupByMeta, MemoryGroupByData>( "Memory Group By", MemoryGroupByMeta.class,
+        MemoryGroupByData.class );
+    when( mockHelper.logChannelInterfaceFactory.create( any(), any( LoggingObjectInterface.class ) ) ).thenReturn(
+      mockHelper.logChannelInterface );
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    mockHelper.cleanUp();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    MemoryGroupByMeta meta = new MemoryGroupByMeta();
+    meta.allocate( 0, TYPES.length );
+    for ( int i = 0; i < TYPES.length; i++ ) {
+      meta.getAggregateField()[i] = "agg" + i;
+      meta.getSubjectField()[i] = "value";
+      meta.getAggregateType()[i] = TYPES[i];
+      meta.getValueField()[i] = TYPES[i] == MemoryGroupByMeta.TYPE_GROUP_PERCENTILE ? "25" : "|";
+    }
+    when( mockHelper.stepMeta.getStepMetaInterface() ).thenReturn( meta );
+
+    data = new MemoryGroupByData();
+    data.inputRowMeta = new RowMeta();
+    data.inputRowMeta.addValueMeta( new ValueMetaNumber( "value" ) );
+    data.groupMeta = new RowMeta();
+    data.groupnrs = new int[0];
+    data.subjectnrs = new int[TYPES.length];
+
+    step = new MemoryGroupBy( mockHelper.stepMeta, data, 0, mockHelper.transMeta, mockHelper.trans );
+    step.newAggregate( null, null );
+  }
+
+  @Test
+  public void testMergedAggregateEqualsSingleAggregate() throws KettleException {
+    Aggregate all = aggregate( 1.0, 4.0, 4.0, 9.0, 2.0, 7.0, 3.0 );
+    Aggregate merged = aggregate( 1.0, 4.0, 4.0, 9.0 );
+    step.mergeAggregate( merged, aggregate( 2.0, 7.0, 3.0 ) );
+
+    Object[] expected = step.getAggregateResult( all );
+    Object[] actual = step.getAggregateResult( merged );
+    for ( int i = 0; i < TYPES.length; i++ ) {
+      if ( expected[i] instanceof Double ) {
+        assertEquals( "agg" + i, (Double) expected[i], (Double) actual[i], 1e-9 );
+      } else {
+        assertEquals( "agg" + i, expected[i], actual[i] );
+      }
+    }
+  }
+
+  @Test
+  public void testMergeIntoEmptyStandardDeviation() throws KettleException {
+    Aggregate all = aggregate( 5.0, 6.0 );
+    Aggregate merged = aggregate( 5.0, 6.0 );
+    step.mergeAggregate( merged, aggregate() );
+
+    assertEquals( (Double) step.getAggregateResult( all )[4], (Double) step.getAggregateResult( merged )[4], 1e-9 );
+  }
+
+  @Test
+  public void testLastCopyGetsAllPartials() {
+    MemoryGroupByMerge merge = new MemoryGroupByMerge( 3 );
+    Partial two = new Partial( 2, data, new HashMap<HashEntry, Aggregate>(), null, true );
+    Partial zero = new Partial( 0, data, new HashMap<HashEntry, Aggregate>(), null, false );
+    Partial one = new Partial( 1, data, new HashMap<HashEntry, Aggregate>(), null, true );
+
+    assertNull( merge.addPartial( two ) );
+    assertNull( merge.addPartial( zero ) );
+    List<Partial> partials = merge.addPartial( one );
+
+    assertEquals( 3, partials.size() );
+    assertSame( zero, partials.get( 0 ) );
+    assertSame( one, partials.get( 1 ) );
+    assertSame( two, partials.get( 2 ) );
+  }
+
+  @Test
+  public void testDiscardedMergeNeverCompletes() {
+    MemoryGroupByMerge merge = new MemoryGroupByMerge( 2 );
+    assertNull( merge.addPartial( new Partial( 0, data, new HashMap<HashEntry, Aggregate>(), null, true ) ) );
+    merge.discard();
+    assertNull( merge.addPartial( new Partial( 1, data, new HashMap<HashEntry, Aggregate>(), null, true ) ) );
+  }
+
+  private Aggregate aggregate( Double... values ) throws KettleException {
+    data.map = new HashMap<HashEntry, Aggregate>();
+    if ( values.length == 0 ) {
+      Aggregate aggregate = new Aggregate();
+      step.newAggregate( new Object[] { null }, aggregate );
+      return aggregate;
+    }
+    for ( Double value : values ) {
+      step.addToAggregate( new Object[] { value } );
+    }
+    assertEquals( Arrays.toString( values ), 1, data.map.size() );
+    return data.map.values().iterator().next();
+  }
+}
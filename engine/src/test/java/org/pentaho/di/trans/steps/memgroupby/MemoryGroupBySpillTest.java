@@ -0,0 +1,159 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.memgroupby;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.junit.rules.RestorePDIEngineEnvironment;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+public class MemoryGroupBySpillTest {
+  @ClassRule public static RestorePDIEngineEnvironment env = new RestorePDIEngineEnvironment();
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final String STEP_NAME = "testStep";
+  private static final int GROUPS = 100;
+  private static final int ROWS = 1000;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @Test
+  public void testAllGroupsInMemory() throws Exception {
+    checkOutput( runStep( "0" ) );
+  }
+
+  @Test
+  public void testSpillToDisk() throws Exception {
+    checkOutput( runStep( "7" ) );
+
+    // The temporary files are cleaned up
+    assertEquals( 0, tempFolder.getRoot().list().length );
+  }
+
+  @Test
+  public void testSpillEveryNewGroup() throws Exception {
+    checkOutput( runStep( "1" ) );
+    assertEquals( 0, tempFolder.getRoot().list().length );
+  }
+
+  private void checkOutput( Map<String, Object[]> output ) {
+    assertEquals( GROUPS, output.size() );
+    for ( int key = 0; key < GROUPS; key++ ) {
+      Object[] row = output.get( "key" + key );
+      long sum = 0;
+      long count = 0;
+      for ( int i = key; i < ROWS; i += GROUPS ) {
+        sum += i;
+        count++;
+      }
+      assertEquals( sum, row[1] );
+      assertEquals( count, row[2] );
+      assertEquals( (double) ( key + ROWS / 2 - GROUPS / 2 ), row[3] );
+      assertEquals( "first value of key" + key, (long) key, row[4] );
+    }
+  }
+
+  private Map<String, Object[]> runStep( String maxGroups ) throws KettleException {
+    MemoryGroupByMeta meta = new MemoryGroupByMeta();
+    meta.allocate( 1, 4 );
+    meta.getGroupField()[0] = "key";
+    String[] aggregates = { "sum", "count", "median", "first" };
+    int[] types = {
+      MemoryGroupByMeta.TYPE_GROUP_SUM, MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL, MemoryGroupByMeta.TYPE_GROUP_MEDIAN,
+      MemoryGroupByMeta.TYPE_GROUP_FIRST };
+    for ( int i = 0; i < aggregates.length; i++ ) {
+      meta.getAggregateField()[i] = aggregates[i];
+      meta.getSubjectField()[i] = "value";
+      meta.getAggregateType()[i] = types[i];
+    }
+
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "key" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "value" ) );
+
+    MemoryGroupByData data = new MemoryGroupByData();
+    data.map = new HashMap<>();
+
+    TransMeta transMeta = mock( TransMeta.class );
+    StepMeta stepMeta = new StepMeta( STEP_NAME, meta );
+    when( transMeta.findStep( STEP_NAME ) ).thenReturn( stepMeta );
+
+    MemoryGroupBy step = spy( new MemoryGroupBy( stepMeta, data, 0, transMeta, mock( Trans.class ) ) );
+    step.setVariable( Const.KETTLE_MEMORY_GROUP_BY_MAX_GROUPS, maxGroups );
+    step.setVariable( Const.KETTLE_MEMORY_GROUP_BY_SPILL_DIRECTORY, tempFolder.getRoot().getAbsolutePath() );
+
+    final Map<String, Object[]> output = new HashMap<>();
+    doAnswer( new Answer<Void>() {
+      @Override public Void answer( InvocationOnMock invocation ) throws Throwable {
+        Object[] row = (Object[]) invocation.getArguments()[1];
+        assertFalse( "Group written twice: " + row[0], output.containsKey( row[0] ) );
+        output.put( (String) row[0], row );
+        return null;
+      }
+    } ).when( step ).putRow( (RowMetaInterface) any(), (Object[]) any() );
+    doNothing().when( step ).setOutputDone();
+    doReturn( rowMeta ).when( step ).getInputRowMeta();
+
+    for ( int i = 0; i < ROWS; i++ ) {
+      doReturn( new Object[] { "key" + ( i % GROUPS ), (long) i } ).when( step ).getRow();
+      assertTrue( step.processRow( meta, data ) );
+    }
+    doReturn( null ).when( step ).getRow();
+    assertFalse( step.processRow( meta, data ) );
+
+    return output;
+  }
+}
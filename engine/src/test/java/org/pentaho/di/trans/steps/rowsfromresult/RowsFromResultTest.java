@@ -0,0 +1,108 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.rowsfromresult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.QueueRowSet;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.steps.StepMockUtil;
+import org.pentaho.di.trans.steps.mock.StepMockHelper;
+
+public class RowsFromResultTest {
+  private StepMockHelper<RowsFromResultMeta, StepDataInterface> helper;
+  private RowsFromResultMeta meta;
+  private RowsFromResultData data;
+  private RowsFromResult step;
+
+  @Before
+  public void setUp() throws Exception {
+    helper = StepMockUtil.getStepMockHelper( RowsFromResultMeta.class, "RowsFromResultTest" );
+    when( helper.trans.isRunning() ).thenReturn( true );
+
+    meta = new RowsFromResultMeta();
+    data = new RowsFromResultData();
+    step = new RowsFromResult( helper.stepMeta, data, 0, helper.transMeta, helper.trans );
+    assertTrue( step.init( meta, data ) );
+  }
+
+  @After
+  public void cleanUp() {
+    helper.cleanUp();
+  }
+
+  @Test
+  public void testChangedRowsDontChangeTheOriginalResult() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+
+    Result original = new Result();
+    original.getRows().add( new RowMetaAndData( rowMeta, 1L, "one" ) );
+    original.getRows().add( new RowMetaAndData( rowMeta, 2L, "two" ) );
+
+    // The clone shares its rows with the original, read the rows from the clone
+    //
+    when( helper.trans.getPreviousResult() ).thenReturn( (Result) original.clone() );
+
+    RowSet output = new QueueRowSet();
+    step.setOutputRowSets( new ArrayList<RowSet>( Collections.singletonList( output ) ) );
+    while ( step.processRow( meta, data ) ) {
+      // Read all rows
+    }
+
+    // A step after this one changes the rows in place
+    //
+    Object[] row;
+    int nrRows = 0;
+    while ( ( row = output.getRow() ) != null ) {
+      row[0] = 99L;
+      row[1] = "changed";
+      nrRows++;
+    }
+    assertEquals( 2, nrRows );
+    assertNull( output.getRow() );
+
+    assertEquals( Long.valueOf( 1L ), original.getRows().get( 0 ).getInteger( "id" ) );
+    assertEquals( "one", original.getRows().get( 0 ).getString( "name", null ) );
+    assertEquals( Long.valueOf( 2L ), original.getRows().get( 1 ).getInteger( "id" ) );
+    assertEquals( "two", original.getRows().get( 1 ).getString( "name", null ) );
+  }
+}
@@ -0,0 +1,167 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.selectvalues;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.QueueRowSet;
+import org.pentaho.di.core.RowBatchRowSet;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.row.RowBatch;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.steps.StepMockUtil;
+import org.pentaho.di.trans.steps.mock.StepMockHelper;
+
+public class SelectValuesRowBatchTest {
+  private static final int NR_ROWS = 25;
+  private static final int BATCH_SIZE = 10;
+
+  private StepMockHelper<SelectValuesMeta, StepDataInterface> helper;
+  private SelectValuesMeta meta;
+  private SelectValuesData data;
+  private SelectValues step;
+  private RowMetaInterface inputRowMeta;
+
+  @Before
+  public void setUp() throws Exception {
+    helper = StepMockUtil.getStepMockHelper( SelectValuesMeta.class, "SelectValuesRowBatchTest" );
+    when( helper.trans.isRunning() ).thenReturn( true );
+
+    inputRowMeta = new RowMeta();
+    inputRowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    inputRowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    inputRowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+
+    // Select amount and id, in that order
+    //
+    meta = new SelectValuesMeta();
+    meta.allocate( 2, 0, 0 );
+    meta.getSelectFields()[0] = new SelectValuesMeta.SelectField();
+    meta.getSelectFields()[0].setName( "amount" );
+    meta.getSelectFields()[1] = new SelectValuesMeta.SelectField();
+    meta.getSelectFields()[1].setName( "id" );
+
+    data = new SelectValuesData();
+
+    step = new SelectValues( helper.stepMeta, data, 0, helper.transMeta, helper.trans );
+    assertTrue( step.init( meta, data ) );
+  }
+
+  @After
+  public void cleanUp() {
+    helper.cleanUp();
+  }
+
+  private RowBatchRowSet createInput() {
+    RowBatchRowSet input = new RowBatchRowSet( 100, BATCH_SIZE );
+    for ( long i = 0; i < NR_ROWS; i++ ) {
+      assertTrue( input.putRow( inputRowMeta, new Object[] { i, "row " + i, i * 1.5 } ) );
+    }
+    input.setDone();
+    return input;
+  }
+
+  private void runStep( RowSet input, RowSet output ) throws Exception {
+    step.setInputRowSets( new ArrayList<RowSet>( Collections.singletonList( input ) ) );
+    step.setOutputRowSets( new ArrayList<RowSet>( Collections.singletonList( output ) ) );
+    int iterations = 0;
+    while ( step.processRow( meta, data ) ) {
+      assertTrue( "the step doesn't end", iterations++ < NR_ROWS * 2 );
+    }
+  }
+
+  private static void assertRow( long id, Object[] row ) {
+    assertEquals( id * 1.5, (Double) row[0], 0.0 );
+    assertEquals( id, row[1] );
+  }
+
+  @Test
+  public void testPassesWholeBatches() throws Exception {
+    RowBatchRowSet output = new RowBatchRowSet( 100, BATCH_SIZE );
+    runStep( createInput(), output );
+    assertTrue( data.rowBatches );
+
+    List<Integer> batchSizes = new ArrayList<>();
+    long id = 0;
+    RowBatch batch;
+    while ( ( batch = output.getBatchWait( 0, TimeUnit.MILLISECONDS ) ) != null ) {
+      batchSizes.add( batch.size() );
+      assertEquals( 2, batch.getRowMeta().size() );
+      assertEquals( "amount", batch.getRowMeta().getValueMeta( 0 ).getName() );
+      assertTrue( batch.isDoubleColumn( 0 ) );
+      assertTrue( batch.isLongColumn( 1 ) );
+      for ( int i = 0; i < batch.size(); i++ ) {
+        assertEquals( id, batch.getLong( 1, i ) );
+        assertRow( id++, batch.getRow( i ) );
+      }
+    }
+    assertEquals( NR_ROWS, id );
+    assertEquals( java.util.Arrays.asList( 10, 10, 5 ), batchSizes );
+    assertEquals( NR_ROWS, step.getLinesRead() );
+    assertEquals( NR_ROWS, step.getLinesWritten() );
+  }
+
+  @Test
+  public void testUnpacksBatchesForRowOutput() throws Exception {
+    QueueRowSet output = new QueueRowSet();
+    runStep( createInput(), output );
+    assertTrue( data.rowBatches );
+
+    for ( long id = 0; id < NR_ROWS; id++ ) {
+      assertRow( id, output.getRowImmediate() );
+    }
+    assertNull( output.getRowImmediate() );
+    assertEquals( NR_ROWS, step.getLinesWritten() );
+  }
+
+  @Test
+  public void testErrorHandlingKeepsRowByRow() throws Exception {
+    when( helper.stepMeta.isDoingErrorHandling() ).thenReturn( true );
+    RowBatchRowSet output = new RowBatchRowSet( 100, BATCH_SIZE );
+    runStep( createInput(), output );
+    assertFalse( data.rowBatches );
+
+    for ( long id = 0; id < NR_ROWS; id++ ) {
+      assertRow( id, output.getRowImmediate() );
+    }
+    assertNull( output.getRowImmediate() );
+  }
+}
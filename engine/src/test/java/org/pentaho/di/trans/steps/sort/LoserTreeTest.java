@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LoserTreeTest {
+
+  private static final Comparator<Object[]> COMPARATOR = ( one, two ) -> ( (Long) one[0] ).compareTo( (Long) two[0] );
+
+  @Test
+  public void testMergeRuns() {
+    long[][] runs = { { 1, 4, 7, 10 }, {}, { 2, 2, 9 }, { 0 }, { 3, 5, 6, 8, 11, 12 } };
+    List<Long> merged = merge( runs );
+    assertEquals( 14, merged.size() );
+    for ( int i = 1; i < merged.size(); i++ ) {
+      assertEquals( true, merged.get( i - 1 ) <= merged.get( i ) );
+    }
+  }
+
+  @Test
+  public void testSingleRun() {
+    List<Long> merged = merge( new long[][] { { 1, 2, 3 } } );
+    assertEquals( 3, merged.size() );
+    assertEquals( Long.valueOf( 3L ), merged.get( 2 ) );
+  }
+
+  @Test
+  public void testNoRuns() {
+    LoserTree tree = new LoserTree( COMPARATOR, new Object[0][] );
+    assertEquals( -1, tree.getWinner() );
+    assertNull( tree.getWinnerRow() );
+  }
+
+  @Test
+  public void testEqualRowsKeepRunOrder() {
+    Object[][] firstRows = { { 1L, "a" }, { 1L, "b" }, { 1L, "c" } };
+    LoserTree tree = new LoserTree( COMPARATOR, firstRows );
+    assertEquals( "a", tree.getWinnerRow()[1] );
+    tree.replaceWinner( null );
+    assertEquals( "b", tree.getWinnerRow()[1] );
+    tree.replaceWinner( null );
+    assertEquals( "c", tree.getWinnerRow()[1] );
+    tree.replaceWinner( null );
+    assertEquals( -1, tree.getWinner() );
+  }
+
+  private List<Long> merge( long[][] runs ) {
+    int[] positions = new int[runs.length];
+    Object[][] firstRows = new Object[runs.length][];
+    for ( int i = 0; i < runs.length; i++ ) {
+      firstRows[i] = runs[i].length > 0 ? new Object[] { runs[i][0] } : null;
+      positions[i] = 1;
+    }
+    LoserTree tree = new LoserTree( COMPARATOR, firstRows );
+    List<Long> merged = new ArrayList<>();
+    for ( int run = tree.getWinner(); run >= 0; run = tree.getWinner() ) {
+      merged.add( (Long) tree.getWinnerRow()[0] );
+      tree.replaceWinner( positions[run] < runs[run].length ? new Object[] { runs[run][positions[run]++] } : null );
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,122 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+public class SortKeyPrefixTest {
+
+  @Test
+  public void testIntegerOrder() throws Exception {
+    assertSameOrder( new ValueMetaInteger( "i" ), null, Long.MIN_VALUE + 1, -5L, 0L, 7L, Long.MAX_VALUE );
+  }
+
+  @Test
+  public void testNumberOrder() throws Exception {
+    assertSameOrder( new ValueMetaNumber( "n" ), null, Double.NEGATIVE_INFINITY, -2.5, -0.0, 0.0, 1E-10, 3.25,
+      Double.POSITIVE_INFINITY, Double.NaN );
+  }
+
+  @Test
+  public void testDateOrder() throws Exception {
+    assertSameOrder( new ValueMetaDate( "d" ), null, new Date( -1000L ), new Date( 0L ), new Date( 123456789L ) );
+  }
+
+  @Test
+  public void testStringOrder() throws Exception {
+    ValueMetaString valueMeta = new ValueMetaString( "s" );
+    valueMeta.setCollatorDisabled( true );
+    assertSameOrder( valueMeta, null, "A", "AB", "ABCD", "ABCE", "B", "a", "\u00e9", "\uffff" );
+  }
+
+  @Test
+  public void testDescending() throws Exception {
+    ValueMetaInteger valueMeta = new ValueMetaInteger( "i" );
+    valueMeta.setSortedDescending( true );
+    assertSameOrder( valueMeta, 7L, 0L, -5L, null );
+  }
+
+  @Test
+  public void testEqualPrefixForLongStrings() throws Exception {
+    ValueMetaString valueMeta = new ValueMetaString( "s" );
+    valueMeta.setCollatorDisabled( true );
+    SortKeyPrefix prefix = SortKeyPrefix.create( valueMeta );
+    assertEquals( prefix.prefix( "ABCDE" ), prefix.prefix( "ABCDF" ) );
+  }
+
+  @Test
+  public void testUnsupportedKeys() {
+    ValueMetaString collated = new ValueMetaString( "s" );
+    collated.setCollatorDisabled( false );
+    assertNull( SortKeyPrefix.create( collated ) );
+
+    ValueMetaString caseInsensitive = new ValueMetaString( "s" );
+    caseInsensitive.setCollatorDisabled( true );
+    caseInsensitive.setCaseInsensitive( true );
+    assertNull( SortKeyPrefix.create( caseInsensitive ) );
+
+    ValueMetaString lazy = new ValueMetaString( "s" );
+    lazy.setStorageType( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING );
+    assertNull( SortKeyPrefix.create( lazy ) );
+
+    assertNull( SortKeyPrefix.create( new ValueMetaBinary( "b" ) ) );
+  }
+
+  @Test
+  public void testCustomCompare() {
+    ValueMetaInteger custom = new ValueMetaInteger( "i" ) {
+      @Override
+      public int compare( Object data1, Object data2 ) throws KettleValueException {
+        return -super.compare( data1, data2 );
+      }
+    };
+    assertNull( SortKeyPrefix.create( custom ) );
+    assertTrue( SortKeyPrefix.hasStandardCompare( new ValueMetaTimestamp( "t" ) ) );
+  }
+
+  /**
+   * The values must be given in ascending order according to the value meta.
+   */
+  private void assertSameOrder( ValueMetaInterface valueMeta, Object... values ) throws Exception {
+    SortKeyPrefix prefix = SortKeyPrefix.create( valueMeta );
+    assertNotNull( prefix );
+    for ( int i = 0; i < values.length - 1; i++ ) {
+      assertTrue( valueMeta.compare( values[i], values[i + 1] ) < 0 );
+      assertTrue( values[i] + " < " + values[i + 1], prefix.prefix( values[i] ) <= prefix.prefix( values[i + 1] ) );
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.QueueRowSet;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.steps.StepMockUtil;
+import org.pentaho.di.trans.steps.mock.StepMockHelper;
+
+public class SortRowsTest {
+  private static final int NR_ROWS = 2000;
+
+  private StepMockHelper<SortRowsMeta, StepDataInterface> helper;
+  private SortRowsMeta meta;
+  private SortRowsData data;
+  private SortRows step;
+
+  @Before
+  public void setUp() throws Exception {
+    helper = StepMockUtil.getStepMockHelper( SortRowsMeta.class, "SortRowsTest" );
+    when( helper.trans.isRunning() ).thenReturn( true );
+
+    meta = new SortRowsMeta();
+    meta.setDefault();
+    meta.allocate( 1 );
+    meta.setFieldName( new String[] { "key" } );
+    meta.setAscending( new boolean[] { true } );
+    meta.setCaseSensitive( new boolean[] { true } );
+    meta.setCollatorEnabled( new boolean[] { false } );
+    meta.setPreSortedField( new boolean[] { false } );
+
+    data = new SortRowsData();
+    step = new SortRows( helper.stepMeta, data, 0, helper.transMeta, helper.trans );
+    assertTrue( step.init( meta, data ) );
+  }
+
+  @After
+  public void cleanUp() {
+    step.dispose( meta, data );
+    helper.cleanUp();
+  }
+
+  @Test
+  public void testStandardKeyIsSortedOnPrefixes() throws Exception {
+    List<Object[]> rows = sort( new ValueMetaInteger( "key" ) );
+    assertNotNull( data.keyPrefix );
+    for ( int i = 1; i < rows.size(); i++ ) {
+      assertTrue( (Long) rows.get( i - 1 )[0] <= (Long) rows.get( i )[0] );
+    }
+  }
+
+  @Test
+  public void testCustomCompareIsRespected() throws Exception {
+    List<Object[]> rows = sort( new AbsoluteValueMetaInteger( "key" ) );
+    assertNull( data.keyPrefix );
+    assertFalse( data.parallelSort );
+    for ( int i = 1; i < rows.size(); i++ ) {
+      assertTrue( Math.abs( (Long) rows.get( i - 1 )[0] ) <= Math.abs( (Long) rows.get( i )[0] ) );
+    }
+  }
+
+  /**
+   * Sort rows with a random key (positive and negative) and a row number.
+   */
+  private List<Object[]> sort( ValueMetaInterface keyMeta ) throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( keyMeta );
+    rowMeta.addValueMeta( new ValueMetaString( "nr" ) );
+
+    RowSet input = new QueueRowSet();
+    Random random = new Random( 42L );
+    for ( int i = 0; i < NR_ROWS; i++ ) {
+      input.putRow( rowMeta, new Object[] { (long) ( random.nextInt( 2001 ) - 1000 ), String.valueOf( i ) } );
+    }
+    input.setDone();
+    RowSet output = new QueueRowSet();
+    step.setInputRowSets( new ArrayList<RowSet>( Collections.singletonList( input ) ) );
+    step.setOutputRowSets( new ArrayList<RowSet>( Collections.singletonList( output ) ) );
+
+    int iterations = 0;
+    while ( step.processRow( meta, data ) ) {
+      assertTrue( "the step doesn't end", iterations++ <= NR_ROWS );
+    }
+
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for ( Object[] row = output.getRow(); row != null; row = output.getRow() ) {
+      rows.add( row );
+    }
+    assertEquals( NR_ROWS, rows.size() );
+    return rows;
+  }
+
+  /**
+   * Sorts integers on their absolute value, like a value meta plugin with its own order would.
+   */
+  private static class AbsoluteValueMetaInteger extends ValueMetaInteger {
+    AbsoluteValueMetaInteger( String name ) {
+      super( name );
+    }
+
+    @Override
+    public int compare( Object data1, Object data2 ) throws KettleValueException {
+      if ( isNull( data1 ) || isNull( data2 ) ) {
+        return super.compare( data1, data2 );
+      }
+      int cmp = Long.compare( Math.abs( getInteger( data1 ) ), Math.abs( getInteger( data2 ) ) );
+      return isSortedDescending() ? -cmp : cmp;
+    }
+  }
+}
@@ -35,6 +35,7 @@ import junit.framework.Assert;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.QueueRowSet;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
@@ -165,8 +166,14 @@ public class StreamLookupTest {
   }
 
   private void doTest( boolean memoryPreservationActive, boolean binaryLookupStream, boolean binaryDataStream ) throws KettleException {
+    doTest( memoryPreservationActive, binaryLookupStream, binaryDataStream, false );
+  }
+
+  private void doTest( boolean memoryPreservationActive, boolean binaryLookupStream, boolean binaryDataStream,
+    boolean compactIndex ) throws KettleException {
     StreamLookup step = new StreamLookup( smh.stepMeta, smh.stepDataInterface, 0, smh.transMeta, smh.trans );
     step.init( smh.initStepMetaInterface, smh.initStepDataInterface );
+    step.setVariable( Const.KETTLE_STREAM_LOOKUP_COMPACT_INDEX, compactIndex ? "Y" : "N" );
     step.addRowSetToInputRowSets( mockLookupRowSet( binaryLookupStream ) );
     step.addRowSetToInputRowSets( mockDataRowSet( binaryDataStream ) );
     step.addRowSetToOutputRowSets( new QueueRowSet() );
@@ -197,6 +204,7 @@ public class StreamLookupTest {
     }
 
     Assert.assertEquals( "Incorrect output row number", 2, rowNumber );
+    Assert.assertEquals( compactIndex, data.compactIndex != null );
   }
 
   @Test
@@ -238,4 +246,24 @@ public class StreamLookupTest {
   public void testMemoryPreservationWithBinaryStreams() throws KettleException {
     doTest( true, false, true );
   }
+
+  @Test
+  public void testCompactIndexWithNormalStreams() throws KettleException {
+    doTest( false, false, false, true );
+  }
+
+  @Test
+  public void testCompactIndexWithBinaryLookupStream() throws KettleException {
+    doTest( false, true, false, true );
+  }
+
+  @Test
+  public void testCompactIndexWithBinaryDataStream() throws KettleException {
+    doTest( false, false, true, true );
+  }
+
+  @Test
+  public void testCompactIndexWithMemoryPreservation() throws KettleException {
+    doTest( true, true, true, true );
+  }
 }
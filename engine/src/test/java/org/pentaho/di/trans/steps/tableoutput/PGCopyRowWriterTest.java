@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.tableoutput;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+public class PGCopyRowWriterTest {
+
+  private static RowMetaInterface createRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "number" ) );
+    rowMeta.addValueMeta( new ValueMetaBigNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "flag" ) );
+    rowMeta.addValueMeta( new ValueMetaBinary( "data" ) );
+    return rowMeta;
+  }
+
+  @Test
+  public void testEncodeRow() throws Exception {
+    PGCopyRowWriter writer = new PGCopyRowWriter( createRowMeta(), StandardCharsets.UTF_8, null );
+
+    assertEquals( "1\ta\\tb\\\\c\\nd\\re\t1.5\t123.45\tt\t\\\\x00ff10\n", writer.encodeRow( new Object[] {
+      1L, "a\tb\\c\nd\re", 1.5, new BigDecimal( "123.45" ), true, new byte[] { 0, -1, 16 } } ) );
+    assertEquals( "\\N\t\\N\t\\N\t\\N\t\\N\t\\N\n", writer.encodeRow( new Object[6] ) );
+  }
+
+  @Test
+  public void testEncodeDates() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaDate( "date" ) );
+    rowMeta.addValueMeta( new ValueMetaTimestamp( "timestamp" ) );
+    PGCopyRowWriter writer = new PGCopyRowWriter( rowMeta, StandardCharsets.UTF_8, null );
+
+    Date date = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss.SSS" ).parse( "2019-03-04 05:06:07.080" );
+    Timestamp timestamp = new Timestamp( date.getTime() );
+    timestamp.setNanos( 80000009 );
+    String zone = new SimpleDateFormat( "Z" ).format( date );
+
+    assertEquals( "2019-03-04 05:06:07.080000000" + zone + "\t2019-03-04 05:06:07.080000009" + zone + "\n",
+      writer.encodeRow( new Object[] { date, timestamp } ) );
+  }
+
+  @Test
+  public void testGetCopyCommand() {
+    DatabaseMeta databaseMeta = mock( DatabaseMeta.class );
+    when( databaseMeta.getQuotedSchemaTableCombination( "schema", "table" ) ).thenReturn( "schema.table" );
+    when( databaseMeta.quoteField( anyString() ) ).thenAnswer( invocation -> "\"" + invocation.getArguments()[0]
+      + "\"" );
+
+    assertEquals( "COPY schema.table (\"id\", \"name\", \"number\", \"amount\", \"flag\", \"data\") FROM STDIN",
+      PGCopyRowWriter.getCopyCommand( databaseMeta, "schema", "table", createRowMeta() ) );
+  }
+}
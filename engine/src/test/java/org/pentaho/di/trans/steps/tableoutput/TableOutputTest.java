@@ -24,22 +24,31 @@ package org.pentaho.di.trans.steps.tableoutput;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepPartitioningMeta;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
@@ -204,4 +213,76 @@ public class TableOutputTest {
     KettleException ke = new KettleException( unsupportedTableOutputMessage );
     verify( tableOutputSpy, times( 1 ) ).logError( "An error occurred intialising this step: " + ke.getMessage() );
   }
+
+  @Test
+  public void testWriteToTableWithMultiRowInserts() throws Exception {
+    TableOutputData data = new TableOutputData();
+    data.db = db;
+    data.tableName = "sas";
+    data.commitSize = 3;
+    data.bulkInsertRows = 2;
+    data.maxBulkInsertParameters = 100;
+    data.insertRowMeta = new RowMeta();
+    data.insertRowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    data.outputRowMeta = data.insertRowMeta;
+    tableOutputSpy.setData( data );
+    doNothing().when( tableOutputSpy ).putRow( any( RowMetaInterface.class ), any( Object[].class ) );
+
+    PreparedStatement fullStatement = mock( PreparedStatement.class );
+    PreparedStatement restStatement = mock( PreparedStatement.class );
+    doReturn( "full" ).when( db ).getInsertStatement( any( String.class ), eq( "sas" ), eq( data.insertRowMeta ),
+      eq( 2 ) );
+    doReturn( "rest" ).when( db ).getInsertStatement( any( String.class ), eq( "sas" ), eq( data.insertRowMeta ),
+      eq( 1 ) );
+    doReturn( fullStatement ).when( db ).prepareSQL( "full" );
+    doReturn( restStatement ).when( db ).prepareSQL( "rest" );
+
+    assertNull( tableOutputSpy.writeToTable( data.insertRowMeta, new Object[] { 1L } ) );
+    verify( db, never() ).insertRow( any( PreparedStatement.class ), anyBoolean(), anyBoolean() );
+
+    tableOutputSpy.writeToTable( data.insertRowMeta, new Object[] { 2L } );
+    verify( db ).setValue( fullStatement, data.insertRowMeta.getValueMeta( 0 ), 1L, 1 );
+    verify( db ).setValue( fullStatement, data.insertRowMeta.getValueMeta( 0 ), 2L, 2 );
+    verify( db ).insertRow( fullStatement, false, false );
+    verify( tableOutputSpy, never() ).putRow( any( RowMetaInterface.class ), any( Object[].class ) );
+
+    // The commit sends the rest of the rows and passes all of them on
+    tableOutputSpy.writeToTable( data.insertRowMeta, new Object[] { 3L } );
+    verify( db ).setValue( restStatement, data.insertRowMeta.getValueMeta( 0 ), 3L, 1 );
+    verify( db ).insertRow( restStatement, false, false );
+    verify( db ).closePreparedStatement( restStatement );
+    verify( db ).commit();
+    verify( tableOutputSpy, times( 3 ) ).putRow( any( RowMetaInterface.class ), any( Object[].class ) );
+    assertTrue( data.batchBuffer.isEmpty() );
+  }
+
+  @Test
+  public void testNoMultiRowInsertsWithoutCommitSize() throws Exception {
+    DatabaseInterface dbInterface = mock( DatabaseInterface.class );
+    doReturn( 1000 ).when( dbInterface ).getMaxMultiRowInsertParameters();
+    tableOutputSpy.setVariable( Const.KETTLE_TABLE_OUTPUT_BULK_ROWS, "100" );
+    tableOutputSpy.setLogLevel( LogLevel.MINIMAL );
+
+    TableOutputData data = new TableOutputData();
+    tableOutputSpy.setData( data );
+    data.commitSize = 500;
+    tableOutputSpy.initBulkMode( dbInterface );
+    assertEquals( 100, data.bulkInsertRows );
+
+    // A commit size of 0 means a single commit at the end
+    data.bulkInsertRows = 0;
+    data.commitSize = Integer.MAX_VALUE;
+    tableOutputSpy.initBulkMode( dbInterface );
+    assertEquals( 0, data.bulkInsertRows );
+  }
+
+  @Test
+  public void testNoWriterPoolWithoutCommitSize() throws Exception {
+    tableOutputSpy.setVariable( Const.KETTLE_TABLE_OUTPUT_WRITERS, "4" );
+    TableOutputData data = new TableOutputData();
+    tableOutputSpy.setData( data );
+    data.commitSize = Integer.MAX_VALUE;
+    tableOutputSpy.initWriterPool();
+    assertNull( data.writerPool );
+  }
 }
@@ -0,0 +1,173 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.tableoutput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+public class TableOutputWriterPoolTest {
+
+  private TableOutput step;
+  private StepMeta stepMeta;
+  private TableOutputData data;
+  private List<Database> databases;
+  private Object[][] rows;
+
+  @Before
+  public void setUp() throws Exception {
+    step = mock( TableOutput.class );
+    stepMeta = mock( StepMeta.class );
+    TransMeta transMeta = mock( TransMeta.class );
+    doReturn( 10 ).when( transMeta ).getSizeRowset();
+    doReturn( transMeta ).when( step ).getTransMeta();
+    doReturn( stepMeta ).when( step ).getStepMeta();
+    doReturn( "step" ).when( step ).getStepname();
+
+    data = new TableOutputData();
+    data.commitSize = 2;
+    data.insertRowMeta = new RowMeta();
+    data.insertRowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    data.outputRowMeta = data.insertRowMeta;
+
+    databases = new ArrayList<>();
+    rows = new Object[5][];
+    for ( int i = 0; i < rows.length; i++ ) {
+      rows[i] = new Object[] { (long) i };
+    }
+  }
+
+  private TableOutputWriterPool createPool( int nrWriters ) {
+    return new TableOutputWriterPool( step, mock( TableOutputMeta.class ), data, nrWriters ) {
+      @Override
+      Database createDatabase() {
+        Database db = mock( Database.class );
+        doReturn( "sql" ).when( db ).getInsertStatement( anyString(), anyString(), any( RowMetaInterface.class ) );
+        try {
+          doReturn( mock( PreparedStatement.class ) ).when( db ).prepareSQL( "sql" );
+        } catch ( KettleDatabaseException e ) {
+          throw new RuntimeException( e );
+        }
+        databases.add( db );
+        return db;
+      }
+    };
+  }
+
+  private void writeRows( TableOutputWriterPool pool ) throws KettleException {
+    for ( Object[] row : rows ) {
+      pool.write( "table", row, row );
+    }
+  }
+
+  @Test
+  public void testAllRowsAreCommittedAndPassedOn() throws Exception {
+    TableOutputWriterPool pool = createPool( 2 );
+    pool.start();
+    writeRows( pool );
+    pool.finish();
+
+    for ( Object[] row : rows ) {
+      verify( step ).putRow( data.outputRowMeta, row );
+    }
+    verify( step, times( rows.length ) ).incrementLinesOutput();
+    assertEquals( 2, databases.size() );
+    for ( Database db : databases ) {
+      verify( db ).connect( any() );
+      verify( db, atLeastOnce() ).commit();
+      verify( db, never() ).rollback();
+      verify( db ).disconnect();
+    }
+  }
+
+  @Test
+  public void testFailureRollsBackUncommittedRows() throws Exception {
+    TableOutputWriterPool pool = createPool( 1 );
+    Database db = databases.get( 0 );
+    doThrow( new KettleDatabaseException( "duplicate key" ) ).when( db )
+      .setValues( any( RowMetaInterface.class ), eq( rows[3] ), any( PreparedStatement.class ) );
+    pool.start();
+    try {
+      writeRows( pool );
+      pool.finish();
+      fail( "The failing row should fail the writers" );
+    } catch ( KettleException e ) {
+      // expected
+    }
+    // rows 0 and 1 are committed, row 2 is rolled back
+    verify( db, times( 1 ) ).commit();
+    verify( db ).rollback();
+    verify( db ).disconnect();
+    verify( step, never() ).putRow( data.outputRowMeta, rows[2] );
+  }
+
+  @Test
+  public void testFailingRowsGoToErrorHandling() throws Exception {
+    doReturn( true ).when( stepMeta ).isDoingErrorHandling();
+    TableOutputWriterPool pool = createPool( 2 );
+    for ( Database db : databases ) {
+      doThrow( new KettleDatabaseException( "duplicate key" ) ).when( db )
+        .setValues( any( RowMetaInterface.class ), eq( rows[3] ), any( PreparedStatement.class ) );
+    }
+    pool.start();
+    writeRows( pool );
+    pool.finish();
+
+    verify( step ).putError( eq( data.outputRowMeta ), eq( rows[3] ), eq( 1L ), anyString(), eq( null ),
+      eq( "TOP001" ) );
+    verify( step, times( rows.length - 1 ) ).putRow( any( RowMetaInterface.class ), any( Object[].class ) );
+    verify( step, times( 1 ) ).putError( any( RowMetaInterface.class ), any( Object[].class ), anyLong(),
+      anyString(), any(), anyString() );
+    for ( Database db : databases ) {
+      verify( db, never() ).rollback();
+      verify( db, never() ).insertRow( any( PreparedStatement.class ), anyBoolean(), eq( true ) );
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.transexecutor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.junit.rules.RestorePDIEngineEnvironment;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.steps.StepMockUtil;
+import org.pentaho.di.trans.steps.detectlastrow.DetectLastRowMeta;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.di.trans.steps.rowgenerator.RowGeneratorMeta;
+import org.pentaho.di.trans.steps.rowsfromresult.RowsFromResultMeta;
+import org.pentaho.di.trans.steps.rowstoresult.RowsToResultMeta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class TransExecutorPoolTest {
+  @ClassRule public static RestorePDIEngineEnvironment env = new RestorePDIEngineEnvironment();
+
+  @BeforeClass
+  public static void initKettle() throws Exception {
+    KettleEnvironment.init();
+  }
+
+  private TransExecutor executor;
+  private List<Result> results;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = spy( StepMockUtil.getStep( TransExecutor.class, TransExecutorMeta.class, "TransExecutorPoolTest" ) );
+    doReturn( LogLevel.MINIMAL ).when( executor ).getLogLevel();
+    doNothing().when( executor ).passParametersToTrans( any( Trans.class ), anyListOf( String.class ) );
+
+    results = new ArrayList<>();
+    doAnswer( new Answer<Void>() {
+      @Override
+      public Void answer( InvocationOnMock invocation ) {
+        results.add( (Result) invocation.getArguments()[0] );
+        return null;
+      }
+    } ).when( executor ).collectResults( any( Result.class ), anyLong() );
+  }
+
+  @Test
+  public void supportsTransformationsReadingResultRows() {
+    TransMeta transMeta = createTransMeta( new DummyTransMeta() );
+    assertTrue( TransExecutorPool.isSupported( transMeta, new String[] { "" } ) );
+    assertFalse( "Parameters taken from fields", TransExecutorPool.isSupported( transMeta, new String[] { "id" } ) );
+
+    assertFalse( "Not supported in the single threaded engine",
+      TransExecutorPool.isSupported( createTransMeta( new DetectLastRowMeta() ), null ) );
+
+    transMeta.addStep( new StepMeta( "Generate rows", new RowGeneratorMeta() ) );
+    assertFalse( "Reading rows without input", TransExecutorPool.isSupported( transMeta, null ) );
+  }
+
+  @Test
+  public void passesResultsInTheOrderOfTheGroups() throws Exception {
+    TransExecutorPool pool = new TransExecutorPool( executor, new TransExecutorMeta(),
+      createTransMeta( new DummyTransMeta() ), 3, true );
+    pool.start();
+    try {
+      for ( long i = 0; i < 20; i++ ) {
+        pool.execute( createGroup( i, i + 100 ) );
+      }
+      pool.finish();
+    } finally {
+      pool.dispose();
+    }
+
+    assertEquals( 20, results.size() );
+    for ( int i = 0; i < 20; i++ ) {
+      Result result = results.get( i );
+      assertTrue( result.getResult() );
+      assertEquals( 2, result.getRows().size() );
+      assertEquals( Long.valueOf( i ), result.getRows().get( 0 ).getData()[0] );
+      assertEquals( Long.valueOf( i + 100 ), result.getRows().get( 1 ).getData()[0] );
+    }
+    verify( executor, atMost( 3 ) ).createInternalTrans( any( TransMeta.class ) );
+  }
+
+  @Test
+  public void passesAllResultsWithoutOrder() throws Exception {
+    TransExecutorPool pool = new TransExecutorPool( executor, new TransExecutorMeta(),
+      createTransMeta( new DummyTransMeta() ), 2, false );
+    pool.start();
+    try {
+      for ( long i = 0; i < 10; i++ ) {
+        pool.execute( createGroup( i ) );
+      }
+      pool.finish();
+    } finally {
+      pool.dispose();
+    }
+
+    Set<Object> values = new HashSet<>();
+    for ( Result result : results ) {
+      assertEquals( 1, result.getRows().size() );
+      values.add( result.getRows().get( 0 ).getData()[0] );
+    }
+    assertEquals( 10, values.size() );
+  }
+
+  @Test
+  @SuppressWarnings( "unchecked" )
+  public void disposeEndsTheWorkerThreads() throws Exception {
+    TransExecutorPool pool = new TransExecutorPool( executor, new TransExecutorMeta(),
+      createTransMeta( new DummyTransMeta() ), 2, true );
+    pool.start();
+    List<Thread> threads = (List<Thread>) Whitebox.getInternalState( pool, "threads" );
+    try {
+      pool.execute( createGroup( 1L ) );
+      for ( Thread thread : threads ) {
+        assertFalse( thread.isDaemon() );
+      }
+    } finally {
+      pool.dispose();
+    }
+    for ( Thread thread : threads ) {
+      assertFalse( thread.isAlive() );
+    }
+  }
+
+  /**
+   * Get rows from result -> the given step -> Copy rows to result
+   */
+  private static TransMeta createTransMeta( StepMetaInterface middle ) {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName( "sub" );
+    RowsFromResultMeta rowsFromResultMeta = new RowsFromResultMeta();
+    rowsFromResultMeta.setDefault();
+    StepMeta input = new StepMeta( "Get rows", rowsFromResultMeta );
+    StepMeta step = new StepMeta( "Step", middle );
+    StepMeta output = new StepMeta( "Copy rows", new RowsToResultMeta() );
+    transMeta.addStep( input );
+    transMeta.addStep( step );
+    transMeta.addStep( output );
+    transMeta.addTransHop( new TransHopMeta( input, step ) );
+    transMeta.addTransHop( new TransHopMeta( step, output ) );
+    return transMeta;
+  }
+
+  private static List<RowMetaAndData> createGroup( Long... ids ) {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    List<RowMetaAndData> rows = new ArrayList<>();
+    for ( Long id : ids ) {
+      rows.add( new RowMetaAndData( rowMeta, id ) );
+    }
+    return rows;
+  }
+}
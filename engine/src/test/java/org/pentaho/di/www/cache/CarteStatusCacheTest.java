@@ -27,6 +27,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.pentaho.di.cluster.HttpUtil;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannel;
+
 import java.io.File;
 import java.nio.file.Path;
 import java.util.Map;
@@ -90,6 +94,61 @@ public class CarteStatusCacheTest {
   }
 
 
+  @Test
+  public void testLogSegmentsShareASizeBudget() throws Exception {
+    KettleLogStore.init();
+    LogChannel first = new LogChannel( "first" );
+    LogChannel second = new LogChannel( "second" );
+    first.logBasic( "a line of the first channel" );
+    second.logBasic( "a line of the second channel" );
+    int to = KettleLogStore.getLastBufferLineNr();
+
+    try {
+      String firstLog = cache.getLoggingString( first.getLogChannelId(), 0, to );
+      Assert.assertTrue( HttpUtil.decodeBase64ZippedString( firstLog ).contains( "a line of the first channel" ) );
+      Assert.assertTrue( cache.getLogSegmentsMap().containsKey( first.getLogChannelId() ) );
+
+      // Room for the log of one channel only
+      //
+      long maxSize = cache.getLogSegmentsSize() + 8;
+      cache.setMaxLogSegmentsSize( maxSize );
+
+      // The second channel takes the place of the first one, which is read less recently
+      //
+      String secondLog = cache.getLoggingString( second.getLogChannelId(), 0, to );
+      Assert.assertTrue( HttpUtil.decodeBase64ZippedString( secondLog ).contains( "a line of the second channel" ) );
+      Assert.assertFalse( cache.getLogSegmentsMap().containsKey( first.getLogChannelId() ) );
+      Assert.assertTrue( cache.getLogSegmentsMap().containsKey( second.getLogChannelId() ) );
+      Assert.assertTrue( cache.getLogSegmentsSize() <= maxSize );
+
+      cache.remove( second.getLogChannelId() );
+      Assert.assertEquals( 0, cache.getLogSegmentsSize() );
+    } finally {
+      cache.setMaxLogSegmentsSize( CarteStatusCache.MAX_LOG_SEGMENTS_SIZE );
+      cache.remove( first.getLogChannelId() );
+      cache.remove( second.getLogChannelId() );
+    }
+  }
+
+  @Test
+  public void testFirstRequestInTheMiddleOfTheLogIsCached() throws Exception {
+    KettleLogStore.init();
+    LogChannel channel = new LogChannel( "middle" );
+    channel.logBasic( "before" );
+    int from = KettleLogStore.getLastBufferLineNr();
+    channel.logBasic( "after" );
+    int to = KettleLogStore.getLastBufferLineNr();
+
+    try {
+      String log = HttpUtil.decodeBase64ZippedString( cache.getLoggingString( channel.getLogChannelId(), from, to ) );
+      Assert.assertTrue( log.contains( "after" ) );
+      Assert.assertFalse( log.contains( "before" ) );
+      Assert.assertTrue( cache.getLogSegmentsSize() > 0 );
+    } finally {
+      cache.remove( channel.getLogChannelId() );
+    }
+  }
+
   void initializeTestData( Map<String, CachedItem> map ) {
     map.clear();
     for ( int i = 0; i < 40; i++ ) {
@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2019 by Hitachi Vantara : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pentaho.di.cluster.HttpUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LogSegmentsTest {
+
+  /** Line i is logged by the channel if it's even */
+  private final List<String> lines = new ArrayList<>();
+  private final AtomicInteger textCalls = new AtomicInteger();
+
+  private String getLogText( int from, int to ) {
+    textCalls.incrementAndGet();
+    StringBuilder text = new StringBuilder();
+    for ( int i = from + 1; i <= to && i <= lines.size(); i++ ) {
+      if ( i % 2 == 0 ) {
+        text.append( lines.get( i - 1 ) ).append( '\n' );
+      }
+    }
+    return text.toString();
+  }
+
+  private void log( int nrLines ) {
+    for ( int i = 0; i < nrLines; i++ ) {
+      lines.add( "line " + ( lines.size() + 1 ) );
+    }
+  }
+
+  @Test
+  public void testIncrementalLog() throws Exception {
+    LogSegments segments = new LogSegments( this::getLogText );
+
+    log( 10 );
+    Assert.assertEquals( getLogText( 0, 10 ), HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 0, 10 ) ) );
+
+    log( 10 );
+    textCalls.set( 0 );
+    String full = HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 0, 20 ) );
+    Assert.assertEquals( 1, textCalls.get() );
+    Assert.assertEquals( getLogText( 0, 20 ), full );
+
+    // A client which got the first 10 lines only gets the new ones, nothing is compressed again
+    String expected = getLogText( 10, 20 );
+    textCalls.set( 0 );
+    Assert.assertEquals( expected, HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 10, 20 ) ) );
+    Assert.assertEquals( 0, textCalls.get() );
+    Assert.assertEquals( "", HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 20, 20 ) ) );
+
+    // Line 21 isn't logged by the channel: the cursors 20 and 21 get the same lines
+    log( 1 );
+    Assert.assertEquals( "", HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 20, 21 ) ) );
+    log( 4 );
+    Assert.assertEquals( getLogText( 21, 25 ),
+      HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 21, 25 ) ) );
+    Assert.assertEquals( getLogText( 20, 25 ),
+      HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 20, 25 ) ) );
+  }
+
+  @Test
+  public void testUnknownCursor() throws Exception {
+    LogSegments segments = new LogSegments( this::getLogText );
+    log( 20 );
+    Assert.assertNotNull( segments.getLoggingString( 0, 10 ) );
+    Assert.assertNotNull( segments.getLoggingString( 0, 20 ) );
+
+    // Cursors inside a segment or an older end can't be served from the segments
+    Assert.assertNull( segments.getLoggingString( 5, 20 ) );
+    Assert.assertNull( segments.getLoggingString( 0, 15 ) );
+  }
+
+  @Test
+  public void testCursorBeyondTheCachedLog() throws Exception {
+    LogSegments segments = new LogSegments( this::getLogText );
+    log( 30 );
+
+    // The first request of a client that starts in the middle of the log
+    Assert.assertEquals( getLogText( 10, 20 ),
+      HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 10, 20 ) ) );
+    Assert.assertEquals( getLogText( 25, 30 ),
+      HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 25, 30 ) ) );
+
+    // The log up to the first cursor is cached as well
+    textCalls.set( 0 );
+    Assert.assertEquals( getLogText( 0, 30 ), HttpUtil.decodeBase64ZippedString( segments.getLoggingString( 0, 30 ) ) );
+    Assert.assertEquals( 1, textCalls.get() );
+  }
+
+  @Test
+  public void testSegmentsOverTheBudgetAreDropped() throws Exception {
+    final AtomicInteger reserved = new AtomicInteger();
+    LogSegments.SizeBudget budget = new LogSegments.SizeBudget() {
+      @Override
+      public boolean reserve( LogSegments logSegments, int bytes ) {
+        return reserved.addAndGet( bytes ) <= 100;
+      }
+
+      @Override
+      public void release( LogSegments logSegments ) {
+        reserved.set( -1 );
+      }
+    };
+    LogSegments segments = new LogSegments( this::getLogText, budget );
+    log( 10 );
+    Assert.assertNotNull( segments.getLoggingString( 0, 10 ) );
+    log( 1000 );
+    Assert.assertNull( segments.getLoggingString( 10, 1010 ) );
+    Assert.assertEquals( -1, reserved.get() );
+    Assert.assertNull( segments.getLoggingString( 0, 1010 ) );
+  }
+}
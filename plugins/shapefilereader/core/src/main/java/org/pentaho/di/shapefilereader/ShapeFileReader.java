@@ -146,7 +146,7 @@ public class ShapeFileReader extends BaseStep implements StepInterface
 						outputRow[outputIndex++] = dbfData[d];
 					}
 					
-					linesInput++;
+					incrementLinesInput();
 					
 					// Put it out to the rest of the world...
 					putRow(data.outputRowMeta, outputRow);
@@ -209,7 +209,7 @@ public class ShapeFileReader extends BaseStep implements StepInterface
 					{
 						outputRow[outputIndex++] = dbfData[d];
 					}					
-					linesInput++;
+					incrementLinesInput();
 					
 					// Put it out to the rest of the world...
 					putRow(data.outputRowMeta, outputRow);
@@ -273,7 +273,7 @@ public class ShapeFileReader extends BaseStep implements StepInterface
 					{
 						outputRow[outputIndex++] = dbfData[d];
 					}					
-					linesInput++;
+					incrementLinesInput();
 					
 					// Put it out to the rest of the world...
 					putRow(data.outputRowMeta, outputRow);
@@ -329,7 +329,7 @@ public class ShapeFileReader extends BaseStep implements StepInterface
 					outputRow[outputIndex++] = dbfData[d];
 				}					
 				
-				linesInput++;
+				incrementLinesInput();
 				
 				// Put it out to the rest of the world...
 				putRow(data.outputRowMeta, outputRow);
@@ -343,7 +343,7 @@ public class ShapeFileReader extends BaseStep implements StepInterface
 		// Next shape please!
 		data.shapeNr++;
 
-		if ((linesInput%Const.ROWS_UPDATE)==0) logBasic("linenr "+linesInput);
+		if ((getLinesInput()%Const.ROWS_UPDATE)==0) logBasic("linenr "+getLinesInput());
 
 		return retval;
 	}
@@ -410,7 +410,7 @@ public class ShapeFileReader extends BaseStep implements StepInterface
 		finally
 		{
 		    dispose(meta, data);
-			logBasic("Finished, processed "+linesInput+" rows, written "+linesWritten+" lines.");
+			logBasic("Finished, processed "+getLinesInput()+" rows, written "+getLinesWritten()+" lines.");
 			markStop();
 		}
 	}